@@ -32,41 +32,78 @@ import com.couchbase.client.dcp.state.PartitionState;
 import com.couchbase.client.dcp.transport.netty.ChannelFlowController;
 import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
 import com.couchbase.client.deps.io.netty.util.IllegalReferenceCountException;
+import com.couchbase.connect.kafka.dcp.AdaptiveFlowControl;
+import com.couchbase.connect.kafka.dcp.DcpCaptureWriter;
 import com.couchbase.connect.kafka.dcp.Event;
 import com.couchbase.connect.kafka.dcp.Message;
+import com.couchbase.connect.kafka.dcp.Messages;
+import com.couchbase.connect.kafka.dcp.Rollback;
+import com.couchbase.connect.kafka.dcp.SessionStateCheckpoint;
 import com.couchbase.connect.kafka.dcp.Snapshot;
+import com.couchbase.connect.kafka.dcp.SnapshotPool;
+import com.couchbase.connect.kafka.dcp.Wakeup;
 import com.couchbase.connect.kafka.util.Version;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import rx.Completable;
 import rx.CompletableSubscriber;
+import rx.Observable;
 import rx.Subscription;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 public class CouchbaseReader extends Thread {
   private static final Logger LOGGER = LoggerFactory.getLogger(CouchbaseReader.class);
 
+  /**
+   * Number of partitions whose failover logs are fetched and streams opened together.
+   */
+  private static final int STREAM_START_WAVE_SIZE = 32;
+
+  /**
+   * Maximum number of waves being started at the same time.
+   */
+  private static final int MAX_CONCURRENT_STREAM_START_WAVES = 8;
+
   private final Client client;
   private final Short[] partitions;
   private final Map<Short, Long> partitionToSavedSeqno;
   private final StreamFrom streamFrom;
   private final Map<Short, Snapshot> snapshots;
+  private final Map<Short, Long> partitionToNowSeqno = new ConcurrentHashMap<>();
+  private final BlockingQueue<Event> queue;
   private final BlockingQueue<Throwable> errorQueue;
+  private final SessionStateCheckpoint checkpoint;
+  private final long checkpointIntervalMillis;
+  private final Set<Short> partitionsRestoredFromCheckpoint = new HashSet<>();
+  private volatile ScheduledExecutorService checkpointExecutor;
 
   public CouchbaseReader(final String connectorName, List<String> clusterAddress, String bucket, String username, String password, long connectionTimeout,
                          final BlockingQueue<Event> queue, final BlockingQueue<Throwable> errorQueue, Short[] partitions,
                          final Map<Short, Long> partitionToSavedSeqno, final StreamFrom streamFrom,
                          final boolean useSnapshots, final boolean sslEnabled, final String sslKeystoreLocation,
                          final String sslKeystorePassword, final CompressionMode compressionMode,
-                         long persistencePollingIntervalMillis, int flowControlBufferBytes, NetworkResolution networkResolution) {
+                         long persistencePollingIntervalMillis, int flowControlBufferBytes, NetworkResolution networkResolution,
+                         final SessionStateCheckpoint checkpoint, long checkpointIntervalMillis,
+                         final SnapshotPool snapshotPool, final boolean keyOnly,
+                         final DcpCaptureWriter capture, final AdaptiveFlowControl adaptiveFlowControl) {
     this.snapshots = new ConcurrentHashMap<>(partitions.length);
     this.partitions = partitions;
     this.partitionToSavedSeqno = partitionToSavedSeqno;
+    this.checkpoint = checkpoint;
+    this.checkpointIntervalMillis = checkpointIntervalMillis;
     this.streamFrom = streamFrom;
+    this.queue = queue;
     this.errorQueue = errorQueue;
     client = Client.configure()
         .connectionNameGenerator(DefaultConnectionNameGenerator.forProduct("kafka-connector", Version.getVersion(), connectorName))
@@ -80,7 +117,7 @@ public class CouchbaseReader extends Thread {
         .compression(compressionMode)
         .mitigateRollbacks(persistencePollingIntervalMillis, TimeUnit.MILLISECONDS)
         .flowControl(flowControlBufferBytes)
-        .bufferAckWatermark(60)
+        .bufferAckWatermark(adaptiveFlowControl == null ? 60 : adaptiveFlowControl.ackWatermarkPercent())
         .sslEnabled(sslEnabled)
         .sslKeystoreFile(sslKeystoreLocation)
         .sslKeystorePassword(sslKeystorePassword)
@@ -89,8 +126,12 @@ public class CouchbaseReader extends Thread {
       @Override
       public void onEvent(ChannelFlowController flowController, ByteBuf event) {
         try {
+          if (capture != null) {
+            capture.write(event, true);
+          }
+
           if (useSnapshots && DcpSnapshotMarkerRequest.is(event)) {
-            Snapshot snapshot = new Snapshot(
+            Snapshot snapshot = snapshotPool.acquire(
                 DcpSnapshotMarkerRequest.partition(event),
                 DcpSnapshotMarkerRequest.startSeqno(event),
                 DcpSnapshotMarkerRequest.endSeqno(event)
@@ -98,6 +139,7 @@ public class CouchbaseReader extends Thread {
             Snapshot prev = snapshots.put(snapshot.partition(), snapshot);
             if (prev != null) {
               LOGGER.warn("Incomplete snapshot detected: {}", prev);
+              prev.release();
             }
           }
 
@@ -106,6 +148,7 @@ public class CouchbaseReader extends Thread {
             final long seqno = RollbackMessage.seqno(event);
 
             LOGGER.warn("Rolling back partition {} to seqno {}", partition, seqno);
+            queue.offer(new Rollback(partition, seqno));
 
             // Careful, we're in the Netty IO thread, so must not await completion.
             client.rollbackAndRestartStream(partition, seqno)
@@ -128,7 +171,7 @@ public class CouchbaseReader extends Thread {
 
         } catch (Throwable t) {
           LOGGER.error("Exception in control event handler", t);
-          errorQueue.offer(t);
+          fail(t);
         } finally {
           ackAndRelease(flowController, event);
         }
@@ -137,6 +180,10 @@ public class CouchbaseReader extends Thread {
     client.dataEventHandler(new DataEventHandler() {
       @Override
       public void onEvent(ChannelFlowController flowController, ByteBuf event) {
+        if (capture != null) {
+          capture.write(event, false);
+        }
+
         if (useSnapshots) {
           try {
             short partition = DcpMutationMessage.partition(event);
@@ -149,8 +196,8 @@ public class CouchbaseReader extends Thread {
               LOGGER.warn("Event with seqno {} for partition {} ignored, because current snapshot has higher seqno {}",
                   seqno, partition, snapshot.startSeqno());
             } else {
-              event.retain();
-              boolean completed = snapshot.add(event);
+              // The snapshot takes ownership of what it is given; the original is released below.
+              boolean completed = snapshot.add(keyOnly ? Messages.withoutValue(event) : event.retain());
               if (completed) {
                 Snapshot oldSnapshot = snapshots.remove(partition);
                 if (snapshot != oldSnapshot) {
@@ -161,17 +208,27 @@ public class CouchbaseReader extends Thread {
             }
           } catch (Throwable t) {
             LOGGER.error("Exception in data event handler", t);
-            errorQueue.offer(t);
+            fail(t);
           } finally {
+            // Acknowledged once buffered, not once published, or a snapshot larger than the
+            // flow control buffer would never complete. That's why rate limits can't be used here.
             ackAndRelease(flowController, event);
           }
         } else {
+          final int ackBytes = event.readableBytes();
+          ByteBuf message = event;
           try {
-            queue.put(new Message(event, flowController));
+            if (keyOnly) {
+              message = Messages.withoutValue(event);
+              event.release();
+            }
+            queue.put(new Message(message,
+                adaptiveFlowControl == null ? flowController : adaptiveFlowControl.wrap(flowController), ackBytes));
           } catch (Throwable t) {
             LOGGER.error("Unable to put DCP request into the queue", t);
-            ackAndRelease(flowController, event);
-            errorQueue.offer(t);
+            ack(flowController, ackBytes);
+            message.release();
+            fail(t);
           }
         }
       }
@@ -191,16 +248,16 @@ public class CouchbaseReader extends Thread {
       // Overlay any saved offsets (might have saved offsets for only some partitions).
       if (streamFrom.isSavedOffset()) {
         restoreSavedOffsets();
-
-        // As of DCP client version 0.12.0, Client.initializeState(BEGINNING, INFINITY)
-        // doesn't fetch the failover logs. Do it ourselves to avoid a spurious rollback :-/
-        initFailoverLogs();
       }
 
-      client.startStreaming(partitions).await();
+      startStreamingInWaves();
+
+      if (checkpoint != null) {
+        startCheckpointing();
+      }
 
     } catch (Throwable t) {
-      errorQueue.offer(t);
+      fail(t);
     }
   }
 
@@ -208,24 +265,121 @@ public class CouchbaseReader extends Thread {
     LOGGER.info("Resuming from saved offsets for {} of {} partitions",
         partitionToSavedSeqno.size(), partitions.length);
 
+    final Map<Short, PartitionState> checkpointed = readCheckpoint();
+
     for (Map.Entry<Short, Long> entry : partitionToSavedSeqno.entrySet()) {
       final short partition = entry.getKey();
       final long savedSeqno = entry.getValue();
       PartitionState ps = client.sessionState().get(partition);
-      ps.setStartSeqno(savedSeqno);
-      ps.setSnapshotStartSeqno(savedSeqno);
-      ps.setSnapshotEndSeqno(savedSeqno);
+      if (streamFrom.withoutSavedOffset() == StreamFrom.NOW) {
+        partitionToNowSeqno.put(partition, ps.getStartSeqno());
+      }
+
+      PartitionState resumed = SessionStateCheckpoint.resumeFrom(checkpointed.get(partition), savedSeqno);
+      if (resumed != null) {
+        ps.setFailoverLog(resumed.getFailoverLog());
+        ps.setStartSeqno(resumed.getStartSeqno());
+        ps.setSnapshotStartSeqno(resumed.getSnapshotStartSeqno());
+        ps.setSnapshotEndSeqno(resumed.getSnapshotEndSeqno());
+        partitionsRestoredFromCheckpoint.add(partition);
+      } else {
+        ps.setStartSeqno(savedSeqno);
+        ps.setSnapshotStartSeqno(savedSeqno);
+        ps.setSnapshotEndSeqno(savedSeqno);
+      }
       client.sessionState().set(partition, ps);
     }
+
+    if (checkpoint != null) {
+      LOGGER.info("Restored session state of {} of {} partitions from checkpoint {}",
+          partitionsRestoredFromCheckpoint.size(), partitionToSavedSeqno.size(), checkpoint.file());
+    }
   }
 
-  private void initFailoverLogs() {
-    client.failoverLogs(partitions).toBlocking().forEach(event -> {
-      short partition = DcpFailoverLogResponse.vbucket(event);
-      PartitionState ps = client.sessionState().get(partition);
-      ps.setFailoverLog(DcpFailoverLogResponse.entries(event));
-      client.sessionState().set(partition, ps);
+  private Map<Short, PartitionState> readCheckpoint() {
+    if (checkpoint == null) {
+      return Collections.emptyMap();
+    }
+    try {
+      return checkpoint.read();
+    } catch (Exception e) {
+      LOGGER.warn("Ignoring unreadable session state checkpoint {}", checkpoint.file(), e);
+      return Collections.emptyMap();
+    }
+  }
+
+  private void startCheckpointing() {
+    checkpointExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "couchbase-checkpoint-" + getName());
+      thread.setDaemon(true);
+      return thread;
     });
+    checkpointExecutor.scheduleWithFixedDelay(this::writeCheckpoint,
+        checkpointIntervalMillis, checkpointIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private void writeCheckpoint() {
+    try {
+      final Map<Short, PartitionState> partitionToState = new HashMap<>(partitions.length * 2);
+      for (Short partition : partitions) {
+        // A partition that can't be copied consistently is left out, and resumes without a checkpoint.
+        final PartitionState copy = SessionStateCheckpoint.consistentCopy(client.sessionState().get(partition));
+        if (copy != null) {
+          partitionToState.put(partition, copy);
+        }
+      }
+      checkpoint.write(partitionToState);
+    } catch (Exception e) {
+      LOGGER.warn("Failed to write session state checkpoint {}", checkpoint.file(), e);
+    }
+  }
+
+  /**
+   * Opens the streams one wave of partitions at a time, keeping a bounded number
+   * of waves in flight. A partition starts streaming as soon as its own wave is ready,
+   * instead of waiting for the failover logs of every partition in the task.
+   */
+  private void startStreamingInWaves() {
+    Observable.from(partitions)
+        .buffer(STREAM_START_WAVE_SIZE)
+        .flatMapCompletable(wave -> {
+          final Short[] wavePartitions = wave.toArray(new Short[0]);
+
+          // As of DCP client version 0.12.0, Client.initializeState(BEGINNING, INFINITY)
+          // doesn't fetch the failover logs. Do it ourselves to avoid a spurious rollback :-/
+          // Partitions restored from the checkpoint already have them.
+          final Short[] needFailoverLogs = streamFrom.isSavedOffset()
+              ? wave.stream().filter(p -> !partitionsRestoredFromCheckpoint.contains(p)).toArray(Short[]::new)
+              : new Short[0];
+
+          if (needFailoverLogs.length == 0) {
+            return client.startStreaming(wavePartitions);
+          }
+          return initFailoverLogs(needFailoverLogs)
+              .andThen(client.startStreaming(wavePartitions));
+        }, false, MAX_CONCURRENT_STREAM_START_WAVES)
+        .toCompletable()
+        .await();
+  }
+
+  private Completable initFailoverLogs(Short[] partitions) {
+    return client.failoverLogs(partitions)
+        .doOnNext(event -> {
+          short partition = DcpFailoverLogResponse.vbucket(event);
+          PartitionState ps = client.sessionState().get(partition);
+          ps.setFailoverLog(DcpFailoverLogResponse.entries(event));
+          client.sessionState().set(partition, ps);
+        })
+        .toCompletable();
+  }
+
+  /**
+   * Returns the seqno a partition with a saved offset would have streamed from without it,
+   * if {@code couchbase.stream_from} falls back to now; otherwise 0.
+   */
+  long nowSeqno(short partition) {
+    final Long seqno = partitionToNowSeqno.get(partition);
+    return seqno == null ? 0 : seqno;
   }
 
   long getVBucketUuid(int vBucketId) {
@@ -233,14 +387,34 @@ public class CouchbaseReader extends Thread {
   }
 
   public void shutdown() {
+    final ScheduledExecutorService executor = checkpointExecutor;
+    if (executor != null) {
+      executor.shutdownNow();
+    }
     client.disconnect().await();
   }
 
+  /**
+   * Hands the error to the task, waking the task thread if it's waiting for events.
+   */
+  private void fail(Throwable t) {
+    errorQueue.offer(t);
+    queue.offer(Wakeup.INSTANCE);
+  }
+
   private static void ackAndRelease(ChannelFlowController flowController, ByteBuf buffer) throws IllegalReferenceCountException {
     ack(flowController, buffer);
     buffer.release();
   }
 
+  private static void ack(ChannelFlowController flowController, int numBytes) {
+    try {
+      flowController.ack(numBytes);
+    } catch (Exception e) {
+      LOGGER.warn("Flow control ack failed (channel already closed?)", e);
+    }
+  }
+
   private static void ack(ChannelFlowController flowController, ByteBuf buffer) throws IllegalReferenceCountException {
     try {
       flowController.ack(buffer);
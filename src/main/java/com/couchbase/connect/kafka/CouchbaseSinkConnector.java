@@ -22,6 +22,7 @@ import org.apache.kafka.connect.connector.Task;
 import org.apache.kafka.connect.sink.SinkConnector;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -56,7 +57,9 @@ public class CouchbaseSinkConnector extends SinkConnector {
   public List<Map<String, String>> taskConfigs(int maxTasks) {
     List<Map<String, String>> taskConfigs = new ArrayList<>(maxTasks);
     for (int i = 0; i < maxTasks; i++) {
-      taskConfigs.add(configProperties);
+      Map<String, String> taskProps = new HashMap<>(configProperties);
+      taskProps.put(CouchbaseSinkTaskConfig.TASK_COUNT_CONFIG, Integer.toString(maxTasks));
+      taskConfigs.add(taskProps);
     }
     return taskConfigs;
   }
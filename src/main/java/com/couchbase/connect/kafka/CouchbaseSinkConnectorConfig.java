@@ -26,6 +26,7 @@ import com.couchbase.connect.kafka.util.config.BooleanParentRecommender;
 import com.couchbase.connect.kafka.util.config.DurationValidator;
 import com.couchbase.connect.kafka.util.config.EnumRecommender;
 import com.couchbase.connect.kafka.util.config.EnumValidator;
+import com.couchbase.connect.kafka.util.config.SizeValidator;
 import org.apache.kafka.common.config.AbstractConfig;
 import org.apache.kafka.common.config.ConfigDef;
 import org.apache.kafka.common.config.ConfigException;
@@ -75,6 +76,14 @@ import static com.couchbase.connect.kafka.CouchbaseSourceConnectorConfig.FORCE_I
 import static com.couchbase.connect.kafka.CouchbaseSourceConnectorConfig.FORCE_IPV4_DEFAULT;
 import static com.couchbase.connect.kafka.CouchbaseSourceConnectorConfig.FORCE_IPV4_DISPLAY;
 import static com.couchbase.connect.kafka.CouchbaseSourceConnectorConfig.FORCE_IPV4_DOC;
+import static com.couchbase.connect.kafka.CouchbaseSourceConnectorConfig.MAX_BYTES_PER_SECOND_CONFIG;
+import static com.couchbase.connect.kafka.CouchbaseSourceConnectorConfig.MAX_BYTES_PER_SECOND_DEFAULT;
+import static com.couchbase.connect.kafka.CouchbaseSourceConnectorConfig.MAX_BYTES_PER_SECOND_DISPLAY;
+import static com.couchbase.connect.kafka.CouchbaseSourceConnectorConfig.MAX_BYTES_PER_SECOND_DOC;
+import static com.couchbase.connect.kafka.CouchbaseSourceConnectorConfig.MAX_RECORDS_PER_SECOND_CONFIG;
+import static com.couchbase.connect.kafka.CouchbaseSourceConnectorConfig.MAX_RECORDS_PER_SECOND_DEFAULT;
+import static com.couchbase.connect.kafka.CouchbaseSourceConnectorConfig.MAX_RECORDS_PER_SECOND_DISPLAY;
+import static com.couchbase.connect.kafka.CouchbaseSourceConnectorConfig.MAX_RECORDS_PER_SECOND_DOC;
 import static com.couchbase.connect.kafka.CouchbaseSourceConnectorConfig.LOG_REDACTION_CONFIG;
 import static com.couchbase.connect.kafka.CouchbaseSourceConnectorConfig.LOG_REDACTION_DEFAULT;
 import static com.couchbase.connect.kafka.CouchbaseSourceConnectorConfig.LOG_REDACTION_DISPLAY;
@@ -156,7 +165,7 @@ public class CouchbaseSinkConnectorConfig extends AbstractConfig {
     super(config, props);
   }
 
-  private static ConfigDef baseConfigDef() {
+  public static ConfigDef baseConfigDef() {
     ConfigDef.Recommender sslDependentsRecommender =
         new BooleanParentRecommender(CONNECTION_SSL_ENABLED_CONFIG);
     return new ConfigDef()
@@ -392,6 +401,26 @@ public class CouchbaseSinkConnectorConfig extends AbstractConfig {
             CONNECTOR_GROUP, 22,
             ConfigDef.Width.LONG,
             EXPIRY_DISPLAY)
+
+        .define(MAX_RECORDS_PER_SECOND_CONFIG,
+            ConfigDef.Type.LONG,
+            MAX_RECORDS_PER_SECOND_DEFAULT,
+            ConfigDef.Range.atLeast(0),
+            ConfigDef.Importance.LOW,
+            MAX_RECORDS_PER_SECOND_DOC,
+            CONNECTOR_GROUP, 23,
+            ConfigDef.Width.SHORT,
+            MAX_RECORDS_PER_SECOND_DISPLAY)
+
+        .define(MAX_BYTES_PER_SECOND_CONFIG,
+            ConfigDef.Type.STRING,
+            MAX_BYTES_PER_SECOND_DEFAULT,
+            new SizeValidator(),
+            ConfigDef.Importance.LOW,
+            MAX_BYTES_PER_SECOND_DOC,
+            CONNECTOR_GROUP, 24,
+            ConfigDef.Width.SHORT,
+            MAX_BYTES_PER_SECOND_DISPLAY)
         ;
   }
 
@@ -25,24 +25,27 @@ import com.couchbase.client.java.CouchbaseCluster;
 import com.couchbase.client.java.PersistTo;
 import com.couchbase.client.java.ReplicateTo;
 import com.couchbase.client.java.document.Document;
-import com.couchbase.client.java.document.JsonDocument;
 import com.couchbase.client.java.env.CouchbaseEnvironment;
 import com.couchbase.client.java.env.DefaultCouchbaseEnvironment;
 import com.couchbase.client.java.error.DocumentDoesNotExistException;
 import com.couchbase.client.java.transcoder.Transcoder;
 import com.couchbase.client.java.util.retry.RetryBuilder;
+import com.couchbase.connect.kafka.sink.BucketStorage;
 import com.couchbase.connect.kafka.sink.DocumentMode;
 import com.couchbase.connect.kafka.sink.N1qlMode;
 import com.couchbase.connect.kafka.sink.N1qlWriter;
+import com.couchbase.connect.kafka.sink.SinkStorage;
 import com.couchbase.connect.kafka.sink.SubDocumentMode;
 import com.couchbase.connect.kafka.sink.SubDocumentWriter;
 import com.couchbase.connect.kafka.util.DocumentIdExtractor;
 import com.couchbase.connect.kafka.util.DocumentPathExtractor;
 import com.couchbase.connect.kafka.util.JsonBinaryDocument;
 import com.couchbase.connect.kafka.util.JsonBinaryTranscoder;
+import com.couchbase.connect.kafka.util.RateLimiter;
 import com.couchbase.connect.kafka.util.Version;
 import com.couchbase.connect.kafka.util.config.DurationParser;
 import com.couchbase.connect.kafka.util.config.Password;
+import com.couchbase.connect.kafka.util.config.SizeParser;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.config.ConfigException;
@@ -54,6 +57,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rx.Completable;
 import rx.Observable;
+import rx.functions.Func0;
 import rx.functions.Func1;
 
 import java.io.IOException;
@@ -106,6 +110,10 @@ public class CouchbaseSinkTask extends SinkTask {
 
   private long expiryOffsetSeconds;
 
+  private SinkStorage storage;
+  private Delay retryDelay = Delay.exponential(TimeUnit.SECONDS, 5);
+  private RateLimiter rateLimiter;
+
   @Override
   public String version() {
     return Version.getVersion();
@@ -117,18 +125,10 @@ public class CouchbaseSinkTask extends SinkTask {
 
   @Override
   public void start(Map<String, String> properties) {
-    try {
-      configProperties = properties;
-      config = new CouchbaseSinkTaskConfig(configProperties);
-    } catch (ConfigException e) {
-      throw new ConnectException("Couldn't start CouchbaseSinkTask due to configuration error", e);
-    }
+    init(properties);
 
     setForceIpv4(config.getBoolean(FORCE_IPV4_CONFIG));
 
-    RedactionLevel redactionLevel = config.getEnum(RedactionLevel.class, CouchbaseSourceConnectorConfig.LOG_REDACTION_CONFIG);
-    CouchbaseLoggerFactory.setRedactionLevel(redactionLevel);
-
     List<String> clusterAddress = config.getList(CouchbaseSourceConnectorConfig.CONNECTION_CLUSTER_ADDRESS_CONFIG);
     NetworkResolution networkResolution = parseNetworkResolution(config.getString(CouchbaseSourceConnectorConfig.COUCHBASE_NETWORK_CONFIG));
 
@@ -153,6 +153,22 @@ public class CouchbaseSinkTask extends SinkTask {
     List<Transcoder<? extends Document, ?>> transcoders =
         Collections.singletonList(new JsonBinaryTranscoder());
     bucket = cluster.openBucket(bucketName, transcoders);
+    storage = new BucketStorage(bucket.async());
+  }
+
+  /**
+   * Reads the configuration without connecting to Couchbase.
+   */
+  void init(Map<String, String> properties) {
+    try {
+      configProperties = properties;
+      config = new CouchbaseSinkTaskConfig(configProperties);
+    } catch (ConfigException e) {
+      throw new ConnectException("Couldn't start CouchbaseSinkTask due to configuration error", e);
+    }
+
+    RedactionLevel redactionLevel = config.getEnum(RedactionLevel.class, CouchbaseSourceConnectorConfig.LOG_REDACTION_CONFIG);
+    CouchbaseLoggerFactory.setRedactionLevel(redactionLevel);
 
     converter = new JsonConverter();
     converter.configure(Collections.singletonMap("schemas.enable", false), false);
@@ -166,6 +182,11 @@ public class CouchbaseSinkTask extends SinkTask {
     persistTo = config.getEnum(PersistTo.class, PERSIST_TO_CONFIG);
     replicateTo = config.getEnum(ReplicateTo.class, REPLICATE_TO_CONFIG);
 
+    rateLimiter = RateLimiter.forTask(
+        config.getLong(CouchbaseSourceConnectorConfig.MAX_RECORDS_PER_SECOND_CONFIG),
+        SizeParser.parseSizeBytes(config.getString(CouchbaseSourceConnectorConfig.MAX_BYTES_PER_SECOND_CONFIG)),
+        1.0 / config.getInt(CouchbaseSinkTaskConfig.TASK_COUNT_CONFIG));
+
     final String expiryDuration = config.getString(EXPIRY_CONFIG);
     expiryOffsetSeconds = expiryDuration.isEmpty() ? 0 : DurationParser.parseDuration(expiryDuration, SECONDS);
 
@@ -190,6 +211,21 @@ public class CouchbaseSinkTask extends SinkTask {
     }
   }
 
+  /**
+   * Starts the task without connecting to Couchbase; the task writes to the given storage instead.
+   * N1QL document mode needs a real bucket, so it isn't supported here.
+   *
+   * @param retryDelay how long to wait before each retry of a failed batch
+   */
+  void start(Map<String, String> properties, SinkStorage storage, Delay retryDelay) {
+    init(properties);
+    if (documentMode == DocumentMode.N1QL) {
+      throw new ConnectException("N1QL document mode requires a Couchbase bucket");
+    }
+    this.storage = storage;
+    this.retryDelay = retryDelay;
+  }
+
   @Override
   public void put(Collection<SinkRecord> records) {
     if (records.isEmpty()) {
@@ -206,48 +242,63 @@ public class CouchbaseSinkTask extends SinkTask {
           @Override
           public Completable call(SinkRecord record) {
             if (record.value() == null) {
-              String documentId = documentIdFromKafkaMetadata(record);
-              return removeIfExists(documentId);
+              final String documentId = documentIdFromKafkaMetadata(record);
+              return throttle(0, () -> removeIfExists(documentId));
             }
 
-            JsonBinaryDocument doc = convert(record);
-
-            switch (documentMode) {
-              case N1QL: {
-                return n1qlWriter.write(bucket.async(), doc, persistTo, replicateTo);
-              }
-              case SUBDOCUMENT: {
-                return subDocumentWriter.write(bucket.async(), doc, persistTo, replicateTo);
-              }
-              default: {
-                return bucket.async()
-                    .upsert(doc, persistTo, replicateTo)
-                    .toCompletable();
-              }
-            }
+            final JsonBinaryDocument doc = convert(record);
+            return throttle(doc.content() == null ? 0 : doc.content().readableBytes(), () -> write(doc));
           }
         })
         .retryWhen(
             // TODO: make it configurable
             RetryBuilder
                 .anyOf(RuntimeException.class)
-                .delay(Delay.exponential(TimeUnit.SECONDS, 5))
+                .delay(retryDelay)
                 .max(5)
                 .build())
 
         .toCompletable().await();
   }
 
+  private Completable write(JsonBinaryDocument doc) {
+    switch (documentMode) {
+      case N1QL: {
+        return n1qlWriter.write(bucket.async(), doc, persistTo, replicateTo);
+      }
+      case SUBDOCUMENT: {
+        return subDocumentWriter.write(storage, doc, persistTo, replicateTo);
+      }
+      default: {
+        return storage.upsert(doc, persistTo, replicateTo);
+      }
+    }
+  }
+
+  /**
+   * Delays the write as needed to stay within the rate limits.
+   * Retries of a failed batch are charged again.
+   */
+  private Completable throttle(long bytes, Func0<Completable> write) {
+    if (rateLimiter == null) {
+      return write.call();
+    }
+    final long delayNanos = rateLimiter.reserve(1, bytes);
+    return delayNanos == 0
+        ? write.call()
+        : Completable.timer(delayNanos, TimeUnit.NANOSECONDS).andThen(Completable.defer(write));
+  }
+
   private Completable removeIfExists(String documentId) {
-    return bucket.async().remove(documentId, persistTo, replicateTo)
-        .onErrorResumeNext(new Func1<Throwable, Observable<JsonDocument>>() {
+    return storage.remove(documentId, persistTo, replicateTo)
+        .onErrorResumeNext(new Func1<Throwable, Completable>() {
           @Override
-          public Observable<JsonDocument> call(Throwable throwable) {
+          public Completable call(Throwable throwable) {
             return (throwable instanceof DocumentDoesNotExistException)
-                ? Observable.empty()
-                : Observable.error(throwable);
+                ? Completable.complete()
+                : Completable.error(throwable);
           }
-        }).toCompletable();
+        });
   }
 
   private static String toString(ByteBuffer byteBuffer) {
@@ -318,6 +369,8 @@ public class CouchbaseSinkTask extends SinkTask {
 
   @Override
   public void stop() {
-    cluster.disconnect();
+    if (cluster != null) {
+      cluster.disconnect();
+    }
   }
 }
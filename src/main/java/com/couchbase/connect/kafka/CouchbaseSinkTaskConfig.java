@@ -16,11 +16,18 @@
 
 package com.couchbase.connect.kafka;
 
+import org.apache.kafka.common.config.ConfigDef;
+
 import java.util.Map;
 
 public class CouchbaseSinkTaskConfig extends CouchbaseSinkConnectorConfig {
+  public static final String TASK_COUNT_CONFIG = "task_count";
+  private static final String TASK_COUNT_DOC = "Number of tasks the connector started.";
+
+  private static ConfigDef config = baseConfigDef()
+      .define(TASK_COUNT_CONFIG, ConfigDef.Type.INT, 1, ConfigDef.Importance.LOW, TASK_COUNT_DOC);
 
   public CouchbaseSinkTaskConfig(Map<String, String> props) {
-    super(props);
+    super(config, props);
   }
 }
@@ -20,8 +20,10 @@ import com.couchbase.client.core.utils.NetworkAddress;
 import com.couchbase.connect.kafka.util.Cluster;
 import com.couchbase.connect.kafka.util.Config;
 import com.couchbase.connect.kafka.util.Version;
+import com.couchbase.connect.kafka.util.config.SizeParser;
 import org.apache.kafka.common.config.ConfigDef;
 import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.common.config.ConfigValue;
 import org.apache.kafka.connect.connector.Task;
 import org.apache.kafka.connect.errors.ConnectException;
 import org.apache.kafka.connect.source.SourceConnector;
@@ -79,12 +81,22 @@ public class CouchbaseSourceConnector extends SourceConnector {
 
   @Override
   public List<Map<String, String>> taskConfigs(int maxTasks) {
+    // Usually served from the cache populated by start(). If the cached config has expired,
+    // this picks up any topology change since then, falling back to the config fetched at startup.
+    // In that case the call blocks on the network for up to the connection timeout.
+    Config currentBucketConfig = Cluster.fetchBucketConfig(config);
+    if (currentBucketConfig != null) {
+      bucketConfig = currentBucketConfig;
+    }
+
     List<List<String>> partitionsGrouped = bucketConfig.groupGreedyToString(maxTasks);
     List<Map<String, String>> taskConfigs = new ArrayList<>(partitionsGrouped.size());
     for (List<String> taskPartitions : partitionsGrouped) {
       Map<String, String> taskProps = new HashMap<>(configProperties);
       taskProps.put(CouchbaseSourceTaskConfig.PARTITIONS_CONFIG,
           String.join(",", taskPartitions));
+      taskProps.put(CouchbaseSourceTaskConfig.PARTITION_COUNT_CONFIG,
+          Integer.toString(bucketConfig.numberOfPartitions()));
       taskConfigs.add(taskProps);
     }
     return taskConfigs;
@@ -99,4 +111,32 @@ public class CouchbaseSourceConnector extends SourceConnector {
   public ConfigDef config() {
     return CouchbaseSourceConnectorConfig.config;
   }
+
+  /**
+   * Adds the checks that involve more than one property, which the config definition can't express.
+   */
+  @Override
+  public org.apache.kafka.common.config.Config validate(Map<String, String> connectorConfigs) {
+    final org.apache.kafka.common.config.Config result = super.validate(connectorConfigs);
+    final Map<String, ConfigValue> values = new HashMap<>();
+    for (ConfigValue value : result.configValues()) {
+      values.put(value.name(), value);
+    }
+
+    final ConfigValue useSnapshots = values.get(CouchbaseSourceConnectorConfig.USE_SNAPSHOTS_CONFIG);
+    final ConfigValue maxRecords = values.get(CouchbaseSourceConnectorConfig.MAX_RECORDS_PER_SECOND_CONFIG);
+    final ConfigValue maxBytes = values.get(CouchbaseSourceConnectorConfig.MAX_BYTES_PER_SECOND_CONFIG);
+    if (isValid(useSnapshots) && isValid(maxRecords) && isValid(maxBytes)) {
+      final String conflict = CouchbaseSourceConnectorConfig.rateLimitConflict((Boolean) useSnapshots.value(),
+          (Long) maxRecords.value(), SizeParser.parseSizeBytes((String) maxBytes.value()));
+      if (conflict != null) {
+        useSnapshots.addErrorMessage(conflict);
+      }
+    }
+    return result;
+  }
+
+  private static boolean isValid(ConfigValue value) {
+    return value != null && value.value() != null && value.errorMessages().isEmpty();
+  }
 }
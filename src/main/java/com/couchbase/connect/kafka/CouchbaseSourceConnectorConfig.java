@@ -25,6 +25,7 @@ import com.couchbase.connect.kafka.util.config.DurationValidator;
 import com.couchbase.connect.kafka.util.config.EnumRecommender;
 import com.couchbase.connect.kafka.util.config.EnumValidator;
 import com.couchbase.connect.kafka.util.config.Password;
+import com.couchbase.connect.kafka.util.config.SizeParser;
 import com.couchbase.connect.kafka.util.config.SizeValidator;
 import org.apache.kafka.common.config.AbstractConfig;
 import org.apache.kafka.common.config.ConfigDef;
@@ -33,6 +34,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -150,6 +153,116 @@ public class CouchbaseSourceConnectorConfig extends AbstractConfig {
   static final String FLOW_CONTROL_BUFFER_DISPLAY = "Flow control buffer size";
   public static final String FLOW_CONTROL_BUFFER_DEFAULT = "128m";
 
+  public static final String SNAPSHOT_BUFFER_CONFIG = "couchbase.snapshot_buffer";
+  static final String SNAPSHOT_BUFFER_DOC = "When '" + USE_SNAPSHOTS_CONFIG + "' is true, the most heap space incomplete snapshots may occupy before the rest of a snapshot is spilled to disk. Specify '0' for no limit, or an integer followed by a size qualifier (example: 256m)";
+  static final String SNAPSHOT_BUFFER_DISPLAY = "Snapshot buffer size";
+  public static final String SNAPSHOT_BUFFER_DEFAULT = "256m";
+
+  public static final String SNAPSHOT_SPILL_DIR_CONFIG = "couchbase.snapshot_spill_dir";
+  static final String SNAPSHOT_SPILL_DIR_DOC = "Directory for the temporary files holding snapshots that exceed '" + SNAPSHOT_BUFFER_CONFIG + "'. Defaults to the system temporary directory.";
+  static final String SNAPSHOT_SPILL_DIR_DISPLAY = "Snapshot spill directory";
+  public static final String SNAPSHOT_SPILL_DIR_DEFAULT = "";
+
+  public static final String DCP_CONNECTIONS_PER_TASK_CONFIG = "couchbase.dcp_connections_per_task";
+  static final String DCP_CONNECTIONS_PER_TASK_DOC = "Number of independent DCP connections each task opens to every Couchbase node. The task's partitions are divided among the connections, and each connection has its own flow control buffer of size '" + FLOW_CONTROL_BUFFER_CONFIG + "'.";
+  static final String DCP_CONNECTIONS_PER_TASK_DISPLAY = "DCP connections per task";
+  public static final int DCP_CONNECTIONS_PER_TASK_DEFAULT = 1;
+
+  public static final String PIPELINES_CONFIG = "couchbase.pipelines";
+  static final String PIPELINES_DOC = "Names of the pipelines that share this connector's DCP stream. Each pipeline publishes every event through its own filter and message converter to its own topic, and keeps its own offsets."
+      + " Per-pipeline settings are given as '" + "couchbase.pipeline.<name>.<setting>' where <setting> is one of '" + TOPIC_NAME_CONFIG + "', '" + DCP_MESSAGE_CONVERTER_CLASS_CONFIG + "', '" + EVENT_FILTER_CLASS_CONFIG + "' or 'couchbase.topic_routes'; unset settings default to the connector-level values."
+      + " Leave empty to publish to a single unnamed pipeline configured by the connector-level settings.";
+  static final String PIPELINES_DISPLAY = "Pipelines";
+  public static final String PIPELINES_DEFAULT = "";
+
+  /**
+   * Prefix of the per-pipeline settings, followed by the pipeline name, a dot, and a connector-level setting name.
+   */
+  public static final String PIPELINE_PREFIX = "couchbase.pipeline.";
+
+  public static final String KEY_ONLY_CONFIG = "couchbase.key_only";
+  static final String KEY_ONLY_DOC = "If true, document content is discarded as soon as it arrives, and only document keys and metadata are buffered and passed to the message converter. Use with KeyOnlySourceHandler.";
+  static final String KEY_ONLY_DISPLAY = "Key-only mode";
+  public static final boolean KEY_ONLY_DEFAULT = false;
+
+  public static final String TOPIC_ROUTES_CONFIG = "couchbase.topic_routes";
+  static final String TOPIC_ROUTES_DOC = "Rules that route documents to topics other than '" + TOPIC_NAME_CONFIG + "'."
+      + " A rule 'key:<prefix>=<topic>' routes documents whose key starts with the prefix; the longest matching prefix wins."
+      + " A rule 'field:<JSON pointer>=<topic template>' routes documents by the value of a field, substituted for '${value}' in the template."
+      + " Key rules are tried first, then field rules in the order given. Documents that match no rule go to the default topic.";
+  static final String TOPIC_ROUTES_DISPLAY = "Topic routes";
+  public static final String TOPIC_ROUTES_DEFAULT = "";
+
+  public static final String KAFKA_PARTITIONING_CONFIG = "couchbase.kafka_partitioning";
+  static final String KAFKA_PARTITIONING_DOC = "How records are assigned to Kafka partitions. KEY = the producer hashes the record key;"
+      + " VBUCKET_MODULO = vBucket ID modulo the number of Kafka partitions; VBUCKET_RANGE = contiguous ranges of vBuckets per Kafka partition."
+      + " The vBucket modes keep each vBucket's changes in seqno order within one Kafka partition."
+      + " A partition chosen by the message converter takes precedence.";
+  static final String KAFKA_PARTITIONING_DISPLAY = "Kafka partitioning";
+  public static final String KAFKA_PARTITIONING_DEFAULT = KafkaPartitioning.KEY.name();
+
+  public static final String KAFKA_PARTITIONS_CONFIG = "couchbase.kafka_partitions";
+  static final String KAFKA_PARTITIONS_DOC = "Number of partitions of the Kafka topics, used by the vBucket partitioning modes."
+      + " Zero means the same as the number of vBuckets in the bucket, so each vBucket has its own Kafka partition.";
+  static final String KAFKA_PARTITIONS_DISPLAY = "Kafka partitions";
+  public static final int KAFKA_PARTITIONS_DEFAULT = 0;
+
+  public static final String COMPACTION_WINDOW_CONFIG = "couchbase.compaction_window";
+  static final String COMPACTION_WINDOW_DOC = "If non-zero, the task collects changes for this long (or until '" + BATCH_SIZE_MAX_CONFIG + "' changes arrive) and publishes only the latest change to each document in the window."
+      + " Specify `0` to publish every change, or an integer followed by a time qualifier (example: 500ms)";
+  static final String COMPACTION_WINDOW_DISPLAY = "Compaction window";
+  public static final String COMPACTION_WINDOW_DEFAULT = "0";
+
+  public static final String CHECKPOINT_DIR_CONFIG = "couchbase.checkpoint_dir";
+  static final String CHECKPOINT_DIR_DOC = "Local directory where each task periodically saves its DCP session state (vBucket UUIDs, snapshot markers and failover logs), so a restarted task can resume without refetching failover logs and with fewer rollbacks. Leave empty to disable checkpointing.";
+  static final String CHECKPOINT_DIR_DISPLAY = "Session state checkpoint directory";
+  public static final String CHECKPOINT_DIR_DEFAULT = "";
+
+  public static final String CHECKPOINT_INTERVAL_CONFIG = "couchbase.checkpoint_interval";
+  static final String CHECKPOINT_INTERVAL_DOC = "How frequently to save the session state checkpoint, if '" + CHECKPOINT_DIR_CONFIG + "' is set. Specify an integer followed by a time qualifier (example: 10s)";
+  static final String CHECKPOINT_INTERVAL_DISPLAY = "Session state checkpoint interval";
+  public static final String CHECKPOINT_INTERVAL_DEFAULT = "10s";
+
+  public static final String CAPTURE_DIR_CONFIG = "couchbase.capture_dir";
+  static final String CAPTURE_DIR_DOC = "Local directory where each task records the DCP messages it receives, with their vBucket and arrival time, so the stream can be replayed later for benchmarking."
+      + " Each task start creates a new file. The capture grows without limit and is written by the DCP IO threads, so enable it only while collecting a sample. Leave empty to disable capturing.";
+  static final String CAPTURE_DIR_DISPLAY = "DCP capture directory";
+  public static final String CAPTURE_DIR_DEFAULT = "";
+
+  public static final String POLL_MAX_WAIT_CONFIG = "couchbase.poll_max_wait";
+  static final String POLL_MAX_WAIT_DOC = "Longest time a poll waits for the first change of a batch before returning an empty batch to the Kafka Connect worker."
+      + " Once a batch has a change, the task returns it as soon as no more changes are waiting. Specify an integer followed by a time qualifier (example: 1s)";
+  static final String POLL_MAX_WAIT_DISPLAY = "Poll max wait";
+  public static final String POLL_MAX_WAIT_DEFAULT = "1s";
+
+  public static final String FLOW_CONTROL_BUFFER_MIN_CONFIG = "couchbase.flow_control_buffer_min";
+  static final String FLOW_CONTROL_BUFFER_MIN_DOC = "If set, each task adapts the flow control window of its DCP connections between this size and '" + FLOW_CONTROL_BUFFER_CONFIG + "',"
+      + " widening it while the task waits for changes and narrowing it to what the task drains per second when Kafka is the bottleneck, or when heap runs low."
+      + " Has no effect when '" + USE_SNAPSHOTS_CONFIG + "' is true. Leave empty to keep the window fixed. Specify an integer followed by a size qualifier (example: 16m)";
+  static final String FLOW_CONTROL_BUFFER_MIN_DISPLAY = "Minimum flow control buffer size";
+  public static final String FLOW_CONTROL_BUFFER_MIN_DEFAULT = "";
+
+  public static final String MAX_RECORDS_PER_SECOND_CONFIG = "couchbase.max_records_per_second";
+  static final String MAX_RECORDS_PER_SECOND_DOC = "Most document changes per second that the connector's tasks together may read from Couchbase (source) or write to Couchbase (sink)."
+      + " Each source task gets a share in proportion to its partitions, and each sink task an equal share. A source task that reaches its limit stops taking changes,"
+      + " so the server pauses the stream once the flow control buffer fills; no changes are skipped."
+      + " Can't be used with '" + USE_SNAPSHOTS_CONFIG + "'. Changing the limit restarts the tasks. 0 means no limit.";
+  static final String MAX_RECORDS_PER_SECOND_DISPLAY = "Max records per second";
+  public static final long MAX_RECORDS_PER_SECOND_DEFAULT = 0;
+
+  public static final String MAX_BYTES_PER_SECOND_CONFIG = "couchbase.max_bytes_per_second";
+  static final String MAX_BYTES_PER_SECOND_DOC = "Like '" + MAX_RECORDS_PER_SECOND_CONFIG + "', but limits bytes of document content per second."
+      + " Source tasks count DCP message bytes. 0 means no limit. Specify an integer followed by a size qualifier (example: 10m)";
+  static final String MAX_BYTES_PER_SECOND_DISPLAY = "Max bytes per second";
+  public static final String MAX_BYTES_PER_SECOND_DEFAULT = "0";
+
+  public static final String FAIR_SCHEDULING_CONFIG = "couchbase.fair_scheduling";
+  static final String FAIR_SCHEDULING_DOC = "If true, each poll takes turns between the task's partitions instead of taking changes in arrival order,"
+      + " so a busy partition or a large backfill can't fill every batch while other partitions wait. Partitions with more changes waiting get longer turns."
+      + " The changes of each partition are still published in order.";
+  static final String FAIR_SCHEDULING_DISPLAY = "Fair scheduling";
+  public static final boolean FAIR_SCHEDULING_DEFAULT = false;
+
   static ConfigDef config = baseConfigDef();
   private final String connectorName;
 
@@ -160,6 +273,26 @@ public class CouchbaseSourceConnectorConfig extends AbstractConfig {
   protected CouchbaseSourceConnectorConfig(ConfigDef config, Map<String, String> props) {
     super(config, props);
     connectorName = props.containsKey("name") ? props.get("name") : UUID.randomUUID().toString();
+
+    final String conflict = rateLimitConflict(getBoolean(USE_SNAPSHOTS_CONFIG), getLong(MAX_RECORDS_PER_SECOND_CONFIG),
+        SizeParser.parseSizeBytes(getString(MAX_BYTES_PER_SECOND_CONFIG)));
+    if (conflict != null) {
+      throw new ConfigException(conflict);
+    }
+  }
+
+  /**
+   * The rate limits work by withholding flow control acknowledgements, but changes buffered
+   * in a snapshot are acknowledged right away, so a throttled snapshot would pile up without bound.
+   *
+   * @return why the settings can't be used together, or null if they can
+   */
+  static String rateLimitConflict(boolean useSnapshots, long maxRecordsPerSecond, long maxBytesPerSecond) {
+    if (useSnapshots && (maxRecordsPerSecond > 0 || maxBytesPerSecond > 0)) {
+      return "'" + MAX_RECORDS_PER_SECOND_CONFIG + "' and '" + MAX_BYTES_PER_SECOND_CONFIG
+          + "' can't be used when '" + USE_SNAPSHOTS_CONFIG + "' is true";
+    }
+    return null;
   }
 
   public String getConnectorName() {
@@ -168,6 +301,7 @@ public class CouchbaseSourceConnectorConfig extends AbstractConfig {
 
   public static ConfigDef baseConfigDef() {
     ConfigDef.Recommender sslDependentsRecommender = new BooleanParentRecommender(CONNECTION_SSL_ENABLED_CONFIG);
+    ConfigDef.Recommender snapshotDependentsRecommender = new BooleanParentRecommender(USE_SNAPSHOTS_CONFIG);
 
     return new ConfigDef()
         .define(CONNECTION_CLUSTER_ADDRESS_CONFIG,
@@ -267,7 +401,8 @@ public class CouchbaseSourceConnectorConfig extends AbstractConfig {
             USE_SNAPSHOTS_DOC,
             CONNECTOR_GROUP, 2,
             ConfigDef.Width.LONG,
-            USE_SNAPSHOTS_DISPLAY)
+            USE_SNAPSHOTS_DISPLAY,
+            Arrays.asList(SNAPSHOT_BUFFER_CONFIG, SNAPSHOT_SPILL_DIR_CONFIG))
 
         .define(DCP_MESSAGE_CONVERTER_CLASS_CONFIG,
             ConfigDef.Type.STRING,
@@ -366,6 +501,173 @@ public class CouchbaseSourceConnectorConfig extends AbstractConfig {
             CONNECTOR_GROUP, 12,
             ConfigDef.Width.LONG,
             PERSISTENCE_POLLING_INTERVAL_DISPLAY)
+
+        .define(CHECKPOINT_DIR_CONFIG,
+            ConfigDef.Type.STRING,
+            CHECKPOINT_DIR_DEFAULT,
+            ConfigDef.Importance.LOW,
+            CHECKPOINT_DIR_DOC,
+            CONNECTOR_GROUP, 13,
+            ConfigDef.Width.LONG,
+            CHECKPOINT_DIR_DISPLAY,
+            Collections.singletonList(CHECKPOINT_INTERVAL_CONFIG))
+
+        .define(CHECKPOINT_INTERVAL_CONFIG,
+            ConfigDef.Type.STRING,
+            CHECKPOINT_INTERVAL_DEFAULT,
+            new DurationValidator(),
+            ConfigDef.Importance.LOW,
+            CHECKPOINT_INTERVAL_DOC,
+            CONNECTOR_GROUP, 14,
+            ConfigDef.Width.LONG,
+            CHECKPOINT_INTERVAL_DISPLAY)
+
+        .define(SNAPSHOT_BUFFER_CONFIG,
+            ConfigDef.Type.STRING,
+            SNAPSHOT_BUFFER_DEFAULT,
+            new SizeValidator(),
+            ConfigDef.Importance.LOW,
+            SNAPSHOT_BUFFER_DOC,
+            CONNECTOR_GROUP, 15,
+            ConfigDef.Width.LONG,
+            SNAPSHOT_BUFFER_DISPLAY,
+            snapshotDependentsRecommender)
+
+        .define(SNAPSHOT_SPILL_DIR_CONFIG,
+            ConfigDef.Type.STRING,
+            SNAPSHOT_SPILL_DIR_DEFAULT,
+            ConfigDef.Importance.LOW,
+            SNAPSHOT_SPILL_DIR_DOC,
+            CONNECTOR_GROUP, 16,
+            ConfigDef.Width.LONG,
+            SNAPSHOT_SPILL_DIR_DISPLAY,
+            snapshotDependentsRecommender)
+
+        .define(DCP_CONNECTIONS_PER_TASK_CONFIG,
+            ConfigDef.Type.INT,
+            DCP_CONNECTIONS_PER_TASK_DEFAULT,
+            ConfigDef.Range.atLeast(1),
+            ConfigDef.Importance.LOW,
+            DCP_CONNECTIONS_PER_TASK_DOC,
+            CONNECTOR_GROUP, 17,
+            ConfigDef.Width.SHORT,
+            DCP_CONNECTIONS_PER_TASK_DISPLAY)
+
+        .define(PIPELINES_CONFIG,
+            ConfigDef.Type.LIST,
+            PIPELINES_DEFAULT,
+            ConfigDef.Importance.LOW,
+            PIPELINES_DOC,
+            CONNECTOR_GROUP, 18,
+            ConfigDef.Width.LONG,
+            PIPELINES_DISPLAY)
+
+        .define(KEY_ONLY_CONFIG,
+            ConfigDef.Type.BOOLEAN,
+            KEY_ONLY_DEFAULT,
+            ConfigDef.Importance.LOW,
+            KEY_ONLY_DOC,
+            CONNECTOR_GROUP, 19,
+            ConfigDef.Width.SHORT,
+            KEY_ONLY_DISPLAY)
+
+        .define(TOPIC_ROUTES_CONFIG,
+            ConfigDef.Type.LIST,
+            TOPIC_ROUTES_DEFAULT,
+            ConfigDef.Importance.LOW,
+            TOPIC_ROUTES_DOC,
+            CONNECTOR_GROUP, 20,
+            ConfigDef.Width.LONG,
+            TOPIC_ROUTES_DISPLAY)
+
+        .define(KAFKA_PARTITIONING_CONFIG,
+            ConfigDef.Type.STRING,
+            KAFKA_PARTITIONING_DEFAULT,
+            new EnumValidator(KafkaPartitioning.class),
+            ConfigDef.Importance.LOW,
+            KAFKA_PARTITIONING_DOC,
+            CONNECTOR_GROUP, 21,
+            ConfigDef.Width.LONG,
+            KAFKA_PARTITIONING_DISPLAY,
+            new EnumRecommender(KafkaPartitioning.class))
+
+        .define(KAFKA_PARTITIONS_CONFIG,
+            ConfigDef.Type.INT,
+            KAFKA_PARTITIONS_DEFAULT,
+            ConfigDef.Range.atLeast(0),
+            ConfigDef.Importance.LOW,
+            KAFKA_PARTITIONS_DOC,
+            CONNECTOR_GROUP, 22,
+            ConfigDef.Width.SHORT,
+            KAFKA_PARTITIONS_DISPLAY)
+
+        .define(COMPACTION_WINDOW_CONFIG,
+            ConfigDef.Type.STRING,
+            COMPACTION_WINDOW_DEFAULT,
+            new DurationValidator(),
+            ConfigDef.Importance.LOW,
+            COMPACTION_WINDOW_DOC,
+            CONNECTOR_GROUP, 23,
+            ConfigDef.Width.SHORT,
+            COMPACTION_WINDOW_DISPLAY)
+
+        .define(CAPTURE_DIR_CONFIG,
+            ConfigDef.Type.STRING,
+            CAPTURE_DIR_DEFAULT,
+            ConfigDef.Importance.LOW,
+            CAPTURE_DIR_DOC,
+            CONNECTOR_GROUP, 24,
+            ConfigDef.Width.LONG,
+            CAPTURE_DIR_DISPLAY)
+
+        .define(POLL_MAX_WAIT_CONFIG,
+            ConfigDef.Type.STRING,
+            POLL_MAX_WAIT_DEFAULT,
+            new DurationValidator(),
+            ConfigDef.Importance.LOW,
+            POLL_MAX_WAIT_DOC,
+            CONNECTOR_GROUP, 25,
+            ConfigDef.Width.SHORT,
+            POLL_MAX_WAIT_DISPLAY)
+
+        .define(FLOW_CONTROL_BUFFER_MIN_CONFIG,
+            ConfigDef.Type.STRING,
+            FLOW_CONTROL_BUFFER_MIN_DEFAULT,
+            new SizeValidator(),
+            ConfigDef.Importance.LOW,
+            FLOW_CONTROL_BUFFER_MIN_DOC,
+            CONNECTOR_GROUP, 26,
+            ConfigDef.Width.LONG,
+            FLOW_CONTROL_BUFFER_MIN_DISPLAY)
+
+        .define(MAX_RECORDS_PER_SECOND_CONFIG,
+            ConfigDef.Type.LONG,
+            MAX_RECORDS_PER_SECOND_DEFAULT,
+            ConfigDef.Range.atLeast(0),
+            ConfigDef.Importance.LOW,
+            MAX_RECORDS_PER_SECOND_DOC,
+            CONNECTOR_GROUP, 27,
+            ConfigDef.Width.SHORT,
+            MAX_RECORDS_PER_SECOND_DISPLAY)
+
+        .define(MAX_BYTES_PER_SECOND_CONFIG,
+            ConfigDef.Type.STRING,
+            MAX_BYTES_PER_SECOND_DEFAULT,
+            new SizeValidator(),
+            ConfigDef.Importance.LOW,
+            MAX_BYTES_PER_SECOND_DOC,
+            CONNECTOR_GROUP, 28,
+            ConfigDef.Width.SHORT,
+            MAX_BYTES_PER_SECOND_DISPLAY)
+
+        .define(FAIR_SCHEDULING_CONFIG,
+            ConfigDef.Type.BOOLEAN,
+            FAIR_SCHEDULING_DEFAULT,
+            ConfigDef.Importance.LOW,
+            FAIR_SCHEDULING_DOC,
+            CONNECTOR_GROUP, 29,
+            ConfigDef.Width.SHORT,
+            FAIR_SCHEDULING_DISPLAY)
         ;
   }
 
@@ -377,6 +679,35 @@ public class CouchbaseSourceConnectorConfig extends AbstractConfig {
     return username;
   }
 
+  /**
+   * Returns the value of a string setting for the named pipeline,
+   * falling back to the connector-level value if the pipeline doesn't override it.
+   */
+  public String getPipelineString(String pipeline, String key) {
+    Object value = originals().get(PIPELINE_PREFIX + pipeline + "." + key);
+    return value == null ? getString(key) : value.toString();
+  }
+
+  /**
+   * Returns the value of a list setting for the named pipeline,
+   * falling back to the connector-level value if the pipeline doesn't override it.
+   */
+  public List<String> getPipelineList(String pipeline, String key) {
+    Object value = originals().get(PIPELINE_PREFIX + pipeline + "." + key);
+    @SuppressWarnings("unchecked")
+    List<String> result = value == null ? getList(key) : (List<String>) ConfigDef.parseType(PIPELINE_PREFIX + pipeline + "." + key, value, ConfigDef.Type.LIST);
+    return result;
+  }
+
+  /**
+   * Returns the connector's original settings, overlaid with the named pipeline's own settings.
+   */
+  public Map<String, Object> pipelineOriginals(String pipeline) {
+    Map<String, Object> result = originals();
+    result.putAll(originalsWithPrefix(PIPELINE_PREFIX + pipeline + "."));
+    return result;
+  }
+
   public <E extends Enum<E>> E getEnum(Class<E> enumClass, String key) {
     String configValue = getString(key);
     try {
@@ -23,18 +23,29 @@ import com.couchbase.client.dcp.config.CompressionMode;
 import com.couchbase.client.dcp.message.MessageUtil;
 import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
 import com.couchbase.connect.kafka.converter.Converter;
+import com.couchbase.connect.kafka.dcp.AdaptiveFlowControl;
+import com.couchbase.connect.kafka.dcp.DcpCaptureWriter;
 import com.couchbase.connect.kafka.dcp.Event;
+import com.couchbase.connect.kafka.dcp.FairEventQueue;
+import com.couchbase.connect.kafka.dcp.KeyCompactor;
+import com.couchbase.connect.kafka.dcp.Rollback;
+import com.couchbase.connect.kafka.dcp.SessionStateCheckpoint;
+import com.couchbase.connect.kafka.dcp.SnapshotBufferBudget;
 import com.couchbase.connect.kafka.dcp.Snapshot;
+import com.couchbase.connect.kafka.dcp.SnapshotPool;
+import com.couchbase.connect.kafka.dcp.Wakeup;
 import com.couchbase.connect.kafka.filter.Filter;
 import com.couchbase.connect.kafka.handler.source.CouchbaseSourceRecord;
 import com.couchbase.connect.kafka.handler.source.DocumentEvent;
 import com.couchbase.connect.kafka.handler.source.LegacySourceHandlerAdapter;
 import com.couchbase.connect.kafka.handler.source.SourceHandler;
 import com.couchbase.connect.kafka.handler.source.SourceHandlerParams;
+import com.couchbase.connect.kafka.util.RateLimiter;
 import com.couchbase.connect.kafka.util.Version;
 import com.couchbase.connect.kafka.util.config.DurationParser;
 import com.couchbase.connect.kafka.util.config.Password;
 import com.couchbase.connect.kafka.util.config.SizeParser;
+import org.apache.kafka.common.Configurable;
 import org.apache.kafka.common.config.ConfigException;
 import org.apache.kafka.common.utils.Utils;
 import org.apache.kafka.connect.errors.ConnectException;
@@ -43,16 +54,20 @@ import org.apache.kafka.connect.source.SourceTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.function.IntToLongFunction;
 
 import static com.couchbase.connect.kafka.CouchbaseSinkTask.parseNetworkResolution;
 
@@ -63,16 +78,28 @@ public class CouchbaseSourceTask extends SourceTask {
 
   private CouchbaseSourceConnectorConfig config;
   private Map<String, String> configProperties;
-  private CouchbaseReader couchbaseReader;
+  private final List<CouchbaseReader> couchbaseReaders = new ArrayList<>();
+  private final Map<Short, CouchbaseReader> partitionToReader = new HashMap<>();
   private BlockingQueue<Event> queue;
   private BlockingQueue<Throwable> errorQueue;
-  private String topic;
+  private final List<SourcePipeline> pipelines = new ArrayList<>();
   private String bucket;
   private volatile boolean running;
-  private Filter filter;
-  private SourceHandler sourceHandler;
   private int batchSizeMax;
   private boolean connectorNameInOffsets;
+  private Integer[] vBucketToKafkaPartition;
+  private long compactionWindowNanos;
+  private long pollMaxWaitNanos;
+  private final KeyCompactor keyCompactor = new KeyCompactor();
+  private DcpCaptureWriter capture;
+  private AdaptiveFlowControl adaptiveFlowControl;
+  private RateLimiter rateLimiter;
+
+  // Reused by every poll. The worker is done with a batch before it polls again.
+  private final ArrayList<SourceRecord> batch = new ArrayList<>();
+  private final ArrayList<Event> compactionWindow = new ArrayList<>();
+  private final ArrayList<ByteBuf> compactionMessages = new ArrayList<>();
+  private final IntToLongFunction nowSeqnos = this::nowSeqno;
 
   @Override
   public String version() {
@@ -81,23 +108,8 @@ public class CouchbaseSourceTask extends SourceTask {
 
   @Override
   public void start(Map<String, String> properties) {
-    try {
-      configProperties = properties;
-      config = new CouchbaseSourceTaskConfig(configProperties);
-    } catch (ConfigException e) {
-      throw new ConnectException("Couldn't start CouchbaseSourceTask due to configuration error", e);
-    }
-
-    RedactionLevel redactionLevel = config.getEnum(RedactionLevel.class, CouchbaseSourceConnectorConfig.LOG_REDACTION_CONFIG);
-    CouchbaseLoggerFactory.setRedactionLevel(redactionLevel);
+    init(properties);
 
-    filter = createFilter(config.getString(CouchbaseSourceConnectorConfig.EVENT_FILTER_CLASS_CONFIG));
-    sourceHandler = createHandler(
-        config.getString(CouchbaseSourceConnectorConfig.DCP_MESSAGE_CONVERTER_CLASS_CONFIG));
-
-    topic = config.getString(CouchbaseSourceConnectorConfig.TOPIC_NAME_CONFIG);
-    bucket = config.getString(CouchbaseSourceConnectorConfig.CONNECTION_BUCKET_CONFIG);
-    connectorNameInOffsets = config.getBoolean(CouchbaseSourceConnectorConfig.COMPAT_NAMES_CONFIG);
     String username = config.getUsername();
     String password = Password.CONNECTION.get(config);
     List<String> clusterAddress = config.getList(CouchbaseSourceConnectorConfig.CONNECTION_CLUSTER_ADDRESS_CONFIG);
@@ -106,7 +118,6 @@ public class CouchbaseSourceTask extends SourceTask {
     boolean sslEnabled = config.getBoolean(CouchbaseSourceConnectorConfig.CONNECTION_SSL_ENABLED_CONFIG);
     String sslKeystoreLocation = config.getString(CouchbaseSourceConnectorConfig.CONNECTION_SSL_KEYSTORE_LOCATION_CONFIG);
     String sslKeystorePassword = Password.SSL_KEYSTORE.get(config);
-    batchSizeMax = config.getInt(CouchbaseSourceConnectorConfig.BATCH_SIZE_MAX_CONFIG);
     StreamFrom streamFrom = config.getEnum(StreamFrom.class, CouchbaseSourceConnectorConfig.STREAM_FROM_CONFIG);
     CompressionMode compressionMode = config.getEnum(CompressionMode.class, CouchbaseSourceConnectorConfig.COMPRESSION_CONFIG);
     String connectorName = config.getConnectorName();
@@ -116,26 +127,224 @@ public class CouchbaseSourceTask extends SourceTask {
         TimeUnit.MILLISECONDS);
     final int flowControlBufferBytes = (int) Math.min(Integer.MAX_VALUE,
         SizeParser.parseSizeBytes(config.getString(CouchbaseSourceConnectorConfig.FLOW_CONTROL_BUFFER_CONFIG)));
+    final String flowControlBufferMin = config.getString(CouchbaseSourceConnectorConfig.FLOW_CONTROL_BUFFER_MIN_CONFIG);
+    if (!flowControlBufferMin.isEmpty()) {
+      final long minBytes = SizeParser.parseSizeBytes(flowControlBufferMin);
+      if (minBytes <= 0 || minBytes > flowControlBufferBytes) {
+        throw new ConnectException("Config property '" + CouchbaseSourceConnectorConfig.FLOW_CONTROL_BUFFER_MIN_CONFIG
+            + "' must be greater than zero and no greater than '" + CouchbaseSourceConnectorConfig.FLOW_CONTROL_BUFFER_CONFIG + "'");
+      }
+      adaptiveFlowControl = new AdaptiveFlowControl(flowControlBufferBytes, (int) minBytes);
+    }
 
     long connectionTimeout = config.getLong(CouchbaseSourceConnectorConfig.CONNECTION_TIMEOUT_MS_CONFIG);
     Short[] partitions = toBoxedShortArray(config.getList(CouchbaseSourceTaskConfig.PARTITIONS_CONFIG));
+    final int connectionsPerTask = config.getInt(CouchbaseSourceConnectorConfig.DCP_CONNECTIONS_PER_TASK_CONFIG);
+    final boolean keyOnly = config.getBoolean(CouchbaseSourceConnectorConfig.KEY_ONLY_CONFIG);
+
+    final String checkpointDir = config.getString(CouchbaseSourceConnectorConfig.CHECKPOINT_DIR_CONFIG);
+    final long checkpointIntervalMillis = DurationParser.parseDuration(
+        config.getString(CouchbaseSourceConnectorConfig.CHECKPOINT_INTERVAL_CONFIG),
+        TimeUnit.MILLISECONDS);
+    final String spillDir = config.getString(CouchbaseSourceConnectorConfig.SNAPSHOT_SPILL_DIR_CONFIG);
+    final SnapshotBufferBudget snapshotBufferBudget = new SnapshotBufferBudget(
+        SizeParser.parseSizeBytes(config.getString(CouchbaseSourceConnectorConfig.SNAPSHOT_BUFFER_CONFIG)),
+        new File(spillDir.isEmpty() ? System.getProperty("java.io.tmpdir") : spillDir));
+    final SnapshotPool snapshotPool = new SnapshotPool(snapshotBufferBudget);
+
+    if (!checkpointDir.isEmpty() && checkpointIntervalMillis <= 0) {
+      throw new ConnectException("Config property '" + CouchbaseSourceConnectorConfig.CHECKPOINT_INTERVAL_CONFIG
+          + "' must be greater than zero when '" + CouchbaseSourceConnectorConfig.CHECKPOINT_DIR_CONFIG + "' is set");
+    }
+
+    Map<Short, Long> partitionToSavedSeqno = streamFrom.isSavedOffset()
+        ? readSourceOffsets(partitions, streamFrom)
+        : new HashMap<>();
+
+    final String captureDir = config.getString(CouchbaseSourceConnectorConfig.CAPTURE_DIR_CONFIG);
+    if (!captureDir.isEmpty()) {
+      capture = createCapture(new File(captureDir), connectorName, partitions);
+    }
+
+    // Each stripe of partitions gets its own DCP client, so its own channel to each node
+    // (and its own IO thread and flow control window). All readers feed the same queue.
+    for (Short[] stripe : stripe(partitions, connectionsPerTask)) {
+      final SessionStateCheckpoint checkpoint = checkpointDir.isEmpty() ? null
+          : createCheckpoint(new File(checkpointDir), connectorName, stripe);
+
+      CouchbaseReader couchbaseReader = new CouchbaseReader(connectorName, clusterAddress, bucket, username, password, connectionTimeout,
+          queue, errorQueue, stripe, savedSeqnos(partitionToSavedSeqno, stripe), streamFrom, useSnapshots, sslEnabled, sslKeystoreLocation, sslKeystorePassword,
+          compressionMode, persistencePollingIntervalMillis, flowControlBufferBytes, networkResolution,
+          checkpoint, checkpointIntervalMillis, snapshotPool, keyOnly, capture, adaptiveFlowControl);
+      couchbaseReaders.add(couchbaseReader);
+      for (Short partition : stripe) {
+        partitionToReader.put(partition, couchbaseReader);
+      }
+    }
+
+    LOGGER.info("Streaming {} partitions over {} DCP connection(s)", partitions.length, couchbaseReaders.size());
+    for (CouchbaseReader couchbaseReader : couchbaseReaders) {
+      couchbaseReader.start();
+    }
+  }
 
-    Map<Short, Long> partitionToSavedSeqno = readSourceOffsets(partitions);
+  /**
+   * Reads the config and prepares to publish events from the queue,
+   * without connecting to Couchbase. Visible for testing.
+   */
+  void init(Map<String, String> properties) {
+    try {
+      configProperties = properties;
+      config = new CouchbaseSourceTaskConfig(configProperties);
+    } catch (ConfigException e) {
+      throw new ConnectException("Couldn't start CouchbaseSourceTask due to configuration error", e);
+    }
+
+    RedactionLevel redactionLevel = config.getEnum(RedactionLevel.class, CouchbaseSourceConnectorConfig.LOG_REDACTION_CONFIG);
+    CouchbaseLoggerFactory.setRedactionLevel(redactionLevel);
+
+    createPipelines();
+
+    bucket = config.getString(CouchbaseSourceConnectorConfig.CONNECTION_BUCKET_CONFIG);
+    connectorNameInOffsets = config.getBoolean(CouchbaseSourceConnectorConfig.COMPAT_NAMES_CONFIG);
+    batchSizeMax = config.getInt(CouchbaseSourceConnectorConfig.BATCH_SIZE_MAX_CONFIG);
+    batch.ensureCapacity(batchSizeMax);
+    compactionWindowNanos = TimeUnit.MILLISECONDS.toNanos(DurationParser.parseDuration(
+        config.getString(CouchbaseSourceConnectorConfig.COMPACTION_WINDOW_CONFIG),
+        TimeUnit.MILLISECONDS));
+    pollMaxWaitNanos = TimeUnit.MILLISECONDS.toNanos(DurationParser.parseDuration(
+        config.getString(CouchbaseSourceConnectorConfig.POLL_MAX_WAIT_CONFIG),
+        TimeUnit.MILLISECONDS));
+    if (pollMaxWaitNanos <= 0) {
+      throw new ConnectException("Config property '" + CouchbaseSourceConnectorConfig.POLL_MAX_WAIT_CONFIG
+          + "' must be greater than zero");
+    }
+    vBucketToKafkaPartition = kafkaPartitionTable(
+        config.getEnum(KafkaPartitioning.class, CouchbaseSourceConnectorConfig.KAFKA_PARTITIONING_CONFIG),
+        config.getInt(CouchbaseSourceTaskConfig.PARTITION_COUNT_CONFIG),
+        config.getInt(CouchbaseSourceConnectorConfig.KAFKA_PARTITIONS_CONFIG));
+
+    // The connector's limits are shared among its tasks in proportion to their partitions.
+    final int partitionCount = config.getInt(CouchbaseSourceTaskConfig.PARTITION_COUNT_CONFIG);
+    rateLimiter = RateLimiter.forTask(
+        config.getLong(CouchbaseSourceConnectorConfig.MAX_RECORDS_PER_SECOND_CONFIG),
+        SizeParser.parseSizeBytes(config.getString(CouchbaseSourceConnectorConfig.MAX_BYTES_PER_SECOND_CONFIG)),
+        partitionCount == 0 ? 1 : (double) config.getList(CouchbaseSourceTaskConfig.PARTITIONS_CONFIG).size() / partitionCount);
 
     running = true;
-    queue = new LinkedBlockingQueue<>();
+    queue = config.getBoolean(CouchbaseSourceConnectorConfig.FAIR_SCHEDULING_CONFIG)
+        ? new FairEventQueue()
+        : new LinkedBlockingQueue<>();
     errorQueue = new LinkedBlockingQueue<>(1);
-    couchbaseReader = new CouchbaseReader(connectorName, clusterAddress, bucket, username, password, connectionTimeout,
-        queue, errorQueue, partitions, partitionToSavedSeqno, streamFrom, useSnapshots, sslEnabled, sslKeystoreLocation, sslKeystorePassword,
-        compressionMode, persistencePollingIntervalMillis, flowControlBufferBytes, networkResolution);
-    couchbaseReader.start();
   }
 
+  /**
+   * Returns the queue the readers put events on. Visible for testing.
+   */
+  BlockingQueue<Event> queue() {
+    return queue;
+  }
+
+  /**
+   * Returns the Kafka partition for each vBucket, or null if the producer chooses partitions.
+   * Computed up front so converting a record doesn't box a new Integer.
+   */
+  private static Integer[] kafkaPartitionTable(KafkaPartitioning partitioning, int vBucketCount, int kafkaPartitionCount) {
+    if (partitioning == KafkaPartitioning.KEY) {
+      return null;
+    }
+    if (vBucketCount <= 0) {
+      throw new ConnectException("Task config is missing the bucket's partition count, required by "
+          + CouchbaseSourceConnectorConfig.KAFKA_PARTITIONING_CONFIG + "=" + partitioning);
+    }
+    if (kafkaPartitionCount == 0) {
+      kafkaPartitionCount = vBucketCount;
+    }
+    final Integer[] table = new Integer[vBucketCount];
+    for (int i = 0; i < vBucketCount; i++) {
+      table[i] = partitioning.kafkaPartition(i, vBucketCount, kafkaPartitionCount);
+    }
+    return table;
+  }
+
+  /**
+   * Deals the partitions round-robin into at most {@code stripeCount} non-empty groups.
+   */
+  static List<Short[]> stripe(Short[] partitions, int stripeCount) {
+    final int count = Math.max(1, Math.min(stripeCount, partitions.length));
+    final List<List<Short>> stripes = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      stripes.add(new ArrayList<>());
+    }
+    for (int i = 0; i < partitions.length; i++) {
+      stripes.get(i % count).add(partitions[i]);
+    }
+
+    final List<Short[]> result = new ArrayList<>(count);
+    for (List<Short> stripe : stripes) {
+      result.add(stripe.toArray(new Short[0]));
+    }
+    return result;
+  }
+
+  /**
+   * Returns the saved seqnos of just the given partitions.
+   */
+  private static Map<Short, Long> savedSeqnos(Map<Short, Long> partitionToSavedSeqno, Short[] partitions) {
+    final Map<Short, Long> result = new HashMap<>();
+    for (Short partition : partitions) {
+      final Long seqno = partitionToSavedSeqno.get(partition);
+      if (seqno != null) {
+        result.put(partition, seqno);
+      }
+    }
+    return result;
+  }
+
+  private void createPipelines() {
+    final List<String> names = config.getList(CouchbaseSourceConnectorConfig.PIPELINES_CONFIG);
+    if (names.isEmpty()) {
+      pipelines.add(new SourcePipeline(null,
+          config.getString(CouchbaseSourceConnectorConfig.TOPIC_NAME_CONFIG),
+          createTopicRouter(config.getList(CouchbaseSourceConnectorConfig.TOPIC_ROUTES_CONFIG),
+              CouchbaseSourceConnectorConfig.TOPIC_ROUTES_CONFIG),
+          createFilter(config.getString(CouchbaseSourceConnectorConfig.EVENT_FILTER_CLASS_CONFIG), config.originals()),
+          createHandler(config.getString(CouchbaseSourceConnectorConfig.DCP_MESSAGE_CONVERTER_CLASS_CONFIG), config.originals())));
+      return;
+    }
+
+    for (String name : names) {
+      if (!name.matches("[A-Za-z0-9_-]+")) {
+        throw new ConnectException("Invalid pipeline name '" + name + "' in config property '"
+            + CouchbaseSourceConnectorConfig.PIPELINES_CONFIG + "'; may contain only letters, digits, '_' and '-'");
+      }
+      if (pipelines.stream().anyMatch(p -> p.name().equals(name))) {
+        throw new ConnectException("Duplicate pipeline name '" + name + "' in config property '"
+            + CouchbaseSourceConnectorConfig.PIPELINES_CONFIG + "'");
+      }
+      pipelines.add(new SourcePipeline(name,
+          config.getPipelineString(name, CouchbaseSourceConnectorConfig.TOPIC_NAME_CONFIG),
+          createTopicRouter(config.getPipelineList(name, CouchbaseSourceConnectorConfig.TOPIC_ROUTES_CONFIG),
+              CouchbaseSourceConnectorConfig.PIPELINE_PREFIX + name + "." + CouchbaseSourceConnectorConfig.TOPIC_ROUTES_CONFIG),
+          createFilter(config.getPipelineString(name, CouchbaseSourceConnectorConfig.EVENT_FILTER_CLASS_CONFIG),
+              config.pipelineOriginals(name)),
+          createHandler(config.getPipelineString(name, CouchbaseSourceConnectorConfig.DCP_MESSAGE_CONVERTER_CLASS_CONFIG),
+              config.pipelineOriginals(name))));
+    }
+  }
+
+  /**
+   * @param settings passed to the handler if it implements {@link Configurable}
+   */
   @SuppressWarnings("deprecation")
-  private SourceHandler createHandler(final String className) {
+  private SourceHandler createHandler(final String className, final Map<String, ?> settings) {
     try {
       try {
-        return Utils.newInstance(className, SourceHandler.class);
+        SourceHandler handler = Utils.newInstance(className, SourceHandler.class);
+        if (handler instanceof Configurable) {
+          ((Configurable) handler).configure(settings);
+        }
+        return handler;
       } catch (ClassCastException e) {
         SourceHandler adapter = new LegacySourceHandlerAdapter(Utils.newInstance(className, Converter.class));
         LOGGER.warn("Converter class {} implements deprecated {}. Please update the converter to extend {} instead.",
@@ -147,10 +356,56 @@ public class CouchbaseSourceTask extends SourceTask {
     }
   }
 
-  private Filter createFilter(final String className) {
+  /**
+   * Each task gets its own checkpoint file, named after the connector, bucket and assigned partitions,
+   * so a task only ever picks up state saved by a previous task with the same assignment.
+   */
+  private SessionStateCheckpoint createCheckpoint(File dir, String connectorName, Short[] partitions) {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new ConnectException("Couldn't create session state checkpoint directory " + dir);
+    }
+    final String fileName = (connectorName + "-" + bucket).replaceAll("[^A-Za-z0-9._-]", "_")
+        + "-" + Integer.toHexString(Arrays.hashCode(partitions)) + ".state";
+    return new SessionStateCheckpoint(new File(dir, fileName));
+  }
+
+  /**
+   * Starts a new capture file for each task run, named after the connector, bucket and assigned partitions
+   * plus the start time, so restarts never overwrite an earlier capture.
+   *
+   * @throws ConnectException if the directory or file can't be created
+   */
+  private DcpCaptureWriter createCapture(File dir, String connectorName, Short[] partitions) {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new ConnectException("Couldn't create DCP capture directory " + dir);
+    }
+    final String fileName = (connectorName + "-" + bucket).replaceAll("[^A-Za-z0-9._-]", "_")
+        + "-" + Integer.toHexString(Arrays.hashCode(partitions)) + "-" + System.currentTimeMillis() + ".dcpcap";
+    try {
+      final DcpCaptureWriter writer = new DcpCaptureWriter(new File(dir, fileName));
+      LOGGER.info("Capturing DCP messages to {}", writer.file());
+      return writer;
+    } catch (IOException e) {
+      throw new ConnectException("Couldn't create DCP capture file in " + dir, e);
+    }
+  }
+
+  private static TopicRouter createTopicRouter(final List<String> rules, final String configKey) {
+    final TopicRouter router = new TopicRouter(rules, configKey);
+    return router.isEmpty() ? null : router;
+  }
+
+  /**
+   * @param settings passed to the filter if it implements {@link Configurable}
+   */
+  private Filter createFilter(final String className, final Map<String, ?> settings) {
     if (className != null && !"".equals(className)) {
       try {
-        return Utils.newInstance(className, Filter.class);
+        Filter filter = Utils.newInstance(className, Filter.class);
+        if (filter instanceof Configurable) {
+          ((Configurable) filter).configure(settings);
+        }
+        return filter;
       } catch (ClassNotFoundException e) {
         throw new ConnectException("Couldn't create filter in CouchbaseSourceTask due to an error", e);
       }
@@ -161,57 +416,273 @@ public class CouchbaseSourceTask extends SourceTask {
   @Override
   public List<SourceRecord> poll()
       throws InterruptedException {
-    List<SourceRecord> results = new LinkedList<>();
+    if (adaptiveFlowControl != null) {
+      adaptiveFlowControl.onPoll(queue.isEmpty());
+    }
+    if (compactionWindowNanos > 0) {
+      return pollCompacted();
+    }
+
+    final List<SourceRecord> results = batch;
+    results.clear();
     int batchSize = batchSizeMax;
+    final long deadline = System.nanoTime() + pollMaxWaitNanos;
+
+    while (running) {
+      checkFatalError();
+
+      final long throttleNanos = rateLimitDelayNanos();
+      if (throttleNanos > 0) {
+        if (!results.isEmpty()) {
+          break;
+        }
+        final long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          break;
+        }
+        TimeUnit.NANOSECONDS.sleep(Math.min(throttleNanos, remaining));
+        continue;
+      }
+
+      // Wait for the first record of the batch. After that, take only the events
+      // already waiting, so a small batch isn't held back by a trickle of changes.
+      final Event event;
+      if (results.isEmpty()) {
+        final long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          break;
+        }
+        event = queue.poll(remaining, TimeUnit.NANOSECONDS);
+        if (event == null) {
+          continue;
+        }
+      } else {
+        event = queue.poll();
+        if (event == null) {
+          break;
+        }
+      }
+
+      if (event == Wakeup.INSTANCE) {
+        continue; // check for errors and stop requests
+      }
+      if (event instanceof Rollback) {
+        rolledBack((Rollback) event);
+        continue;
+      }
+      try {
+        int messageCount = 0;
+        long messageBytes = 0;
+        for (ByteBuf message : event) {
+          messageCount++;
+          messageBytes += message.readableBytes();
+          publish(message, results);
+        }
+        charge(messageCount, messageBytes);
+
+        event.ack();
+        batchSize--;
+      } finally {
+        event.release();
+      }
+      if (!results.isEmpty() &&
+          (batchSize <= 0 || event instanceof Snapshot)) {
+        break;
+      }
+    }
+
+    if (!results.isEmpty()) {
+      LOGGER.debug("Poll returns {} result(s)", results.size());
+    }
+    return results;
+  }
+
+  /**
+   * Like {@link #poll()}, but collects events for the compaction window and publishes
+   * only the latest change to each document in the window.
+   */
+  private List<SourceRecord> pollCompacted() throws InterruptedException {
+    final List<SourceRecord> results = batch;
+    final List<ByteBuf> messages = compactionMessages;
+    final List<Event> window = compactionWindow;
+    results.clear();
+    final long deadline = System.nanoTime() + pollMaxWaitNanos;
 
     while (running) {
-      Event event = queue.poll(100, TimeUnit.MILLISECONDS);
-      if (event != null) {
-        try {
+      final long throttleNanos = rateLimitDelayNanos();
+      if (throttleNanos > 0) {
+        final long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          return results;
+        }
+        TimeUnit.NANOSECONDS.sleep(Math.min(throttleNanos, remaining));
+        continue;
+      }
+
+      try {
+        fillCompactionWindow(window, deadline);
+
+        long messageBytes = 0;
+        for (Event event : window) {
           for (ByteBuf message : event) {
-            if (filter == null || filter.pass(message)) {
-              SourceRecord record = convert(message);
-              if (record != null) {
-                results.add(record);
-              }
-            }
+            messages.add(message);
+            messageBytes += message.readableBytes();
+          }
+        }
+        charge(messages.size(), messageBytes);
+        final BitSet superseded = keyCompactor.superseded(messages);
+        for (int i = 0; i < messages.size(); i++) {
+          if (!superseded.get(i)) {
+            publish(messages.get(i), results);
           }
+        }
+        if (!superseded.isEmpty()) {
+          LOGGER.debug("Compaction dropped {} of {} message(s)", superseded.cardinality(), messages.size());
+        }
 
+        for (Event event : window) {
           event.ack();
-          batchSize--;
-        } finally {
-          releaseAll(event);
+          if (event instanceof Rollback) {
+            rolledBack((Rollback) event);
+          }
+        }
+      } finally {
+        for (Event event : window) {
+          event.release();
         }
+        window.clear();
+        messages.clear();
       }
-      if (!results.isEmpty() &&
-          (batchSize == 0 || event == null || event instanceof Snapshot)) {
-        LOGGER.info("Poll returns {} result(s)", results.size());
+
+      if (!results.isEmpty()) {
+        LOGGER.debug("Poll returns {} result(s)", results.size());
         return results;
       }
-
-      final Throwable fatalError = errorQueue.poll();
-      if (fatalError != null) {
-        throw new ConnectException(fatalError);
+      if (deadline - System.nanoTime() <= 0) {
+        return results;
       }
     }
     return results;
   }
 
-  @SuppressWarnings("unchecked")
-  public SourceRecord convert(ByteBuf event) {
-    final long vBucketUuid = couchbaseReader.getVBucketUuid(MessageUtil.getVbucket(event));
-    final DocumentEvent docEvent = DocumentEvent.create(event, bucket, vBucketUuid);
+  /**
+   * Waits until the poll deadline for an event, then keeps taking events until
+   * the compaction window closes, the batch is full, or a snapshot ends the window.
+   */
+  private void fillCompactionWindow(List<Event> window, long pollDeadline) throws InterruptedException {
+    long windowDeadline = 0;
+    while (running && window.size() < batchSizeMax) {
+      checkFatalError();
+
+      final Event event;
+      if (window.isEmpty()) {
+        final long remaining = pollDeadline - System.nanoTime();
+        if (remaining <= 0) {
+          return;
+        }
+        event = queue.poll(remaining, TimeUnit.NANOSECONDS);
+        if (event == null || event == Wakeup.INSTANCE) {
+          continue;
+        }
+        windowDeadline = System.nanoTime() + compactionWindowNanos;
+      } else {
+        final long remaining = windowDeadline - System.nanoTime();
+        event = remaining <= 0 ? null : queue.poll(remaining, TimeUnit.NANOSECONDS);
+        if (event == null) {
+          return;
+        }
+        if (event == Wakeup.INSTANCE) {
+          continue;
+        }
+      }
+
+      window.add(event);
+      if (event instanceof Snapshot || event instanceof Rollback) {
+        return;
+      }
+    }
+  }
 
-    CouchbaseSourceRecord r = sourceHandler.handle(new SourceHandlerParams(docEvent, topic));
+  /**
+   * Returns how long to wait before taking more events, to stay within the rate limits.
+   * Events left on the queue aren't acknowledged, so flow control slows the server down
+   * instead of the task dropping changes. Snapshots are acknowledged while being buffered,
+   * so the config rejects rate limits together with use_snapshots.
+   */
+  private long rateLimitDelayNanos() {
+    return rateLimiter == null ? 0 : rateLimiter.delayNanos();
+  }
+
+  private void charge(int messageCount, long messageBytes) {
+    if (rateLimiter != null) {
+      rateLimiter.reserve(messageCount, messageBytes);
+    }
+  }
+
+  /**
+   * Called when a rollback reaches the front of the queue, before any of the changes the server sends after it.
+   */
+  private void rolledBack(Rollback rollback) {
+    for (SourcePipeline pipeline : pipelines) {
+      pipeline.rolledBack(rollback.partition());
+    }
+  }
+
+  private void checkFatalError() {
+    final Throwable fatalError = errorQueue.poll();
+    if (fatalError != null) {
+      throw new ConnectException(fatalError);
+    }
+  }
+
+  /**
+   * Passes the message through every pipeline, adding the resulting records to {@code results}.
+   */
+  private void publish(ByteBuf message, List<SourceRecord> results) {
+    // The key and content are decoded when first read, and at most once,
+    // no matter how many pipelines publish the event.
+    final DocumentEvent docEvent = createDocumentEvent(message);
+    for (SourcePipeline pipeline : pipelines) {
+      final Filter filter = pipeline.filter();
+      if (filter != null && !filter.pass(docEvent)) {
+        continue;
+      }
+      if (pipeline.alreadyPublished(docEvent, nowSeqnos)) {
+        continue;
+      }
+      SourceRecord record = convert(docEvent, pipeline);
+      if (record != null) {
+        results.add(record);
+      }
+    }
+  }
+
+  private long nowSeqno(int partition) {
+    final CouchbaseReader reader = partitionToReader.get((short) partition);
+    return reader == null ? 0 : reader.nowSeqno((short) partition); // no reader when testing
+  }
+
+  private DocumentEvent createDocumentEvent(ByteBuf event) {
+    final short vBucket = MessageUtil.getVbucket(event);
+    final CouchbaseReader reader = partitionToReader.get(vBucket);
+    final long vBucketUuid = reader == null ? 0 : reader.getVBucketUuid(vBucket); // no reader when testing
+    return DocumentEvent.create(event, bucket, vBucketUuid);
+  }
+
+  private SourceRecord convert(DocumentEvent docEvent, SourcePipeline pipeline) {
+    final String topic = pipeline.topic(docEvent);
+    CouchbaseSourceRecord r = pipeline.sourceHandler().handle(new SourceHandlerParams(docEvent, topic));
     if (r == null) {
       return null;
     }
 
     return new SourceRecord(
-        sourcePartition(docEvent.vBucket()),
+        sourcePartition(pipeline, docEvent.vBucket()),
         sourceOffset(docEvent.bySeqno()),
         r.topic() == null ? topic : r.topic(),
-        r.kafkaPartition(),
+        r.kafkaPartition() == null && vBucketToKafkaPartition != null
+            ? vBucketToKafkaPartition[docEvent.vBucket()]
+            : r.kafkaPartition(),
         r.keySchema(), r.key(),
         r.valueSchema(), r.value(),
         r.timestamp());
@@ -220,86 +691,131 @@ public class CouchbaseSourceTask extends SourceTask {
   @Override
   public void stop() {
     running = false;
-    couchbaseReader.shutdown();
+    queue.offer(Wakeup.INSTANCE); // in case poll() is waiting
+    for (CouchbaseReader couchbaseReader : couchbaseReaders) {
+      couchbaseReader.shutdown();
+    }
     try {
-      couchbaseReader.join(MAX_TIMEOUT);
-      if (couchbaseReader.isAlive()) {
-        LOGGER.error("Reader thread is still alive after shutdown request.");
+      for (CouchbaseReader couchbaseReader : couchbaseReaders) {
+        couchbaseReader.join(MAX_TIMEOUT);
+        if (couchbaseReader.isAlive()) {
+          LOGGER.error("Reader thread {} is still alive after shutdown request.", couchbaseReader.getName());
+        }
       }
     } catch (InterruptedException e) {
       LOGGER.error("Interrupted while joining reader thread.", e);
     }
 
-    LOGGER.info("Releasing unconsumed events: {}", queue.size());
-    for (Event event : queue) {
-      // Don't need to ACK, since DCP connection is already closed.
-      releaseAll(event);
-    }
-  }
-
-  private void releaseAll(Iterable<ByteBuf> buffers) {
-    RuntimeException deferredException = null;
-
-    for (ByteBuf buffer : buffers) {
+    if (capture != null) {
       try {
-        buffer.release();
-      } catch (RuntimeException t) {
-        LOGGER.warn("Failed to release buffer {}", buffer, t);
-        deferredException = t;
+        capture.close();
+      } catch (IOException e) {
+        LOGGER.warn("Failed to close DCP capture {}", capture.file(), e);
       }
+      capture = null;
     }
-    if (deferredException != null) {
-      throw deferredException;
+
+    LOGGER.info("Releasing unconsumed events: {}", queue.size());
+    for (Event event : queue) {
+      // Don't need to ACK, since DCP connection is already closed.
+      event.release();
     }
   }
 
   /**
    * Loads as many of the requested source offsets as possible.
    * See the caveats for {@link org.apache.kafka.connect.storage.OffsetStorageReader#offsets(Collection)}.
+   * <p>
+   * With several pipelines, each pipeline's offsets are read separately; see {@link #resumeSeqnos}.
    *
    * @return a map of partitions to sequence numbers.
    */
-  private Map<Short, Long> readSourceOffsets(Short[] partitions) {
-    Map<Short, Long> partitionToSequenceNumber = new HashMap<>();
+  private Map<Short, Long> readSourceOffsets(Short[] partitions, StreamFrom streamFrom) {
+    final List<Map<Short, Long>> savedByPipeline = new ArrayList<>(pipelines.size());
 
-    Map<Map<String, Object>, Map<String, Object>> offsets = context.offsetStorageReader().offsets(
-        sourcePartitions(partitions));
+    for (SourcePipeline pipeline : pipelines) {
+      Map<Map<String, Object>, Map<String, Object>> offsets = context.offsetStorageReader().offsets(
+          sourcePartitions(pipeline, partitions));
 
-    LOGGER.debug("Raw source offsets: {}", offsets);
+      LOGGER.debug("Raw source offsets: {}", offsets);
 
-    for (Map.Entry<Map<String, Object>, Map<String, Object>> entry : offsets.entrySet()) {
-      Map<String, Object> partitionIdentifier = entry.getKey();
-      Map<String, Object> offset = entry.getValue();
-      if (offset == null) {
-        continue;
+      final Map<Short, Long> saved = new HashMap<>();
+      for (Map.Entry<Map<String, Object>, Map<String, Object>> entry : offsets.entrySet()) {
+        Map<String, Object> partitionIdentifier = entry.getKey();
+        Map<String, Object> offset = entry.getValue();
+        if (offset == null) {
+          continue;
+        }
+        Short partition = Short.valueOf((String) partitionIdentifier.get("partition"));
+        Long seqno = (Long) offset.get("bySeqno");
+        saved.put(partition, seqno);
       }
-      Short partition = Short.valueOf((String) partitionIdentifier.get("partition"));
-      partitionToSequenceNumber.put(partition, (Long) offset.get("bySeqno"));
+      savedByPipeline.add(saved);
     }
 
+    final Map<Short, Long> partitionToSequenceNumber = resumeSeqnos(pipelines, savedByPipeline, streamFrom);
     LOGGER.debug("Partition to saved seqno: {}", partitionToSequenceNumber);
 
     return partitionToSequenceNumber;
   }
 
-  private List<Map<String, Object>> sourcePartitions(Short[] partitions) {
+  /**
+   * Returns the seqno each partition resumes from, given the seqnos saved by each pipeline,
+   * and tells each pipeline which events to skip.
+   * <p>
+   * A partition resumes from the lowest seqno saved by any pipeline, so no pipeline misses a change.
+   * A partition no pipeline has an offset for is left out, so it streams from the fallback
+   * of {@code stream_from}. A pipeline without an offset for a partition that does resume
+   * (a newly added pipeline, or one whose filter never passed a change from the partition)
+   * applies the fallback on its own. With "now" it skips the changes the partition had when
+   * the stream started. With "beginning" it publishes everything from where the partition resumes;
+   * replaying the partition from the start instead would make every pipeline reread it on each restart.
+   */
+  static Map<Short, Long> resumeSeqnos(List<SourcePipeline> pipelines, List<Map<Short, Long>> savedByPipeline,
+                                       StreamFrom streamFrom) {
+    final Map<Short, Long> result = new HashMap<>();
+    for (Map<Short, Long> saved : savedByPipeline) {
+      saved.forEach((partition, seqno) -> result.merge(partition, seqno, Math::min));
+    }
+    if (pipelines.size() > 1) {
+      for (int i = 0; i < pipelines.size(); i++) {
+        final SourcePipeline pipeline = pipelines.get(i);
+        final Map<Short, Long> saved = savedByPipeline.get(i);
+        for (Short partition : result.keySet()) {
+          final Long seqno = saved.get(partition);
+          if (seqno != null) {
+            pipeline.setSavedSeqno(partition, seqno);
+          } else if (streamFrom.withoutSavedOffset() == StreamFrom.NOW) {
+            pipeline.startFromNow(partition);
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  private List<Map<String, Object>> sourcePartitions(SourcePipeline pipeline, Short[] partitions) {
     List<Map<String, Object>> sourcePartitions = new ArrayList<>();
     for (Short partition : partitions) {
-      sourcePartitions.add(sourcePartition(partition));
+      sourcePartitions.add(sourcePartition(pipeline, partition));
     }
     return sourcePartitions;
   }
 
   /**
    * Converts a Couchbase DCP partition (also known as a vBucket) into the Map format required by Kafka Connect.
+   * Named pipelines get their own source partitions, so their offsets are tracked separately.
    */
-  private Map<String, Object> sourcePartition(short partition) {
-    final Map<String, Object> sourcePartition = new HashMap<>(3);
+  private Map<String, Object> sourcePartition(SourcePipeline pipeline, short partition) {
+    final Map<String, Object> sourcePartition = new HashMap<>(4);
     sourcePartition.put("bucket", bucket);
     sourcePartition.put("partition", String.valueOf(partition)); // Stringify for robust round-tripping across Kafka [de]serialization
     if (connectorNameInOffsets) {
       sourcePartition.put("connector", config.getConnectorName());
     }
+    if (pipeline.name() != null) {
+      sourcePartition.put("pipeline", pipeline.name());
+    }
     return sourcePartition;
   }
 
@@ -24,8 +24,12 @@ public class CouchbaseSourceTaskConfig extends CouchbaseSourceConnectorConfig {
   public static final String PARTITIONS_CONFIG = "partitions";
   private static final String PARTITIONS_DOC = "List of partitions for this task to watch for changes.";
 
+  public static final String PARTITION_COUNT_CONFIG = "partition_count";
+  private static final String PARTITION_COUNT_DOC = "Total number of partitions in the bucket.";
+
   private static ConfigDef config = baseConfigDef()
-      .define(PARTITIONS_CONFIG, ConfigDef.Type.LIST, ConfigDef.Importance.HIGH, PARTITIONS_DOC);
+      .define(PARTITIONS_CONFIG, ConfigDef.Type.LIST, ConfigDef.Importance.HIGH, PARTITIONS_DOC)
+      .define(PARTITION_COUNT_CONFIG, ConfigDef.Type.INT, 0, ConfigDef.Importance.LOW, PARTITION_COUNT_DOC);
 
   public CouchbaseSourceTaskConfig(Map<String, String> props) {
     super(config, props);
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka;
+
+/**
+ * The ways the source connector can assign records to Kafka partitions.
+ */
+public enum KafkaPartitioning {
+  /**
+   * Leave the partition unset, so the producer chooses one by hashing the record key.
+   */
+  KEY,
+
+  /**
+   * Kafka partition = vBucket ID modulo the number of Kafka partitions.
+   */
+  VBUCKET_MODULO,
+
+  /**
+   * Divide the vBuckets into contiguous ranges of (nearly) equal size, one range per Kafka partition.
+   */
+  VBUCKET_RANGE;
+
+  /**
+   * Returns the Kafka partition for records from the given vBucket,
+   * or null if the partition should be chosen by the producer.
+   *
+   * @param vBucketCount number of vBuckets in the bucket
+   * @param kafkaPartitionCount number of partitions in the Kafka topic
+   */
+  public Integer kafkaPartition(int vBucket, int vBucketCount, int kafkaPartitionCount) {
+    switch (this) {
+      case KEY:
+        return null;
+      case VBUCKET_MODULO:
+        return vBucket % kafkaPartitionCount;
+      case VBUCKET_RANGE:
+        return (int) ((long) vBucket * kafkaPartitionCount / vBucketCount);
+      default:
+        throw new AssertionError();
+    }
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka;
+
+import com.couchbase.connect.kafka.filter.Filter;
+import com.couchbase.connect.kafka.handler.source.DocumentEvent;
+import com.couchbase.connect.kafka.handler.source.SourceHandler;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntToLongFunction;
+
+/**
+ * One of the destinations a source task publishes the DCP stream to:
+ * a filter, a source handler, and a default topic with optional routing rules.
+ * <p>
+ * When a task has several pipelines, the stream resumes from the lowest seqno
+ * saved by any of them, so each pipeline remembers its own saved seqnos
+ * and skips events it already published. A pipeline with no saved seqno for a partition
+ * that resumes from another pipeline's offset applies the {@code couchbase.stream_from}
+ * fallback on its own; see {@link #startFromNow(short)}.
+ */
+class SourcePipeline {
+  private final String name;
+  private final String topic;
+  private final TopicRouter topicRouter;
+  private final Filter filter;
+  private final SourceHandler sourceHandler;
+  private final Map<Short, Long> partitionToSavedSeqno = new HashMap<>();
+  private final Set<Short> partitionsFromNow = new HashSet<>();
+
+  /**
+   * @param name the pipeline name, or null for the unnamed pipeline of a task configured the traditional way.
+   * @param topicRouter routes events to topics other than the default, or null if there are no routing rules.
+   * @param filter the event filter, or null to pass all events.
+   */
+  SourcePipeline(String name, String topic, TopicRouter topicRouter, Filter filter, SourceHandler sourceHandler) {
+    this.name = name;
+    this.topic = topic;
+    this.topicRouter = topicRouter;
+    this.filter = filter;
+    this.sourceHandler = sourceHandler;
+  }
+
+  String name() {
+    return name;
+  }
+
+  String topic() {
+    return topic;
+  }
+
+  /**
+   * Returns the topic chosen by the routing rules for the event, or the default topic if none applies.
+   */
+  String topic(DocumentEvent event) {
+    if (topicRouter == null) {
+      return topic;
+    }
+    final String routed = topicRouter.route(event);
+    return routed == null ? topic : routed;
+  }
+
+  Filter filter() {
+    return filter;
+  }
+
+  SourceHandler sourceHandler() {
+    return sourceHandler;
+  }
+
+  void setSavedSeqno(short partition, long seqno) {
+    partitionToSavedSeqno.put(partition, seqno);
+  }
+
+  /**
+   * Skips the changes the partition already had when its stream started, as if the pipeline
+   * had streamed from now. For a partition the pipeline has no saved seqno for, when the stream
+   * resumes from another pipeline's offset and {@code couchbase.stream_from} falls back to now.
+   */
+  void startFromNow(short partition) {
+    partitionsFromNow.add(partition);
+  }
+
+  /**
+   * Forgets the partition's saved seqno. After a rollback, the server may send changes
+   * with seqnos the pipeline already published, but they're different changes.
+   */
+  void rolledBack(short partition) {
+    partitionToSavedSeqno.remove(partition);
+    partitionsFromNow.remove(partition);
+  }
+
+  /**
+   * Returns true if the pipeline published the event before the task restarted,
+   * or the event is older than where the pipeline starts from.
+   *
+   * @param nowSeqnos gives the seqno each partition had when its stream started
+   */
+  boolean alreadyPublished(DocumentEvent event, IntToLongFunction nowSeqnos) {
+    if (!partitionsFromNow.isEmpty() && partitionsFromNow.remove(event.vBucket())) {
+      partitionToSavedSeqno.put(event.vBucket(), nowSeqnos.applyAsLong(event.vBucket()));
+    }
+    if (partitionToSavedSeqno.isEmpty()) {
+      return false;
+    }
+    final Long savedSeqno = partitionToSavedSeqno.get(event.vBucket());
+    if (savedSeqno == null) {
+      return false;
+    }
+    if (event.bySeqno() > savedSeqno) {
+      // Caught up; stop checking this partition (and don't get confused by a later rollback).
+      partitionToSavedSeqno.remove(event.vBucket());
+      return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka;
+
+import com.couchbase.client.dcp.message.DcpMutationMessage;
+import com.couchbase.client.dcp.message.MessageUtil;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.connect.kafka.handler.source.DocumentEvent;
+import com.couchbase.connect.kafka.util.ByteTrie;
+import com.couchbase.connect.kafka.util.JsonPointerSet;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.connect.errors.DataException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chooses a topic for each document from a list of routing rules, compiled once
+ * when the task starts.
+ * <p>
+ * A rule {@code key:<prefix>=<topic>} routes documents whose key starts with the prefix.
+ * Key prefixes are matched against the raw key bytes of the DCP message using a trie,
+ * and the longest matching prefix wins.
+ * <p>
+ * A rule {@code field:<JSON pointer>=<topic template>} routes documents by the value of a field,
+ * which replaces {@code ${value}} in the template. The rule matches only if the field
+ * is a string, number or boolean and the resulting topic name is valid.
+ * Field values are found in a single streaming pass that stops as soon as the outcome is known.
+ * Topic names built from templates are cached per rule, so documents with a recently seen
+ * field value get the same topic String instance without any string building.
+ * <p>
+ * Key rules are tried first, then field rules in the order given.
+ * <p>
+ * Not thread-safe.
+ */
+class TopicRouter {
+  static final String VALUE_PLACEHOLDER = "${value}";
+
+  private static final JsonFactory jsonFactory = new JsonFactory();
+
+  /**
+   * Maximum number of distinct field values to remember the topic for, per field rule.
+   */
+  private static final int MAX_CACHED_TOPICS = 1024;
+
+  private static final int MAX_TOPIC_NAME_LENGTH = 249;
+
+  // Sentinels, compared by identity.
+  private static final String UNUSABLE = new String("unusable");
+  private static final String INVALID_TOPIC = new String("invalid");
+  private static final String NO_ROUTE = new String("none");
+
+  private static class FieldRule {
+    private final int valueIndex;
+    private final String topicPrefix;
+    private final String topicSuffix; // null if the template has no placeholder
+    private final Map<String, String> valueToTopic = new LinkedHashMap<String, String>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+        return size() > MAX_CACHED_TOPICS;
+      }
+    };
+
+    private FieldRule(int valueIndex, String template) {
+      this.valueIndex = valueIndex;
+      final int i = template.indexOf(VALUE_PLACEHOLDER);
+      if (i < 0) {
+        this.topicPrefix = template;
+        this.topicSuffix = null;
+      } else {
+        this.topicPrefix = template.substring(0, i);
+        this.topicSuffix = template.substring(i + VALUE_PLACEHOLDER.length());
+      }
+    }
+
+    /**
+     * @return the topic for the field value, or null if it doesn't yield a valid topic name
+     */
+    private String topic(String value) {
+      if (topicSuffix == null) {
+        return topicPrefix;
+      }
+      String topic = valueToTopic.get(value);
+      if (topic == null) {
+        final String candidate = topicPrefix + value + topicSuffix;
+        topic = isValidTopicName(candidate) ? candidate : INVALID_TOPIC;
+        valueToTopic.put(value, topic);
+      }
+      return topic == INVALID_TOPIC ? null : topic;
+    }
+  }
+
+  private final ByteTrie<String> keyPrefixes = ByteTrie.prefixes();
+  private final boolean hasKeyRules;
+  private final JsonPointerSet pointers = new JsonPointerSet();
+  private final JsonPointerSet.Visitor<String[], String> visitor = this::visit;
+  private final List<FieldRule> fieldRules = new ArrayList<>();
+
+  /**
+   * @param rules routing rules in the syntax described above
+   * @param configKey the config property the rules came from, for error messages
+   * @throws ConfigException if a rule is malformed
+   */
+  TopicRouter(List<String> rules, String configKey) {
+    boolean keyRules = false;
+    for (String rule : rules) {
+      final int eq = rule.lastIndexOf('=');
+      if (eq < 0) {
+        throw new ConfigException(configKey, rule, "Routing rule must have the form 'key:<prefix>=<topic>' or 'field:<JSON pointer>=<topic template>'");
+      }
+      final String selector = rule.substring(0, eq).trim();
+      final String topic = rule.substring(eq + 1).trim();
+
+      if (selector.startsWith("key:")) {
+        if (!isValidTopicName(topic)) {
+          throw new ConfigException(configKey, rule, "Invalid topic name '" + topic + "'");
+        }
+        final String prefix = selector.substring("key:".length());
+        if (keyPrefixes.put(prefix, topic) != null) {
+          throw new ConfigException(configKey, rule, "Duplicate key prefix '" + prefix + "'");
+        }
+        keyRules = true;
+
+      } else if (selector.startsWith("field:")) {
+        if (!isValidTopicName(topic.replace(VALUE_PLACEHOLDER, "x"))) {
+          throw new ConfigException(configKey, rule, "Invalid topic template '" + topic + "'");
+        }
+        final int valueIndex;
+        try {
+          valueIndex = pointers.add(selector.substring("field:".length()));
+        } catch (IllegalArgumentException e) {
+          throw new ConfigException(configKey, rule, e.getMessage());
+        }
+        fieldRules.add(new FieldRule(valueIndex, topic));
+
+      } else {
+        throw new ConfigException(configKey, rule, "Routing rule must start with 'key:' or 'field:'");
+      }
+    }
+    this.hasKeyRules = keyRules;
+  }
+
+  boolean isEmpty() {
+    return !hasKeyRules && fieldRules.isEmpty();
+  }
+
+  /**
+   * @param event a DCP mutation, deletion or expiration
+   * @return the topic for the document, or null if no rule matches
+   */
+  String route(DocumentEvent event) {
+    final ByteBuf message = event.rawDcpEvent();
+    if (hasKeyRules) {
+      final String topic = routeByKey(message);
+      if (topic != null) {
+        return topic;
+      }
+    }
+    if (fieldRules.isEmpty() || !DcpMutationMessage.is(message)) {
+      return null;
+    }
+    return routeByContent(event.content());
+  }
+
+  private String routeByKey(ByteBuf message) {
+    final int keyLength = message.getUnsignedShort(message.readerIndex() + MessageUtil.KEY_LENGTH_OFFSET);
+    final int keyIndex = message.readerIndex() + MessageUtil.HEADER_SIZE
+        + message.getUnsignedByte(message.readerIndex() + MessageUtil.EXTRAS_LENGTH_OFFSET);
+
+    return keyPrefixes.longestMatch(message, keyIndex, keyLength);
+  }
+
+  private String routeByContent(byte[] content) {
+    final String[] values = new String[pointers.size()];
+    try (JsonParser parser = jsonFactory.createParser(content)) {
+      final String topic = pointers.scan(parser, values, visitor);
+      if (topic != null) {
+        return topic == NO_ROUTE ? null : topic;
+      }
+    } catch (JsonProcessingException e) {
+      // Not JSON, or malformed; decide based on whatever was read before the error.
+    } catch (IOException e) {
+      throw new DataException("Failed to read document content for topic routing", e);
+    }
+    final String topic = evaluate(values, true);
+    return topic == NO_ROUTE ? null : topic;
+  }
+
+  /**
+   * @return the topic, {@link #NO_ROUTE}, or null if the outcome depends on values not seen yet
+   */
+  private String visit(String[] values, int index, JsonParser parser, JsonToken token) throws IOException {
+    if (values[index] != null) {
+      return null;
+    }
+    values[index] = token.isScalarValue() && token != JsonToken.VALUE_NULL ? parser.getText() : UNUSABLE;
+    return evaluate(values, false);
+  }
+
+  /**
+   * @param values the value at each pointer; null if not seen yet
+   * @param complete whether the whole document has been read (unseen values are missing)
+   * @return the topic of the first matching rule, {@link #NO_ROUTE} if no rule matches,
+   * or null if the outcome depends on values not seen yet
+   */
+  private String evaluate(String[] values, boolean complete) {
+    for (FieldRule rule : fieldRules) {
+      final String value = values[rule.valueIndex];
+      if (value == null) {
+        if (!complete) {
+          return null; // an earlier rule takes precedence, and might still match
+        }
+        continue;
+      }
+      if (value != UNUSABLE) {
+        final String topic = rule.topic(value);
+        if (topic != null) {
+          return topic;
+        }
+      }
+    }
+    return NO_ROUTE;
+  }
+
+  static boolean isValidTopicName(String name) {
+    if (name.isEmpty() || name.length() > MAX_TOPIC_NAME_LENGTH || name.equals(".") || name.equals("..")) {
+      return false;
+    }
+    for (int i = 0; i < name.length(); i++) {
+      final char c = name.charAt(i);
+      if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '_' || c == '-')) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
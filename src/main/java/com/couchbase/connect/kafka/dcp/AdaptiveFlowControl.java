@@ -0,0 +1,217 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.dcp;
+
+import com.couchbase.client.dcp.transport.netty.ChannelFlowController;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Sizes the flow control window of each DCP connection between a lower and upper bound,
+ * so a task buffers about as much as its downstream can take, instead of a fixed amount.
+ * <p>
+ * The server's buffer size is fixed when the connection opens, so the window is narrowed by
+ * withholding acknowledgements: to keep a connection's window at {@code W} bytes out of a
+ * buffer of {@code B}, up to {@code B - W} bytes of processed messages stay unacknowledged.
+ * Widening the window acknowledges them. The DCP client acknowledges to the server only
+ * after collecting {@link #ackWatermarkPercent()} of the buffer, which is kept
+ * below half the smallest window so a narrowed window never stalls the stream.
+ * <p>
+ * About once a second, the task's next poll resizes the window:
+ * <ul>
+ * <li>If live heap (after the last garbage collection) is above 80% of the maximum, it halves.
+ * <li>Otherwise, if a poll found the queue empty, the window was what kept the task waiting,
+ * so it doubles.
+ * <li>Otherwise the task is the bottleneck, and the window is set to hold one second's worth
+ * of what the task drained from each connection over the last interval.
+ * </ul>
+ * Acknowledgements and resizing happen on the task thread; connections are registered
+ * by the DCP IO threads.
+ */
+public class AdaptiveFlowControl {
+  private static final Logger LOGGER = LoggerFactory.getLogger(AdaptiveFlowControl.class);
+
+  private static final long UPDATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final long IDLE_CONNECTION_NANOS = TimeUnit.MINUTES.toNanos(1);
+  private static final double HIGH_HEAP_USAGE = 0.8;
+
+  private final int maxWindowBytes;
+  private final int minWindowBytes;
+  private final DoubleSupplier heapUsage;
+  private final LongSupplier nanoTime;
+  private final ConcurrentMap<ChannelFlowController, Connection> connections = new ConcurrentHashMap<>();
+
+  private int windowBytes;
+  private long intervalStartNanos;
+  private long drainedBytes;
+  private boolean starved;
+
+  /**
+   * @param maxWindowBytes the flow control buffer size given to the DCP client
+   * @param minWindowBytes the smallest window; at most {@code maxWindowBytes}
+   */
+  public AdaptiveFlowControl(int maxWindowBytes, int minWindowBytes) {
+    this(maxWindowBytes, minWindowBytes, AdaptiveFlowControl::liveHeapUsage, System::nanoTime);
+  }
+
+  AdaptiveFlowControl(int maxWindowBytes, int minWindowBytes, DoubleSupplier heapUsage, LongSupplier nanoTime) {
+    if (minWindowBytes <= 0 || minWindowBytes > maxWindowBytes) {
+      throw new IllegalArgumentException("Minimum window " + minWindowBytes + " must be positive and at most " + maxWindowBytes);
+    }
+    this.maxWindowBytes = maxWindowBytes;
+    this.minWindowBytes = minWindowBytes;
+    this.heapUsage = heapUsage;
+    this.nanoTime = nanoTime;
+    this.windowBytes = maxWindowBytes;
+    this.intervalStartNanos = nanoTime.getAsLong();
+  }
+
+  /**
+   * Returns the buffer ack watermark to give the DCP client, as a percentage of the buffer size.
+   */
+  public int ackWatermarkPercent() {
+    final long percent = 50L * minWindowBytes / maxWindowBytes;
+    return (int) Math.max(1, Math.min(60, percent));
+  }
+
+  /**
+   * Returns a flow controller that acknowledges through this window.
+   */
+  public ChannelFlowController wrap(ChannelFlowController channel) {
+    return connections.computeIfAbsent(channel, Connection::new);
+  }
+
+  /**
+   * The current window of each connection.
+   */
+  public int windowBytes() {
+    return windowBytes;
+  }
+
+  /**
+   * Called by the task at the start of each poll.
+   *
+   * @param queueEmpty whether the poll found no events waiting
+   */
+  public void onPoll(boolean queueEmpty) {
+    starved |= queueEmpty;
+    final long nowNanos = nanoTime.getAsLong();
+    final long elapsed = nowNanos - intervalStartNanos;
+    if (elapsed < UPDATE_INTERVAL_NANOS) {
+      return;
+    }
+
+    final int previous = windowBytes;
+    final long target;
+    if (heapUsage.getAsDouble() > HIGH_HEAP_USAGE) {
+      target = windowBytes / 2;
+    } else if (starved) {
+      target = 2L * windowBytes;
+    } else {
+      target = drainedBytes * UPDATE_INTERVAL_NANOS / elapsed / Math.max(1, connections.size());
+    }
+    windowBytes = (int) Math.max(minWindowBytes, Math.min(maxWindowBytes, target));
+    if (windowBytes != previous) {
+      LOGGER.debug("Flow control window resized from {} to {} bytes", previous, windowBytes);
+    }
+
+    for (Iterator<Connection> i = connections.values().iterator(); i.hasNext(); ) {
+      final Connection connection = i.next();
+      if (nowNanos - connection.lastAckNanos > IDLE_CONNECTION_NANOS) {
+        // Most likely closed. If not, the next message gets a fresh connection,
+        // and messages already holding this one acknowledge in full.
+        connection.retired = true;
+        i.remove();
+      }
+      connection.settle(0);
+    }
+
+    intervalStartNanos = nowNanos;
+    drainedBytes = 0;
+    starved = false;
+  }
+
+  private class Connection implements ChannelFlowController {
+    private final ChannelFlowController channel;
+    private int withheldBytes;
+    private long lastAckNanos = nanoTime.getAsLong();
+    private boolean retired;
+
+    Connection(ChannelFlowController channel) {
+      this.channel = channel;
+    }
+
+    @Override
+    public void ack(ByteBuf message) {
+      ack(message.readableBytes());
+    }
+
+    @Override
+    public void ack(int numBytes) {
+      drainedBytes += numBytes;
+      lastAckNanos = nanoTime.getAsLong();
+      settle(numBytes);
+    }
+
+    /**
+     * Acknowledges the bytes, holding back or adding withheld bytes to match the window.
+     */
+    private void settle(int numBytes) {
+      final int excess = (retired ? 0 : maxWindowBytes - windowBytes) - withheldBytes;
+      if (excess > 0) {
+        final int withhold = Math.min(numBytes, excess);
+        withheldBytes += withhold;
+        numBytes -= withhold;
+      } else {
+        final int release = Math.min(withheldBytes, -excess);
+        withheldBytes -= release;
+        numBytes += release;
+      }
+      if (numBytes > 0) {
+        channel.ack(numBytes);
+      }
+    }
+  }
+
+  /**
+   * Returns the fraction of the maximum heap that was still in use after the last garbage collection.
+   */
+  private static double liveHeapUsage() {
+    long used = 0;
+    long max = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      final MemoryUsage usage = pool.getType() == MemoryType.HEAP ? pool.getCollectionUsage() : null;
+      if (usage != null && usage.getMax() > 0) {
+        used += usage.getUsed();
+        max += usage.getMax();
+      }
+    }
+    return max == 0 ? 0 : (double) used / max;
+  }
+}
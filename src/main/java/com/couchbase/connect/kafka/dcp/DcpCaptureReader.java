@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.dcp;
+
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.Unpooled;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Reads the messages recorded by a {@link DcpCaptureWriter}, in the order they were received.
+ * Not thread-safe.
+ */
+public class DcpCaptureReader implements Closeable {
+
+  public static class Frame {
+    private final long nanos;
+    private final short vBucket;
+    private final boolean control;
+    private final ByteBuf message;
+
+    private Frame(long nanos, short vBucket, boolean control, ByteBuf message) {
+      this.nanos = nanos;
+      this.vBucket = vBucket;
+      this.control = control;
+      this.message = message;
+    }
+
+    /**
+     * Nanoseconds between the start of the capture and the arrival of this message.
+     */
+    public long nanos() {
+      return nanos;
+    }
+
+    /**
+     * The message's vBucket, or -1 if the message is a response.
+     */
+    public short vBucket() {
+      return vBucket;
+    }
+
+    public boolean isControl() {
+      return control;
+    }
+
+    /**
+     * The message as the server sent it. The caller must release it.
+     */
+    public ByteBuf message() {
+      return message;
+    }
+  }
+
+  private final File file;
+  private final DataInputStream in;
+  private final long startMillis;
+
+  public DcpCaptureReader(File file) throws IOException {
+    this.file = file;
+    this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1024 * 1024));
+    try {
+      final byte[] magic = new byte[DcpCaptureWriter.MAGIC.length];
+      in.readFully(magic);
+      if (!Arrays.equals(magic, DcpCaptureWriter.MAGIC)) {
+        throw new IOException("Not a DCP capture file: " + file);
+      }
+      final int version = in.readInt();
+      if (version != DcpCaptureWriter.VERSION) {
+        throw new IOException("Unsupported DCP capture version " + version + " in " + file);
+      }
+      this.startMillis = in.readLong();
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Wall clock time the capture started, in epoch millis.
+   */
+  public long startMillis() {
+    return startMillis;
+  }
+
+  /**
+   * Returns the next message, or null at the end of the capture.
+   */
+  public Frame next() throws IOException {
+    try {
+      final long nanos = in.readLong();
+      final short vBucket = in.readShort();
+      final boolean control = in.readByte() != 0;
+      final int length = in.readInt();
+      if (length < 0) {
+        throw new IOException("Corrupt DCP capture file: " + file);
+      }
+      final byte[] message = new byte[length];
+      in.readFully(message);
+      return new Frame(nanos, vBucket, control, Unpooled.wrappedBuffer(message));
+    } catch (EOFException e) {
+      return null; // end of capture, or a partial message written just before a crash
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+}
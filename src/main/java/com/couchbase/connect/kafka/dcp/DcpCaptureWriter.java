@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.dcp;
+
+import com.couchbase.client.dcp.message.MessageUtil;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Records DCP messages exactly as the server sent them, so a stream can be replayed
+ * later without a cluster. {@link DcpCaptureReader} reads the file back.
+ * <p>
+ * The file starts with the 8 bytes {@code CBDCPCAP}, a format version (int) and the
+ * wall clock time the capture started (long, epoch millis). Each message follows as:
+ * <pre>
+ * long   nanoseconds since the capture started
+ * short  vBucket, or -1 if the message is a response
+ * byte   1 for a control message, 0 for a data message
+ * int    message length
+ * byte[] message
+ * </pre>
+ * All numbers are big-endian. The file is buffered and flushed when closed, so a capture
+ * cut short by a crash may end with a partial message; the reader ignores it.
+ * <p>
+ * Thread-safe. A write error is logged once and stops the capture; it doesn't
+ * interrupt the stream.
+ */
+public class DcpCaptureWriter implements Closeable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DcpCaptureWriter.class);
+
+  static final byte[] MAGIC = {'C', 'B', 'D', 'C', 'P', 'C', 'A', 'P'};
+  static final int VERSION = 1;
+
+  private final File file;
+  private final DataOutputStream out;
+  private final long startNanos;
+  private long messages;
+  private boolean failed;
+
+  public DcpCaptureWriter(File file) throws IOException {
+    this.file = file;
+    this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1024 * 1024));
+    this.startNanos = System.nanoTime();
+    out.write(MAGIC);
+    out.writeInt(VERSION);
+    out.writeLong(System.currentTimeMillis());
+  }
+
+  public File file() {
+    return file;
+  }
+
+  /**
+   * Appends a copy of the message. Doesn't change the message's reader index or reference count.
+   */
+  public synchronized void write(ByteBuf message, boolean control) {
+    if (failed) {
+      return;
+    }
+    final long nanos = System.nanoTime() - startNanos;
+    try {
+      final int length = message.readableBytes();
+      out.writeLong(nanos);
+      out.writeShort(message.getByte(message.readerIndex()) == MessageUtil.MAGIC_REQ
+          ? MessageUtil.getVbucket(message) : -1);
+      out.writeByte(control ? 1 : 0);
+      out.writeInt(length);
+      message.getBytes(message.readerIndex(), out, length);
+      messages++;
+    } catch (IOException e) {
+      LOGGER.warn("Failed to write DCP capture {}; capture stopped after {} messages", file, messages, e);
+      failed = true;
+    }
+  }
+
+  public synchronized long messages() {
+    return messages;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    failed = true; // ignore messages from readers that are still shutting down
+    out.close();
+    LOGGER.info("Captured {} DCP messages to {}", messages, file);
+  }
+}
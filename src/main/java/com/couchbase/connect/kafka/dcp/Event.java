@@ -24,4 +24,9 @@ public interface Event extends Iterable<ByteBuf> {
   Iterator<ByteBuf> iterator();
 
   void ack();
+
+  /**
+   * Releases the resources held by the event, once it has been processed or discarded.
+   */
+  void release();
 }
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.dcp;
+
+import com.couchbase.client.dcp.message.DcpMutationMessage;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A queue of events that takes turns between vBuckets instead of returning events in arrival order,
+ * so a hot vBucket or a large backfill can't fill every poll batch while other vBuckets wait.
+ * <p>
+ * Each vBucket has its own FIFO lane, so its changes keep their order. Lanes with waiting events
+ * are served by deficit round-robin: on its turn, a lane is credited with a number of events
+ * in proportion to its backlog relative to the average backlog (at least one), and is served until
+ * the credit runs out. A lane that has fallen behind catches up faster, but every waiting lane
+ * gets a turn each round. The queue never holds back an event when there is one to return,
+ * so throughput is the same as with a plain FIFO queue.
+ * <p>
+ * Events with no vBucket, like {@link Wakeup}, go ahead of all lanes.
+ * <p>
+ * Unbounded and thread-safe. The iterator returns a snapshot of the queued events and doesn't support removal.
+ */
+public class FairEventQueue extends AbstractQueue<Event> implements BlockingQueue<Event> {
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+
+  private final ArrayDeque<Event> control = new ArrayDeque<>();
+  private Lane[] lanes = new Lane[1024];
+  private final ArrayDeque<Lane> active = new ArrayDeque<>();
+  private int size;
+
+  private static class Lane {
+    private final ArrayDeque<Event> events = new ArrayDeque<>();
+    private int credit;
+  }
+
+  @Override
+  public boolean offer(Event event) {
+    lock.lock();
+    try {
+      if (event instanceof Wakeup) {
+        control.add(event);
+      } else {
+        final Lane lane = lane(partition(event));
+        if (lane.events.isEmpty()) {
+          active.add(lane);
+        }
+        lane.events.add(event);
+      }
+      size++;
+      notEmpty.signal();
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void put(Event event) {
+    offer(event);
+  }
+
+  @Override
+  public boolean offer(Event event, long timeout, TimeUnit unit) {
+    return offer(event);
+  }
+
+  @Override
+  public Event poll() {
+    lock.lock();
+    try {
+      return dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Event take() throws InterruptedException {
+    lock.lockInterruptibly();
+    try {
+      while (size == 0) {
+        notEmpty.await();
+      }
+      return dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Event poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long nanos = unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try {
+      while (size == 0) {
+        if (nanos <= 0) {
+          return null;
+        }
+        nanos = notEmpty.awaitNanos(nanos);
+      }
+      return dequeue();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Event peek() {
+    lock.lock();
+    try {
+      if (!control.isEmpty()) {
+        return control.peek();
+      }
+      final Lane lane = active.peek();
+      return lane == null ? null : lane.events.peek();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int size() {
+    lock.lock();
+    try {
+      return size;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public int remainingCapacity() {
+    return Integer.MAX_VALUE;
+  }
+
+  @Override
+  public int drainTo(Collection<? super Event> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  @Override
+  public int drainTo(Collection<? super Event> c, int maxElements) {
+    lock.lock();
+    try {
+      int count = 0;
+      while (count < maxElements && size > 0) {
+        c.add(dequeue());
+        count++;
+      }
+      return count;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public Iterator<Event> iterator() {
+    lock.lock();
+    try {
+      final List<Event> events = new ArrayList<>(size);
+      events.addAll(control);
+      for (Lane lane : active) {
+        events.addAll(lane.events);
+      }
+      return Collections.unmodifiableList(events).iterator();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Removes the next event. Must hold the lock.
+   */
+  private Event dequeue() {
+    if (size == 0) {
+      return null;
+    }
+    if (!control.isEmpty()) {
+      size--;
+      return control.poll();
+    }
+
+    final Lane lane = active.peek();
+    if (lane.credit <= 0) {
+      // Start of this lane's turn: credit it in proportion to how far behind it is.
+      // Every event is in a lane, so the average backlog is size / active.size().
+      lane.credit = (int) Math.max(1, (long) lane.events.size() * active.size() / size);
+    }
+    size--;
+    final Event event = lane.events.poll();
+    lane.credit--;
+
+    if (lane.events.isEmpty()) {
+      lane.credit = 0;
+      active.poll();
+    } else if (lane.credit <= 0) {
+      active.add(active.poll());
+    }
+    return event;
+  }
+
+  private Lane lane(int partition) {
+    if (partition >= lanes.length) {
+      lanes = Arrays.copyOf(lanes, partition + 1);
+    }
+    if (lanes[partition] == null) {
+      lanes[partition] = new Lane();
+    }
+    return lanes[partition];
+  }
+
+  private static int partition(Event event) {
+    if (event instanceof Snapshot) {
+      return ((Snapshot) event).partition() & 0xFFFF;
+    }
+    if (event instanceof Rollback) {
+      return ((Rollback) event).partition() & 0xFFFF;
+    }
+    if (event instanceof Message) {
+      return DcpMutationMessage.partition(((Message) event).message()) & 0xFFFF;
+    }
+    throw new IllegalArgumentException("Unexpected event: " + event);
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.dcp;
+
+import com.couchbase.client.dcp.message.MessageUtil;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Finds the document change messages in a window that are superseded by a later
+ * change to the same document in the same vBucket.
+ * <p>
+ * Documents are identified by the raw key bytes of the DCP messages, using an open-addressing
+ * hash table of message positions, so no key is decoded and nothing is allocated per message.
+ * <p>
+ * The last message of each vBucket is never superseded, since no later message exists,
+ * so dropping the superseded messages does not change the highest seqno seen for any vBucket.
+ * <p>
+ * Not thread-safe; the table is reused from one window to the next.
+ */
+public class KeyCompactor {
+  // Slot holds the message position plus one; zero means empty.
+  private int[] slots = new int[0];
+  private int[] slotHashes = new int[0];
+
+  /**
+   * @param messages the messages of the window, in the order they were received
+   * @return the positions of the messages superseded by a later message in the list
+   */
+  public BitSet superseded(List<ByteBuf> messages) {
+    final BitSet result = new BitSet(messages.size());
+    final int capacity = Integer.highestOneBit(Math.max(16, messages.size() * 2 - 1)) << 1;
+    if (slots.length < capacity) {
+      slots = new int[capacity];
+      slotHashes = new int[capacity];
+    } else {
+      Arrays.fill(slots, 0);
+    }
+    final int mask = slots.length - 1;
+
+    // Latest first, so the first occurrence of a key is the one that's kept.
+    for (int i = messages.size() - 1; i >= 0; i--) {
+      final ByteBuf message = messages.get(i);
+      if (EventType.of(message) == null) {
+        continue;
+      }
+      final int hash = hash(message);
+      for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+        final int occupant = slots[slot];
+        if (occupant == 0) {
+          slots[slot] = i + 1;
+          slotHashes[slot] = hash;
+          break;
+        }
+        if (slotHashes[slot] == hash && sameDocument(messages.get(occupant - 1), message)) {
+          result.set(i);
+          break;
+        }
+      }
+    }
+    return result;
+  }
+
+  private static int keyIndex(ByteBuf message) {
+    return message.readerIndex() + MessageUtil.HEADER_SIZE
+        + message.getUnsignedByte(message.readerIndex() + MessageUtil.EXTRAS_LENGTH_OFFSET);
+  }
+
+  private static int keyLength(ByteBuf message) {
+    return message.getUnsignedShort(message.readerIndex() + MessageUtil.KEY_LENGTH_OFFSET);
+  }
+
+  /**
+   * FNV-1a over the vBucket ID and the key bytes.
+   */
+  private static int hash(ByteBuf message) {
+    int h = 0x811c9dc5;
+    final short vBucket = MessageUtil.getVbucket(message);
+    h = (h ^ (vBucket & 0xff)) * 0x01000193;
+    h = (h ^ ((vBucket >> 8) & 0xff)) * 0x01000193;
+
+    final int keyIndex = keyIndex(message);
+    final int keyLength = keyLength(message);
+    for (int i = 0; i < keyLength; i++) {
+      h = (h ^ (message.getByte(keyIndex + i) & 0xff)) * 0x01000193;
+    }
+    return h ^ (h >>> 16);
+  }
+
+  private static boolean sameDocument(ByteBuf a, ByteBuf b) {
+    if (MessageUtil.getVbucket(a) != MessageUtil.getVbucket(b)) {
+      return false;
+    }
+    final int length = keyLength(a);
+    if (length != keyLength(b)) {
+      return false;
+    }
+    final int aIndex = keyIndex(a);
+    final int bIndex = keyIndex(b);
+    for (int i = 0; i < length; i++) {
+      if (a.getByte(aIndex + i) != b.getByte(bIndex + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
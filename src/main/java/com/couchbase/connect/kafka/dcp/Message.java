@@ -24,10 +24,20 @@ import java.util.Iterator;
 public class Message implements Event {
   private final ByteBuf message;
   private final ChannelFlowController flowController;
+  private final int ackBytes;
 
   public Message(ByteBuf message, ChannelFlowController flowController) {
+    this(message, flowController, message.readableBytes());
+  }
+
+  /**
+   * @param ackBytes number of bytes to acknowledge to the flow controller. Differs from the
+   * size of the message if the message is a trimmed copy of what the server sent.
+   */
+  public Message(ByteBuf message, ChannelFlowController flowController, int ackBytes) {
     this.message = message;
     this.flowController = flowController;
+    this.ackBytes = ackBytes;
   }
 
   public ByteBuf message() {
@@ -41,7 +51,12 @@ public class Message implements Event {
 
   @Override
   public void ack() {
-    flowController.ack(message);
+    flowController.ack(ackBytes);
+  }
+
+  @Override
+  public void release() {
+    message.release();
   }
 
   private class SingleMessageIterator implements Iterator<ByteBuf> {
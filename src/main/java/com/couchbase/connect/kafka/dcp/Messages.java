@@ -0,0 +1,47 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.dcp;
+
+import com.couchbase.client.dcp.message.MessageUtil;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+
+/**
+ * Helpers for working with raw DCP messages.
+ */
+public class Messages {
+  private static final int DATATYPE_OFFSET = 5;
+  private static final int BODY_LENGTH_OFFSET = 8;
+
+  /**
+   * Returns a new buffer holding a copy of the message's header, extras and key,
+   * but not its value. The original message is not modified or released.
+   * <p>
+   * The copy's datatype is "raw", since whatever the value was (JSON, compressed, with xattrs)
+   * it is now empty.
+   */
+  public static ByteBuf withoutValue(ByteBuf message) {
+    final int extrasLength = message.getUnsignedByte(MessageUtil.EXTRAS_LENGTH_OFFSET);
+    final int keyLength = message.getUnsignedShort(MessageUtil.KEY_LENGTH_OFFSET);
+    final int length = MessageUtil.HEADER_SIZE + extrasLength + keyLength;
+
+    final ByteBuf copy = message.alloc().buffer(length);
+    copy.writeBytes(message, message.readerIndex(), length);
+    copy.setByte(DATATYPE_OFFSET, 0);
+    copy.setInt(BODY_LENGTH_OFFSET, extrasLength + keyLength);
+    return copy;
+  }
+}
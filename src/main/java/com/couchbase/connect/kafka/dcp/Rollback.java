@@ -0,0 +1,65 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.dcp;
+
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+
+import java.util.Collections;
+import java.util.Iterator;
+
+/**
+ * An event with no messages, put on the task's queue when a partition rolls back,
+ * so the task learns of the rollback before it sees the changes the server sends next.
+ */
+public final class Rollback implements Event {
+  private final short partition;
+  private final long seqno;
+
+  public Rollback(short partition, long seqno) {
+    this.partition = partition;
+    this.seqno = seqno;
+  }
+
+  public short partition() {
+    return partition;
+  }
+
+  /**
+   * The seqno the partition rolled back to.
+   */
+  public long seqno() {
+    return seqno;
+  }
+
+  @Override
+  public Iterator<ByteBuf> iterator() {
+    return Collections.emptyIterator();
+  }
+
+  @Override
+  public void ack() {
+  }
+
+  @Override
+  public void release() {
+  }
+
+  @Override
+  public String toString() {
+    return "Rollback{partition=" + partition + ", seqno=" + seqno + "}";
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.dcp;
+
+import com.couchbase.client.dcp.state.FailoverLogEntry;
+import com.couchbase.client.dcp.state.PartitionState;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Saves and restores the DCP session state of a source task's partitions
+ * (seqnos, snapshot markers and failover logs) using a compact local file.
+ * <p>
+ * Kafka offsets only record the seqno of the last published event, so without
+ * this checkpoint the vBucket UUIDs and snapshot boundaries must be rebuilt
+ * (and the failover logs fetched again) every time the task starts.
+ * <p>
+ * The file is replaced atomically, and carries a checksum so a truncated
+ * or otherwise damaged file is detected when read.
+ */
+public class SessionStateCheckpoint {
+  private static final int MAGIC = 0x43424B53; // "CBKS"
+  private static final byte FORMAT_VERSION = 1;
+  private static final int MAX_COPY_ATTEMPTS = 10;
+
+  private final File file;
+
+  public SessionStateCheckpoint(File file) {
+    this.file = file;
+  }
+
+  public File file() {
+    return file;
+  }
+
+  /**
+   * Atomically replaces the checkpoint file with the given state.
+   */
+  public void write(Map<Short, PartitionState> partitionToState) throws IOException {
+    final File tempFile = new File(file.getPath() + ".tmp");
+
+    try (FileOutputStream fileOut = new FileOutputStream(tempFile)) {
+      final CRC32 crc = new CRC32();
+      final DataOutputStream out = new DataOutputStream(
+          new CheckedOutputStream(new BufferedOutputStream(fileOut), crc));
+
+      out.writeInt(MAGIC);
+      out.writeByte(FORMAT_VERSION);
+      out.writeInt(partitionToState.size());
+      for (Map.Entry<Short, PartitionState> entry : partitionToState.entrySet()) {
+        final PartitionState ps = entry.getValue();
+        out.writeShort(entry.getKey());
+        out.writeLong(ps.getStartSeqno());
+        out.writeLong(ps.getSnapshotStartSeqno());
+        out.writeLong(ps.getSnapshotEndSeqno());
+
+        final List<FailoverLogEntry> failoverLog = ps.getFailoverLog();
+        out.writeInt(failoverLog.size());
+        for (FailoverLogEntry failoverLogEntry : failoverLog) {
+          out.writeLong(failoverLogEntry.getUuid());
+          out.writeLong(failoverLogEntry.getSeqno());
+        }
+      }
+      out.flush();
+
+      // Not part of the checksummed content, so bypass the checked stream.
+      fileOut.write(ByteBuffer.allocate(Long.BYTES).putLong(crc.getValue()).array());
+      fileOut.getFD().sync();
+    }
+
+    Files.move(tempFile.toPath(), file.toPath(),
+        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * @return the saved state of each partition, or an empty map if there is no checkpoint file.
+   * @throws IOException if the checkpoint file could not be read or is damaged
+   */
+  public Map<Short, PartitionState> read() throws IOException {
+    if (!file.exists()) {
+      return Collections.emptyMap();
+    }
+
+    final byte[] bytes = Files.readAllBytes(file.toPath());
+    if (bytes.length < Long.BYTES) {
+      throw new IOException("Checkpoint file " + file + " is truncated");
+    }
+
+    final int contentLength = bytes.length - Long.BYTES;
+    final CRC32 crc = new CRC32();
+    crc.update(bytes, 0, contentLength);
+    if (crc.getValue() != ByteBuffer.wrap(bytes, contentLength, Long.BYTES).getLong()) {
+      throw new IOException("Checkpoint file " + file + " is damaged (checksum mismatch)");
+    }
+
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, contentLength));
+    if (in.readInt() != MAGIC) {
+      throw new IOException("File " + file + " is not a session state checkpoint");
+    }
+    final byte version = in.readByte();
+    if (version != FORMAT_VERSION) {
+      throw new IOException("Unsupported checkpoint format version " + version + " in " + file);
+    }
+
+    final int partitionCount = in.readInt();
+    final Map<Short, PartitionState> result = new HashMap<>(partitionCount * 2);
+    for (int i = 0; i < partitionCount; i++) {
+      final short partition = in.readShort();
+      final PartitionState ps = new PartitionState();
+      ps.setStartSeqno(in.readLong());
+      ps.setSnapshotStartSeqno(in.readLong());
+      ps.setSnapshotEndSeqno(in.readLong());
+
+      final int failoverLogSize = in.readInt();
+      final List<FailoverLogEntry> failoverLog = new ArrayList<>(failoverLogSize);
+      for (int j = 0; j < failoverLogSize; j++) {
+        final long uuid = in.readLong();
+        final long seqno = in.readLong();
+        failoverLog.add(new FailoverLogEntry(seqno, uuid));
+      }
+      ps.setFailoverLog(failoverLog);
+
+      result.put(partition, ps);
+    }
+    return result;
+  }
+
+  /**
+   * Returns a copy of a live partition state whose fields were all read together,
+   * or null if the state kept changing while it was being read.
+   * <p>
+   * The DCP client updates the seqno, snapshot markers and failover log one at a time
+   * on its IO thread without locking, so reading them while the stream is running
+   * could pair a seqno with another snapshot or failover log. The fields are read
+   * again after copying, and the copy is only used if nothing changed in between.
+   */
+  public static PartitionState consistentCopy(PartitionState live) {
+    for (int attempt = 0; attempt < MAX_COPY_ATTEMPTS; attempt++) {
+      // The failover log is replaced rather than modified, so comparing references is enough.
+      final List<FailoverLogEntry> failoverLog = live.getFailoverLog();
+      final long startSeqno = live.getStartSeqno();
+      final long snapshotStartSeqno = live.getSnapshotStartSeqno();
+      final long snapshotEndSeqno = live.getSnapshotEndSeqno();
+
+      if (failoverLog == live.getFailoverLog()
+          && startSeqno == live.getStartSeqno()
+          && snapshotStartSeqno == live.getSnapshotStartSeqno()
+          && snapshotEndSeqno == live.getSnapshotEndSeqno()) {
+        final PartitionState copy = new PartitionState();
+        copy.setFailoverLog(new ArrayList<>(failoverLog));
+        copy.setStartSeqno(startSeqno);
+        copy.setSnapshotStartSeqno(snapshotStartSeqno);
+        copy.setSnapshotEndSeqno(snapshotEndSeqno);
+        return copy;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns a copy of the checkpointed state adjusted to resume from the seqno
+   * saved in the Kafka offsets, or null if the checkpoint can't be trusted for that seqno.
+   * <p>
+   * The Kafka offset is authoritative. The checkpoint is usable only if it has seen
+   * at least that far, in which case its failover log covers the saved seqno.
+   * The checkpointed snapshot markers are kept only if the saved seqno falls inside them.
+   * A checkpoint whose own seqno lies outside its snapshot markers wasn't captured
+   * consistently, and is discarded.
+   */
+  public static PartitionState resumeFrom(PartitionState checkpointed, long savedSeqno) {
+    if (checkpointed == null
+        || checkpointed.getFailoverLog().isEmpty()
+        || checkpointed.getStartSeqno() < checkpointed.getSnapshotStartSeqno()
+        || checkpointed.getStartSeqno() > checkpointed.getSnapshotEndSeqno()
+        || checkpointed.getStartSeqno() < savedSeqno) {
+      return null;
+    }
+
+    final PartitionState result = new PartitionState();
+    result.setFailoverLog(new ArrayList<>(checkpointed.getFailoverLog()));
+    result.setStartSeqno(savedSeqno);
+
+    if (checkpointed.getSnapshotStartSeqno() <= savedSeqno && savedSeqno <= checkpointed.getSnapshotEndSeqno()) {
+      result.setSnapshotStartSeqno(checkpointed.getSnapshotStartSeqno());
+      result.setSnapshotEndSeqno(checkpointed.getSnapshotEndSeqno());
+    } else {
+      result.setSnapshotStartSeqno(savedSeqno);
+      result.setSnapshotEndSeqno(savedSeqno);
+    }
+    return result;
+  }
+}
@@ -18,21 +18,86 @@ package com.couchbase.connect.kafka.dcp;
 
 import com.couchbase.client.dcp.message.DcpMutationMessage;
 import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+/**
+ * The messages of a DCP snapshot, published together once the whole snapshot has arrived.
+ * <p>
+ * Messages are kept in memory while the {@link SnapshotBufferBudget} allows.
+ * After that, the rest of the snapshot is spilled to disk and read back
+ * in order when the snapshot is published.
+ * <p>
+ * A snapshot taken from a {@link SnapshotPool} goes back to the pool when released,
+ * and must not be used after that.
+ */
 public class Snapshot implements Event {
+  private static final Logger LOGGER = LoggerFactory.getLogger(Snapshot.class);
+
+  private static final SnapshotBufferBudget UNLIMITED = new SnapshotBufferBudget(0, null);
+
+  /**
+   * Largest number of message slots allocated up front, however wide the seqno range.
+   */
+  private static final int MAX_INITIAL_CAPACITY = 1024;
+
+  /**
+   * A snapshot that held more messages than this isn't recycled,
+   * so one huge snapshot doesn't pin a huge array for the life of the task.
+   */
+  private static final int MAX_RECYCLED_CAPACITY = 16 * 1024;
+
   private final short partition;
-  private final long startSeqno;
-  private final long endSeqno;
-  private final LinkedList<ByteBuf> messages;
+  private long startSeqno;
+  private long endSeqno;
+  private final ArrayList<ByteBuf> messages;
+  private final SnapshotBufferBudget budget;
+  private final SnapshotPool pool;
+  private long reservedBytes;
+  private SpillFile spillFile;
+  private int received;
+  private boolean completed;
 
   public Snapshot(short partition, long startSeqno, long endSeqno) {
+    this(partition, startSeqno, endSeqno, UNLIMITED);
+  }
+
+  public Snapshot(short partition, long startSeqno, long endSeqno, SnapshotBufferBudget budget) {
+    this(partition, startSeqno, endSeqno, budget, null);
+  }
+
+  Snapshot(short partition, long startSeqno, long endSeqno, SnapshotBufferBudget budget, SnapshotPool pool) {
     this.partition = partition;
     this.startSeqno = startSeqno;
     this.endSeqno = endSeqno;
-    this.messages = new LinkedList<>();
+    this.messages = new ArrayList<>(initialCapacity(startSeqno, endSeqno));
+    this.budget = budget;
+    this.pool = pool;
+  }
+
+  /**
+   * The seqno range bounds the number of messages; deduplication can make it fewer.
+   */
+  private static int initialCapacity(long startSeqno, long endSeqno) {
+    return (int) Math.max(1, Math.min(MAX_INITIAL_CAPACITY, endSeqno - startSeqno + 1));
+  }
+
+  /**
+   * Prepares a released snapshot to collect the messages of the next snapshot.
+   */
+  void reset(long startSeqno, long endSeqno) {
+    this.startSeqno = startSeqno;
+    this.endSeqno = endSeqno;
+    this.received = 0;
+    this.completed = false;
+    messages.ensureCapacity(initialCapacity(startSeqno, endSeqno));
   }
 
   public short partition() {
@@ -47,17 +112,45 @@ public class Snapshot implements Event {
     return endSeqno;
   }
 
+  /**
+   * Adds a message to the snapshot, taking ownership of it.
+   *
+   * @return true if this was the last message of the snapshot
+   */
   public boolean add(ByteBuf message) {
-    messages.add(message);
-    return completed(message);
+    received++;
+    completed = DcpMutationMessage.bySeqno(message) == endSeqno;
+
+    // Once spilling starts, everything else goes to disk too, so messages stay in order.
+    final int size = message.readableBytes();
+    if (spillFile == null && budget.tryReserve(size)) {
+      reservedBytes += size;
+      messages.add(message);
+      return completed;
+    }
+
+    try {
+      spill(message);
+    } finally {
+      message.release();
+    }
+    return completed;
   }
 
-  public boolean completed() {
-    return completed(messages.getLast());
+  private void spill(ByteBuf message) {
+    try {
+      if (spillFile == null) {
+        spillFile = new SpillFile(budget.spillDirectory(), "snapshot-" + partition + "-");
+        LOGGER.info("Snapshot buffer budget exhausted; spilling rest of snapshot {} to {}", this, spillFile.file());
+      }
+      spillFile.append(message);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to spill snapshot message to disk", e);
+    }
   }
 
-  private boolean completed(ByteBuf message) {
-    return DcpMutationMessage.bySeqno(message) == endSeqno;
+  public boolean completed() {
+    return completed;
   }
 
   @Override
@@ -66,17 +159,57 @@ public class Snapshot implements Event {
         "partition=" + partition +
         ", startSeqno=" + startSeqno +
         ", endSeqno=" + endSeqno +
-        ", received=" + messages.size() +
+        ", received=" + received +
+        ", spilled=" + (spillFile == null ? 0 : spillFile.size()) +
         ", completed=" + completed() +
         '}';
   }
 
   @Override
   public Iterator<ByteBuf> iterator() {
-    return messages.iterator();
+    if (spillFile == null) {
+      return messages.iterator();
+    }
+    return Stream.concat(messages.stream(), StreamSupport.stream(spillFile.spliterator(), false)).iterator();
   }
 
   @Override
   public void ack() {
   }
+
+  @Override
+  public void release() {
+    RuntimeException deferredException = null;
+
+    final int held = messages.size();
+    for (int i = 0; i < held; i++) {
+      final ByteBuf buffer = messages.get(i);
+      try {
+        buffer.release();
+      } catch (RuntimeException t) {
+        LOGGER.warn("Failed to release buffer {}", buffer, t);
+        deferredException = t;
+      }
+    }
+    messages.clear();
+    budget.release(reservedBytes);
+    reservedBytes = 0;
+
+    if (spillFile != null) {
+      try {
+        spillFile.close();
+      } catch (IOException e) {
+        LOGGER.warn("Failed to clean up snapshot spill file {}", spillFile.file(), e);
+      }
+      spillFile = null;
+    }
+
+    if (deferredException != null) {
+      throw deferredException;
+    }
+
+    if (pool != null && held <= MAX_RECYCLED_CAPACITY) {
+      pool.recycle(this);
+    }
+  }
 }
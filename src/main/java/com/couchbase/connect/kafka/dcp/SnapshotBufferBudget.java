@@ -0,0 +1,74 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.dcp;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how much heap all of a task's incomplete snapshots may hold.
+ * Messages that don't fit are spilled to disk.
+ * <p>
+ * Thread-safe.
+ */
+public class SnapshotBufferBudget {
+  private final long maxHeapBytes;
+  private final File spillDirectory;
+  private final AtomicLong heapBytes = new AtomicLong();
+
+  /**
+   * @param maxHeapBytes the most heap that buffered snapshot messages may occupy, or zero for no limit
+   * @param spillDirectory where to create spill files
+   */
+  public SnapshotBufferBudget(long maxHeapBytes, File spillDirectory) {
+    this.maxHeapBytes = maxHeapBytes;
+    this.spillDirectory = spillDirectory;
+  }
+
+  /**
+   * @return true if the bytes were reserved, or false if they would exceed the budget
+   */
+  boolean tryReserve(long bytes) {
+    if (maxHeapBytes == 0) {
+      heapBytes.addAndGet(bytes);
+      return true;
+    }
+
+    while (true) {
+      final long current = heapBytes.get();
+      final long next = current + bytes;
+      if (next > maxHeapBytes) {
+        return false;
+      }
+      if (heapBytes.compareAndSet(current, next)) {
+        return true;
+      }
+    }
+  }
+
+  void release(long bytes) {
+    heapBytes.addAndGet(-bytes);
+  }
+
+  long heapBytes() {
+    return heapBytes.get();
+  }
+
+  File spillDirectory() {
+    return spillDirectory;
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.dcp;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps one released {@link Snapshot} per vBucket for reuse, so a steady stream
+ * of snapshots doesn't allocate a new snapshot and message array for every snapshot marker.
+ * <p>
+ * Thread-safe: a DCP IO thread takes snapshots and the task thread releases them.
+ */
+public class SnapshotPool {
+  private static final int MAX_VBUCKETS = 1024;
+
+  private final SnapshotBufferBudget budget;
+  private final AtomicReferenceArray<Snapshot> spares = new AtomicReferenceArray<>(MAX_VBUCKETS);
+
+  public SnapshotPool(SnapshotBufferBudget budget) {
+    this.budget = budget;
+  }
+
+  /**
+   * Returns an empty snapshot for the given range, reusing the partition's spare if it has one.
+   */
+  public Snapshot acquire(short partition, long startSeqno, long endSeqno) {
+    final Snapshot spare = partition < MAX_VBUCKETS ? spares.getAndSet(partition, null) : null;
+    if (spare == null) {
+      return new Snapshot(partition, startSeqno, endSeqno, budget, this);
+    }
+    spare.reset(startSeqno, endSeqno);
+    return spare;
+  }
+
+  /**
+   * Called by a released snapshot.
+   */
+  void recycle(Snapshot snapshot) {
+    if (snapshot.partition() < MAX_VBUCKETS) {
+      spares.set(snapshot.partition(), snapshot);
+    }
+  }
+}
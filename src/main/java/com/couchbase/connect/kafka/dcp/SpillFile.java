@@ -0,0 +1,183 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.dcp;
+
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.Unpooled;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Append-only file of length-prefixed messages.
+ * Messages are read back in the order they were appended.
+ * <p>
+ * Reads and writes go through small buffers at explicit file positions rather than
+ * memory-mapping the file, so a closed spill file releases its disk space and
+ * address space right away instead of whenever the mappings are garbage collected.
+ * <p>
+ * The file is deleted when closed. Not thread-safe.
+ */
+class SpillFile implements Closeable, Iterable<ByteBuf> {
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final File file;
+  private final FileChannel channel;
+  private final ByteBuffer writeBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+  private long writePosition;
+  private int messageCount;
+
+  SpillFile(File directory, String prefix) throws IOException {
+    this.file = File.createTempFile(prefix, ".spill", directory);
+    this.file.deleteOnExit();
+    this.channel = new RandomAccessFile(file, "rw").getChannel();
+  }
+
+  void append(ByteBuf message) throws IOException {
+    final int length = message.readableBytes();
+    if (writeBuffer.remaining() < Integer.BYTES + length) {
+      flush();
+    }
+
+    writeBuffer.putInt(length);
+    if (writeBuffer.remaining() >= length) {
+      final ByteBuffer target = writeBuffer.duplicate();
+      target.limit(target.position() + length);
+      message.getBytes(message.readerIndex(), target);
+      writeBuffer.position(writeBuffer.position() + length);
+    } else {
+      // Too big to buffer, so write it straight after its length.
+      flush();
+      writeFully(message.nioBuffer());
+    }
+    messageCount++;
+  }
+
+  private void flush() throws IOException {
+    writeBuffer.flip();
+    writeFully(writeBuffer);
+    writeBuffer.clear();
+  }
+
+  private void writeFully(ByteBuffer source) throws IOException {
+    while (source.hasRemaining()) {
+      writePosition += channel.write(source, writePosition);
+    }
+  }
+
+  int size() {
+    return messageCount;
+  }
+
+  File file() {
+    return file;
+  }
+
+  /**
+   * Returns the messages appended so far, each copied into its own heap buffer.
+   */
+  @Override
+  public Iterator<ByteBuf> iterator() {
+    try {
+      flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to write spill file " + file, e);
+    }
+
+    return new Iterator<ByteBuf>() {
+      private final ByteBuffer readBuffer = emptyReadBuffer();
+      private long readPosition;
+      private int remaining = messageCount;
+
+      @Override
+      public boolean hasNext() {
+        return remaining > 0;
+      }
+
+      @Override
+      public ByteBuf next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        try {
+          fill(Integer.BYTES);
+          final byte[] message = new byte[readBuffer.getInt()];
+          final int buffered = Math.min(message.length, readBuffer.remaining());
+          readBuffer.get(message, 0, buffered);
+          readFully(ByteBuffer.wrap(message, buffered, message.length - buffered));
+          remaining--;
+          return Unpooled.wrappedBuffer(message);
+        } catch (IOException e) {
+          throw new UncheckedIOException("Failed to read spill file " + file, e);
+        }
+      }
+
+      /**
+       * Ensures the read buffer holds at least the given number of bytes.
+       */
+      private void fill(int bytes) throws IOException {
+        if (readBuffer.remaining() >= bytes) {
+          return;
+        }
+        readBuffer.compact();
+        while (readBuffer.position() < bytes) {
+          readPosition += read(readBuffer, readPosition);
+        }
+        readBuffer.flip();
+      }
+
+      private void readFully(ByteBuffer target) throws IOException {
+        while (target.hasRemaining()) {
+          readPosition += read(target, readPosition);
+        }
+      }
+    };
+  }
+
+  private static ByteBuffer emptyReadBuffer() {
+    final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    buffer.flip();
+    return buffer;
+  }
+
+  private int read(ByteBuffer target, long position) throws IOException {
+    final int bytesRead = channel.read(target, position);
+    if (bytesRead < 0) {
+      throw new EOFException("Spill file " + file + " ended unexpectedly");
+    }
+    return bytesRead;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      channel.close();
+    } finally {
+      if (!file.delete() && file.exists()) {
+        throw new IOException("Failed to delete spill file " + file);
+      }
+    }
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.dcp;
+
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+
+import java.util.Collections;
+import java.util.Iterator;
+
+/**
+ * An event with no messages, put on the task's queue to wake a polling task thread
+ * when something other than data needs its attention, like an error or a stop request.
+ */
+public final class Wakeup implements Event {
+  public static final Wakeup INSTANCE = new Wakeup();
+
+  private Wakeup() {
+  }
+
+  @Override
+  public Iterator<ByteBuf> iterator() {
+    return Collections.emptyIterator();
+  }
+
+  @Override
+  public void ack() {
+  }
+
+  @Override
+  public void release() {
+  }
+
+  @Override
+  public String toString() {
+    return "Wakeup";
+  }
+}
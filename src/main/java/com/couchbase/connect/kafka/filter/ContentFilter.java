@@ -0,0 +1,98 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.filter;
+
+import com.couchbase.client.dcp.message.DcpMutationMessage;
+import com.couchbase.client.dcp.message.MessageUtil;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.ByteBufInputStream;
+import com.couchbase.connect.kafka.handler.source.DocumentEvent;
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.common.config.AbstractConfig;
+import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.connect.errors.DataException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Passes mutations whose JSON content satisfies a predicate expression,
+ * for example {@code /type == "order" && /status != "draft"}.
+ * See {@link JsonPredicate} for the expression syntax.
+ * <p>
+ * The document is parsed as a stream and parsing stops as soon as the outcome is known,
+ * so a decision often needs only the first few fields of a document.
+ * <p>
+ * Mutations whose content isn't JSON, or is malformed, don't pass.
+ * Deletions and expirations have no content, and always pass.
+ * <p>
+ * To use this filter, configure the connector properties like this:
+ * <pre>
+ * event.filter.class=com.couchbase.connect.kafka.filter.ContentFilter
+ * event.filter.content.predicate=/type == "order" &amp;&amp; /status != "draft"
+ * </pre>
+ */
+public class ContentFilter implements Filter, Configurable {
+  public static final String PREDICATE_CONFIG = "event.filter.content.predicate";
+
+  public static final ConfigDef CONFIG_DEF = new ConfigDef()
+      .define(PREDICATE_CONFIG, ConfigDef.Type.STRING, ConfigDef.Importance.HIGH,
+          "Pass mutations whose JSON content satisfies this expression, like: /type == \"order\" && /status != \"draft\"");
+
+  private JsonPredicate predicate;
+
+  @Override
+  public void configure(Map<String, ?> configs) {
+    final String expression = new AbstractConfig(CONFIG_DEF, configs, false).getString(PREDICATE_CONFIG);
+    try {
+      predicate = JsonPredicate.compile(expression);
+    } catch (IllegalArgumentException e) {
+      throw new ConfigException(PREDICATE_CONFIG, expression, e.getMessage());
+    }
+  }
+
+  @Override
+  public boolean pass(ByteBuf message) {
+    if (!DcpMutationMessage.is(message)) {
+      return true;
+    }
+    return test(new ByteBufInputStream(MessageUtil.getContent(message)));
+  }
+
+  /**
+   * Reads the event's cached content, so a document that's also read
+   * by a topic route or handler is decompressed only once.
+   */
+  @Override
+  public boolean pass(DocumentEvent event) {
+    if (!event.isMutation()) {
+      return true;
+    }
+    return test(new ByteArrayInputStream(event.content()));
+  }
+
+  private boolean test(InputStream content) {
+    try (InputStream in = content) {
+      return predicate.test(in);
+    } catch (IOException e) {
+      throw new DataException("Failed to evaluate content filter predicate " + predicate, e);
+    }
+  }
+}
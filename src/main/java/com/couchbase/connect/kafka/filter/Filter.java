@@ -18,6 +18,7 @@ package com.couchbase.connect.kafka.filter;
 
 
 import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.connect.kafka.handler.source.DocumentEvent;
 
 /**
  * General interface to select Couchbase events, which has to be sent to Kafka.
@@ -34,4 +35,16 @@ public interface Filter {
    */
   boolean pass(ByteBuf message);
 
+  /**
+   * Like {@link #pass(ByteBuf)}, but given the decoded event, whose content is decompressed
+   * at most once no matter how many filters, topic routes and handlers read it.
+   * Filters that read the document content should override this.
+   *
+   * @param event DCP event from Couchbase.
+   * @return true if event should be sent to Kafka.
+   */
+  default boolean pass(DocumentEvent event) {
+    return pass(event.rawDcpEvent());
+  }
+
 }
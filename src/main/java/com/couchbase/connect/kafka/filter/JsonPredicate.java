@@ -0,0 +1,402 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.filter;
+
+import com.couchbase.connect.kafka.util.JsonPointerSet;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A boolean expression over fields of a JSON object, evaluated while streaming
+ * through the document. Parsing stops as soon as the outcome is known, no tree is built,
+ * and subtrees that no field reference points into are skipped.
+ * <p>
+ * Grammar:
+ * <pre>
+ * expression := and ( '||' and )*
+ * and        := unary ( '&amp;&amp;' unary )*
+ * unary      := '!' unary | '(' expression ')' | comparison
+ * comparison := pointer ( '==' | '!=' | '&lt;' | '&lt;=' | '&gt;' | '&gt;=' ) literal
+ * pointer    := JSON pointer to an object field, like /type or /address/country
+ * literal    := JSON string, number, true, false or null
+ * </pre>
+ * A field that is absent from the document is unequal to every literal (including null),
+ * and ordering comparisons are false unless both sides are numbers or both are strings.
+ * Pointers do not descend into arrays.
+ * <p>
+ * Example: {@code /type == "order" && /status != "draft"}
+ * <p>
+ * Thread-safe.
+ */
+class JsonPredicate {
+  private static final JsonFactory jsonFactory = new JsonFactory();
+
+  // Sentinels for values that aren't plain JSON scalars.
+  private static final Object MISSING = new Object();
+  private static final Object NULL = new Object();
+  private static final Object CONTAINER = new Object();
+
+  private interface Expr {
+    /**
+     * @param values the value at each pointer; null if not seen yet
+     * @param complete whether the whole document has been read (unseen values are missing)
+     * @return the outcome, or null if it depends on values not seen yet
+     */
+    Boolean eval(Object[] values, boolean complete);
+  }
+
+  private final String expression;
+  private final Expr root;
+  private final JsonPointerSet pointers = new JsonPointerSet();
+  private final JsonPointerSet.Visitor<Object[], Boolean> visitor = this::visit;
+
+  private JsonPredicate(String expression) {
+    this.expression = expression;
+    final Parser parser = new Parser(expression);
+    this.root = parser.parseExpression();
+    parser.expectEnd();
+  }
+
+  /**
+   * @throws IllegalArgumentException if the expression is malformed
+   */
+  static JsonPredicate compile(String expression) {
+    return new JsonPredicate(expression);
+  }
+
+  /**
+   * Evaluates the predicate against the JSON document read from the stream.
+   * A JSON value that isn't an object is treated as an object with no fields.
+   * Content that isn't JSON, or is malformed or truncated, never matches,
+   * since what was read before the error says nothing reliable about the missing fields.
+   * The document is read only as far as needed to decide, so malformed content
+   * past that point isn't noticed.
+   */
+  boolean test(InputStream json) throws IOException {
+    final Object[] values = new Object[pointers.size()];
+    try (JsonParser parser = jsonFactory.createParser(json)) {
+      final Boolean result = pointers.scan(parser, values, visitor);
+      if (result != null) {
+        return result;
+      }
+    } catch (JsonProcessingException e) {
+      return false;
+    }
+    return root.eval(values, true);
+  }
+
+  private Boolean visit(Object[] values, int index, JsonParser parser, JsonToken token) throws IOException {
+    if (values[index] != null) {
+      return null;
+    }
+    values[index] = value(parser, token);
+    return root.eval(values, false);
+  }
+
+  private static Object value(JsonParser parser, JsonToken token) throws IOException {
+    switch (token) {
+      case VALUE_STRING:
+        return parser.getText();
+      case VALUE_NUMBER_INT:
+      case VALUE_NUMBER_FLOAT:
+        return parser.getDecimalValue();
+      case VALUE_TRUE:
+        return Boolean.TRUE;
+      case VALUE_FALSE:
+        return Boolean.FALSE;
+      case VALUE_NULL:
+        return NULL;
+      default:
+        return CONTAINER;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return expression;
+  }
+
+  private enum Op {
+    EQ("=="), NE("!="), LT("<"), LE("<="), GT(">"), GE(">=");
+
+    private final String symbol;
+
+    Op(String symbol) {
+      this.symbol = symbol;
+    }
+  }
+
+  private static class Comparison implements Expr {
+    private final int valueIndex;
+    private final Op op;
+    private final Object literal;
+
+    private Comparison(int valueIndex, Op op, Object literal) {
+      this.valueIndex = valueIndex;
+      this.op = op;
+      this.literal = literal;
+    }
+
+    @Override
+    public Boolean eval(Object[] values, boolean complete) {
+      Object value = values[valueIndex];
+      if (value == null) {
+        if (!complete) {
+          return null;
+        }
+        value = MISSING;
+      }
+
+      switch (op) {
+        case EQ:
+          return isEqual(value);
+        case NE:
+          return !isEqual(value);
+        default:
+          final int c;
+          if (value instanceof BigDecimal && literal instanceof BigDecimal) {
+            c = ((BigDecimal) value).compareTo((BigDecimal) literal);
+          } else if (value instanceof String && literal instanceof String) {
+            c = ((String) value).compareTo((String) literal);
+          } else {
+            return false;
+          }
+          return op == Op.LT ? c < 0 : op == Op.LE ? c <= 0 : op == Op.GT ? c > 0 : c >= 0;
+      }
+    }
+
+    private boolean isEqual(Object value) {
+      if (value instanceof BigDecimal && literal instanceof BigDecimal) {
+        return ((BigDecimal) value).compareTo((BigDecimal) literal) == 0;
+      }
+      return value.equals(literal);
+    }
+  }
+
+  private static class And implements Expr {
+    private final List<Expr> operands;
+
+    private And(List<Expr> operands) {
+      this.operands = operands;
+    }
+
+    @Override
+    public Boolean eval(Object[] values, boolean complete) {
+      boolean unknown = false;
+      for (Expr operand : operands) {
+        final Boolean result = operand.eval(values, complete);
+        if (result == null) {
+          unknown = true;
+        } else if (!result) {
+          return false;
+        }
+      }
+      return unknown ? null : true;
+    }
+  }
+
+  private static class Or implements Expr {
+    private final List<Expr> operands;
+
+    private Or(List<Expr> operands) {
+      this.operands = operands;
+    }
+
+    @Override
+    public Boolean eval(Object[] values, boolean complete) {
+      boolean unknown = false;
+      for (Expr operand : operands) {
+        final Boolean result = operand.eval(values, complete);
+        if (result == null) {
+          unknown = true;
+        } else if (result) {
+          return true;
+        }
+      }
+      return unknown ? null : false;
+    }
+  }
+
+  private static class Not implements Expr {
+    private final Expr operand;
+
+    private Not(Expr operand) {
+      this.operand = operand;
+    }
+
+    @Override
+    public Boolean eval(Object[] values, boolean complete) {
+      final Boolean result = operand.eval(values, complete);
+      return result == null ? null : !result;
+    }
+  }
+
+  private class Parser {
+    private final String input;
+    private int pos;
+
+    private Parser(String input) {
+      this.input = input;
+    }
+
+    private Expr parseExpression() {
+      final List<Expr> operands = new ArrayList<>();
+      operands.add(parseAnd());
+      while (consume("||")) {
+        operands.add(parseAnd());
+      }
+      return operands.size() == 1 ? operands.get(0) : new Or(operands);
+    }
+
+    private Expr parseAnd() {
+      final List<Expr> operands = new ArrayList<>();
+      operands.add(parseUnary());
+      while (consume("&&")) {
+        operands.add(parseUnary());
+      }
+      return operands.size() == 1 ? operands.get(0) : new And(operands);
+    }
+
+    private Expr parseUnary() {
+      if (consume("!")) {
+        return new Not(parseUnary());
+      }
+      if (consume("(")) {
+        final Expr result = parseExpression();
+        if (!consume(")")) {
+          throw error("expected ')'");
+        }
+        return result;
+      }
+      return parseComparison();
+    }
+
+    private Expr parseComparison() {
+      skipWhitespace();
+      if (pos >= input.length() || input.charAt(pos) != '/') {
+        throw error("expected a JSON pointer starting with '/'");
+      }
+      final int index = pointers.add(parsePointer());
+
+      // Check two-character operators first.
+      Op op = null;
+      for (Op candidate : new Op[]{Op.EQ, Op.NE, Op.LE, Op.GE, Op.LT, Op.GT}) {
+        if (consume(candidate.symbol)) {
+          op = candidate;
+          break;
+        }
+      }
+      if (op == null) {
+        throw error("expected a comparison operator");
+      }
+      return new Comparison(index, op, parseLiteral());
+    }
+
+    private List<String> parsePointer() {
+      final List<String> segments = new ArrayList<>();
+      StringBuilder segment = null;
+      while (pos < input.length()) {
+        final char c = input.charAt(pos);
+        if (Character.isWhitespace(c) || "=!<>&|()".indexOf(c) >= 0) {
+          break;
+        }
+        pos++;
+        if (c == '/') {
+          if (segment != null) {
+            segments.add(segment.toString());
+          }
+          segment = new StringBuilder();
+        } else if (c == '~' && pos < input.length() && (input.charAt(pos) == '0' || input.charAt(pos) == '1')) {
+          segment.append(input.charAt(pos++) == '0' ? '~' : '/');
+        } else {
+          segment.append(c);
+        }
+      }
+      segments.add(segment.toString());
+      return segments;
+    }
+
+    private Object parseLiteral() {
+      skipWhitespace();
+      final int start = pos;
+      if (pos < input.length() && input.charAt(pos) == '"') {
+        pos++;
+        while (pos < input.length() && input.charAt(pos) != '"') {
+          pos += input.charAt(pos) == '\\' ? 2 : 1;
+        }
+        if (pos >= input.length()) {
+          throw error("unterminated string");
+        }
+        pos++;
+      } else {
+        while (pos < input.length() && (Character.isLetterOrDigit(input.charAt(pos)) || "+-.".indexOf(input.charAt(pos)) >= 0)) {
+          pos++;
+        }
+      }
+
+      final String literal = input.substring(start, pos);
+      try (JsonParser parser = jsonFactory.createParser(literal)) {
+        final JsonToken token = parser.nextToken();
+        if (token == null || !token.isScalarValue()) {
+          throw error("expected a JSON string, number, true, false or null");
+        }
+        final Object value = value(parser, token);
+        if (parser.nextToken() != null) {
+          throw error("expected a JSON string, number, true, false or null");
+        }
+        return value;
+      } catch (IOException e) {
+        throw error("expected a JSON string, number, true, false or null");
+      }
+    }
+
+    private boolean consume(String token) {
+      skipWhitespace();
+      if (input.startsWith(token, pos)) {
+        pos += token.length();
+        return true;
+      }
+      return false;
+    }
+
+    private void skipWhitespace() {
+      while (pos < input.length() && Character.isWhitespace(input.charAt(pos))) {
+        pos++;
+      }
+    }
+
+    private void expectEnd() {
+      skipWhitespace();
+      if (pos != input.length()) {
+        throw error("unexpected input");
+      }
+    }
+
+    private IllegalArgumentException error(String message) {
+      return new IllegalArgumentException("Invalid predicate expression at position " + pos + ": " + message
+          + " in: " + input);
+    }
+  }
+}
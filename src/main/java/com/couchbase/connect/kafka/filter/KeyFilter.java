@@ -0,0 +1,150 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.filter;
+
+import com.couchbase.client.dcp.message.MessageUtil;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.connect.kafka.dcp.EventType;
+import com.couchbase.connect.kafka.util.ByteTrie;
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.common.config.AbstractConfig;
+import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.common.config.ConfigException;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Selects events by type and by document key, looking at the raw bytes
+ * of the DCP message. Except for the regular expression, matching does not
+ * decode the key or allocate, so discarding most events is cheap.
+ * <p>
+ * An event passes if its type is selected and its key matches any of the configured
+ * prefixes, suffixes, substrings or the regular expression. If no key criteria
+ * are configured, every key matches.
+ * <p>
+ * To use this filter, configure the connector properties like this:
+ * <pre>
+ * event.filter.class=com.couchbase.connect.kafka.filter.KeyFilter
+ * event.filter.types=mutation,deletion
+ * event.filter.key.prefixes=user::,order::
+ * </pre>
+ */
+public class KeyFilter implements Filter, Configurable {
+  public static final String TYPES_CONFIG = "event.filter.types";
+  public static final String KEY_PREFIXES_CONFIG = "event.filter.key.prefixes";
+  public static final String KEY_SUFFIXES_CONFIG = "event.filter.key.suffixes";
+  public static final String KEY_CONTAINS_CONFIG = "event.filter.key.contains";
+  public static final String KEY_REGEX_CONFIG = "event.filter.key.regex";
+
+  public static final ConfigDef CONFIG_DEF = new ConfigDef()
+      .define(TYPES_CONFIG, ConfigDef.Type.LIST, "mutation,deletion,expiration", ConfigDef.Importance.MEDIUM,
+          "Event types to pass: any of 'mutation', 'deletion' and 'expiration'.")
+      .define(KEY_PREFIXES_CONFIG, ConfigDef.Type.LIST, "", ConfigDef.Importance.MEDIUM,
+          "Pass events whose document key starts with any of these strings.")
+      .define(KEY_SUFFIXES_CONFIG, ConfigDef.Type.LIST, "", ConfigDef.Importance.MEDIUM,
+          "Pass events whose document key ends with any of these strings.")
+      .define(KEY_CONTAINS_CONFIG, ConfigDef.Type.LIST, "", ConfigDef.Importance.MEDIUM,
+          "Pass events whose document key contains any of these strings.")
+      .define(KEY_REGEX_CONFIG, ConfigDef.Type.STRING, "", ConfigDef.Importance.MEDIUM,
+          "Pass events whose entire document key matches this regular expression. Slower than the other key criteria.");
+
+  private final Set<EventType> types = EnumSet.noneOf(EventType.class);
+  private ByteTrie<Boolean> prefixes;
+  private ByteTrie<Boolean> suffixes;
+  private byte[][] substrings;
+  private Pattern regex;
+  private boolean anyKey;
+
+  @Override
+  public void configure(Map<String, ?> configs) {
+    final AbstractConfig config = new AbstractConfig(CONFIG_DEF, configs, false);
+
+    types.clear();
+    for (String type : config.getList(TYPES_CONFIG)) {
+      try {
+        types.add(EventType.valueOf(type.trim().toUpperCase(Locale.ROOT)));
+      } catch (IllegalArgumentException e) {
+        throw new ConfigException(TYPES_CONFIG, type, "Unknown event type");
+      }
+    }
+    types.remove(EventType.SNAPSHOT);
+
+    final List<String> prefixList = config.getList(KEY_PREFIXES_CONFIG);
+    final List<String> suffixList = config.getList(KEY_SUFFIXES_CONFIG);
+    final List<String> containsList = config.getList(KEY_CONTAINS_CONFIG);
+    final String regexString = config.getString(KEY_REGEX_CONFIG);
+
+    prefixes = prefixList.isEmpty() ? null : ByteTrie.ofPrefixes(prefixList);
+    suffixes = suffixList.isEmpty() ? null : ByteTrie.ofSuffixes(suffixList);
+    substrings = containsList.isEmpty() ? null : containsList.stream()
+        .map(s -> s.getBytes(UTF_8))
+        .toArray(byte[][]::new);
+    regex = regexString.isEmpty() ? null : Pattern.compile(regexString);
+    anyKey = prefixes == null && suffixes == null && substrings == null && regex == null;
+  }
+
+  @Override
+  public boolean pass(ByteBuf message) {
+    final EventType type = EventType.of(message);
+    if (type == null || !types.contains(type)) {
+      return false;
+    }
+    if (anyKey) {
+      return true;
+    }
+
+    final int keyLength = message.getUnsignedShort(message.readerIndex() + MessageUtil.KEY_LENGTH_OFFSET);
+    final int keyIndex = message.readerIndex() + MessageUtil.HEADER_SIZE
+        + message.getUnsignedByte(message.readerIndex() + MessageUtil.EXTRAS_LENGTH_OFFSET);
+
+    if (prefixes != null && prefixes.matches(message, keyIndex, keyLength)) {
+      return true;
+    }
+    if (suffixes != null && suffixes.matches(message, keyIndex, keyLength)) {
+      return true;
+    }
+    if (substrings != null) {
+      for (byte[] substring : substrings) {
+        if (contains(message, keyIndex, keyLength, substring)) {
+          return true;
+        }
+      }
+    }
+    return regex != null && regex.matcher(message.toString(keyIndex, keyLength, UTF_8)).matches();
+  }
+
+  private static boolean contains(ByteBuf buf, int index, int length, byte[] needle) {
+    final int lastStart = index + length - needle.length;
+    outer:
+    for (int start = index; start <= lastStart; start++) {
+      for (int i = 0; i < needle.length; i++) {
+        if (buf.getByte(start + i) != needle[i]) {
+          continue outer;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+}
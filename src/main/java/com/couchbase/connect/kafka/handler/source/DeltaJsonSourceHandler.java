@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.handler.source;
+
+import com.couchbase.client.deps.com.fasterxml.jackson.databind.JsonNode;
+import com.couchbase.client.deps.com.fasterxml.jackson.databind.ObjectMapper;
+import com.couchbase.client.deps.com.fasterxml.jackson.databind.node.ObjectNode;
+import com.couchbase.client.deps.com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.couchbase.connect.kafka.dcp.EventType;
+import com.couchbase.connect.kafka.util.config.SizeParser;
+import com.couchbase.connect.kafka.util.config.SizeValidator;
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.common.config.AbstractConfig;
+import org.apache.kafka.common.config.ConfigDef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A variant of {@link RawJsonSourceHandler} that publishes only what changed
+ * since the previous version of a document, when it still remembers that version.
+ * <p>
+ * The value of each mutation record is one of:
+ * <pre>
+ * {"content": &lt;the whole document&gt;}
+ * {"patch": &lt;JSON merge patch (RFC 7396) from the previous version&gt;}
+ * </pre>
+ * A patch is published only if the previous version of the document is in the cache,
+ * both versions are JSON objects, a merge patch can express the change,
+ * and the patch is smaller than the document. Otherwise the whole document is published.
+ * Consumers apply a patch to the last version they saw for the same key.
+ * If topic routing sends a document to a different topic than its previous version,
+ * the whole document is published.
+ * <p>
+ * Previous versions are kept in an off-heap LRU cache whose size is set by
+ * {@code dcp.message.converter.delta.cache.size}. The cache lives only as long as the task,
+ * so the first change to each document after a restart (or eviction) is published in full.
+ * Deletions and expirations are published with a null value, and evict the document from the cache.
+ * <p>
+ * To use this handler, configure the connector properties like this:
+ * <pre>
+ * dcp.message.converter.class=com.couchbase.connect.kafka.handler.source.DeltaJsonSourceHandler
+ * dcp.message.converter.delta.cache.size=256m
+ * value.converter=org.apache.kafka.connect.converters.ByteArrayConverter
+ * </pre>
+ * The cached documents count against the JVM's direct memory limit ({@code -XX:MaxDirectMemorySize}).
+ */
+public class DeltaJsonSourceHandler extends RawJsonSourceHandler implements Configurable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DeltaJsonSourceHandler.class);
+
+  public static final String CACHE_SIZE_CONFIG = "dcp.message.converter.delta.cache.size";
+
+  public static final ConfigDef CONFIG_DEF = new ConfigDef()
+      .define(CACHE_SIZE_CONFIG, ConfigDef.Type.STRING, "64m", new SizeValidator(), ConfigDef.Importance.MEDIUM,
+          "Maximum total size of the previous document versions kept off-heap for computing deltas."
+              + " Specify an integer followed by a size qualifier (example: 256m)");
+
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  private static final byte[] CONTENT_PREFIX = "{\"content\":".getBytes(UTF_8);
+  private static final byte[] PATCH_PREFIX = "{\"patch\":".getBytes(UTF_8);
+
+  private OffHeapDocumentCache cache = new OffHeapDocumentCache(64 * 1024 * 1024);
+
+  @Override
+  public void configure(Map<String, ?> configs) {
+    final AbstractConfig config = new AbstractConfig(CONFIG_DEF, configs, false);
+    cache = new OffHeapDocumentCache(SizeParser.parseSizeBytes(config.getString(CACHE_SIZE_CONFIG)));
+  }
+
+  @Override
+  protected boolean buildValue(SourceHandlerParams params, CouchbaseSourceRecord.Builder builder) {
+    final DocumentEvent docEvent = params.documentEvent();
+    final EventType type = EventType.of(docEvent.rawDcpEvent());
+    if (type != EventType.MUTATION) {
+      cache.remove(docEvent.key());
+      return super.buildValue(params, builder);
+    }
+
+    final byte[] document = docEvent.content();
+    if (!isValidJson(document)) {
+      LOGGER.warn("Skipping non-JSON document: bucket={} key={}", docEvent.bucket(), docEvent.key());
+      cache.remove(docEvent.key());
+      return false;
+    }
+
+    // Topic routing can send versions of a document to different topics, and
+    // a consumer of one topic can only apply a patch to a version it saw.
+    final ByteBuffer previous = cache.get(docEvent.key(), params.topic());
+    final byte[] patch = previous == null ? null : patch(previous, document);
+    cache.put(docEvent.key(), params.topic(), document);
+
+    builder.value(null, patch != null && patch.length < document.length
+        ? envelope(PATCH_PREFIX, patch)
+        : envelope(CONTENT_PREFIX, document));
+    return true;
+  }
+
+  /**
+   * @return the merge patch as JSON, or null if there's no patch for this change
+   */
+  private static byte[] patch(ByteBuffer previous, byte[] document) {
+    try {
+      final JsonNode source = objectMapper.readTree(new ByteBufferBackedInputStream(previous));
+      final JsonNode target = objectMapper.readTree(document);
+      if (source == null || !source.isObject() || !target.isObject()) {
+        return null;
+      }
+      final ObjectNode patch = JsonMergePatch.diff(source, target);
+      return patch == null ? null : objectMapper.writeValueAsBytes(patch);
+
+    } catch (IOException e) {
+      return null; // shouldn't happen, since both versions were validated
+    }
+  }
+
+  private static byte[] envelope(byte[] prefix, byte[] json) {
+    final byte[] result = new byte[prefix.length + json.length + 1];
+    System.arraycopy(prefix, 0, result, 0, prefix.length);
+    System.arraycopy(json, 0, result, prefix.length, json.length);
+    result[result.length - 1] = '}';
+    return result;
+  }
+}
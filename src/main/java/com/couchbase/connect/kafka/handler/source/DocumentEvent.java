@@ -33,7 +33,8 @@ public class DocumentEvent {
   private final long vBucketUuid;
   private final long bySeqno;
   private final long revisionSeqno;
-  private final String key;
+  private String key;
+  private byte[] content;
 
   public static DocumentEvent create(ByteBuf rawDcpEvent, String bucket, long vBucketUuid) {
     return new DocumentEvent(rawDcpEvent, bucket, vBucketUuid);
@@ -43,7 +44,6 @@ public class DocumentEvent {
     this.rawDcpEvent = rawDcpEvent;
     this.bucket = bucket;
     this.vBucketUuid = vBucketUuid;
-    this.key = bufToString(MessageUtil.getKey(rawDcpEvent));
 
     if (DcpMutationMessage.is(rawDcpEvent)) {
       this.bySeqno = DcpMutationMessage.bySeqno(rawDcpEvent);
@@ -76,7 +76,13 @@ public class DocumentEvent {
     return vBucketUuid;
   }
 
+  /**
+   * Returns the document ID, decoded the first time it's requested.
+   */
   public String key() {
+    if (key == null) {
+      key = bufToString(MessageUtil.getKey(rawDcpEvent));
+    }
     return key;
   }
 
@@ -92,6 +98,20 @@ public class DocumentEvent {
     return revisionSeqno;
   }
 
+  /**
+   * Returns the document content, decompressed if the server sent it compressed.
+   * <p>
+   * The content is decompressed the first time it's requested and cached after that,
+   * so filters, topic routes and handlers that all read it pay for one decompression,
+   * and an event nobody reads is never decompressed. Callers must not modify the array.
+   */
+  public byte[] content() {
+    if (content == null) {
+      content = MessageUtil.getContentAsByteArray(rawDcpEvent);
+    }
+    return content;
+  }
+
   /**
    * Returns true if the document was created or updated,
    * otherwise false.
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.handler.source;
+
+import com.couchbase.client.deps.com.fasterxml.jackson.databind.JsonNode;
+import com.couchbase.client.deps.com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.couchbase.client.deps.com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Computes JSON merge patches (RFC 7396).
+ */
+class JsonMergePatch {
+  /**
+   * Returns a merge patch that turns {@code source} into {@code target},
+   * or null if no merge patch can express the change. That happens when
+   * a changed part of the target has a null-valued field, since a null in a merge patch
+   * means "remove the field".
+   * <p>
+   * Nested objects present in both documents are diffed recursively; any other changed value
+   * (including arrays) is replaced entirely.
+   */
+  static ObjectNode diff(JsonNode source, JsonNode target) {
+    final ObjectNode patch = JsonNodeFactory.instance.objectNode();
+
+    for (Iterator<Map.Entry<String, JsonNode>> i = target.fields(); i.hasNext(); ) {
+      final Map.Entry<String, JsonNode> field = i.next();
+      final JsonNode sourceValue = source.get(field.getKey());
+      final JsonNode targetValue = field.getValue();
+      if (targetValue.equals(sourceValue)) {
+        continue;
+      }
+
+      if (targetValue.isNull()) {
+        return null;
+      }
+      if (targetValue.isObject() && sourceValue != null && sourceValue.isObject()) {
+        final ObjectNode nested = diff(sourceValue, targetValue);
+        if (nested == null) {
+          return null;
+        }
+        patch.set(field.getKey(), nested);
+      } else {
+        if (hasNullField(targetValue)) {
+          return null; // applying the patch would drop the null fields
+        }
+        patch.set(field.getKey(), targetValue);
+      }
+    }
+
+    for (Iterator<String> i = source.fieldNames(); i.hasNext(); ) {
+      final String name = i.next();
+      if (!target.has(name)) {
+        patch.putNull(name);
+      }
+    }
+
+    return patch;
+  }
+
+  /**
+   * Returns true if the node is an object with a null-valued field, at any depth (not counting array elements).
+   */
+  private static boolean hasNullField(JsonNode node) {
+    if (!node.isObject()) {
+      return false;
+    }
+    for (JsonNode value : node) {
+      if (value.isNull() || hasNullField(value)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.handler.source;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Selects fields of a JSON object by JSON pointer, in a single streaming pass.
+ * The bytes of every retained field name and value are copied verbatim from the input,
+ * so nothing is re-encoded.
+ * <p>
+ * If include pointers are given, only the fields they point to (and the objects
+ * on the way to them) are retained. Exclude pointers then remove fields from what
+ * would otherwise be retained. Pointers do not descend into arrays.
+ * <p>
+ * Thread-safe.
+ */
+class JsonProjection {
+  private static final JsonFactory jsonFactory = new JsonFactory();
+
+  private static class PathNode {
+    private final Map<String, PathNode> children = new HashMap<>();
+    private boolean include;
+    private boolean exclude;
+  }
+
+  private final PathNode root = new PathNode();
+  private final boolean includeByDefault;
+
+  /**
+   * @throws IllegalArgumentException if a pointer is malformed
+   */
+  JsonProjection(List<String> includePointers, List<String> excludePointers) {
+    this.includeByDefault = includePointers.isEmpty();
+    for (String pointer : includePointers) {
+      node(pointer).include = true;
+    }
+    for (String pointer : excludePointers) {
+      node(pointer).exclude = true;
+    }
+  }
+
+  private PathNode node(String pointer) {
+    JsonPointer p = JsonPointer.compile(pointer);
+    if (p.matches()) {
+      throw new IllegalArgumentException("JSON pointer must refer to a field, but '" + pointer + "' refers to the whole document");
+    }
+    PathNode node = root;
+    for (; !p.matches(); p = p.tail()) {
+      node = node.children.computeIfAbsent(p.getMatchingProperty(), s -> new PathNode());
+    }
+    return node;
+  }
+
+  /**
+   * @return the projected document, or null if the input is not well-formed JSON.
+   * JSON values other than objects are returned unchanged.
+   */
+  byte[] project(byte[] json) {
+    try (JsonParser parser = jsonFactory.createParser(json)) {
+      final JsonToken first = parser.nextToken();
+      if (first == null) {
+        return null;
+      }
+
+      final Output out = new Output(json.length);
+      if (first == JsonToken.START_OBJECT) {
+        projectObject(parser, json, root, includeByDefault, out);
+      } else {
+        parser.skipChildren();
+        out.write(json, 0, json.length);
+      }
+
+      if (parser.nextToken() != null) {
+        return null; // multiple JSON roots, or trailing garbage
+      }
+      return out.toByteArray();
+
+    } catch (IOException e) {
+      return null; // malformed
+    }
+  }
+
+  /**
+   * Called with the parser positioned at START_OBJECT; returns with it at the matching END_OBJECT.
+   *
+   * @return number of fields written
+   */
+  private int projectObject(JsonParser parser, byte[] json, PathNode node, boolean included, Output out) throws IOException {
+    out.write('{');
+    int fieldCount = 0;
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      final int nameStart = (int) parser.getTokenLocation().getByteOffset();
+      final PathNode child = node.children.get(parser.getCurrentName());
+      final JsonToken token = parser.nextToken();
+
+      if (child != null && child.exclude) {
+        parser.skipChildren();
+        continue;
+      }
+      final boolean childIncluded = included || (child != null && child.include);
+
+      final int mark = out.size();
+      if (fieldCount > 0) {
+        out.write(',');
+      }
+      out.write(json, nameStart, nameEnd(parser, json, nameStart) - nameStart);
+      out.write(':');
+
+      if (child != null && !child.children.isEmpty() && token == JsonToken.START_OBJECT) {
+        final int written = projectObject(parser, json, child, childIncluded, out);
+        if (written == 0 && !childIncluded) {
+          out.reset(mark); // nothing under here was selected
+          continue;
+        }
+      } else if (childIncluded) {
+        copyValue(parser, json, token, out);
+      } else {
+        parser.skipChildren();
+        out.reset(mark);
+        continue;
+      }
+      fieldCount++;
+    }
+
+    out.write('}');
+    return fieldCount;
+  }
+
+  /**
+   * @param nameStart index of the opening quote of a field name
+   * @return index just past the closing quote
+   */
+  private static int nameEnd(JsonParser parser, byte[] json, int nameStart) throws IOException {
+    if (nameStart < 0 || nameStart >= json.length || json[nameStart] != '"') {
+      throw new JsonParseException(parser, "Expected a quoted field name");
+    }
+    int i = nameStart + 1;
+    while (i < json.length && json[i] != '"') {
+      i += json[i] == '\\' ? 2 : 1;
+    }
+    if (i >= json.length) {
+      throw new JsonParseException(parser, "Unexpected end of input");
+    }
+    return i + 1;
+  }
+
+  private static void copyValue(JsonParser parser, byte[] json, JsonToken token, Output out) throws IOException {
+    final int start = (int) parser.getTokenLocation().getByteOffset();
+    if (token.isStructStart()) {
+      parser.skipChildren();
+    } else if (token == JsonToken.VALUE_STRING) {
+      parser.getTextLength(); // strings are parsed lazily; consume the rest of it
+    }
+    final int end = (int) parser.getCurrentLocation().getByteOffset();
+    if (end < start || end > json.length) {
+      throw new JsonParseException(parser, "Unexpected end of input");
+    }
+    out.write(json, start, end - start);
+  }
+
+  /**
+   * A growable byte array that can be truncated back to an earlier size.
+   */
+  private static class Output {
+    private byte[] bytes;
+    private int size;
+
+    private Output(int initialCapacity) {
+      bytes = new byte[Math.max(16, initialCapacity)];
+    }
+
+    private void ensureCapacity(int additional) {
+      if (size + additional > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + additional));
+      }
+    }
+
+    private void write(int b) {
+      ensureCapacity(1);
+      bytes[size++] = (byte) b;
+    }
+
+    private void write(byte[] b, int offset, int length) {
+      ensureCapacity(length);
+      System.arraycopy(b, offset, bytes, size, length);
+      size += length;
+    }
+
+    private int size() {
+      return size;
+    }
+
+    private void reset(int newSize) {
+      size = newSize;
+    }
+
+    private byte[] toByteArray() {
+      return Arrays.copyOf(bytes, size);
+    }
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.handler.source;
+
+import com.couchbase.client.deps.com.fasterxml.jackson.core.JsonProcessingException;
+import com.couchbase.client.deps.com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.errors.DataException;
+
+import java.util.Map;
+
+/**
+ * This handler propagates only the key and Couchbase metadata of each change,
+ * never the document content. Useful for consumers such as cache invalidation
+ * or re-index triggers that only need to know which document changed.
+ * <p>
+ * The value of the Kafka message is a JSON object with the same metadata fields
+ * as {@link RawJsonWithMetadataSourceHandler}, but no "content" field.
+ * Unlike the raw JSON handlers, changes to non-JSON documents are propagated too.
+ * <p>
+ * The key of the Kafka message is a String, the ID of the Couchbase document.
+ * <p>
+ * Pair this handler with {@code couchbase.key_only=true} so the connector
+ * discards document content as soon as it arrives:
+ * <pre>
+ * dcp.message.converter.class=com.couchbase.connect.kafka.handler.source.KeyOnlySourceHandler
+ * couchbase.key_only=true
+ * value.converter=org.apache.kafka.connect.converters.ByteArrayConverter
+ * </pre>
+ */
+public class KeyOnlySourceHandler extends SourceHandler {
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  @Override
+  public CouchbaseSourceRecord handle(SourceHandlerParams params) {
+    final Map<String, Object> metadata = RawJsonWithMetadataSourceHandler.metadata(params.documentEvent());
+    if (metadata == null) {
+      return null;
+    }
+
+    try {
+      return CouchbaseSourceRecord.builder()
+          .key(Schema.STRING_SCHEMA, params.documentEvent().key())
+          .value(null, objectMapper.writeValueAsBytes(metadata))
+          .build();
+    } catch (JsonProcessingException e) {
+      throw new DataException("Failed to serialize event metadata", e);
+    }
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.handler.source;
+
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.Unpooled;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least-recently-used cache of document content, keyed by document ID.
+ * The content is kept in direct (off-heap) buffers, so a large cache doesn't
+ * add to garbage collection pressure. Only the keys live on the heap.
+ * <p>
+ * Each cached document remembers the topic it was published to, since a consumer
+ * of one topic can't apply a change to a version that went to another.
+ * <p>
+ * The cache holds at most {@code capacityBytes} of content. Documents larger than
+ * that are not cached. A new version reuses the previous version's buffer if it fits;
+ * otherwise the old buffer is freed right away, as are evicted and removed buffers,
+ * so the cache never waits on the garbage collector to stay within the direct memory limit.
+ * Buffers still cached when the cache is discarded are reclaimed by the garbage collector.
+ * <p>
+ * Not thread-safe.
+ */
+class OffHeapDocumentCache {
+  private final long capacityBytes;
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long sizeBytes;
+
+  private static class Entry {
+    private final ByteBuf content;
+    private String topic;
+
+    Entry(ByteBuf content) {
+      this.content = content;
+    }
+  }
+
+  OffHeapDocumentCache(long capacityBytes) {
+    this.capacityBytes = capacityBytes;
+  }
+
+  /**
+   * Returns a read-only view of the cached content, valid until the next change to the cache,
+   * or null if the document is not cached or was published to a different topic.
+   */
+  ByteBuffer get(String key, String topic) {
+    final Entry entry = entries.get(key);
+    return entry == null || !entry.topic.equals(topic) ? null : entry.content.nioBuffer().asReadOnlyBuffer();
+  }
+
+  void put(String key, String topic, byte[] content) {
+    if (content.length > capacityBytes) {
+      remove(key);
+      return;
+    }
+
+    Entry entry = entries.get(key);
+    if (entry != null && entry.content.capacity() < content.length) {
+      remove(key);
+      entry = null;
+    }
+
+    if (entry == null) {
+      // Make room first, so the old buffers are freed before the new one is allocated.
+      final Iterator<Entry> i = entries.values().iterator();
+      while (sizeBytes + content.length > capacityBytes && i.hasNext()) {
+        final Entry evicted = i.next();
+        sizeBytes -= evicted.content.capacity();
+        evicted.content.release();
+        i.remove();
+      }
+      entry = new Entry(Unpooled.directBuffer(content.length, content.length));
+      entries.put(key, entry);
+      sizeBytes += content.length;
+    }
+
+    entry.content.clear().writeBytes(content);
+    entry.topic = topic;
+  }
+
+  void remove(String key) {
+    final Entry removed = entries.remove(key);
+    if (removed != null) {
+      sizeBytes -= removed.content.capacity();
+      removed.content.release();
+    }
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+  long sizeBytes() {
+    return sizeBytes;
+  }
+}
@@ -16,7 +16,6 @@
 
 package com.couchbase.connect.kafka.handler.source;
 
-import com.couchbase.client.dcp.message.MessageUtil;
 import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
 import com.couchbase.connect.kafka.dcp.EventType;
 import com.couchbase.connect.kafka.transform.DeserializeJson;
@@ -146,7 +145,7 @@ public class RawJsonSourceHandler extends SourceHandler {
         return true;
 
       case MUTATION:
-        final byte[] document = MessageUtil.getContentAsByteArray(event);
+        final byte[] document = docEvent.content();
         if (!isValidJson(document)) {
           LOGGER.warn("Skipping non-JSON document: bucket={} key={}", docEvent.bucket(), docEvent.key());
           return false;
@@ -75,8 +75,31 @@ public class RawJsonWithMetadataSourceHandler extends RawJsonSourceHandler {
     }
 
     final DocumentEvent docEvent = params.documentEvent();
-    final ByteBuf event = docEvent.rawDcpEvent();
+    final EventType type = EventType.of(docEvent.rawDcpEvent());
+
+    final Map<String, Object> metadata = metadata(docEvent);
+    if (metadata == null) {
+      return false;
+    }
+
+    try {
+      byte[] value = objectMapper.writeValueAsBytes(metadata);
+      if (type == EventType.MUTATION) {
+        value = withContentField(value, (byte[]) builder.value());
+      }
+      builder.value(null, value);
+      return true;
+    } catch (JsonProcessingException e) {
+      throw new DataException("Failed to serialize event metadata", e);
+    }
+  }
 
+  /**
+   * Returns the Couchbase metadata of the event, or null if the event is not
+   * a mutation, deletion or expiration.
+   */
+  static Map<String, Object> metadata(DocumentEvent docEvent) {
+    final ByteBuf event = docEvent.rawDcpEvent();
     final EventType type = EventType.of(event);
 
     Map<String, Object> metadata = new HashMap<String, Object>();
@@ -101,19 +124,9 @@ public class RawJsonWithMetadataSourceHandler extends RawJsonSourceHandler {
       metadata.put("event", "expiration");
     } else {
       LOGGER.warn("unexpected event type {}", event.getByte(1));
-      return false;
-    }
-
-    try {
-      byte[] value = objectMapper.writeValueAsBytes(metadata);
-      if (type == EventType.MUTATION) {
-        value = withContentField(value, (byte[]) builder.value());
-      }
-      builder.value(null, value);
-      return true;
-    } catch (JsonProcessingException e) {
-      throw new DataException("Failed to serialize event metadata", e);
+      return null;
     }
+    return metadata;
   }
 
   private static final byte[] contentFieldNameBytes = ",\"content\":".getBytes(UTF_8);
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.handler.source;
+
+import com.couchbase.client.deps.com.fasterxml.jackson.databind.JsonNode;
+import org.apache.kafka.connect.data.Field;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Infers Connect schemas for JSON objects, and converts the objects to Structs.
+ * <p>
+ * Schemas are cached by document shape (the names, order and types of the fields,
+ * recursively), so every document of the same shape gets the same Schema instance.
+ * The cache holds a bounded number of shapes, evicting the least recently used.
+ * <p>
+ * Type mapping: strings, booleans, integers that fit in a long, and other numbers become
+ * optional STRING, BOOLEAN, INT64 and FLOAT64 fields. Objects become optional structs.
+ * An array becomes an optional array of its elements' schema if all non-null elements
+ * have the same shape, otherwise an array of strings holding each element as JSON text.
+ * A field whose value is null gets an optional STRING schema.
+ * <p>
+ * Not thread-safe.
+ */
+class SchemaInference {
+  /**
+   * Element schema of arrays whose elements don't share a shape.
+   */
+  static final Schema JSON_TEXT_SCHEMA = SchemaBuilder.string().optional()
+      .name("com.couchbase.JsonText").build();
+
+  private static final Schema EMPTY_ARRAY_SCHEMA = SchemaBuilder.array(Schema.OPTIONAL_STRING_SCHEMA).optional().build();
+  private static final Schema MIXED_ARRAY_SCHEMA = SchemaBuilder.array(JSON_TEXT_SCHEMA).optional().build();
+
+  private final Map<String, Schema> shapeToSchema;
+
+  SchemaInference(final int maxCachedShapes) {
+    this.shapeToSchema = new LinkedHashMap<String, Schema>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Schema> eldest) {
+        return size() > maxCachedShapes;
+      }
+    };
+  }
+
+  int cachedShapes() {
+    return shapeToSchema.size();
+  }
+
+  /**
+   * Returns the schema for the given JSON object, from the cache if a document
+   * of the same shape has been seen recently.
+   */
+  Schema schemaFor(JsonNode object) {
+    final StringBuilder shape = new StringBuilder();
+    appendShape(object, shape);
+    final String key = shape.toString();
+
+    Schema schema = shapeToSchema.get(key);
+    if (schema == null) {
+      schema = buildSchema(object);
+      shapeToSchema.put(key, schema);
+    }
+    return schema;
+  }
+
+  /**
+   * Describes the type of the node unambiguously. Field names are length-prefixed
+   * so no name can be mistaken for part of the shape syntax.
+   */
+  private static void appendShape(JsonNode node, StringBuilder shape) {
+    switch (node.getNodeType()) {
+      case STRING:
+        shape.append('s');
+        return;
+      case BOOLEAN:
+        shape.append('b');
+        return;
+      case NUMBER:
+        shape.append(isLong(node) ? 'i' : 'f');
+        return;
+      case OBJECT:
+        shape.append('{');
+        for (Iterator<Map.Entry<String, JsonNode>> i = node.fields(); i.hasNext(); ) {
+          final Map.Entry<String, JsonNode> field = i.next();
+          shape.append(field.getKey().length()).append(':').append(field.getKey());
+          appendShape(field.getValue(), shape);
+        }
+        shape.append('}');
+        return;
+      case ARRAY:
+        shape.append('[').append(elementShape(node)).append(']');
+        return;
+      default:
+        shape.append('n');
+    }
+  }
+
+  /**
+   * @return the shape shared by all non-null elements, "" if there are none, or "*" if they differ.
+   */
+  private static String elementShape(JsonNode array) {
+    String result = "";
+    for (JsonNode element : array) {
+      if (element.isNull()) {
+        continue;
+      }
+      final StringBuilder shape = new StringBuilder();
+      appendShape(element, shape);
+      if (result.isEmpty()) {
+        result = shape.toString();
+      } else if (!result.contentEquals(shape)) {
+        return "*";
+      }
+    }
+    return result;
+  }
+
+  private static boolean isLong(JsonNode node) {
+    return node.isIntegralNumber() && node.canConvertToLong();
+  }
+
+  private static Schema buildSchema(JsonNode node) {
+    switch (node.getNodeType()) {
+      case STRING:
+        return Schema.OPTIONAL_STRING_SCHEMA;
+      case BOOLEAN:
+        return Schema.OPTIONAL_BOOLEAN_SCHEMA;
+      case NUMBER:
+        return isLong(node) ? Schema.OPTIONAL_INT64_SCHEMA : Schema.OPTIONAL_FLOAT64_SCHEMA;
+      case OBJECT:
+        final SchemaBuilder struct = SchemaBuilder.struct().optional();
+        for (Iterator<Map.Entry<String, JsonNode>> i = node.fields(); i.hasNext(); ) {
+          final Map.Entry<String, JsonNode> field = i.next();
+          struct.field(field.getKey(), buildSchema(field.getValue()));
+        }
+        return struct.build();
+      case ARRAY:
+        final String elementShape = elementShape(node);
+        if (elementShape.isEmpty()) {
+          return EMPTY_ARRAY_SCHEMA;
+        }
+        if (elementShape.equals("*")) {
+          return MIXED_ARRAY_SCHEMA;
+        }
+        for (JsonNode element : node) {
+          if (!element.isNull()) {
+            return SchemaBuilder.array(buildSchema(element)).optional().build();
+          }
+        }
+        throw new AssertionError("array has no non-null element");
+      default:
+        return Schema.OPTIONAL_STRING_SCHEMA;
+    }
+  }
+
+  /**
+   * Converts the JSON object to a Struct with a schema returned by {@link #schemaFor(JsonNode)}.
+   */
+  Struct toStruct(JsonNode object, Schema schema) {
+    return (Struct) toConnectValue(object, schema);
+  }
+
+  private static Object toConnectValue(JsonNode node, Schema schema) {
+    if (node.isNull()) {
+      return null;
+    }
+    if (schema == JSON_TEXT_SCHEMA) {
+      return node.toString();
+    }
+
+    switch (schema.type()) {
+      case STRING:
+        return node.asText();
+      case BOOLEAN:
+        return node.booleanValue();
+      case INT64:
+        return node.longValue();
+      case FLOAT64:
+        return node.doubleValue();
+      case STRUCT:
+        final Struct struct = new Struct(schema);
+        for (Field field : schema.fields()) {
+          struct.put(field, toConnectValue(node.get(field.name()), field.schema()));
+        }
+        return struct;
+      case ARRAY:
+        final List<Object> list = new ArrayList<>(node.size());
+        for (JsonNode element : node) {
+          list.add(toConnectValue(element, schema.valueSchema()));
+        }
+        return list;
+      default:
+        throw new IllegalArgumentException("unexpected schema type " + schema.type());
+    }
+  }
+}
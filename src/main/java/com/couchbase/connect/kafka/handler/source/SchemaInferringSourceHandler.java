@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.handler.source;
+
+import com.couchbase.client.deps.com.fasterxml.jackson.databind.JsonNode;
+import com.couchbase.client.deps.com.fasterxml.jackson.databind.ObjectMapper;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.connect.kafka.dcp.EventType;
+import com.couchbase.connect.kafka.util.Schemas;
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.common.config.AbstractConfig;
+import org.apache.kafka.common.config.ConfigDef;
+import org.apache.kafka.connect.data.Schema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Publishes the content of each JSON document as a Connect {@link org.apache.kafka.connect.data.Struct}
+ * whose schema is inferred from the document, so converters like Avro can encode it
+ * without the consumer having to parse JSON.
+ * <p>
+ * Inferred schemas are cached by document shape, so documents with the same fields
+ * (in the same order, with the same types) share one Schema instance.
+ * Deletions and expirations are published with a null value.
+ * Documents whose content is not a JSON object are skipped.
+ * <p>
+ * The key of the Kafka message is the ID of the Couchbase document.
+ * <p>
+ * To use this handler, configure the connector properties like this:
+ * <pre>
+ * dcp.message.converter.class=com.couchbase.connect.kafka.handler.source.SchemaInferringSourceHandler
+ * dcp.message.converter.schema.cache.size=1000
+ * </pre>
+ */
+public class SchemaInferringSourceHandler extends SourceHandler implements Configurable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(SchemaInferringSourceHandler.class);
+
+  public static final String SCHEMA_CACHE_SIZE_CONFIG = "dcp.message.converter.schema.cache.size";
+
+  public static final ConfigDef CONFIG_DEF = new ConfigDef()
+      .define(SCHEMA_CACHE_SIZE_CONFIG, ConfigDef.Type.INT, 1000, ConfigDef.Range.atLeast(1), ConfigDef.Importance.LOW,
+          "Maximum number of document shapes whose inferred schemas are cached.");
+
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  private SchemaInference schemaInference = new SchemaInference(1000);
+
+  @Override
+  public void configure(Map<String, ?> configs) {
+    final AbstractConfig config = new AbstractConfig(CONFIG_DEF, configs, false);
+    schemaInference = new SchemaInference(config.getInt(SCHEMA_CACHE_SIZE_CONFIG));
+  }
+
+  @Override
+  public CouchbaseSourceRecord handle(SourceHandlerParams params) {
+    final DocumentEvent docEvent = params.documentEvent();
+    final ByteBuf event = docEvent.rawDcpEvent();
+
+    final CouchbaseSourceRecord.Builder builder = CouchbaseSourceRecord.builder()
+        .topic(params.topic())
+        .key(Schemas.KEY_SCHEMA, docEvent.key());
+
+    final EventType type = EventType.of(event);
+    if (type == EventType.DELETION || type == EventType.EXPIRATION) {
+      return builder.value(null, null).build();
+    }
+    if (type != EventType.MUTATION) {
+      LOGGER.warn("unexpected event type {}", event.getByte(1));
+      return null;
+    }
+
+    final JsonNode document;
+    try {
+      document = objectMapper.readTree(docEvent.content());
+    } catch (IOException e) {
+      LOGGER.warn("Skipping non-JSON document: bucket={} key={}", docEvent.bucket(), docEvent.key());
+      return null;
+    }
+    if (document == null || !document.isObject()) {
+      LOGGER.warn("Skipping document that is not a JSON object: bucket={} key={}", docEvent.bucket(), docEvent.key());
+      return null;
+    }
+
+    final Schema schema = schemaInference.schemaFor(document);
+    return builder.value(schema, schemaInference.toStruct(document, schema)).build();
+  }
+}
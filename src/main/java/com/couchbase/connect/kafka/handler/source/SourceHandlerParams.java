@@ -36,7 +36,8 @@ public class SourceHandlerParams {
   }
 
   /**
-   * Returns the Kafka topic name from the connector configuration.
+   * Returns the Kafka topic name from the connector configuration,
+   * or the topic chosen by the connector's topic routing rules.
    */
   public String topic() {
     return topic;
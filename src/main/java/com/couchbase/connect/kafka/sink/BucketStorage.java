@@ -0,0 +1,105 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.sink;
+
+import com.couchbase.client.java.AsyncBucket;
+import com.couchbase.client.java.PersistTo;
+import com.couchbase.client.java.ReplicateTo;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.subdoc.AsyncMutateInBuilder;
+import com.couchbase.client.java.subdoc.SubdocOptionsBuilder;
+import com.couchbase.connect.kafka.util.JsonBinaryDocument;
+import rx.Completable;
+
+/**
+ * Sends the sink's operations to a Couchbase bucket.
+ */
+public class BucketStorage implements SinkStorage {
+  private final AsyncBucket bucket;
+
+  public BucketStorage(AsyncBucket bucket) {
+    this.bucket = bucket;
+  }
+
+  public AsyncBucket bucket() {
+    return bucket;
+  }
+
+  @Override
+  public Completable upsert(JsonBinaryDocument document, PersistTo persistTo, ReplicateTo replicateTo) {
+    return bucket.upsert(document, persistTo, replicateTo).toCompletable();
+  }
+
+  @Override
+  public Completable remove(String documentId, PersistTo persistTo, ReplicateTo replicateTo) {
+    return bucket.remove(documentId, persistTo, replicateTo).toCompletable();
+  }
+
+  @Override
+  public Completable mutateIn(String documentId, SubDocumentMode mode, String path, JsonObject data,
+                              boolean createPaths, boolean createDocument,
+                              PersistTo persistTo, ReplicateTo replicateTo) {
+    SubdocOptionsBuilder options = new SubdocOptionsBuilder().createPath(createPaths);
+
+    AsyncMutateInBuilder mutation = bucket
+        .mutateIn(documentId);
+
+    if (data == null) {
+      mutation = mutation.remove(path, options);
+    } else {
+      switch (mode) {
+        case UPSERT: {
+          mutation = mutation.upsert(path, data, options);
+          break;
+        }
+        case ARRAY_INSERT: {
+          mutation = mutation.arrayInsert(path, data, options);
+          break;
+        }
+        case ARRAY_APPEND: {
+          mutation = mutation.arrayAppend(path, data, options);
+          break;
+        }
+        case ARRAY_PREPEND: {
+          mutation = mutation.arrayPrepend(path, data, options);
+          break;
+        }
+        case ARRAY_INSERT_ALL: {
+          mutation = mutation.arrayInsertAll(path, data, options);
+          break;
+        }
+        case ARRAY_APPEND_ALL: {
+          mutation = mutation.arrayAppendAll(path, data, options);
+          break;
+        }
+        case ARRAY_PREPEND_ALL: {
+          mutation = mutation.arrayPrependAll(path, data, options);
+          break;
+        }
+        case ARRAY_ADD_UNIQUE: {
+          mutation = mutation.arrayAddUnique(path, data, options);
+          break;
+        }
+      }
+    }
+
+    return mutation
+        .upsertDocument(createDocument)
+        .execute(persistTo, replicateTo)
+        .toCompletable();
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.sink;
+
+import com.couchbase.client.java.PersistTo;
+import com.couchbase.client.java.ReplicateTo;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.connect.kafka.util.JsonBinaryDocument;
+import rx.Completable;
+
+/**
+ * The key/value operations the sink task performs. {@link BucketStorage} sends them
+ * to a Couchbase bucket; tests and benchmarks can plug in a stand-in instead.
+ * <p>
+ * Failures are reported the same way the Couchbase Java client reports them,
+ * so the task's error handling and retries behave the same either way.
+ */
+public interface SinkStorage {
+
+  Completable upsert(JsonBinaryDocument document, PersistTo persistTo, ReplicateTo replicateTo);
+
+  /**
+   * Fails with {@link com.couchbase.client.java.error.DocumentDoesNotExistException}
+   * if there is no document with the given ID.
+   */
+  Completable remove(String documentId, PersistTo persistTo, ReplicateTo replicateTo);
+
+  /**
+   * Applies a single sub-document mutation.
+   *
+   * @param data the value to write at the path, or null to remove the path
+   * @param createPaths whether to create missing parent paths
+   * @param createDocument whether to create the document if it doesn't exist
+   */
+  Completable mutateIn(String documentId, SubDocumentMode mode, String path, JsonObject data,
+                       boolean createPaths, boolean createDocument,
+                       PersistTo persistTo, ReplicateTo replicateTo);
+}
@@ -5,8 +5,6 @@ import com.couchbase.client.java.AsyncBucket;
 import com.couchbase.client.java.PersistTo;
 import com.couchbase.client.java.ReplicateTo;
 import com.couchbase.client.java.document.json.JsonObject;
-import com.couchbase.client.java.subdoc.AsyncMutateInBuilder;
-import com.couchbase.client.java.subdoc.SubdocOptionsBuilder;
 import com.couchbase.connect.kafka.util.DocumentPathExtractor;
 import com.couchbase.connect.kafka.util.JsonBinaryDocument;
 import org.slf4j.Logger;
@@ -66,6 +64,10 @@ public class SubDocumentWriter {
   }
 
   public Completable write(final AsyncBucket bucket, final JsonBinaryDocument document, PersistTo persistTo, ReplicateTo replicateTo) {
+    return write(new BucketStorage(bucket), document, persistTo, replicateTo);
+  }
+
+  public Completable write(final SinkStorage storage, final JsonBinaryDocument document, PersistTo persistTo, ReplicateTo replicateTo) {
     if (document == null || (document.content() == null && (document.id() == null || document.id().isEmpty()))) {
 
       LOGGER.warn("document or document content is null");
@@ -75,59 +77,11 @@ public class SubDocumentWriter {
 
     SubdocOperation operation = getOperation(document);
 
-    SubdocOptionsBuilder options = new SubdocOptionsBuilder().createPath(createPaths);
-
-    AsyncMutateInBuilder mutation = bucket
-        .mutateIn(document.id());
-
-    if (operation.data == null && !document.id().isEmpty()) {
-      mutation = mutation.remove(operation.path, options);
-    } else {
-      switch (mode) {
-        case UPSERT: {
-          mutation = mutation.upsert(operation.getPath(), operation.getData(), options);
-          break;
-        }
-        case ARRAY_INSERT: {
-          mutation = mutation.arrayInsert(operation.getPath(), operation.getData(), options);
-          break;
-        }
-        case ARRAY_APPEND: {
-          mutation = mutation.arrayAppend(operation.getPath(), operation.getData(), options);
-
-          break;
-        }
-        case ARRAY_PREPEND: {
-          mutation = mutation.arrayPrepend(operation.getPath(), operation.getData(), options);
-
-          break;
-        }
-        case ARRAY_INSERT_ALL: {
-          mutation = mutation.arrayInsertAll(operation.getPath(), operation.getData(), options);
-
-          break;
-        }
-        case ARRAY_APPEND_ALL: {
-          mutation = mutation.arrayAppendAll(operation.getPath(), operation.getData(), options);
-
-          break;
-        }
-        case ARRAY_PREPEND_ALL: {
-          mutation = mutation.arrayPrependAll(operation.getPath(), operation.getData(), options);
-          break;
-        }
-        case ARRAY_ADD_UNIQUE: {
-          mutation = mutation.arrayAddUnique(operation.getPath(), operation.getData(), options);
-          break;
-        }
-      }
-    }
-
-    return mutation
-        .upsertDocument(createDocuments)
-        .execute(persistTo, replicateTo)
-        .toCompletable();
+    // null data means remove the path
+    JsonObject data = operation.data == null && !document.id().isEmpty() ? null : operation.getData();
 
+    return storage.mutateIn(document.id(), mode, operation.getPath(), data,
+        createPaths, createDocuments, persistTo, replicateTo);
   }
 
   private SubdocOperation getOperation(JsonBinaryDocument doc) {
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.util;
+
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+
+import java.util.Collection;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A map from byte strings to values that can tell which of them a region of a buffer
+ * starts (or ends) with, without allocating.
+ *
+ * @param <V> type of the values
+ */
+public class ByteTrie<V> {
+  private static class Node<V> {
+    private Node<V>[] children;
+    private V value;
+
+    private Node<V> child(int b) {
+      return children == null ? null : children[b];
+    }
+
+    private Node<V> getOrCreateChild(int b) {
+      if (children == null) {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        final Node<V>[] array = (Node<V>[]) new Node[256];
+        children = array;
+      }
+      Node<V> child = children[b];
+      if (child == null) {
+        child = children[b] = new Node<>();
+      }
+      return child;
+    }
+  }
+
+  private final Node<V> root = new Node<>();
+  private final boolean fromEnd;
+
+  private ByteTrie(boolean fromEnd) {
+    this.fromEnd = fromEnd;
+  }
+
+  /**
+   * Returns an empty trie whose keys are matched against the start of a region.
+   */
+  public static <V> ByteTrie<V> prefixes() {
+    return new ByteTrie<>(false);
+  }
+
+  /**
+   * Returns an empty trie whose keys are matched against the end of a region.
+   */
+  public static <V> ByteTrie<V> suffixes() {
+    return new ByteTrie<>(true);
+  }
+
+  /**
+   * Returns a trie that matches regions starting with any of the given strings.
+   */
+  public static ByteTrie<Boolean> ofPrefixes(Collection<String> prefixes) {
+    final ByteTrie<Boolean> trie = prefixes();
+    for (String prefix : prefixes) {
+      trie.put(prefix, true);
+    }
+    return trie;
+  }
+
+  /**
+   * Returns a trie that matches regions ending with any of the given strings.
+   */
+  public static ByteTrie<Boolean> ofSuffixes(Collection<String> suffixes) {
+    final ByteTrie<Boolean> trie = suffixes();
+    for (String suffix : suffixes) {
+      trie.put(suffix, true);
+    }
+    return trie;
+  }
+
+  /**
+   * @param key the key, UTF-8 encoded
+   * @param value the non-null value
+   * @return the value previously associated with the key, or null if there was none
+   */
+  public V put(String key, V value) {
+    final byte[] bytes = key.getBytes(UTF_8);
+    Node<V> node = root;
+    for (int i = 0; i < bytes.length; i++) {
+      final byte b = fromEnd ? bytes[bytes.length - 1 - i] : bytes[i];
+      node = node.getOrCreateChild(b & 0xff);
+    }
+    final V previous = node.value;
+    node.value = value;
+    return previous;
+  }
+
+  /**
+   * Tells whether the region starts (or ends) with any key. Stops at the shortest match.
+   *
+   * @param index absolute index of the region in the buffer
+   * @param length length of the region
+   */
+  public boolean matches(ByteBuf buf, int index, int length) {
+    Node<V> node = root;
+    for (int i = 0; i < length; i++) {
+      if (node.value != null) {
+        return true;
+      }
+      node = node.child(byteAt(buf, index, length, i));
+      if (node == null) {
+        return false;
+      }
+    }
+    return node.value != null;
+  }
+
+  /**
+   * @param index absolute index of the region in the buffer
+   * @param length length of the region
+   * @return the value of the longest key the region starts (or ends) with, or null if there is none
+   */
+  public V longestMatch(ByteBuf buf, int index, int length) {
+    V result = root.value;
+    Node<V> node = root;
+    for (int i = 0; i < length; i++) {
+      node = node.child(byteAt(buf, index, length, i));
+      if (node == null) {
+        break;
+      }
+      if (node.value != null) {
+        result = node.value;
+      }
+    }
+    return result;
+  }
+
+  private int byteAt(ByteBuf buf, int index, int length, int i) {
+    return buf.getByte(fromEnd ? index + length - 1 - i : index + i) & 0xff;
+  }
+}
@@ -29,8 +29,11 @@ import com.couchbase.client.deps.io.netty.bootstrap.Bootstrap;
 import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
 import com.couchbase.client.deps.io.netty.buffer.Unpooled;
 import com.couchbase.client.deps.io.netty.channel.Channel;
+import com.couchbase.client.deps.io.netty.channel.ChannelFuture;
+import com.couchbase.client.deps.io.netty.channel.ChannelFutureListener;
 import com.couchbase.client.deps.io.netty.channel.ChannelHandlerContext;
 import com.couchbase.client.deps.io.netty.channel.ChannelInitializer;
+import com.couchbase.client.deps.io.netty.channel.ChannelOption;
 import com.couchbase.client.deps.io.netty.channel.ChannelPipeline;
 import com.couchbase.client.deps.io.netty.channel.SimpleChannelInboundHandler;
 import com.couchbase.client.deps.io.netty.channel.nio.NioEventLoopGroup;
@@ -46,16 +49,25 @@ import com.couchbase.client.deps.io.netty.handler.codec.http.HttpRequest;
 import com.couchbase.client.deps.io.netty.handler.codec.http.HttpResponseStatus;
 import com.couchbase.client.deps.io.netty.handler.codec.http.HttpVersion;
 import com.couchbase.client.deps.io.netty.handler.ssl.SslHandler;
+import com.couchbase.client.deps.io.netty.handler.timeout.ReadTimeoutHandler;
 import com.couchbase.client.deps.io.netty.util.CharsetUtil;
+import com.couchbase.client.deps.io.netty.util.concurrent.DefaultThreadFactory;
 import com.couchbase.connect.kafka.CouchbaseSourceConnectorConfig;
 import com.couchbase.connect.kafka.util.config.Password;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.security.KeyStore;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.couchbase.client.core.logging.RedactableArgument.system;
 
@@ -68,13 +80,146 @@ public class Cluster {
   };
   private static final Logger LOGGER = LoggerFactory.getLogger(Cluster.class);
 
+  /**
+   * How long a fetched bucket config may be reused before it's fetched again.
+   * Short enough that a rebalance is noticed the next time tasks are (re)configured.
+   */
+  private static final long CACHE_TTL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  private static final ConcurrentMap<String, CachedConfig> cache = new ConcurrentHashMap<>();
+
+  private static class CachedConfig {
+    private final Config config;
+    private final long expiresAtNanos;
+
+    private CachedConfig(Config config) {
+      this.config = config;
+      this.expiresAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CACHE_TTL_MILLIS);
+    }
+
+    private boolean isExpired() {
+      return System.nanoTime() - expiresAtNanos > 0;
+    }
+  }
+
+  /**
+   * Shared by all bootstrap requests, so fetching a config doesn't pay for spinning up
+   * (and tearing down) an event loop group. Daemon threads, so it never blocks worker shutdown.
+   */
+  private static class EventLoopGroupHolder {
+    private static final NioEventLoopGroup INSTANCE =
+        new NioEventLoopGroup(1, new DefaultThreadFactory("cb-kafka-bootstrap", true));
+  }
+
+  /**
+   * Returns the bucket config, reusing a recently fetched one if available.
+   *
+   * @return the bucket config, or null if no seed node returned a config in time.
+   */
   public static Config fetchBucketConfig(final CouchbaseSourceConnectorConfig config) {
+    return fetchBucketConfig(config, bootstrapPort(config));
+  }
+
+  /**
+   * @param port HTTP port of the seed nodes
+   */
+  static Config fetchBucketConfig(final CouchbaseSourceConnectorConfig config, final int port) {
+    final CachedConfig cached = cache.get(cacheKey(config, port));
+    if (cached != null && !cached.isExpired()) {
+      return cached.config;
+    }
+    return refreshBucketConfig(config, port);
+  }
+
+  /**
+   * Fetches the bucket config from the cluster, bypassing the cache.
+   * <p>
+   * All seed nodes are asked concurrently. The first valid config wins;
+   * failed or unresponsive nodes are logged and otherwise ignored.
+   * No attempt takes longer than the connection timeout.
+   *
+   * @return the bucket config, or null if no seed node returned a config in time.
+   */
+  public static Config refreshBucketConfig(final CouchbaseSourceConnectorConfig config) {
+    return refreshBucketConfig(config, bootstrapPort(config));
+  }
+
+  /**
+   * @param port HTTP port of the seed nodes
+   */
+  static Config refreshBucketConfig(final CouchbaseSourceConnectorConfig config, final int port) {
     final List<String> nodes = config.getList(CouchbaseSourceConnectorConfig.CONNECTION_CLUSTER_ADDRESS_CONFIG);
+    final long timeoutMillis = config.getLong(CouchbaseSourceConnectorConfig.CONNECTION_TIMEOUT_MS_CONFIG);
+
+    final CompletableFuture<CouchbaseBucketConfig> firstResult = new CompletableFuture<>();
+    final AtomicInteger remainingNodes = new AtomicInteger(nodes.size());
+    final List<Channel> channels = new ArrayList<>(nodes.size());
+
+    try {
+      for (final String hostname : nodes) {
+        final CompletableFuture<CouchbaseBucketConfig> nodeResult = new CompletableFuture<>();
+        nodeResult.whenComplete((bucketConfig, error) -> {
+          if (error == null) {
+            firstResult.complete(bucketConfig);
+            return;
+          }
+          if (firstResult.isDone()) {
+            return; // already decided; this is just the channel being closed
+          }
+          LOGGER.warn("Ignoring error for node {} when getting number of partitions", system(hostname), error);
+          if (remainingNodes.decrementAndGet() == 0) {
+            firstResult.complete(null);
+          }
+        });
+
+        try {
+          channels.add(requestBucketConfig(config, hostname, port, timeoutMillis, nodeResult));
+        } catch (Exception e) {
+          nodeResult.completeExceptionally(e);
+        }
+      }
+
+      CouchbaseBucketConfig bucketConfig = firstResult.get(timeoutMillis, TimeUnit.MILLISECONDS);
+      if (bucketConfig == null) {
+        return null;
+      }
+      Config result = new Config(bucketConfig);
+      cache.put(cacheKey(config, port), new CachedConfig(result));
+      return result;
+
+    } catch (TimeoutException e) {
+      firstResult.complete(null); // the nodes still pending are about to be closed
+      LOGGER.warn("None of the nodes {} returned a bucket config within {} ms", system(nodes), timeoutMillis);
+      return null;
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+
+    } catch (ExecutionException e) {
+      // Not expected, since the node results never complete the first result exceptionally.
+      LOGGER.warn("Failed to get bucket config", e.getCause());
+      return null;
+
+    } finally {
+      for (Channel channel : channels) {
+        channel.close();
+      }
+    }
+  }
+
+  /**
+   * Sends an HTTP request for the bucket config to a single node. The outcome is reported
+   * by completing the given future; this method does not wait for the response.
+   *
+   * @return the channel carrying the request, so the caller can close it early
+   */
+  private static Channel requestBucketConfig(final CouchbaseSourceConnectorConfig config, final String hostname, final int port,
+                                             final long timeoutMillis, final CompletableFuture<CouchbaseBucketConfig> result) {
     final String bucket = config.getString(CouchbaseSourceConnectorConfig.CONNECTION_BUCKET_CONFIG);
     final String username = config.getUsername();
     final String password = Password.CONNECTION.get(config);
     final boolean sslEnabled = config.getBoolean(CouchbaseSourceConnectorConfig.CONNECTION_SSL_ENABLED_CONFIG);
-    final int port = sslEnabled ? ClientEnvironment.BOOTSTRAP_HTTP_SSL_PORT : ClientEnvironment.BOOTSTRAP_HTTP_DIRECT_PORT;
     final SSLEngineFactory sslEngineFactory =
         new SSLEngineFactory(new SecureEnvironment() {
           @Override
@@ -98,69 +243,90 @@ public class Cluster {
           }
         });
 
-    final AtomicReference<CouchbaseBucketConfig> result = new AtomicReference<>(null);
-    NioEventLoopGroup group = new NioEventLoopGroup();
-    try {
-      for (final String hostname : nodes) {
-        try {
-          final CountDownLatch latch = new CountDownLatch(1);
-          Bootstrap bootstrap = new Bootstrap();
-          bootstrap.group(group)
-              .channel(NioSocketChannel.class)
-              .handler(new ChannelInitializer<Channel>() {
-                @Override
-                protected void initChannel(Channel channel) throws Exception {
-                  ChannelPipeline pipeline = channel.pipeline();
-                  if (sslEnabled) {
-                    pipeline.addLast(new SslHandler(sslEngineFactory.get()));
+    Bootstrap bootstrap = new Bootstrap();
+    bootstrap.group(EventLoopGroupHolder.INSTANCE)
+        .channel(NioSocketChannel.class)
+        .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) Math.min(Integer.MAX_VALUE, timeoutMillis))
+        .handler(new ChannelInitializer<Channel>() {
+          @Override
+          protected void initChannel(Channel channel) throws Exception {
+            ChannelPipeline pipeline = channel.pipeline();
+            pipeline.addLast(new ReadTimeoutHandler(timeoutMillis, TimeUnit.MILLISECONDS));
+            if (sslEnabled) {
+              pipeline.addLast(new SslHandler(sslEngineFactory.get()));
+            }
+
+            pipeline.addLast(new HttpClientCodec())
+                .addLast(new HttpObjectAggregator(1048576))
+                .addLast(new SimpleChannelInboundHandler<FullHttpResponse>() {
+                  @Override
+                  protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse msg) throws Exception {
+                    if (!msg.getStatus().equals(HttpResponseStatus.OK)) {
+                      result.completeExceptionally(new IOException("Unexpected HTTP status " + msg.getStatus()));
+                      return;
+                    }
+                    try {
+                      String body = msg.content().toString(CharsetUtil.UTF_8).replace("$HOST", hostname);
+                      result.complete((CouchbaseBucketConfig) BucketConfigParser.parse(body, dummyBootstrapEnv, hostname));
+                    } catch (Exception e) {
+                      result.completeExceptionally(e);
+                    }
                   }
 
-                  pipeline.addLast(new HttpClientCodec())
-                      .addLast(new HttpObjectAggregator(1048576))
-                      .addLast(new SimpleChannelInboundHandler<FullHttpResponse>() {
-                        @Override
-                        protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse msg) throws Exception {
-                          try {
-                            if (msg.getStatus().equals(HttpResponseStatus.OK)) {
-                              String body = msg.content().toString(CharsetUtil.UTF_8).replace("$HOST", hostname);
-                              result.set((CouchbaseBucketConfig) BucketConfigParser.parse(body, dummyBootstrapEnv, hostname));
-                            }
-                          } finally {
-                            latch.countDown();
-                          }
-                        }
-                      });
-                }
-              });
-
-
-          Channel channel = bootstrap.connect(hostname, port).sync().channel();
-          HttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET,
-              "/pools/default/b/" + bucket);
-          request.headers().set(HttpHeaders.Names.HOST, hostname);
-          request.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.CLOSE);
-
-          ByteBuf raw = Unpooled.buffer(bucket.length() + password.length() + 1);
-          raw.writeBytes((username + ":" + password).getBytes(CharsetUtil.UTF_8));
-          ByteBuf encoded = Base64.encode(raw, false);
-          request.headers().add(HttpHeaders.Names.AUTHORIZATION, "Basic " + encoded.toString(CharsetUtil.UTF_8));
-          encoded.release();
-          raw.release();
-
-          channel.writeAndFlush(request);
-          latch.await();
-          channel.closeFuture().sync();
-          CouchbaseBucketConfig bucketConfig = result.get();
-          if (bucketConfig != null) {
-            return new Config(bucketConfig);
+                  @Override
+                  public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+                    result.completeExceptionally(cause);
+                    ctx.close();
+                  }
+                });
           }
-        } catch (Exception e) {
-          LOGGER.warn("Ignoring error for node {} when getting number of partitions", system(hostname), e);
-        }
+        });
+
+    final ChannelFuture connectFuture = bootstrap.connect(hostname, port);
+    connectFuture.addListener((ChannelFutureListener) future -> {
+      if (!future.isSuccess()) {
+        result.completeExceptionally(future.cause());
+        return;
+      }
+
+      HttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET,
+          "/pools/default/b/" + bucket);
+      request.headers().set(HttpHeaders.Names.HOST, hostname);
+      request.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.CLOSE);
+      request.headers().add(HttpHeaders.Names.AUTHORIZATION, basicAuth(username, password));
+      future.channel().writeAndFlush(request);
+    });
+    connectFuture.channel().closeFuture().addListener((ChannelFutureListener) future -> {
+      if (!result.isDone()) {
+        result.completeExceptionally(new IOException("Connection closed before bucket config was received"));
       }
+    });
+
+    return connectFuture.channel();
+  }
+
+  private static String basicAuth(String username, String password) {
+    ByteBuf raw = Unpooled.copiedBuffer(username + ":" + password, CharsetUtil.UTF_8);
+    ByteBuf encoded = Base64.encode(raw, false);
+    try {
+      return "Basic " + encoded.toString(CharsetUtil.UTF_8);
     } finally {
-      group.shutdownGracefully();
+      encoded.release();
+      raw.release();
     }
-    return null;
+  }
+
+  private static int bootstrapPort(CouchbaseSourceConnectorConfig config) {
+    return config.getBoolean(CouchbaseSourceConnectorConfig.CONNECTION_SSL_ENABLED_CONFIG)
+        ? ClientEnvironment.BOOTSTRAP_HTTP_SSL_PORT
+        : ClientEnvironment.BOOTSTRAP_HTTP_DIRECT_PORT;
+  }
+
+  private static String cacheKey(CouchbaseSourceConnectorConfig config, int port) {
+    return config.getList(CouchbaseSourceConnectorConfig.CONNECTION_CLUSTER_ADDRESS_CONFIG) +
+        "|" + port +
+        "|" + config.getString(CouchbaseSourceConnectorConfig.CONNECTION_BUCKET_CONFIG) +
+        "|" + config.getUsername() +
+        "|" + config.getBoolean(CouchbaseSourceConnectorConfig.CONNECTION_SSL_ENABLED_CONFIG);
   }
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.util;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A set of JSON pointers to object fields, each identified by an index, that can find
+ * their values in a single streaming pass over a document. No tree is built,
+ * and subtrees that no pointer points into are skipped. Pointers do not descend into arrays.
+ * <p>
+ * Not thread-safe while pointers are being added; scanning is thread-safe.
+ */
+public class JsonPointerSet {
+
+  /**
+   * @param <S> type of the per-scan state
+   * @param <R> type of the scan outcome
+   */
+  public interface Visitor<S, R> {
+    /**
+     * Called when the parser is positioned at the value of a pointer. Must not advance the parser.
+     * If a document repeats a field name, this is called for every occurrence.
+     *
+     * @param token the current token of the parser
+     * @return the outcome of the scan, or null to keep going
+     */
+    R visit(S state, int index, JsonParser parser, JsonToken token) throws IOException;
+  }
+
+  private static class Node {
+    private final Map<String, Node> children = new HashMap<>();
+    private int index = -1;
+  }
+
+  private final Node root = new Node();
+  private int size;
+
+  /**
+   * @param pointer a JSON pointer to a field, like {@code /address/country}
+   * @return the index of the pointer
+   * @throws IllegalArgumentException if the pointer is malformed or refers to the whole document
+   */
+  public int add(String pointer) {
+    final List<String> path = new ArrayList<>();
+    for (JsonPointer p = JsonPointer.compile(pointer); !p.matches(); p = p.tail()) {
+      path.add(p.getMatchingProperty());
+    }
+    if (path.isEmpty()) {
+      throw new IllegalArgumentException("JSON pointer must refer to a field, but '" + pointer + "' refers to the whole document");
+    }
+    return add(path);
+  }
+
+  /**
+   * @param path the field names leading from the root object to the value
+   * @return the index of the pointer; the same for pointers with equal paths
+   * @throws IllegalArgumentException if the path is empty
+   */
+  public int add(List<String> path) {
+    if (path.isEmpty()) {
+      throw new IllegalArgumentException("JSON pointer must refer to a field");
+    }
+    Node node = root;
+    for (String segment : path) {
+      node = node.children.computeIfAbsent(segment, s -> new Node());
+    }
+    if (node.index < 0) {
+      node.index = size++;
+    }
+    return node.index;
+  }
+
+  /**
+   * @return the number of distinct pointers; indexes range from 0 to size - 1
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Reads the document from a parser that hasn't returned any tokens yet,
+   * calling the visitor for each pointer value found, until the visitor returns an outcome.
+   * Content that isn't a JSON object has no pointer values.
+   *
+   * @return the first outcome returned by the visitor, or null if the document was read to the end
+   * (or isn't a JSON object) without one
+   */
+  public <S, R> R scan(JsonParser parser, S state, Visitor<S, R> visitor) throws IOException {
+    if (parser.nextToken() != JsonToken.START_OBJECT) {
+      return null;
+    }
+    return visitObject(parser, root, state, visitor);
+  }
+
+  private static <S, R> R visitObject(JsonParser parser, Node node, S state, Visitor<S, R> visitor) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      final Node child = node.children.get(parser.getCurrentName());
+      final JsonToken token = parser.nextToken();
+      if (child == null) {
+        parser.skipChildren();
+        continue;
+      }
+
+      if (child.index >= 0) {
+        final R result = visitor.visit(state, child.index, parser, token);
+        if (result != null) {
+          return result;
+        }
+      }
+
+      if (token == JsonToken.START_OBJECT && !child.children.isEmpty()) {
+        final R result = visitObject(parser, child, state, visitor);
+        if (result != null) {
+          return result;
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits records per second and bytes per second with a pair of token buckets.
+ * Each bucket holds at most one second's worth of tokens, so an idle limiter
+ * allows a burst of one second's traffic.
+ * <p>
+ * Work is charged as it's done, and may overdraw the buckets. The caller then waits
+ * for {@link #reserve(long, long)} or {@link #delayNanos()} before doing more,
+ * which keeps the long-run rate at the limit no matter how large each unit of work is.
+ * <p>
+ * Thread-safe.
+ */
+public class RateLimiter {
+  private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final LongSupplier nanoTime;
+  private final Bucket records;
+  private final Bucket bytes;
+  private long lastRefillNanos;
+
+  private static class Bucket {
+    private final double perSecond;
+    private double tokens;
+
+    Bucket(double perSecond) {
+      this.perSecond = perSecond;
+      this.tokens = perSecond;
+    }
+
+    void refill(long elapsedNanos) {
+      tokens = Math.min(perSecond, tokens + perSecond * elapsedNanos / SECOND_NANOS);
+    }
+
+    long delayNanos() {
+      return tokens >= 0 ? 0 : (long) Math.ceil(-tokens * SECOND_NANOS / perSecond);
+    }
+  }
+
+  /**
+   * @param recordsPerSecond the record limit, or zero for no limit
+   * @param bytesPerSecond the byte limit, or zero for no limit
+   */
+  public RateLimiter(double recordsPerSecond, double bytesPerSecond) {
+    this(recordsPerSecond, bytesPerSecond, System::nanoTime);
+  }
+
+  RateLimiter(double recordsPerSecond, double bytesPerSecond, LongSupplier nanoTime) {
+    this.nanoTime = nanoTime;
+    this.records = recordsPerSecond > 0 ? new Bucket(recordsPerSecond) : null;
+    this.bytes = bytesPerSecond > 0 ? new Bucket(bytesPerSecond) : null;
+    this.lastRefillNanos = nanoTime.getAsLong();
+  }
+
+  /**
+   * Returns a limiter for one of several tasks sharing a connector-wide limit.
+   *
+   * @param share this task's fraction of the connector's work, between 0 and 1
+   * @return the limiter, or null if neither limit is set
+   */
+  public static RateLimiter forTask(long recordsPerSecond, long bytesPerSecond, double share) {
+    if (recordsPerSecond <= 0 && bytesPerSecond <= 0) {
+      return null;
+    }
+    return new RateLimiter(recordsPerSecond * share, bytesPerSecond * share);
+  }
+
+  /**
+   * Charges for work about to be done.
+   *
+   * @return nanoseconds to wait before doing it, so the work stays within the limits
+   */
+  public synchronized long reserve(long recordCount, long byteCount) {
+    refill();
+    if (records != null) {
+      records.tokens -= recordCount;
+    }
+    if (bytes != null) {
+      bytes.tokens -= byteCount;
+    }
+    return delay();
+  }
+
+  /**
+   * Returns nanoseconds until work already charged has been paid for.
+   */
+  public synchronized long delayNanos() {
+    refill();
+    return delay();
+  }
+
+  private void refill() {
+    final long now = nanoTime.getAsLong();
+    final long elapsed = now - lastRefillNanos;
+    lastRefillNanos = now;
+    if (records != null) {
+      records.refill(elapsed);
+    }
+    if (bytes != null) {
+      bytes.refill(elapsed);
+    }
+  }
+
+  private long delay() {
+    return Math.max(records == null ? 0 : records.delayNanos(), bytes == null ? 0 : bytes.delayNanos());
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka;
+
+import com.couchbase.client.core.time.Delay;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.connect.kafka.sink.LocalKvStore;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the task against a {@link LocalKvStore}.
+ */
+public class CouchbaseSinkTaskTest {
+  private static final Delay NO_DELAY = Delay.fixed(0, MILLISECONDS);
+
+  private final LocalKvStore store = new LocalKvStore();
+  private CouchbaseSinkTask task;
+
+  @After
+  public void stop() {
+    if (task != null) {
+      task.stop();
+    }
+  }
+
+  private void startTask(String... extraProps) {
+    final Map<String, String> props = SinkTaskBenchmark.defaultProperties();
+    for (int i = 0; i < extraProps.length; i += 2) {
+      props.put(extraProps[i], extraProps[i + 1]);
+    }
+    task = new CouchbaseSinkTask();
+    task.start(props, store, NO_DELAY);
+  }
+
+  private static SinkRecord record(String key, Object value, long offset) {
+    return new SinkRecord("topic", 0, null, key, null, value, offset);
+  }
+
+  @Test
+  public void upsertsAndRemovesDocuments() {
+    startTask();
+    task.put(Arrays.asList(
+        record("a", Collections.singletonMap("n", 1), 0),
+        record("b", Collections.singletonMap("n", 2), 1),
+        record("a", null, 2),
+        record("missing", null, 3)));
+
+    assertNull(store.get("a"));
+    assertEquals(JsonObject.create().put("n", 2), store.get("b"));
+    assertEquals(1, store.size());
+  }
+
+  @Test
+  public void writesSubDocuments() {
+    startTask(
+        CouchbaseSinkConnectorConfig.DOCUMENT_MODE_CONFIG, "SUBDOCUMENT",
+        CouchbaseSinkConnectorConfig.SUBDOCUMENT_MODE_CONFIG, "ARRAY_APPEND",
+        CouchbaseSinkConnectorConfig.SUBDOCUMENT_PATH_CONFIG, "history.changes");
+    task.put(Collections.singletonList(record("a", Collections.singletonMap("n", 1), 0)));
+    task.put(Collections.singletonList(record("a", Collections.singletonMap("n", 2), 1)));
+
+    final JsonArray changes = store.get("a").getObject("history").getArray("changes");
+    assertEquals(JsonArray.from(JsonObject.create().put("n", 1), JsonObject.create().put("n", 2)), changes);
+  }
+
+  @Test
+  public void retriesTemporaryFailures() {
+    store.tmpfailRate(0.75);
+    startTask();
+    task.put(Collections.singletonList(record("a", Collections.singletonMap("n", 1), 0)));
+
+    assertEquals(JsonObject.create().put("n", 1), store.get("a"));
+    assertTrue(store.tmpfails() > 0);
+    assertEquals(store.tmpfails() + 1, store.operations());
+  }
+
+  @Test
+  public void sharesRateLimitAmongTasks() {
+    startTask(
+        CouchbaseSourceConnectorConfig.MAX_RECORDS_PER_SECOND_CONFIG, "400",
+        CouchbaseSinkTaskConfig.TASK_COUNT_CONFIG, "4");
+    final List<SinkRecord> records = new ArrayList<>();
+    for (int i = 0; i < 150; i++) {
+      records.add(record("doc" + i, Collections.singletonMap("n", i), i));
+    }
+
+    // A burst of 100 records, then 50 more at 100 per second.
+    final long start = System.nanoTime();
+    task.put(records);
+    assertTrue(NANOSECONDS.toMillis(System.nanoTime() - start) >= 450);
+    assertEquals(150, store.size());
+  }
+}
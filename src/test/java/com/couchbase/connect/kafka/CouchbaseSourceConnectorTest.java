@@ -0,0 +1,60 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka;
+
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.common.config.ConfigValue;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CouchbaseSourceConnectorTest {
+
+  private static ConfigValue validate(Map<String, String> props, String name) {
+    for (ConfigValue value : new CouchbaseSourceConnector().validate(props).configValues()) {
+      if (value.name().equals(name)) {
+        return value;
+      }
+    }
+    throw new AssertionError("no config value for " + name);
+  }
+
+  @Test
+  public void rejectsRateLimitsWithSnapshots() throws Exception {
+    final Map<String, String> props = SourceTaskBenchmark.defaultProperties(4);
+    props.put(CouchbaseSourceConnectorConfig.USE_SNAPSHOTS_CONFIG, "true");
+    assertTrue(validate(props, CouchbaseSourceConnectorConfig.USE_SNAPSHOTS_CONFIG).errorMessages().isEmpty());
+    new CouchbaseSourceConnectorConfig(props);
+
+    props.put(CouchbaseSourceConnectorConfig.MAX_BYTES_PER_SECOND_CONFIG, "10m");
+    assertEquals(1, validate(props, CouchbaseSourceConnectorConfig.USE_SNAPSHOTS_CONFIG).errorMessages().size());
+    try {
+      new CouchbaseSourceConnectorConfig(props);
+      fail("expected ConfigException");
+    } catch (ConfigException expected) {
+      assertTrue(expected.getMessage().contains(CouchbaseSourceConnectorConfig.USE_SNAPSHOTS_CONFIG));
+    }
+
+    props.put(CouchbaseSourceConnectorConfig.USE_SNAPSHOTS_CONFIG, "false");
+    assertTrue(validate(props, CouchbaseSourceConnectorConfig.USE_SNAPSHOTS_CONFIG).errorMessages().isEmpty());
+    new CouchbaseSourceConnectorConfig(props);
+  }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka;
+
+import com.couchbase.client.dcp.message.DcpMutationMessage;
+import com.couchbase.client.dcp.message.DcpSnapshotMarkerRequest;
+import com.couchbase.connect.kafka.dcp.DcpCaptureReader;
+import com.couchbase.connect.kafka.dcp.DcpEventGenerator;
+import com.couchbase.connect.kafka.dcp.LocalDcpServer;
+import com.couchbase.connect.kafka.dcp.Message;
+import com.couchbase.connect.kafka.filter.ContentFilter;
+import com.couchbase.connect.kafka.handler.source.RawJsonSourceHandler;
+import org.apache.kafka.connect.source.SourceRecord;
+import org.apache.kafka.connect.source.SourceTaskContext;
+import org.apache.kafka.connect.storage.OffsetStorageReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the task against a {@link LocalDcpServer}.
+ */
+public class CouchbaseSourceTaskTest {
+  private static final int VBUCKETS = 8;
+
+  private static final SourceTaskContext NO_SAVED_OFFSETS = () -> new OffsetStorageReader() {
+    @Override
+    public <T> Map<String, Object> offset(Map<String, T> partition) {
+      return null;
+    }
+
+    @Override
+    public <T> Map<Map<String, T>, Map<String, Object>> offsets(Collection<Map<String, T>> partitions) {
+      return Collections.emptyMap();
+    }
+  };
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private LocalDcpServer server;
+  private CouchbaseSourceTask task;
+
+  @Before
+  public void startServer() throws Exception {
+    server = new LocalDcpServer("test", VBUCKETS).credentials("user", "pass").start();
+  }
+
+  @After
+  public void stop() {
+    if (task != null) {
+      task.stop();
+    }
+    server.close();
+  }
+
+  private void startTask(String... extraProps) {
+    final Map<String, String> props = SourceTaskBenchmark.defaultProperties(VBUCKETS);
+    props.put(CouchbaseSourceConnectorConfig.CONNECTION_CLUSTER_ADDRESS_CONFIG, server.address());
+    props.put(CouchbaseSourceConnectorConfig.CONNECTION_BUCKET_CONFIG, "test");
+    props.put(CouchbaseSourceConnectorConfig.CONNECTION_USERNAME_CONFIG, "user");
+    props.put(CouchbaseSourceConnectorConfig.CONNECTION_PASSWORD_CONFIG, "pass");
+    props.put(CouchbaseSourceConnectorConfig.DCP_MESSAGE_CONVERTER_CLASS_CONFIG, RawJsonSourceHandler.class.getName());
+    for (int i = 0; i < extraProps.length; i += 2) {
+      props.put(extraProps[i], extraProps[i + 1]);
+    }
+    task = new CouchbaseSourceTask();
+    task.initialize(NO_SAVED_OFFSETS);
+    task.start(props);
+  }
+
+  private List<SourceRecord> poll(int count) throws InterruptedException {
+    final List<SourceRecord> records = new ArrayList<>();
+    while (records.size() < count) {
+      records.addAll(task.poll());
+    }
+    assertEquals(count, records.size());
+    return records;
+  }
+
+  @Test(timeout = 30_000)
+  public void streamsBackfillThenLiveChanges() throws Exception {
+    for (int i = 0; i < 40; i++) {
+      server.mutation((short) (i % VBUCKETS), "doc" + i, "{\"n\":" + i + "}");
+    }
+
+    // A buffer smaller than the backfill makes the server wait for acknowledgements
+    startTask(CouchbaseSourceConnectorConfig.FLOW_CONTROL_BUFFER_CONFIG, "1k");
+    assertEquals(40, poll(40).size());
+
+    server.deletion((short) 3, "doc3");
+    final SourceRecord deletion = poll(1).get(0);
+    assertEquals("doc3", deletion.key());
+    assertEquals(null, deletion.value());
+    assertEquals("3", deletion.sourcePartition().get("partition"));
+
+    assertTrue(server.flowControlStalls() > 0);
+    assertTrue(server.bufferAckedBytes() > 0);
+    assertEquals(VBUCKETS, server.streamRequests());
+
+    server.noop();
+    while (server.noopResponses() == 0) {
+      Thread.sleep(10);
+    }
+  }
+
+  @Test(timeout = 30_000)
+  public void neverPublishesChangesLostInFailover() throws Exception {
+    server.mutation((short) 0, "persisted", "{}");
+    startTask();
+    assertEquals("persisted", poll(1).get(0).key());
+
+    // The task holds back changes until they're persisted, so it never sees these
+    server.pausePersistence();
+    server.mutation((short) 0, "lost1", "{}");
+    server.mutation((short) 0, "lost2", "{}");
+    Thread.sleep(500);
+    assertTrue(task.queue().isEmpty());
+
+    assertEquals(1, server.failover((short) 0));
+    server.resumePersistence();
+    server.mutation((short) 0, "after", "{}");
+
+    final SourceRecord record = poll(1).get(0);
+    assertEquals("after", record.key());
+    assertEquals(2L, record.sourceOffset().get("bySeqno"));
+    assertEquals(0, server.rollbacks()); // nothing to roll back
+  }
+
+  @Test(timeout = 30_000)
+  public void rollsBackAfterFailoverWithoutPersistencePolling() throws Exception {
+    startTask(CouchbaseSourceConnectorConfig.PERSISTENCE_POLLING_INTERVAL_CONFIG, "0");
+    server.mutation((short) 0, "persisted", "{}");
+    assertEquals("persisted", poll(1).get(0).key());
+
+    server.pausePersistence();
+    server.mutation((short) 0, "lost", "{}");
+    assertEquals("lost", poll(1).get(0).key());
+
+    assertEquals(1, server.failover((short) 0));
+    server.resumePersistence();
+    server.mutation((short) 0, "after", "{}");
+
+    final SourceRecord record = poll(1).get(0);
+    assertEquals("after", record.key());
+    assertEquals(2L, record.sourceOffset().get("bySeqno"));
+    assertEquals(1, server.rollbacks());
+  }
+
+  @Test(timeout = 30_000)
+  public void capturesReceivedMessages() throws Exception {
+    final File captureDir = tempFolder.newFolder();
+    server.mutation((short) 5, "captured", "{}");
+    startTask(CouchbaseSourceConnectorConfig.CAPTURE_DIR_CONFIG, captureDir.getPath());
+    poll(1);
+    task.stop();
+    task = null;
+
+    final File[] files = captureDir.listFiles();
+    assertEquals(1, files.length);
+    int mutations = 0;
+    boolean sawSnapshotMarker = false;
+    try (DcpCaptureReader reader = new DcpCaptureReader(files[0])) {
+      for (DcpCaptureReader.Frame frame; (frame = reader.next()) != null; ) {
+        if (DcpMutationMessage.is(frame.message())) {
+          assertEquals("captured", DcpMutationMessage.keyString(frame.message()));
+          assertEquals(5, frame.vBucket());
+          mutations++;
+        }
+        sawSnapshotMarker |= frame.isControl() && DcpSnapshotMarkerRequest.is(frame.message());
+        frame.message().release();
+      }
+    }
+    assertEquals(1, mutations);
+    assertTrue(sawSnapshotMarker);
+  }
+
+  /**
+   * Starts the task without connecting, so the test can feed its queue directly.
+   */
+  private void initTask(String... extraProps) {
+    final Map<String, String> props = SourceTaskBenchmark.defaultProperties(VBUCKETS);
+    props.put(CouchbaseSourceConnectorConfig.DCP_MESSAGE_CONVERTER_CLASS_CONFIG, RawJsonSourceHandler.class.getName());
+    for (int i = 0; i < extraProps.length; i += 2) {
+      props.put(extraProps[i], extraProps[i + 1]);
+    }
+    task = new CouchbaseSourceTask();
+    task.init(props);
+  }
+
+  private static Message mutation(long seqno) {
+    return new Message(DcpEventGenerator.mutation((short) 0, seqno, "doc" + seqno, "{}".getBytes(UTF_8), seqno),
+        SourceTaskBenchmark.NO_FLOW_CONTROL);
+  }
+
+  @Test(timeout = 30_000)
+  public void returnsBatchWithoutWaitingForTrickleToStop() throws Exception {
+    initTask(CouchbaseSourceConnectorConfig.POLL_MAX_WAIT_CONFIG, "20s");
+    final Thread trickle = new Thread(() -> {
+      try {
+        for (long seqno = 1; seqno <= 1000; seqno++) {
+          task.queue().put(mutation(seqno));
+          Thread.sleep(10);
+        }
+      } catch (InterruptedException e) {
+        // done
+      }
+    });
+    trickle.start();
+    try {
+      final long start = System.nanoTime();
+      final List<SourceRecord> records = task.poll();
+      assertTrue(NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+      assertTrue(!records.isEmpty() && records.size() < 100);
+    } finally {
+      trickle.interrupt();
+      trickle.join();
+    }
+  }
+
+  @Test(timeout = 30_000)
+  public void returnsEmptyBatchAfterMaxWait() throws Exception {
+    initTask(CouchbaseSourceConnectorConfig.POLL_MAX_WAIT_CONFIG, "200ms");
+    final long start = System.nanoTime();
+    assertTrue(task.poll().isEmpty());
+    assertTrue(NANOSECONDS.toMillis(System.nanoTime() - start) >= 200);
+
+    task.queue().put(mutation(1));
+    assertEquals("doc1", task.poll().get(0).key());
+  }
+
+  @Test(timeout = 30_000)
+  public void stopWakesWaitingPoll() throws Exception {
+    initTask(CouchbaseSourceConnectorConfig.POLL_MAX_WAIT_CONFIG, "1h");
+    final Thread stopper = new Thread(() -> {
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        return;
+      }
+      task.stop();
+    });
+    stopper.start();
+    assertTrue(task.poll().isEmpty());
+    stopper.join();
+    task = null;
+  }
+
+  @Test(timeout = 30_000)
+  public void filtersRoutesAndPublishesCompressedDocuments() throws Exception {
+    initTask(CouchbaseSourceConnectorConfig.EVENT_FILTER_CLASS_CONFIG, ContentFilter.class.getName(),
+        ContentFilter.PREDICATE_CONFIG, "/status != \"draft\"",
+        CouchbaseSourceConnectorConfig.TOPIC_ROUTES_CONFIG, "field:/type=events-${value}");
+    final String order = "{\"type\":\"order\",\"status\":\"paid\"}";
+    final String draft = "{\"type\":\"order\",\"status\":\"draft\"}";
+    task.queue().put(new Message(DcpEventGenerator.compressedMutation((short) 0, 1, "a", order.getBytes(UTF_8), 1),
+        SourceTaskBenchmark.NO_FLOW_CONTROL));
+    task.queue().put(new Message(DcpEventGenerator.compressedMutation((short) 0, 2, "b", draft.getBytes(UTF_8), 2),
+        SourceTaskBenchmark.NO_FLOW_CONTROL));
+
+    final List<SourceRecord> records = task.poll();
+    assertEquals(1, records.size());
+    assertEquals("events-order", records.get(0).topic());
+    assertEquals(order, new String((byte[]) records.get(0).value(), UTF_8));
+  }
+
+  @Test(timeout = 30_000)
+  public void leavesEventsQueuedWhenRateLimited() throws Exception {
+    initTask(CouchbaseSourceConnectorConfig.MAX_RECORDS_PER_SECOND_CONFIG, "10");
+    for (long seqno = 1; seqno <= 30; seqno++) {
+      task.queue().put(mutation(seqno));
+    }
+
+    // A burst of one second's worth, plus the event that overdraws the limit.
+    assertEquals(11, task.poll().size());
+    assertEquals(19, task.queue().size());
+
+    final long start = System.nanoTime();
+    int published = 0;
+    while (published < 19) {
+      published += task.poll().size();
+    }
+    assertTrue(NANOSECONDS.toMillis(System.nanoTime() - start) >= 1800);
+  }
+
+  @Test(timeout = 30_000)
+  public void streamsWithFairScheduling() throws Exception {
+    for (int i = 0; i < 40; i++) {
+      server.mutation((short) (i % VBUCKETS), "doc" + i, "{\"n\":" + i + "}");
+    }
+
+    startTask(CouchbaseSourceConnectorConfig.FAIR_SCHEDULING_CONFIG, "true");
+    assertEquals(40, poll(40).size());
+  }
+
+  private static List<List<Short>> stripes(int partitionCount, int stripeCount) {
+    final Short[] partitions = new Short[partitionCount];
+    for (short i = 0; i < partitionCount; i++) {
+      partitions[i] = i;
+    }
+    final List<List<Short>> result = new ArrayList<>();
+    for (Short[] stripe : CouchbaseSourceTask.stripe(partitions, stripeCount)) {
+      result.add(Arrays.asList(stripe));
+    }
+    return result;
+  }
+
+  @Test
+  public void stripesPartitionsRoundRobin() throws Exception {
+    assertEquals(Arrays.asList(
+        Arrays.asList((short) 0, (short) 3, (short) 6),
+        Arrays.asList((short) 1, (short) 4),
+        Arrays.asList((short) 2, (short) 5)),
+        stripes(7, 3));
+    assertEquals(Collections.singletonList(Arrays.asList((short) 0, (short) 1)), stripes(2, 1));
+
+    // Never more stripes than partitions, and always at least one.
+    assertEquals(2, stripes(2, 8).size());
+    assertEquals(Collections.singletonList(Collections.emptyList()), stripes(0, 4));
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class KafkaPartitioningTest {
+
+  @Test
+  public void key() throws Exception {
+    assertNull(KafkaPartitioning.KEY.kafkaPartition(5, 1024, 8));
+  }
+
+  @Test
+  public void modulo() throws Exception {
+    assertEquals(0, (int) KafkaPartitioning.VBUCKET_MODULO.kafkaPartition(0, 1024, 10));
+    assertEquals(3, (int) KafkaPartitioning.VBUCKET_MODULO.kafkaPartition(13, 1024, 10));
+    assertEquals(1023, (int) KafkaPartitioning.VBUCKET_MODULO.kafkaPartition(1023, 1024, 1024));
+  }
+
+  @Test
+  public void rangesAreContiguousAndBalanced() throws Exception {
+    final int vBuckets = 1024;
+    final int kafkaPartitions = 10;
+    final int[] counts = new int[kafkaPartitions];
+    int previous = 0;
+    for (int vb = 0; vb < vBuckets; vb++) {
+      int p = KafkaPartitioning.VBUCKET_RANGE.kafkaPartition(vb, vBuckets, kafkaPartitions);
+      assertEquals("vBucket " + vb, true, p == previous || p == previous + 1);
+      counts[p]++;
+      previous = p;
+    }
+    assertEquals(kafkaPartitions - 1, previous);
+    for (int count : counts) {
+      assertEquals(true, count == 102 || count == 103);
+    }
+  }
+}
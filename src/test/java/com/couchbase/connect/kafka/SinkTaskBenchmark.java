@@ -0,0 +1,189 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka;
+
+import com.couchbase.client.core.time.Delay;
+import com.couchbase.connect.kafka.sink.LocalKvStore;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast {@link CouchbaseSinkTask#put} writes records, without a Couchbase cluster.
+ * The task writes to a {@link LocalKvStore}, which can add latency, temporary failures and
+ * timeouts to every operation.
+ * <p>
+ * Reports records/sec, retry amplification (store operations per record written),
+ * failed puts, and put latency percentiles. Run it from the command line like this:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *     -Dbench.records=1000000 -Dbench.batchSize=500 \
+ *     -Dbench.latencyMicros=300 -Dbench.jitterMicros=700 -Dbench.tmpfailRate=0.001 \
+ *     com.couchbase.connect.kafka.SinkTaskBenchmark
+ * </pre>
+ * Every {@code bench.prop.*} system property is passed to the task as a connector property.
+ * The other options are {@code bench.records}, {@code bench.batchSize}, {@code bench.keys},
+ * {@code bench.bodyBytes}, {@code bench.deletionRatio}, {@code bench.latencyMicros},
+ * {@code bench.jitterMicros}, {@code bench.tmpfailRate}, {@code bench.timeoutRate},
+ * {@code bench.timeoutMillis} and {@code bench.retryDelayMillis}.
+ */
+public class SinkTaskBenchmark {
+
+  public static class Result {
+    public final long records;
+    public final long puts;
+    public final long failedPuts;
+    public final long operations;
+    public final long nanos;
+    private final long[] putNanos;
+
+    private Result(long records, long puts, long failedPuts, long operations, long nanos, long[] putNanos) {
+      this.records = records;
+      this.puts = puts;
+      this.failedPuts = failedPuts;
+      this.operations = operations;
+      this.nanos = nanos;
+      this.putNanos = putNanos;
+      Arrays.sort(this.putNanos);
+    }
+
+    /**
+     * Returns the number of store operations per record; 1.0 means nothing was retried.
+     */
+    public double retryAmplification() {
+      return records == 0 ? 0 : (double) operations / records;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     */
+    public double putMillis(double percentile) {
+      if (putNanos.length == 0) {
+        return 0;
+      }
+      final int index = (int) Math.min(putNanos.length - 1, Math.ceil(percentile / 100 * putNanos.length) - 1);
+      return putNanos[Math.max(0, index)] / 1e6;
+    }
+
+    @Override
+    public String toString() {
+      final double seconds = nanos / 1e9;
+      return String.format("records=%d time=%.2fs%n"
+              + "records/sec=%.0f operations/record=%.3f failed puts=%d/%d%n"
+              + "latency ms p50=%.2f p90=%.2f p99=%.2f max=%.2f",
+          records, seconds,
+          records / seconds, retryAmplification(), failedPuts, puts,
+          putMillis(50), putMillis(90), putMillis(99), putMillis(100));
+    }
+  }
+
+  /**
+   * Returns connector properties that let the task start without a cluster.
+   */
+  public static Map<String, String> defaultProperties() {
+    final Map<String, String> props = new HashMap<>();
+    props.put(CouchbaseSourceConnectorConfig.CONNECTION_CLUSTER_ADDRESS_CONFIG, "127.0.0.1");
+    props.put(CouchbaseSourceConnectorConfig.CONNECTION_BUCKET_CONFIG, "benchmark");
+    return props;
+  }
+
+  /**
+   * Returns records with string keys and schemaless JSON object values,
+   * or null values for deletions.
+   */
+  public static List<SinkRecord> records(int count, int keys, int bodyBytes, double deletionRatio, long seed) {
+    final Random random = new Random(seed);
+    final char[] padding = new char[Math.max(0, bodyBytes - 30)];
+    Arrays.fill(padding, 'x');
+    final String pad = new String(padding);
+
+    final List<SinkRecord> records = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      final String key = "doc::" + random.nextInt(keys);
+      Map<String, Object> value = null;
+      if (random.nextDouble() >= deletionRatio) {
+        value = new HashMap<>();
+        value.put("n", i);
+        value.put("pad", pad);
+      }
+      records.add(new SinkRecord("benchmark", 0, null, key, null, value, i));
+    }
+    return records;
+  }
+
+  public static Result run(Map<String, String> taskProperties, LocalKvStore store, Delay retryDelay,
+                           List<SinkRecord> records, int batchSize) {
+    final CouchbaseSinkTask task = new CouchbaseSinkTask();
+    task.start(taskProperties, store, retryDelay);
+
+    final long operationsBefore = store.operations();
+    final long[] putNanos = new long[(records.size() + batchSize - 1) / batchSize];
+    int puts = 0;
+    long failedPuts = 0;
+
+    final long start = System.nanoTime();
+    for (int i = 0; i < records.size(); i += batchSize) {
+      final List<SinkRecord> batch = records.subList(i, Math.min(records.size(), i + batchSize));
+      final long putStart = System.nanoTime();
+      try {
+        task.put(batch);
+      } catch (RuntimeException e) {
+        failedPuts++;
+      }
+      putNanos[puts++] = System.nanoTime() - putStart;
+    }
+    final long nanos = System.nanoTime() - start;
+    task.stop();
+
+    return new Result(records.size(), puts, failedPuts, store.operations() - operationsBefore, nanos, putNanos);
+  }
+
+  public static void main(String[] args) throws Exception {
+    final Map<String, String> props = defaultProperties();
+    for (String name : System.getProperties().stringPropertyNames()) {
+      if (name.startsWith("bench.prop.")) {
+        props.put(name.substring("bench.prop.".length()), System.getProperty(name));
+      }
+    }
+
+    final LocalKvStore store = new LocalKvStore()
+        .latency(Long.getLong("bench.latencyMicros", 0), Long.getLong("bench.jitterMicros", 0), TimeUnit.MICROSECONDS)
+        .tmpfailRate(Double.parseDouble(System.getProperty("bench.tmpfailRate", "0")))
+        .timeoutRate(Double.parseDouble(System.getProperty("bench.timeoutRate", "0")))
+        .timeout(Long.getLong("bench.timeoutMillis", 2500), TimeUnit.MILLISECONDS);
+    final Delay retryDelay = Delay.fixed(Long.getLong("bench.retryDelayMillis", 10), TimeUnit.MILLISECONDS);
+
+    final List<SinkRecord> records = records(
+        Integer.getInteger("bench.records", 1_000_000),
+        Integer.getInteger("bench.keys", 100_000),
+        Integer.getInteger("bench.bodyBytes", 1024),
+        Double.parseDouble(System.getProperty("bench.deletionRatio", "0")),
+        42);
+    final int batchSize = Integer.getInteger("bench.batchSize", 500);
+
+    // Warm up the JIT before measuring.
+    run(props, new LocalKvStore(), retryDelay, records.subList(0, Math.min(records.size(), 200_000)), batchSize);
+    System.out.println(run(props, store, retryDelay, records, batchSize));
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka;
+
+import com.couchbase.client.core.time.Delay;
+import com.couchbase.connect.kafka.sink.LocalKvStore;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Makes sure the benchmark harness works; it doesn't measure anything.
+ */
+public class SinkTaskBenchmarkTest {
+
+  @Test
+  public void writesEveryRecord() throws Exception {
+    // Small batches, so a batch practically never fails more often than the task retries
+    LocalKvStore store = new LocalKvStore()
+        .latency(0, 100, TimeUnit.MICROSECONDS)
+        .tmpfailRate(0.005);
+
+    SinkTaskBenchmark.Result result = SinkTaskBenchmark.run(SinkTaskBenchmark.defaultProperties(), store,
+        Delay.fixed(0, TimeUnit.MILLISECONDS), SinkTaskBenchmark.records(5000, 100, 256, 0.1, 42), 20);
+
+    assertEquals(5000, result.records);
+    assertEquals(250, result.puts);
+    assertEquals(0, result.failedPuts);
+    assertTrue(store.tmpfails() > 0);
+    // A failure makes the task write the whole batch again
+    assertTrue(result.retryAmplification() > 1);
+    assertTrue(result.putMillis(50) <= result.putMillis(100));
+  }
+}
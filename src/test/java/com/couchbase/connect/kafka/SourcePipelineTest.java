@@ -0,0 +1,147 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka;
+
+import com.couchbase.connect.kafka.dcp.DcpEventGenerator;
+import com.couchbase.connect.kafka.handler.source.DocumentEvent;
+import com.couchbase.connect.kafka.handler.source.RawJsonSourceHandler;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntToLongFunction;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SourcePipelineTest {
+  /**
+   * Every partition had seqno 9 when its stream started.
+   */
+  private static final IntToLongFunction NOW = partition -> 9;
+
+  private final SourcePipeline pipeline = new SourcePipeline("raw", "topic", null, null, new RawJsonSourceHandler());
+
+  private static DocumentEvent event(int partition, long seqno) {
+    return DocumentEvent.create(
+        DcpEventGenerator.mutation((short) partition, seqno, "doc" + seqno, "{}".getBytes(UTF_8), seqno), "bucket", 0);
+  }
+
+  private static Map<Short, Long> seqnos(long... partitionSeqnoPairs) {
+    final Map<Short, Long> result = new HashMap<>();
+    for (int i = 0; i < partitionSeqnoPairs.length; i += 2) {
+      result.put((short) partitionSeqnoPairs[i], partitionSeqnoPairs[i + 1]);
+    }
+    return result;
+  }
+
+  private static SourcePipeline pipeline(String name) {
+    return new SourcePipeline(name, "topic", null, null, new RawJsonSourceHandler());
+  }
+
+  @Test
+  public void resumesFromLowestSavedSeqno() throws Exception {
+    final List<SourcePipeline> pipelines = Arrays.asList(pipeline("a"), pipeline("b"));
+    assertEquals(seqnos(0, 5, 1, 7), CouchbaseSourceTask.resumeSeqnos(pipelines,
+        Arrays.asList(seqnos(0, 5, 1, 9), seqnos(0, 8, 1, 7)), StreamFrom.SAVED_OFFSET_OR_BEGINNING));
+    assertEquals(seqnos(0, 5), CouchbaseSourceTask.resumeSeqnos(Collections.singletonList(pipeline),
+        Collections.singletonList(seqnos(0, 5)), StreamFrom.SAVED_OFFSET_OR_BEGINNING));
+  }
+
+  @Test
+  public void partitionWithoutAnyOffsetUsesStreamFrom() throws Exception {
+    final List<SourcePipeline> pipelines = Arrays.asList(pipeline("a"), pipeline("b"));
+    assertEquals(seqnos(0, 5), CouchbaseSourceTask.resumeSeqnos(pipelines,
+        Arrays.asList(seqnos(0, 5), seqnos()), StreamFrom.SAVED_OFFSET_OR_BEGINNING));
+    assertEquals(seqnos(), CouchbaseSourceTask.resumeSeqnos(pipelines,
+        Arrays.asList(seqnos(), seqnos()), StreamFrom.SAVED_OFFSET_OR_NOW));
+  }
+
+  @Test
+  public void pipelineWithoutOffsetPublishesFromResumePointWhenFallingBackToBeginning() throws Exception {
+    final SourcePipeline a = pipeline("a");
+    final SourcePipeline b = pipeline("b");
+    assertEquals(seqnos(0, 5), CouchbaseSourceTask.resumeSeqnos(Arrays.asList(a, b),
+        Arrays.asList(seqnos(0, 5), seqnos()), StreamFrom.SAVED_OFFSET_OR_BEGINNING));
+
+    assertTrue(a.alreadyPublished(event(0, 5), NOW));
+    assertFalse(a.alreadyPublished(event(0, 6), NOW));
+    assertFalse(b.alreadyPublished(event(0, 5), NOW));
+    assertFalse(b.alreadyPublished(event(0, 6), NOW));
+  }
+
+  @Test
+  public void pipelineWithoutOffsetSkipsOlderChangesWhenFallingBackToNow() throws Exception {
+    final SourcePipeline a = pipeline("a");
+    final SourcePipeline b = pipeline("b");
+    assertEquals(seqnos(0, 5), CouchbaseSourceTask.resumeSeqnos(Arrays.asList(a, b),
+        Arrays.asList(seqnos(0, 5), seqnos()), StreamFrom.SAVED_OFFSET_OR_NOW));
+
+    assertFalse(a.alreadyPublished(event(0, 6), NOW));
+    assertTrue(b.alreadyPublished(event(0, 6), NOW));
+    assertTrue(b.alreadyPublished(event(0, 9), NOW));
+    assertFalse(b.alreadyPublished(event(0, 10), NOW));
+    assertFalse(a.alreadyPublished(event(0, 10), NOW));
+  }
+
+  @Test
+  public void skipsEventsPublishedBeforeRestart() throws Exception {
+    pipeline.setSavedSeqno((short) 0, 5);
+    assertTrue(pipeline.alreadyPublished(event(0, 3), NOW));
+    assertTrue(pipeline.alreadyPublished(event(0, 5), NOW));
+    assertFalse(pipeline.alreadyPublished(event(1, 3), NOW));
+    assertFalse(pipeline.alreadyPublished(event(0, 6), NOW));
+
+    // Caught up, so a later event with a lower seqno is a different change.
+    assertFalse(pipeline.alreadyPublished(event(0, 4), NOW));
+  }
+
+  @Test
+  public void publishesEverythingAfterRollback() throws Exception {
+    pipeline.setSavedSeqno((short) 0, 5);
+    pipeline.rolledBack((short) 0);
+    assertFalse(pipeline.alreadyPublished(event(0, 3), NOW));
+  }
+
+  @Test
+  public void pipelineSettingsOverrideConnectorSettings() throws Exception {
+    final Map<String, String> props = SourceTaskBenchmark.defaultProperties(4);
+    props.put(CouchbaseSourceConnectorConfig.PIPELINES_CONFIG, "raw,meta");
+    props.put(CouchbaseSourceConnectorConfig.TOPIC_ROUTES_CONFIG, "a:x,b:y");
+    props.put(CouchbaseSourceConnectorConfig.PIPELINE_PREFIX + "raw.topic.name", "raw-topic");
+    props.put(CouchbaseSourceConnectorConfig.PIPELINE_PREFIX + "raw.couchbase.topic_routes", "c:z");
+    props.put(CouchbaseSourceConnectorConfig.PIPELINE_PREFIX + "raw.custom.setting", "raw-value");
+    props.put("custom.setting", "connector-value");
+    final CouchbaseSourceConnectorConfig config = new CouchbaseSourceTaskConfig(props);
+
+    assertEquals("raw-topic", config.getPipelineString("raw", CouchbaseSourceConnectorConfig.TOPIC_NAME_CONFIG));
+    assertEquals("benchmark", config.getPipelineString("meta", CouchbaseSourceConnectorConfig.TOPIC_NAME_CONFIG));
+    assertEquals(Collections.singletonList("c:z"),
+        config.getPipelineList("raw", CouchbaseSourceConnectorConfig.TOPIC_ROUTES_CONFIG));
+    assertEquals(Arrays.asList("a:x", "b:y"),
+        config.getPipelineList("meta", CouchbaseSourceConnectorConfig.TOPIC_ROUTES_CONFIG));
+
+    assertEquals("raw-value", config.pipelineOriginals("raw").get("custom.setting"));
+    assertEquals("connector-value", config.pipelineOriginals("meta").get("custom.setting"));
+    assertEquals("raw-topic", config.pipelineOriginals("raw").get(CouchbaseSourceConnectorConfig.TOPIC_NAME_CONFIG));
+  }
+}
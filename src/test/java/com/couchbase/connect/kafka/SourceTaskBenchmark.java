@@ -0,0 +1,307 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka;
+
+import com.couchbase.client.dcp.transport.netty.ChannelFlowController;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.connect.kafka.dcp.DcpCaptureReader;
+import com.couchbase.connect.kafka.dcp.DcpEventGenerator;
+import com.couchbase.connect.kafka.dcp.Event;
+import com.couchbase.connect.kafka.dcp.Message;
+import org.apache.kafka.connect.source.SourceRecord;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Measures how fast {@link CouchbaseSourceTask#poll()} turns DCP events into records,
+ * without a Couchbase cluster. A producer thread feeds synthetic events from a
+ * {@link DcpEventGenerator} to the task's queue at a target rate, standing in for the
+ * DCP readers, while the calling thread polls the task.
+ * <p>
+ * Reports records/sec, DCP bytes/sec, bytes allocated by the polling thread per record,
+ * and poll latency percentiles. Run it from the command line like this:
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *     -Dbench.events=1000000 -Dbench.rate=0 -Dbench.bodyBytes=2048 \
+ *     -Dbench.prop.dcp.message.converter.class=com.couchbase.connect.kafka.handler.source.RawJsonSourceHandler \
+ *     com.couchbase.connect.kafka.SourceTaskBenchmark
+ * </pre>
+ * Every {@code bench.prop.*} system property is passed to the task as a connector property.
+ * The other options are {@code bench.events}, {@code bench.rate} (events per second; 0 means unlimited),
+ * {@code bench.vBuckets}, {@code bench.keys}, {@code bench.keyBytes}, {@code bench.bodyBytes},
+ * {@code bench.fieldsPerObject}, {@code bench.depth}, {@code bench.deletionRatio} and
+ * {@code bench.compressed} (snappy-compress mutation bodies, as the server does when compression is enabled).
+ * <p>
+ * To replay real traffic instead, capture it with the
+ * {@value CouchbaseSourceConnectorConfig#CAPTURE_DIR_CONFIG} connector property and run with
+ * {@code -Dbench.capture=<file>}. Add {@code -Dbench.originalSpeed=true} to deliver the
+ * messages at the pace they were captured; by default they're delivered as fast as the task
+ * takes them. Set {@code bench.vBuckets} to the number of vBuckets in the captured bucket.
+ */
+public class SourceTaskBenchmark {
+  static final ChannelFlowController NO_FLOW_CONTROL = new ChannelFlowController() {
+    @Override
+    public void ack(ByteBuf message) {
+    }
+
+    @Override
+    public void ack(int numBytes) {
+    }
+  };
+
+  public static class Result {
+    public final long events;
+    public final long records;
+    public final long dcpBytes;
+    public final long nanos;
+    public final long allocatedBytes; // -1 if the JVM can't measure it
+    private final long[] pollNanos;
+
+    private Result(long events, long records, long dcpBytes, long nanos, long allocatedBytes, long[] pollNanos) {
+      this.events = events;
+      this.records = records;
+      this.dcpBytes = dcpBytes;
+      this.nanos = nanos;
+      this.allocatedBytes = allocatedBytes;
+      this.pollNanos = pollNanos;
+      Arrays.sort(this.pollNanos);
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     */
+    public double pollMillis(double percentile) {
+      if (pollNanos.length == 0) {
+        return 0;
+      }
+      final int index = (int) Math.min(pollNanos.length - 1, Math.ceil(percentile / 100 * pollNanos.length) - 1);
+      return pollNanos[Math.max(0, index)] / 1e6;
+    }
+
+    @Override
+    public String toString() {
+      final double seconds = nanos / 1e9;
+      return String.format("events=%d records=%d time=%.2fs%n"
+              + "records/sec=%.0f MB/sec=%.1f allocated/record=%s%n"
+              + "polls=%d latency ms p50=%.2f p90=%.2f p99=%.2f max=%.2f",
+          events, records, seconds,
+          records / seconds, dcpBytes / seconds / 1e6,
+          allocatedBytes < 0 || records == 0 ? "n/a" : (allocatedBytes / records) + " B",
+          pollNanos.length, pollMillis(50), pollMillis(90), pollMillis(99), pollMillis(100));
+    }
+  }
+
+  /**
+   * Returns connector properties that let the task start without a cluster.
+   */
+  public static Map<String, String> defaultProperties(int vBuckets) {
+    final Map<String, String> props = new HashMap<>();
+    props.put(CouchbaseSourceConnectorConfig.CONNECTION_CLUSTER_ADDRESS_CONFIG, "127.0.0.1");
+    props.put(CouchbaseSourceConnectorConfig.CONNECTION_BUCKET_CONFIG, "benchmark");
+    props.put(CouchbaseSourceConnectorConfig.TOPIC_NAME_CONFIG, "benchmark");
+    props.put(CouchbaseSourceTaskConfig.PARTITION_COUNT_CONFIG, Integer.toString(vBuckets));
+    final StringBuilder partitions = new StringBuilder("0");
+    for (int i = 1; i < vBuckets; i++) {
+      partitions.append(',').append(i);
+    }
+    props.put(CouchbaseSourceTaskConfig.PARTITIONS_CONFIG, partitions.toString());
+    return props;
+  }
+
+  /**
+   * Stands in for the DCP readers.
+   */
+  private interface Feed {
+    /**
+     * Puts messages in the queue, adding their sizes to {@code dcpBytes}.
+     *
+     * @return the number of messages
+     */
+    long feed(BlockingQueue<Event> queue, AtomicLong dcpBytes) throws InterruptedException, IOException;
+  }
+
+  /**
+   * @param eventsPerSecond target rate, or 0 to produce events as fast as the task takes them
+   */
+  public static Result run(Map<String, String> taskProperties, DcpEventGenerator generator,
+                           long events, long eventsPerSecond) throws InterruptedException, IOException {
+    return run(taskProperties, (queue, dcpBytes) -> {
+      final long start = System.nanoTime();
+      for (long i = 0; i < events; i++) {
+        if (eventsPerSecond > 0) {
+          sleepUntil(start + i * 1_000_000_000L / eventsPerSecond);
+        }
+        final ByteBuf message = generator.next();
+        dcpBytes.addAndGet(message.readableBytes());
+        queue.put(new Message(message, NO_FLOW_CONTROL));
+      }
+      return events;
+    });
+  }
+
+  /**
+   * Feeds the data messages from a capture recorded with
+   * {@value CouchbaseSourceConnectorConfig#CAPTURE_DIR_CONFIG} to the task.
+   * Control messages are skipped, so snapshot markers are not replayed.
+   *
+   * @param originalSpeed whether to deliver the messages at the pace they were captured,
+   * instead of as fast as the task takes them
+   */
+  public static Result replay(Map<String, String> taskProperties, File capture,
+                              boolean originalSpeed) throws InterruptedException, IOException {
+    return run(taskProperties, (queue, dcpBytes) -> {
+      try (DcpCaptureReader reader = new DcpCaptureReader(capture)) {
+        final long start = System.nanoTime();
+        long firstNanos = -1;
+        long events = 0;
+        for (DcpCaptureReader.Frame frame; (frame = reader.next()) != null; ) {
+          if (frame.isControl()) {
+            frame.message().release();
+            continue;
+          }
+          if (firstNanos < 0) {
+            firstNanos = frame.nanos();
+          }
+          if (originalSpeed) {
+            sleepUntil(start + frame.nanos() - firstNanos);
+          }
+          dcpBytes.addAndGet(frame.message().readableBytes());
+          queue.put(new Message(frame.message(), NO_FLOW_CONTROL));
+          events++;
+        }
+        return events;
+      }
+    });
+  }
+
+  private static void sleepUntil(long nanoTime) throws InterruptedException {
+    final long wait = nanoTime - System.nanoTime();
+    if (wait > 0) {
+      TimeUnit.NANOSECONDS.sleep(wait);
+    }
+  }
+
+  private static Result run(Map<String, String> taskProperties, Feed feed) throws InterruptedException, IOException {
+    final CouchbaseSourceTask task = new CouchbaseSourceTask();
+    task.init(taskProperties);
+    final BlockingQueue<Event> queue = task.queue();
+    final AtomicLong dcpBytes = new AtomicLong();
+    final AtomicLong events = new AtomicLong();
+    final AtomicReference<IOException> feedError = new AtomicReference<>();
+
+    final Thread producer = new Thread(() -> {
+      try {
+        events.set(feed.feed(queue, dcpBytes));
+        while (!queue.isEmpty()) {
+          Thread.sleep(1);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (IOException e) {
+        feedError.set(e);
+      } finally {
+        task.stop(); // makes the final poll return
+      }
+    }, "benchmark-producer");
+
+    final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    final com.sun.management.ThreadMXBean allocations = threads instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()
+        ? (com.sun.management.ThreadMXBean) threads : null;
+    final long threadId = Thread.currentThread().getId();
+
+    long[] pollNanos = new long[1024];
+    int polls = 0;
+    long records = 0;
+
+    final long allocatedBefore = allocations == null ? 0 : allocations.getThreadAllocatedBytes(threadId);
+    final long start = System.nanoTime();
+    producer.start();
+    while (true) {
+      final long pollStart = System.nanoTime();
+      final List<SourceRecord> batch = task.poll();
+      final long pollEnd = System.nanoTime();
+      if (batch.isEmpty()) {
+        if (!producer.isAlive()) {
+          break;
+        }
+        continue; // stopping
+      }
+      if (polls == pollNanos.length) {
+        pollNanos = Arrays.copyOf(pollNanos, polls * 2);
+      }
+      pollNanos[polls++] = pollEnd - pollStart;
+      records += batch.size();
+    }
+    final long nanos = System.nanoTime() - start;
+    final long allocated = allocations == null ? -1 : allocations.getThreadAllocatedBytes(threadId) - allocatedBefore;
+    producer.join();
+    if (feedError.get() != null) {
+      throw feedError.get();
+    }
+
+    return new Result(events.get(), records, dcpBytes.get(), nanos, allocated, Arrays.copyOf(pollNanos, polls));
+  }
+
+  public static void main(String[] args) throws Exception {
+    final int vBuckets = Integer.getInteger("bench.vBuckets", 1024);
+    final Map<String, String> props = defaultProperties(vBuckets);
+    for (String name : System.getProperties().stringPropertyNames()) {
+      if (name.startsWith("bench.prop.")) {
+        props.put(name.substring("bench.prop.".length()), System.getProperty(name));
+      }
+    }
+
+    final DcpEventGenerator generator = DcpEventGenerator.builder()
+        .vBuckets(vBuckets)
+        .keys(Integer.getInteger("bench.keys", 100_000))
+        .keyBytes(Integer.getInteger("bench.keyBytes", 16))
+        .bodyBytes(Integer.getInteger("bench.bodyBytes", 1024))
+        .fieldsPerObject(Integer.getInteger("bench.fieldsPerObject", 8))
+        .depth(Integer.getInteger("bench.depth", 1))
+        .deletionRatio(Double.parseDouble(System.getProperty("bench.deletionRatio", "0")))
+        .compressed(Boolean.getBoolean("bench.compressed"))
+        .build();
+
+    final String capture = System.getProperty("bench.capture");
+    if (capture != null) {
+      final boolean originalSpeed = Boolean.getBoolean("bench.originalSpeed");
+      replay(props, new File(capture), false); // warm-up
+      System.out.println(replay(props, new File(capture), originalSpeed));
+      return;
+    }
+
+    final long events = Long.getLong("bench.events", 1_000_000);
+    final long rate = Long.getLong("bench.rate", 0);
+
+    // Warm up the JIT before measuring.
+    run(props, generator, Math.min(events, 200_000), 0);
+    System.out.println(run(props, generator, events, rate));
+  }
+}
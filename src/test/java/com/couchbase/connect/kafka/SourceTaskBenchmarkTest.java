@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka;
+
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.connect.kafka.dcp.DcpCaptureWriter;
+import com.couchbase.connect.kafka.dcp.DcpEventGenerator;
+import com.couchbase.connect.kafka.handler.source.RawJsonSourceHandler;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Makes sure the benchmark harness works; it doesn't measure anything.
+ */
+public class SourceTaskBenchmarkTest {
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void publishesEveryEvent() throws Exception {
+    Map<String, String> props = SourceTaskBenchmark.defaultProperties(16);
+    props.put(CouchbaseSourceConnectorConfig.DCP_MESSAGE_CONVERTER_CLASS_CONFIG, RawJsonSourceHandler.class.getName());
+    DcpEventGenerator generator = DcpEventGenerator.builder()
+        .vBuckets(16)
+        .keys(100)
+        .bodyBytes(256)
+        .deletionRatio(0.1)
+        .build();
+
+    SourceTaskBenchmark.Result result = SourceTaskBenchmark.run(props, generator, 5000, 0);
+    assertEquals(5000, result.records);
+    assertTrue(result.dcpBytes > 5000 * 200);
+    assertTrue(result.pollMillis(50) <= result.pollMillis(100));
+  }
+
+  @Test
+  public void replaysCapture() throws Exception {
+    File file = tempFolder.newFile();
+    DcpEventGenerator generator = DcpEventGenerator.builder()
+        .vBuckets(16)
+        .keys(100)
+        .bodyBytes(256)
+        .build();
+    try (DcpCaptureWriter writer = new DcpCaptureWriter(file)) {
+      writer.write(DcpEventGenerator.snapshotMarker((short) 0, 0, 1), true);
+      for (int i = 0; i < 1000; i++) {
+        ByteBuf message = generator.next();
+        writer.write(message, false);
+        message.release();
+      }
+    }
+
+    Map<String, String> props = SourceTaskBenchmark.defaultProperties(16);
+    props.put(CouchbaseSourceConnectorConfig.DCP_MESSAGE_CONVERTER_CLASS_CONFIG, RawJsonSourceHandler.class.getName());
+
+    SourceTaskBenchmark.Result result = SourceTaskBenchmark.replay(props, file, true);
+    assertEquals(1000, result.events);
+    assertEquals(1000, result.records);
+  }
+}
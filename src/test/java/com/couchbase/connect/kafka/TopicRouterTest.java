@@ -0,0 +1,138 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka;
+
+import com.couchbase.client.dcp.message.MessageUtil;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.Unpooled;
+import com.couchbase.connect.kafka.handler.source.DocumentEvent;
+import org.apache.kafka.common.config.ConfigException;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TopicRouterTest {
+
+  private static DocumentEvent event(byte opcode, String key, String content) {
+    final byte[] keyBytes = key.getBytes(UTF_8);
+    final int extrasLength = opcode == MessageUtil.DCP_MUTATION_OPCODE ? 31 : 18;
+    final byte[] value = content.getBytes(UTF_8);
+
+    ByteBuf message = Unpooled.buffer();
+    message.writeByte(MessageUtil.MAGIC_REQ);
+    message.writeByte(opcode);
+    message.writeShort(keyBytes.length);
+    message.writeByte(extrasLength);
+    message.writeByte(0);
+    message.writeShort(0);
+    message.writeInt(extrasLength + keyBytes.length + value.length);
+    message.writeInt(0);
+    message.writeLong(0);
+    message.writeZero(extrasLength);
+    message.writeBytes(keyBytes);
+    message.writeBytes(value);
+    return DocumentEvent.create(message, "bucket", 0);
+  }
+
+  private static DocumentEvent mutation(String key, String content) {
+    return event(MessageUtil.DCP_MUTATION_OPCODE, key, content);
+  }
+
+  private static TopicRouter router(String... rules) {
+    return new TopicRouter(Arrays.asList(rules), "routes");
+  }
+
+  @Test
+  public void noRules() throws Exception {
+    TopicRouter router = router();
+    assertTrue(router.isEmpty());
+    assertNull(router.route(mutation("foo", "{}")));
+  }
+
+  @Test
+  public void longestKeyPrefixWins() throws Exception {
+    TopicRouter router = router("key:order::=orders", "key:order::eu::=orders-eu", "key:user=users");
+    assertFalse(router.isEmpty());
+    assertEquals("orders", router.route(mutation("order::123", "{}")));
+    assertEquals("orders-eu", router.route(mutation("order::eu::123", "{}")));
+    assertEquals("orders", router.route(mutation("order::e", "{}")));
+    assertEquals("users", router.route(event(MessageUtil.DCP_DELETION_OPCODE, "user::1", "")));
+    assertNull(router.route(mutation("orde", "{}")));
+    assertNull(router.route(mutation("product::1", "{}")));
+  }
+
+  @Test
+  public void fieldTemplates() throws Exception {
+    TopicRouter router = router("field:/type=events-${value}", "field:/meta/kind=${value}.raw");
+    assertEquals("events-order", router.route(mutation("a", "{\"type\":\"order\"}")));
+    assertEquals("events-42", router.route(mutation("a", "{\"type\":42}")));
+    assertEquals("invoice.raw", router.route(mutation("a", "{\"meta\":{\"kind\":\"invoice\"}}")));
+
+    // Earlier rules take precedence, regardless of field order in the document
+    assertEquals("events-order", router.route(mutation("a", "{\"meta\":{\"kind\":\"invoice\"},\"type\":\"order\"}")));
+
+    // Values that don't make a valid topic name fall through to the next rule
+    assertEquals("invoice.raw", router.route(mutation("a", "{\"type\":\"no spaces\",\"meta\":{\"kind\":\"invoice\"}}")));
+    assertEquals("invoice.raw", router.route(mutation("a", "{\"type\":null,\"meta\":{\"kind\":\"invoice\"}}")));
+    assertEquals("invoice.raw", router.route(mutation("a", "{\"type\":{\"x\":1},\"meta\":{\"kind\":\"invoice\"}}")));
+
+    assertNull(router.route(mutation("a", "{\"other\":1}")));
+    assertNull(router.route(mutation("a", "not json")));
+    assertNull(router.route(event(MessageUtil.DCP_DELETION_OPCODE, "a", "")));
+  }
+
+  @Test
+  public void keyRulesComeFirst() throws Exception {
+    TopicRouter router = router("field:/type=${value}", "key:audit::=audit");
+    assertEquals("audit", router.route(mutation("audit::1", "{\"type\":\"order\"}")));
+    assertEquals("order", router.route(mutation("x", "{\"type\":\"order\"}")));
+  }
+
+  @Test
+  public void reusesTopicInstances() throws Exception {
+    TopicRouter router = router("field:/type=events-${value}");
+    String first = router.route(mutation("a", "{\"type\":\"order\"}"));
+    String second = router.route(mutation("b", "{\"type\":\"order\"}"));
+    assertEquals("events-order", first);
+    assertSame(first, second);
+  }
+
+  @Test
+  public void rejectsMalformedRules() throws Exception {
+    for (String bad : new String[]{"orders", "prefix:a=b", "key:a=bad topic", "field:type=x", "field:=x", "field:/a=${value} x"}) {
+      try {
+        new TopicRouter(Collections.singletonList(bad), "routes");
+        fail("expected failure for: " + bad);
+      } catch (ConfigException expected) {
+      }
+    }
+    try {
+      router("key:a=x", "key:a=y");
+      fail("expected failure for duplicate prefix");
+    } catch (ConfigException expected) {
+    }
+  }
+}
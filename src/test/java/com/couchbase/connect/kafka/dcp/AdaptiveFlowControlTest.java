@@ -0,0 +1,124 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.dcp;
+
+import com.couchbase.client.dcp.transport.netty.ChannelFlowController;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdaptiveFlowControlTest {
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private static class Channel implements ChannelFlowController {
+    long acked;
+
+    @Override
+    public void ack(ByteBuf message) {
+      ack(message.readableBytes());
+    }
+
+    @Override
+    public void ack(int numBytes) {
+      acked += numBytes;
+    }
+  }
+
+  private long now;
+  private double heapUsage;
+  private final Channel channel = new Channel();
+  private final AdaptiveFlowControl flowControl = new AdaptiveFlowControl(1000, 100, () -> heapUsage, () -> now);
+
+  @Test
+  public void narrowsWindowToDrainRate() throws Exception {
+    final ChannelFlowController connection = flowControl.wrap(channel);
+    connection.ack(200);
+    assertEquals(200, channel.acked);
+
+    now += SECOND;
+    flowControl.onPoll(false);
+    assertEquals(200, flowControl.windowBytes());
+
+    // Holds back acknowledgements until the server sees a 200 byte window.
+    connection.ack(500);
+    assertEquals(200, channel.acked);
+    connection.ack(500);
+    assertEquals(400, channel.acked);
+    connection.ack(100);
+    assertEquals(500, channel.acked);
+  }
+
+  @Test
+  public void widensWindowWhenStarved() throws Exception {
+    final ChannelFlowController connection = flowControl.wrap(channel);
+    now += SECOND;
+    flowControl.onPoll(false);
+    assertEquals(100, flowControl.windowBytes());
+    connection.ack(1000);
+    assertEquals(100, channel.acked);
+
+    now += SECOND;
+    flowControl.onPoll(true);
+    assertEquals(200, flowControl.windowBytes());
+    assertEquals(200, channel.acked);
+
+    now += SECOND;
+    flowControl.onPoll(true);
+    now += SECOND;
+    flowControl.onPoll(true);
+    now += SECOND;
+    flowControl.onPoll(true);
+    assertEquals(1000, flowControl.windowBytes());
+    assertEquals(1000, channel.acked);
+  }
+
+  @Test
+  public void halvesWindowWhenHeapIsLow() throws Exception {
+    heapUsage = 0.9;
+    now += SECOND;
+    flowControl.onPoll(true);
+    assertEquals(500, flowControl.windowBytes());
+    now += SECOND;
+    flowControl.onPoll(true);
+    assertEquals(250, flowControl.windowBytes());
+  }
+
+  @Test
+  public void releasesIdleConnections() throws Exception {
+    final ChannelFlowController connection = flowControl.wrap(channel);
+    now += SECOND;
+    flowControl.onPoll(false);
+    connection.ack(1000);
+    assertEquals(100, channel.acked);
+
+    now += TimeUnit.MINUTES.toNanos(2);
+    flowControl.onPoll(false);
+    assertEquals(1000, channel.acked);
+    connection.ack(100);
+    assertEquals(1100, channel.acked);
+  }
+
+  @Test
+  public void ackWatermarkFitsInSmallestWindow() throws Exception {
+    assertEquals(5, flowControl.ackWatermarkPercent());
+    assertEquals(50, new AdaptiveFlowControl(1000, 1000).ackWatermarkPercent());
+    assertEquals(1, new AdaptiveFlowControl(1000, 1).ackWatermarkPercent());
+  }
+}
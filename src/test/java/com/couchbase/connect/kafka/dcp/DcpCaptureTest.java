@@ -0,0 +1,95 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.dcp;
+
+import com.couchbase.client.dcp.message.DcpMutationMessage;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DcpCaptureTest {
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void readsBackWhatWasWritten() throws Exception {
+    final File file = tempFolder.newFile();
+    final ByteBuf marker = DcpEventGenerator.snapshotMarker((short) 7, 0, 1);
+    final ByteBuf mutation = DcpEventGenerator.mutation((short) 7, 1, "key", "{}".getBytes(UTF_8), 1);
+    try (DcpCaptureWriter writer = new DcpCaptureWriter(file)) {
+      writer.write(marker, true);
+      writer.write(mutation, false);
+      assertEquals(2, writer.messages());
+    }
+    assertEquals(0, mutation.readerIndex());
+    assertEquals(1, mutation.refCnt());
+
+    try (DcpCaptureReader reader = new DcpCaptureReader(file)) {
+      assertTrue(Math.abs(System.currentTimeMillis() - reader.startMillis()) < 60_000);
+
+      final DcpCaptureReader.Frame first = reader.next();
+      assertTrue(first.isControl());
+      assertEquals(7, first.vBucket());
+      assertEquals(marker, first.message());
+
+      final DcpCaptureReader.Frame second = reader.next();
+      assertFalse(second.isControl());
+      assertTrue(second.nanos() >= first.nanos());
+      assertEquals("key", DcpMutationMessage.keyString(second.message()));
+      assertEquals(mutation, second.message());
+
+      assertNull(reader.next());
+    }
+  }
+
+  @Test
+  public void ignoresPartialMessageAtEnd() throws Exception {
+    final File file = tempFolder.newFile();
+    try (DcpCaptureWriter writer = new DcpCaptureWriter(file)) {
+      writer.write(DcpEventGenerator.deletion((short) 1, 1, "a", 1), false);
+      writer.write(DcpEventGenerator.deletion((short) 1, 2, "b", 2), false);
+    }
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(raf.length() - 3);
+    }
+
+    try (DcpCaptureReader reader = new DcpCaptureReader(file)) {
+      assertEquals("a", DcpMutationMessage.keyString(reader.next().message()));
+      assertNull(reader.next());
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void rejectsOtherFiles() throws Exception {
+    final File file = tempFolder.newFile();
+    Files.write(file.toPath(), "not a capture file".getBytes(UTF_8));
+    new DcpCaptureReader(file).close();
+  }
+}
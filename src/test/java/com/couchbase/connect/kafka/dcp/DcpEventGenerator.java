@@ -0,0 +1,301 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.dcp;
+
+import com.couchbase.client.dcp.message.MessageUtil;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.Unpooled;
+import com.couchbase.client.deps.org.iq80.snappy.Snappy;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Builds well-formed DCP messages for tests and benchmarks, without a Couchbase cluster.
+ * <p>
+ * The static methods build individual messages. An instance generates a stream of
+ * document changes spread over a number of vBuckets, with increasing seqnos per vBucket
+ * and JSON bodies of a configurable size and shape:
+ * <pre>
+ * DcpEventGenerator generator = DcpEventGenerator.builder()
+ *     .vBuckets(1024)
+ *     .keys(100_000)
+ *     .bodyBytes(2048)
+ *     .deletionRatio(0.05)
+ *     .build();
+ * ByteBuf message = generator.next();
+ * </pre>
+ * Not thread-safe.
+ */
+public class DcpEventGenerator {
+  private static final byte DATATYPE_JSON = 0x01;
+  private static final byte DATATYPE_SNAPPY = 0x02;
+  private static final int MUTATION_EXTRAS_LENGTH = 31;
+  private static final int DELETION_EXTRAS_LENGTH = 18;
+  private static final int SNAPSHOT_MARKER_EXTRAS_LENGTH = 20;
+
+  public static class Builder {
+    private int vBuckets = 1024;
+    private int keys = 10_000;
+    private int keyBytes = 16;
+    private int bodyBytes = 1024;
+    private int fieldsPerObject = 8;
+    private int depth = 1;
+    private double deletionRatio;
+    private double expirationRatio;
+    private boolean compressed;
+    private long seed = 42;
+
+    /**
+     * Number of vBuckets to spread the documents over.
+     */
+    public Builder vBuckets(int vBuckets) {
+      this.vBuckets = vBuckets;
+      return this;
+    }
+
+    /**
+     * Number of distinct document keys. Fewer keys means more changes per key.
+     */
+    public Builder keys(int keys) {
+      this.keys = keys;
+      return this;
+    }
+
+    /**
+     * Minimum length of each key; keys are zero-padded to this length.
+     */
+    public Builder keyBytes(int keyBytes) {
+      this.keyBytes = keyBytes;
+      return this;
+    }
+
+    /**
+     * Approximate size of each JSON body.
+     */
+    public Builder bodyBytes(int bodyBytes) {
+      this.bodyBytes = bodyBytes;
+      return this;
+    }
+
+    /**
+     * Number of fields in each JSON object.
+     */
+    public Builder fieldsPerObject(int fieldsPerObject) {
+      this.fieldsPerObject = fieldsPerObject;
+      return this;
+    }
+
+    /**
+     * Nesting depth of the JSON body; 1 means a flat object.
+     */
+    public Builder depth(int depth) {
+      this.depth = depth;
+      return this;
+    }
+
+    public Builder deletionRatio(double deletionRatio) {
+      this.deletionRatio = deletionRatio;
+      return this;
+    }
+
+    public Builder expirationRatio(double expirationRatio) {
+      this.expirationRatio = expirationRatio;
+      return this;
+    }
+
+    /**
+     * Whether mutation bodies are snappy-compressed, as the server sends them when compression is negotiated.
+     */
+    public Builder compressed(boolean compressed) {
+      this.compressed = compressed;
+      return this;
+    }
+
+    public Builder seed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    public DcpEventGenerator build() {
+      return new DcpEventGenerator(this);
+    }
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  private final Random random;
+  private final int vBuckets;
+  private final int keys;
+  private final int keyBytes;
+  private final double deletionRatio;
+  private final double expirationRatio;
+  private final boolean compressed;
+  private final byte[] body;
+  private final int counterOffset;
+  private final long[] vBucketSeqnos;
+  private long sequence;
+
+  private DcpEventGenerator(Builder builder) {
+    this.random = new Random(builder.seed);
+    this.vBuckets = builder.vBuckets;
+    this.keys = builder.keys;
+    this.keyBytes = builder.keyBytes;
+    this.deletionRatio = builder.deletionRatio;
+    this.expirationRatio = builder.expirationRatio;
+    this.compressed = builder.compressed;
+    this.vBucketSeqnos = new long[builder.vBuckets];
+
+    // Every body has the same shape; a counter at the start of the body changes with each mutation.
+    final String counterField = "{\"n\":\"0000000000\"";
+    final StringBuilder json = new StringBuilder(counterField);
+    final int leafCount = (int) Math.pow(builder.fieldsPerObject, builder.depth);
+    final int padding = Math.max(1, (builder.bodyBytes - counterField.length()) / Math.max(1, leafCount) - 12);
+    appendObjectFields(json, builder.fieldsPerObject, builder.depth, padding);
+    json.append('}');
+    this.body = json.toString().getBytes(UTF_8);
+    this.counterOffset = "{\"n\":\"".length();
+  }
+
+  private static void appendObjectFields(StringBuilder json, int fields, int depth, int padding) {
+    final char[] value = new char[padding];
+    Arrays.fill(value, 'x');
+    for (int i = 0; i < fields; i++) {
+      json.append(",\"f").append(i).append("\":");
+      if (depth > 1) {
+        json.append("{\"id\":").append(i);
+        appendObjectFields(json, fields, depth - 1, padding);
+        json.append('}');
+      } else {
+        json.append('"').append(value).append('"');
+      }
+    }
+  }
+
+  /**
+   * Returns the next document change: a mutation, deletion or expiration
+   * of a random key, in the key's vBucket. The caller must release it.
+   */
+  public ByteBuf next() {
+    final int keyIndex = random.nextInt(keys);
+    final short vBucket = (short) (keyIndex % vBuckets);
+    final long seqno = ++vBucketSeqnos[vBucket];
+    final String key = key(keyIndex);
+    final long cas = ++sequence;
+
+    final double r = random.nextDouble();
+    if (r < deletionRatio) {
+      return deletion(vBucket, seqno, key, cas);
+    }
+    if (r < deletionRatio + expirationRatio) {
+      return expiration(vBucket, seqno, key, cas);
+    }
+
+    final byte[] content = body.clone();
+    final byte[] counter = String.format("%010d", cas % 10_000_000_000L).getBytes(UTF_8);
+    System.arraycopy(counter, 0, content, counterOffset, counter.length);
+    return compressed
+        ? compressedMutation(vBucket, seqno, key, content, cas)
+        : mutation(vBucket, seqno, key, content, cas);
+  }
+
+  private String key(int keyIndex) {
+    final String digits = Integer.toString(keyIndex);
+    final StringBuilder key = new StringBuilder("doc::");
+    for (int i = key.length() + digits.length(); i < keyBytes; i++) {
+      key.append('0');
+    }
+    return key.append(digits).toString();
+  }
+
+  /**
+   * Returns the highest seqno generated so far for the vBucket.
+   */
+  public long seqno(short vBucket) {
+    return vBucketSeqnos[vBucket];
+  }
+
+  public static ByteBuf mutation(short vBucket, long seqno, String key, byte[] content, long cas) {
+    return mutation(vBucket, seqno, key, content, cas, DATATYPE_JSON);
+  }
+
+  /**
+   * Returns a mutation whose body is the snappy-compressed content.
+   */
+  public static ByteBuf compressedMutation(short vBucket, long seqno, String key, byte[] content, long cas) {
+    return mutation(vBucket, seqno, key, Snappy.compress(content), cas, (byte) (DATATYPE_JSON | DATATYPE_SNAPPY));
+  }
+
+  private static ByteBuf mutation(short vBucket, long seqno, String key, byte[] content, long cas, byte datatype) {
+    final ByteBuf message = header(MessageUtil.DCP_MUTATION_OPCODE, vBucket, key, MUTATION_EXTRAS_LENGTH, content.length, cas, datatype);
+    message.writeLong(seqno); // by_seqno
+    message.writeLong(1); // rev_seqno
+    message.writeInt(0); // flags
+    message.writeInt(0); // expiration
+    message.writeInt(0); // lock time
+    message.writeShort(0); // nmeta
+    message.writeByte(0); // nru
+    message.writeBytes(key.getBytes(UTF_8));
+    message.writeBytes(content);
+    return message;
+  }
+
+  public static ByteBuf deletion(short vBucket, long seqno, String key, long cas) {
+    return removal(MessageUtil.DCP_DELETION_OPCODE, vBucket, seqno, key, cas);
+  }
+
+  public static ByteBuf expiration(short vBucket, long seqno, String key, long cas) {
+    return removal(MessageUtil.DCP_EXPIRATION_OPCODE, vBucket, seqno, key, cas);
+  }
+
+  private static ByteBuf removal(byte opcode, short vBucket, long seqno, String key, long cas) {
+    final ByteBuf message = header(opcode, vBucket, key, DELETION_EXTRAS_LENGTH, 0, cas, (byte) 0);
+    message.writeLong(seqno); // by_seqno
+    message.writeLong(1); // rev_seqno
+    message.writeShort(0); // nmeta
+    message.writeBytes(key.getBytes(UTF_8));
+    return message;
+  }
+
+  public static ByteBuf snapshotMarker(short vBucket, long startSeqno, long endSeqno) {
+    final ByteBuf message = header(MessageUtil.DCP_SNAPSHOT_MARKER_OPCODE, vBucket, "", SNAPSHOT_MARKER_EXTRAS_LENGTH, 0, 0, (byte) 0);
+    message.writeLong(startSeqno);
+    message.writeLong(endSeqno);
+    message.writeInt(0x01); // memory snapshot
+    return message;
+  }
+
+  private static ByteBuf header(byte opcode, short vBucket, String key, int extrasLength, int contentLength, long cas, byte datatype) {
+    final int keyLength = key.getBytes(UTF_8).length;
+    final int bodyLength = extrasLength + keyLength + contentLength;
+    final ByteBuf message = Unpooled.buffer(MessageUtil.HEADER_SIZE + bodyLength);
+    message.writeByte(MessageUtil.MAGIC_REQ);
+    message.writeByte(opcode);
+    message.writeShort(keyLength);
+    message.writeByte(extrasLength);
+    message.writeByte(datatype);
+    message.writeShort(vBucket);
+    message.writeInt(bodyLength);
+    message.writeInt(0); // opaque
+    message.writeLong(cas);
+    return message;
+  }
+}
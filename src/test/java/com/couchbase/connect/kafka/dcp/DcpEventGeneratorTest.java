@@ -0,0 +1,98 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.dcp;
+
+import com.couchbase.client.dcp.message.DcpDeletionMessage;
+import com.couchbase.client.dcp.message.DcpExpirationMessage;
+import com.couchbase.client.dcp.message.DcpMutationMessage;
+import com.couchbase.client.dcp.message.DcpSnapshotMarkerRequest;
+import com.couchbase.client.dcp.message.MessageUtil;
+import com.couchbase.client.deps.com.fasterxml.jackson.databind.JsonNode;
+import com.couchbase.client.deps.com.fasterxml.jackson.databind.ObjectMapper;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DcpEventGeneratorTest {
+
+  @Test
+  public void messagesAreWellFormed() throws Exception {
+    ByteBuf mutation = DcpEventGenerator.mutation((short) 7, 42, "key", "{}".getBytes(UTF_8), 99);
+    assertTrue(DcpMutationMessage.is(mutation));
+    assertEquals(7, MessageUtil.getVbucket(mutation));
+    assertEquals(42, DcpMutationMessage.bySeqno(mutation));
+    assertEquals(99, DcpMutationMessage.cas(mutation));
+    assertEquals("key", MessageUtil.getKeyAsString(mutation));
+    assertEquals("{}", MessageUtil.getContent(mutation).toString(UTF_8));
+
+    ByteBuf deletion = DcpEventGenerator.deletion((short) 3, 43, "key", 100);
+    assertTrue(DcpDeletionMessage.is(deletion));
+    assertEquals(43, DcpDeletionMessage.bySeqno(deletion));
+    assertEquals("key", MessageUtil.getKeyAsString(deletion));
+
+    ByteBuf expiration = DcpEventGenerator.expiration((short) 3, 44, "key", 101);
+    assertTrue(DcpExpirationMessage.is(expiration));
+    assertEquals(44, DcpExpirationMessage.bySeqno(expiration));
+
+    ByteBuf marker = DcpEventGenerator.snapshotMarker((short) 3, 10, 20);
+    assertTrue(DcpSnapshotMarkerRequest.is(marker));
+    assertEquals(10, DcpSnapshotMarkerRequest.startSeqno(marker));
+    assertEquals(20, DcpSnapshotMarkerRequest.endSeqno(marker));
+  }
+
+  @Test
+  public void generatesSpreadOfValidJson() throws Exception {
+    DcpEventGenerator generator = DcpEventGenerator.builder()
+        .vBuckets(4)
+        .keys(100)
+        .keyBytes(12)
+        .bodyBytes(2000)
+        .fieldsPerObject(4)
+        .depth(2)
+        .deletionRatio(0.2)
+        .build();
+
+    ObjectMapper mapper = new ObjectMapper();
+    int mutations = 0;
+    int deletions = 0;
+    long seqnos = 0;
+    for (int i = 0; i < 500; i++) {
+      ByteBuf message = generator.next();
+      assertEquals(12, MessageUtil.getKeyAsString(message).length());
+      if (DcpMutationMessage.is(message)) {
+        mutations++;
+        byte[] content = MessageUtil.getContentAsByteArray(message);
+        JsonNode json = mapper.readTree(content);
+        assertEquals(4 + 1, json.size());
+        assertTrue(content.length > 1500 && content.length < 2500);
+      } else {
+        assertTrue(DcpDeletionMessage.is(message));
+        deletions++;
+      }
+      message.release();
+    }
+    for (short vb = 0; vb < 4; vb++) {
+      seqnos += generator.seqno(vb);
+    }
+    assertEquals(500, seqnos);
+    assertEquals(500, mutations + deletions);
+    assertTrue(deletions > 50 && deletions < 150);
+  }
+}
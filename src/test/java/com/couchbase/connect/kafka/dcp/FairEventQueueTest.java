@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.dcp;
+
+import com.couchbase.client.dcp.message.DcpMutationMessage;
+import com.couchbase.client.dcp.transport.netty.ChannelFlowController;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class FairEventQueueTest {
+  private static final ChannelFlowController NO_FLOW_CONTROL = new ChannelFlowController() {
+    @Override
+    public void ack(ByteBuf message) {
+    }
+
+    @Override
+    public void ack(int numBytes) {
+    }
+  };
+
+  private final FairEventQueue queue = new FairEventQueue();
+
+  private static Message message(int partition, long seqno) {
+    return new Message(DcpEventGenerator.mutation((short) partition, seqno, "doc" + seqno, new byte[0], seqno), NO_FLOW_CONTROL);
+  }
+
+  private static String describe(Event event) {
+    final ByteBuf message = ((Message) event).message();
+    return DcpMutationMessage.partition(message) + ":" + DcpMutationMessage.bySeqno(message);
+  }
+
+  private List<String> drain() {
+    final List<String> result = new ArrayList<>();
+    for (Event event; (event = queue.poll()) != null; ) {
+      result.add(describe(event));
+    }
+    return result;
+  }
+
+  @Test
+  public void takesTurnsBetweenPartitions() throws Exception {
+    for (long seqno = 1; seqno <= 6; seqno++) {
+      queue.put(message(0, seqno));
+    }
+    queue.put(message(1, 1));
+    queue.put(message(2, 1));
+
+    // Partition 0 has over twice the average backlog, so its first turn is two events long.
+    assertEquals(Arrays.asList("0:1", "0:2", "1:1", "2:1", "0:3", "0:4", "0:5", "0:6"), drain());
+
+    for (long seqno = 1; seqno <= 3; seqno++) {
+      queue.put(message(0, seqno));
+      queue.put(message(1, seqno));
+    }
+    assertEquals(Arrays.asList("0:1", "1:1", "0:2", "1:2", "0:3", "1:3"), drain());
+  }
+
+  @Test
+  public void hotPartitionDoesNotStarveOthers() throws Exception {
+    for (long seqno = 1; seqno <= 1000; seqno++) {
+      queue.put(message(0, seqno));
+    }
+    for (int partition = 1; partition <= 10; partition++) {
+      queue.put(message(partition, 1));
+    }
+
+    // Every partition is served within the first round, and partition 0 keeps its order.
+    final List<String> order = drain();
+    assertEquals(1010, order.size());
+    for (int partition = 1; partition <= 10; partition++) {
+      assertEquals(true, order.indexOf(partition + ":1") < 1000);
+    }
+    long previous = 0;
+    for (String entry : order) {
+      if (entry.startsWith("0:")) {
+        final long seqno = Long.parseLong(entry.substring(2));
+        assertEquals(previous + 1, seqno);
+        previous = seqno;
+      }
+    }
+  }
+
+  @Test
+  public void wakeupGoesFirst() throws Exception {
+    queue.put(message(0, 1));
+    queue.offer(Wakeup.INSTANCE);
+    assertEquals(2, queue.size());
+    assertSame(Wakeup.INSTANCE, queue.poll());
+    assertEquals("0:1", describe(queue.poll(1, TimeUnit.SECONDS)));
+    assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.dcp;
+
+import com.couchbase.client.dcp.message.MessageUtil;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+public class KeyCompactorTest {
+
+  private static ByteBuf event(byte opcode, int vBucket, String key) {
+    final byte[] keyBytes = key.getBytes(UTF_8);
+    final int extrasLength = opcode == MessageUtil.DCP_MUTATION_OPCODE ? 31 : 18;
+
+    ByteBuf message = Unpooled.buffer();
+    message.writeByte(MessageUtil.MAGIC_REQ);
+    message.writeByte(opcode);
+    message.writeShort(keyBytes.length);
+    message.writeByte(extrasLength);
+    message.writeByte(0);
+    message.writeShort(vBucket);
+    message.writeInt(extrasLength + keyBytes.length);
+    message.writeInt(0);
+    message.writeLong(0);
+    message.writeZero(extrasLength);
+    message.writeBytes(keyBytes);
+    return message;
+  }
+
+  private static ByteBuf mutation(int vBucket, String key) {
+    return event(MessageUtil.DCP_MUTATION_OPCODE, vBucket, key);
+  }
+
+  private static BitSet bits(int... indexes) {
+    BitSet result = new BitSet();
+    for (int i : indexes) {
+      result.set(i);
+    }
+    return result;
+  }
+
+  @Test
+  public void keepsLatestChangePerDocument() throws Exception {
+    List<ByteBuf> window = Arrays.asList(
+        mutation(0, "counter"), // 0
+        mutation(0, "other"), // 1
+        mutation(0, "counter"), // 2
+        mutation(1, "counter"), // 3: same key, different vBucket
+        event(MessageUtil.DCP_DELETION_OPCODE, 0, "other"), // 4
+        mutation(0, "counter")); // 5
+
+    assertEquals(bits(0, 1, 2), new KeyCompactor().superseded(window));
+  }
+
+  @Test
+  public void distinguishesKeysWithSharedPrefix() throws Exception {
+    List<ByteBuf> window = Arrays.asList(mutation(0, "a"), mutation(0, "ab"), mutation(0, ""), mutation(0, "a"));
+    assertEquals(bits(0), new KeyCompactor().superseded(window));
+  }
+
+  @Test
+  public void reusesTableAcrossWindows() throws Exception {
+    KeyCompactor compactor = new KeyCompactor();
+    List<ByteBuf> large = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      large.add(mutation((i % 300) % 64, "key-" + (i % 300)));
+    }
+    BitSet superseded = compactor.superseded(large);
+    assertEquals(1000 - 300, superseded.cardinality());
+    assertEquals(false, superseded.get(999));
+
+    assertEquals(bits(), compactor.superseded(Arrays.asList(mutation(0, "x"), mutation(0, "y"))));
+  }
+}
@@ -0,0 +1,795 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.dcp;
+
+import com.couchbase.client.dcp.message.MessageUtil;
+import com.couchbase.client.deps.io.netty.bootstrap.ServerBootstrap;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.Unpooled;
+import com.couchbase.client.deps.io.netty.channel.Channel;
+import com.couchbase.client.deps.io.netty.channel.ChannelHandlerContext;
+import com.couchbase.client.deps.io.netty.channel.ChannelInboundHandlerAdapter;
+import com.couchbase.client.deps.io.netty.channel.ChannelInitializer;
+import com.couchbase.client.deps.io.netty.channel.EventLoopGroup;
+import com.couchbase.client.deps.io.netty.channel.nio.NioEventLoopGroup;
+import com.couchbase.client.deps.io.netty.channel.socket.nio.NioServerSocketChannel;
+import com.couchbase.client.deps.io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import com.couchbase.client.deps.io.netty.handler.codec.http.DefaultFullHttpResponse;
+import com.couchbase.client.deps.io.netty.handler.codec.http.DefaultHttpContent;
+import com.couchbase.client.deps.io.netty.handler.codec.http.DefaultHttpResponse;
+import com.couchbase.client.deps.io.netty.handler.codec.http.HttpRequest;
+import com.couchbase.client.deps.io.netty.handler.codec.http.HttpResponse;
+import com.couchbase.client.deps.io.netty.handler.codec.http.HttpResponseStatus;
+import com.couchbase.client.deps.io.netty.handler.codec.http.HttpServerCodec;
+import com.couchbase.client.deps.io.netty.handler.codec.http.HttpVersion;
+import com.couchbase.client.deps.io.netty.util.ReferenceCountUtil;
+import com.couchbase.client.deps.io.netty.util.concurrent.ScheduledFuture;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * An in-process stand-in for a single-node Couchbase server. It speaks just enough of the
+ * HTTP config stream and the memcached binary / DCP protocols for the DCP client to bootstrap,
+ * open streams and receive changes, so source tasks can be tested and load-tested without a cluster.
+ * <p>
+ * Point the connector (or a DCP client) at {@link #address()}:
+ * <pre>
+ * LocalDcpServer server = new LocalDcpServer("default", 64).start();
+ * server.mutation((short) 3, "foo", "{\"a\":1}");
+ * props.put("couchbase.cluster.address", server.address());
+ * </pre>
+ * The server keeps every change in memory, and is scriptable for scenarios
+ * a real cluster makes hard to reproduce:
+ * <ul>
+ * <li>{@link #failover} discards unpersisted changes to a vBucket and makes connected clients roll back.
+ * <li>{@link #pausePersistence} holds back the persisted seqnos reported to clients that mitigate rollbacks.
+ * <li>{@link #responseDelay} delays every response, to measure startup latency.
+ * <li>The connection buffer a client negotiates with {@code connection_buffer_size} is honored,
+ * so a slow consumer stalls its streams until it acknowledges what it has read
+ * (see {@link #flowControlStalls()}).
+ * </ul>
+ * All state lives on one event loop thread. The scripting methods block until it has applied them.
+ */
+public class LocalDcpServer implements Closeable {
+  private static final String SERVER_VERSION = "6.0.0";
+
+  private static final short SUCCESS = 0x00;
+  private static final short KEY_NOT_FOUND = 0x01;
+  private static final short KEY_EXISTS = 0x02;
+  private static final short NOT_MY_VBUCKET = 0x07;
+  private static final short AUTH_ERROR = 0x20;
+  private static final short ROLLBACK_REQUIRED = 0x23;
+  private static final short UNKNOWN_COMMAND = 0x81;
+
+  private static final int STREAM_END_OK = 0;
+  private static final int STREAM_END_STATE_CHANGED = 2;
+
+  private final String bucket;
+  private final VBucket[] vBuckets;
+  private final Set<KvConnection> connections = new HashSet<>();
+  private final Set<Channel> configChannels = new HashSet<>();
+  private final EventLoopGroup group = new NioEventLoopGroup(1);
+  private final Random random = new Random(42);
+
+  private String username;
+  private String password;
+  private Channel httpChannel;
+  private Channel kvChannel;
+  private long responseDelayNanos;
+  private boolean persistencePaused;
+  private long cas;
+
+  private long streamRequests;
+  private long rollbacks;
+  private long bufferAckedBytes;
+  private long flowControlStalls;
+  private long noopResponses;
+
+  private static class VBucket {
+    private final short id;
+    private final List<ByteBuf> history = new ArrayList<>(); // ordered by seqno
+    private final List<long[]> failoverLog = new ArrayList<>(); // {vbuuid, seqno}, newest first
+    private long highSeqno;
+    private long persistedSeqno;
+
+    private VBucket(short id, long vbuuid) {
+      this.id = id;
+      this.failoverLog.add(new long[]{vbuuid, 0});
+    }
+
+    private long vbuuid() {
+      return failoverLog.get(0)[0];
+    }
+  }
+
+  private static class Stream {
+    private final long endSeqno;
+
+    private Stream(long endSeqno) {
+      this.endSeqno = endSeqno;
+    }
+  }
+
+  public LocalDcpServer(String bucket, int numVBuckets) {
+    this.bucket = bucket;
+    this.vBuckets = new VBucket[numVBuckets];
+    for (short i = 0; i < numVBuckets; i++) {
+      vBuckets[i] = new VBucket(i, random.nextLong());
+    }
+  }
+
+  /**
+   * Makes the server reject clients that don't present these credentials.
+   * By default, any credentials are accepted.
+   */
+  public LocalDcpServer credentials(String username, String password) {
+    this.username = username;
+    this.password = password;
+    return this;
+  }
+
+  /**
+   * Starts listening on two ephemeral ports on the loopback interface,
+   * one for the config stream and one for DCP.
+   */
+  public LocalDcpServer start() throws InterruptedException {
+    httpChannel = new ServerBootstrap()
+        .group(group)
+        .channel(NioServerSocketChannel.class)
+        .childHandler(new ChannelInitializer<Channel>() {
+          @Override
+          protected void initChannel(Channel ch) {
+            ch.pipeline().addLast(new HttpServerCodec(), new ConfigHandler());
+          }
+        })
+        .bind("127.0.0.1", 0).sync().channel();
+
+    kvChannel = new ServerBootstrap()
+        .group(group)
+        .channel(NioServerSocketChannel.class)
+        .childHandler(new ChannelInitializer<Channel>() {
+          @Override
+          protected void initChannel(Channel ch) {
+            ch.pipeline().addLast(
+                new LengthFieldBasedFrameDecoder(Integer.MAX_VALUE, MessageUtil.BODY_LENGTH_OFFSET, 4, 12, 0, false),
+                new KvConnection());
+          }
+        })
+        .bind("127.0.0.1", 0).sync().channel();
+
+    return this;
+  }
+
+  /**
+   * Returns the seed node address ("host:port") for the connector's {@code couchbase.cluster.address}.
+   */
+  public String address() {
+    return "127.0.0.1:" + ((InetSocketAddress) httpChannel.localAddress()).getPort();
+  }
+
+  public int kvPort() {
+    return ((InetSocketAddress) kvChannel.localAddress()).getPort();
+  }
+
+  public int numVBuckets() {
+    return vBuckets.length;
+  }
+
+  /**
+   * Appends a document change to the message's vBucket, and streams it to any clients
+   * streaming that vBucket. Accepts the mutation, deletion and expiration messages
+   * built by {@link DcpEventGenerator}, and takes ownership of the message.
+   * Whatever seqno the message carries is replaced by the vBucket's next seqno.
+   *
+   * @return the change's seqno
+   */
+  public long publish(ByteBuf message) {
+    return call(() -> {
+      final VBucket vb = vBuckets[MessageUtil.getVbucket(message)];
+      final long seqno = ++vb.highSeqno;
+      MessageUtil.getExtras(message).setLong(0, seqno);
+      vb.history.add(message);
+      if (!persistencePaused) {
+        vb.persistedSeqno = seqno;
+      }
+      for (KvConnection connection : connections) {
+        connection.streamLiveChange(vb, message, seqno);
+      }
+      return seqno;
+    });
+  }
+
+  public long mutation(short vBucket, String key, String json) {
+    return publish(DcpEventGenerator.mutation(vBucket, 0, key, json.getBytes(UTF_8), nextCas()));
+  }
+
+  public long deletion(short vBucket, String key) {
+    return publish(DcpEventGenerator.deletion(vBucket, 0, key, nextCas()));
+  }
+
+  public long expiration(short vBucket, String key) {
+    return publish(DcpEventGenerator.expiration(vBucket, 0, key, nextCas()));
+  }
+
+  private long nextCas() {
+    return call(() -> ++cas);
+  }
+
+  public long highSeqno(short vBucket) {
+    return call(() -> vBuckets[vBucket].highSeqno);
+  }
+
+  public long vbuuid(short vBucket) {
+    return call(() -> vBuckets[vBucket].vbuuid());
+  }
+
+  /**
+   * Stops advancing the persisted seqnos, as if the disk were slow.
+   * Until persistence resumes, changes are "in memory only" and a {@link #failover} loses them.
+   */
+  public void pausePersistence() {
+    run(() -> persistencePaused = true);
+  }
+
+  /**
+   * Resumes persistence, persisting every change so far.
+   */
+  public void resumePersistence() {
+    run(() -> {
+      persistencePaused = false;
+      for (VBucket vb : vBuckets) {
+        vb.persistedSeqno = vb.highSeqno;
+      }
+    });
+  }
+
+  /**
+   * Simulates a failover of the vBucket to a replica that has only the persisted changes:
+   * unpersisted changes are discarded, a new failover log entry starts a new branch of history,
+   * and open streams for the vBucket end with reason STATE_CHANGED. When the clients reopen them
+   * from beyond the branch point, they're told to roll back.
+   *
+   * @return the seqno the vBucket was rolled back to
+   */
+  public long failover(short vBucket) {
+    return call(() -> {
+      final VBucket vb = vBuckets[vBucket];
+      while (!vb.history.isEmpty() && MessageUtil.getExtras(vb.history.get(vb.history.size() - 1)).getLong(0) > vb.persistedSeqno) {
+        vb.history.remove(vb.history.size() - 1).release();
+      }
+      vb.highSeqno = vb.persistedSeqno;
+      vb.failoverLog.add(0, new long[]{random.nextLong(), vb.highSeqno});
+      for (KvConnection connection : connections) {
+        connection.endStream(vBucket, STREAM_END_STATE_CHANGED);
+      }
+      return vb.highSeqno;
+    });
+  }
+
+  /**
+   * Delays the handling of every request by the given amount.
+   */
+  public void responseDelay(long delay, TimeUnit unit) {
+    run(() -> responseDelayNanos = unit.toNanos(delay));
+  }
+
+  /**
+   * Sends a DCP noop to every connected client, as the server does periodically.
+   */
+  public void noop() {
+    run(() -> {
+      for (KvConnection connection : connections) {
+        connection.sendNoop();
+      }
+    });
+  }
+
+  public long streamRequests() {
+    return call(() -> streamRequests);
+  }
+
+  /**
+   * Returns the number of stream requests answered with "rollback required".
+   */
+  public long rollbacks() {
+    return call(() -> rollbacks);
+  }
+
+  public long bufferAckedBytes() {
+    return call(() -> bufferAckedBytes);
+  }
+
+  /**
+   * Returns how many times a connection's streams had to stop because the client's
+   * flow control buffer was full.
+   */
+  public long flowControlStalls() {
+    return call(() -> flowControlStalls);
+  }
+
+  public long noopResponses() {
+    return call(() -> noopResponses);
+  }
+
+  public int connections() {
+    return call(connections::size);
+  }
+
+  /**
+   * Closes every client connection, as if the node restarted. The server keeps running,
+   * so the clients can reconnect.
+   */
+  public void disconnectAll() {
+    run(() -> {
+      for (KvConnection connection : new ArrayList<>(connections)) {
+        connection.ctx.close();
+      }
+      for (Channel channel : new ArrayList<>(configChannels)) {
+        channel.close();
+      }
+    });
+  }
+
+  @Override
+  public void close() {
+    try {
+      run(() -> {
+        for (VBucket vb : vBuckets) {
+          for (ByteBuf message : vb.history) {
+            message.release();
+          }
+          vb.history.clear();
+        }
+      });
+    } finally {
+      group.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+  }
+
+  private void run(Runnable task) {
+    call(() -> {
+      task.run();
+      return null;
+    });
+  }
+
+  private <T> T call(Callable<T> task) {
+    if (group.next().inEventLoop()) {
+      try {
+        return task.call();
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+    try {
+      return group.submit(task).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  private boolean authorized(String username, String password) {
+    return this.username == null || (this.username.equals(username) && this.password.equals(password));
+  }
+
+  private String bucketConfig() {
+    final int httpPort = ((InetSocketAddress) httpChannel.localAddress()).getPort();
+    final StringBuilder vBucketMap = new StringBuilder();
+    for (int i = 0; i < vBuckets.length; i++) {
+      vBucketMap.append(i == 0 ? "[0]" : ",[0]");
+    }
+    return "{\"rev\":1,\"name\":\"" + bucket + "\",\"uuid\":\"" + Long.toHexString(vBuckets[0].vbuuid()) + "\","
+        + "\"nodeLocator\":\"vbucket\",\"bucketCapabilities\":[\"dcp\",\"cbhello\",\"xattr\"],"
+        + "\"nodes\":[{\"hostname\":\"127.0.0.1:" + httpPort + "\",\"ports\":{\"direct\":" + kvPort() + "}}],"
+        + "\"nodesExt\":[{\"hostname\":\"127.0.0.1\",\"services\":{\"mgmt\":" + httpPort + ",\"kv\":" + kvPort() + "}}],"
+        + "\"vBucketServerMap\":{\"hashAlgorithm\":\"CRC\",\"numReplicas\":0,"
+        + "\"serverList\":[\"127.0.0.1:" + kvPort() + "\"],\"vBucketMap\":[" + vBucketMap + "]}}";
+  }
+
+  /**
+   * Serves the streaming bucket config ("terse bucket URI") the DCP client bootstraps from.
+   */
+  private class ConfigHandler extends ChannelInboundHandlerAdapter {
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) {
+      configChannels.add(ctx.channel());
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+      configChannels.remove(ctx.channel());
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+      try {
+        if (!(msg instanceof HttpRequest)) {
+          return;
+        }
+        final HttpRequest request = (HttpRequest) msg;
+        final String[] credentials = basicAuth(request.headers().get("Authorization"));
+        if (!authorized(credentials[0], credentials[1])) {
+          ctx.writeAndFlush(emptyResponse(HttpResponseStatus.UNAUTHORIZED));
+          return;
+        }
+        if (!request.getUri().equals("/pools/default/bs/" + bucket)) {
+          ctx.writeAndFlush(emptyResponse(HttpResponseStatus.NOT_FOUND));
+          return;
+        }
+
+        // The config stream never ends; each config is followed by four newlines.
+        final HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+        response.headers().set("Content-Type", "application/json");
+        response.headers().set("Transfer-Encoding", "chunked");
+        ctx.write(response);
+        ctx.writeAndFlush(new DefaultHttpContent(Unpooled.copiedBuffer(bucketConfig() + "\n\n\n\n", UTF_8)));
+
+      } finally {
+        ReferenceCountUtil.release(msg);
+      }
+    }
+
+    private HttpResponse emptyResponse(HttpResponseStatus status) {
+      final HttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, status);
+      response.headers().set("Content-Length", "0");
+      return response;
+    }
+
+    private String[] basicAuth(String header) {
+      if (header == null || !header.startsWith("Basic ")) {
+        return new String[]{null, null};
+      }
+      final String decoded = new String(Base64.getDecoder().decode(header.substring("Basic ".length())), UTF_8);
+      final int colon = decoded.indexOf(':');
+      return colon < 0 ? new String[]{decoded, ""} : new String[]{decoded.substring(0, colon), decoded.substring(colon + 1)};
+    }
+  }
+
+  /**
+   * One client's KV connection: the handshake, DCP control settings,
+   * open streams and flow control window.
+   */
+  private class KvConnection extends ChannelInboundHandlerAdapter {
+    private ChannelHandlerContext ctx;
+    private final Map<String, String> controls = new HashMap<>();
+    private final Map<Short, Stream> streams = new HashMap<>();
+    private final ArrayDeque<ByteBuf> outbound = new ArrayDeque<>();
+    private ScheduledFuture<?> noopTask;
+    private long bufferSize; // 0 means no flow control
+    private long unackedBytes;
+    private boolean stalled;
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) {
+      this.ctx = ctx;
+      connections.add(this);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+      connections.remove(this);
+      if (noopTask != null) {
+        noopTask.cancel(false);
+      }
+      for (ByteBuf message : outbound) {
+        message.release();
+      }
+      outbound.clear();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+      final ByteBuf message = (ByteBuf) msg;
+      if (message.getByte(0) == MessageUtil.MAGIC_RES) {
+        // The client's answer to a noop
+        noopResponses++;
+        message.release();
+        return;
+      }
+
+      if (message.getByte(1) == MessageUtil.DCP_BUFFER_ACK_OPCODE) {
+        // No response to these
+        final int ackBytes = MessageUtil.getExtras(message).getInt(0);
+        message.release();
+        bufferAckedBytes += ackBytes;
+        unackedBytes = Math.max(0, unackedBytes - ackBytes);
+        drain();
+        return;
+      }
+
+      if (responseDelayNanos > 0) {
+        ctx.executor().schedule(() -> handleRequest(message), responseDelayNanos, TimeUnit.NANOSECONDS);
+      } else {
+        handleRequest(message);
+      }
+    }
+
+    private void handleRequest(ByteBuf request) {
+      try {
+        switch (request.getByte(1)) {
+          case MessageUtil.SASL_LIST_MECHS_OPCODE:
+            respond(request, SUCCESS, null, Unpooled.copiedBuffer("PLAIN", UTF_8));
+            break;
+
+          case MessageUtil.SASL_AUTH_OPCODE:
+          case MessageUtil.SASL_STEP_OPCODE:
+            // PLAIN: [authzid] NUL username NUL password
+            final String[] plain = MessageUtil.getContent(request).toString(UTF_8).split("\u0000", -1);
+            final boolean ok = plain.length == 3 && authorized(plain[1], plain[2]);
+            respond(request, ok ? SUCCESS : AUTH_ERROR, null, null);
+            break;
+
+          case MessageUtil.VERSION_OPCODE:
+            respond(request, SUCCESS, null, Unpooled.copiedBuffer(SERVER_VERSION, UTF_8));
+            break;
+
+          case MessageUtil.HELLO_OPCODE:
+          case MessageUtil.OPEN_CONNECTION_OPCODE:
+          case MessageUtil.NOOP_OPCODE:
+            respond(request, SUCCESS, null, null);
+            break;
+
+          case MessageUtil.SELECT_BUCKET_OPCODE:
+            respond(request, MessageUtil.getKeyAsString(request).equals(bucket) ? SUCCESS : KEY_NOT_FOUND, null, null);
+            break;
+
+          case MessageUtil.DCP_CONTROL_OPCODE:
+            control(MessageUtil.getKeyAsString(request), MessageUtil.getContent(request).toString(UTF_8));
+            respond(request, SUCCESS, null, null);
+            break;
+
+          case MessageUtil.GET_SEQNOS_OPCODE:
+            final ByteBuf seqnos = Unpooled.buffer(vBuckets.length * 10);
+            for (VBucket vb : vBuckets) {
+              seqnos.writeShort(vb.id).writeLong(vb.highSeqno);
+            }
+            respond(request, SUCCESS, null, seqnos);
+            break;
+
+          case MessageUtil.DCP_FAILOVER_LOG_OPCODE:
+            if (vBucket(request) == null) {
+              respond(request, NOT_MY_VBUCKET, null, null);
+            } else {
+              respond(request, SUCCESS, null, failoverLog(vBucket(request)));
+            }
+            break;
+
+          case MessageUtil.OBSERVE_SEQNO_OPCODE:
+            observeSeqno(request);
+            break;
+
+          case MessageUtil.DCP_STREAM_REQUEST_OPCODE:
+            streamRequest(request);
+            break;
+
+          case MessageUtil.DCP_STREAM_CLOSE_OPCODE:
+            final Stream closed = streams.remove(MessageUtil.getVbucket(request));
+            respond(request, closed == null ? KEY_NOT_FOUND : SUCCESS, null, null);
+            break;
+
+          default:
+            respond(request, UNKNOWN_COMMAND, null, null);
+        }
+      } finally {
+        request.release();
+      }
+    }
+
+    private void control(String key, String value) {
+      controls.put(key, value);
+      if (key.equals("connection_buffer_size")) {
+        bufferSize = Long.parseLong(value);
+      }
+
+      if (noopTask != null) {
+        noopTask.cancel(false);
+        noopTask = null;
+      }
+      final long noopSeconds = Long.parseLong(controls.getOrDefault("set_noop_interval", "0"));
+      if (Boolean.parseBoolean(controls.get("enable_noop")) && noopSeconds > 0) {
+        noopTask = ctx.executor().scheduleAtFixedRate(this::sendNoop, noopSeconds, noopSeconds, TimeUnit.SECONDS);
+      }
+    }
+
+    private VBucket vBucket(ByteBuf request) {
+      final short vbid = MessageUtil.getVbucket(request);
+      return vbid >= 0 && vbid < vBuckets.length ? vBuckets[vbid] : null;
+    }
+
+    private ByteBuf failoverLog(VBucket vb) {
+      final ByteBuf content = Unpooled.buffer(vb.failoverLog.size() * 16);
+      for (long[] entry : vb.failoverLog) {
+        content.writeLong(entry[0]).writeLong(entry[1]);
+      }
+      return content;
+    }
+
+    private void observeSeqno(ByteBuf request) {
+      final VBucket vb = vBucket(request);
+      if (vb == null) {
+        respond(request, NOT_MY_VBUCKET, null, null);
+        return;
+      }
+      final ByteBuf content = Unpooled.buffer(27)
+          .writeByte(0) // no failover since the given vbuuid
+          .writeShort(vb.id)
+          .writeLong(vb.vbuuid())
+          .writeLong(vb.persistedSeqno)
+          .writeLong(vb.highSeqno);
+      respond(request, SUCCESS, null, content);
+    }
+
+    private void streamRequest(ByteBuf request) {
+      streamRequests++;
+      final VBucket vb = vBucket(request);
+      if (vb == null) {
+        respond(request, NOT_MY_VBUCKET, null, null);
+        return;
+      }
+      if (streams.containsKey(vb.id)) {
+        respond(request, KEY_EXISTS, null, null);
+        return;
+      }
+
+      final ByteBuf extras = MessageUtil.getExtras(request);
+      final long startSeqno = extras.getLong(8);
+      final long endSeqno = extras.getLong(16);
+      final long vbuuid = extras.getLong(24);
+
+      final long rollbackSeqno = rollbackSeqno(vb, vbuuid, startSeqno);
+      if (rollbackSeqno >= 0) {
+        rollbacks++;
+        respond(request, ROLLBACK_REQUIRED, null, Unpooled.buffer(8).writeLong(rollbackSeqno));
+        return;
+      }
+
+      respond(request, SUCCESS, null, failoverLog(vb));
+
+      final Stream stream = new Stream(endSeqno);
+      streams.put(vb.id, stream);
+
+      // Backfill everything after the start seqno as one snapshot, then stream live changes.
+      final List<ByteBuf> backfill = new ArrayList<>();
+      for (ByteBuf change : vb.history) {
+        final long seqno = MessageUtil.getExtras(change).getLong(0);
+        if (seqno > startSeqno && Long.compareUnsigned(seqno, endSeqno) <= 0) {
+          backfill.add(change);
+        }
+      }
+      if (!backfill.isEmpty()) {
+        enqueue(DcpEventGenerator.snapshotMarker(vb.id,
+            MessageUtil.getExtras(backfill.get(0)).getLong(0),
+            MessageUtil.getExtras(backfill.get(backfill.size() - 1)).getLong(0)));
+        for (ByteBuf change : backfill) {
+          enqueue(change.duplicate().retain());
+        }
+      }
+      if (Long.compareUnsigned(vb.highSeqno, endSeqno) >= 0) {
+        endStream(vb.id, STREAM_END_OK);
+      }
+      drain();
+    }
+
+    /**
+     * @return the seqno the client must roll back to, or -1 if it can stream from where it asked
+     */
+    private long rollbackSeqno(VBucket vb, long vbuuid, long startSeqno) {
+      if (startSeqno == 0) {
+        return -1;
+      }
+      for (int i = 0; i < vb.failoverLog.size(); i++) {
+        if (vb.failoverLog.get(i)[0] == vbuuid) {
+          // This branch of history ends where the next one starts.
+          final long branchEnd = i == 0 ? vb.highSeqno : vb.failoverLog.get(i - 1)[1];
+          return startSeqno > branchEnd ? branchEnd : -1;
+        }
+      }
+      return 0; // unknown history
+    }
+
+    private void streamLiveChange(VBucket vb, ByteBuf change, long seqno) {
+      final Stream stream = streams.get(vb.id);
+      if (stream == null || Long.compareUnsigned(seqno, stream.endSeqno) > 0) {
+        return;
+      }
+      enqueue(DcpEventGenerator.snapshotMarker(vb.id, seqno, seqno));
+      enqueue(change.duplicate().retain());
+      if (seqno == stream.endSeqno) {
+        endStream(vb.id, STREAM_END_OK);
+      }
+      drain();
+    }
+
+    private void endStream(short vBucket, int reason) {
+      final Stream stream = streams.remove(vBucket);
+      if (stream == null) {
+        return;
+      }
+      final ByteBuf message = Unpooled.buffer(MessageUtil.HEADER_SIZE + 4);
+      MessageUtil.initRequest(MessageUtil.DCP_STREAM_END_OPCODE, message);
+      MessageUtil.setVbucket(vBucket, message);
+      MessageUtil.setExtras(Unpooled.buffer(4).writeInt(reason), message);
+      enqueue(message);
+      drain();
+    }
+
+    private void enqueue(ByteBuf message) {
+      outbound.add(message);
+    }
+
+    /**
+     * Sends queued stream messages until the client's flow control buffer is full.
+     */
+    private void drain() {
+      boolean wrote = false;
+      while (!outbound.isEmpty() && (bufferSize == 0 || unackedBytes < bufferSize)) {
+        final ByteBuf message = outbound.poll();
+        unackedBytes += message.readableBytes();
+        ctx.write(message);
+        wrote = true;
+      }
+      if (wrote) {
+        ctx.flush();
+      }
+      final boolean full = !outbound.isEmpty();
+      if (full && !stalled) {
+        flowControlStalls++;
+      }
+      stalled = full;
+    }
+
+    private void sendNoop() {
+      final ByteBuf message = Unpooled.buffer(MessageUtil.HEADER_SIZE);
+      MessageUtil.initRequest(MessageUtil.DCP_NOOP_OPCODE, message);
+      ctx.writeAndFlush(message);
+    }
+
+    private void respond(ByteBuf request, short status, ByteBuf extras, ByteBuf content) {
+      final ByteBuf response = Unpooled.buffer();
+      MessageUtil.initResponse(request.getByte(1), response);
+      MessageUtil.setOpaque(MessageUtil.getOpaque(request), response);
+      response.setShort(MessageUtil.VBUCKET_OFFSET, status); // the status takes the vBucket's place in responses
+      if (extras != null) {
+        MessageUtil.setExtras(extras, response);
+        extras.release();
+      }
+      if (content != null) {
+        MessageUtil.setContent(content, response);
+        content.release();
+      }
+      ctx.writeAndFlush(response);
+    }
+  }
+}
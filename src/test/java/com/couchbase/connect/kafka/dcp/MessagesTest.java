@@ -0,0 +1,61 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.dcp;
+
+import com.couchbase.client.dcp.message.MessageUtil;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+public class MessagesTest {
+
+  @Test
+  public void withoutValue() throws Exception {
+    final byte[] extras = {1, 2, 3, 4};
+    final byte[] key = "hello".getBytes(UTF_8);
+    final byte[] value = "{\"world\":true}".getBytes(UTF_8);
+
+    ByteBuf message = Unpooled.buffer();
+    message.writeByte(0x80);
+    message.writeByte(0x57);
+    message.writeShort(key.length);
+    message.writeByte(extras.length);
+    message.writeByte(0x01); // JSON datatype
+    message.writeShort(7); // vbucket
+    message.writeInt(extras.length + key.length + value.length);
+    message.writeInt(0); // opaque
+    message.writeLong(12345); // cas
+    message.writeBytes(extras).writeBytes(key).writeBytes(value);
+
+    ByteBuf stripped = Messages.withoutValue(message);
+    try {
+      assertEquals(MessageUtil.HEADER_SIZE + extras.length + key.length, stripped.readableBytes());
+      assertEquals(7, MessageUtil.getVbucket(stripped));
+      assertEquals(12345, MessageUtil.getCas(stripped));
+      assertEquals("hello", MessageUtil.getKeyAsString(stripped));
+      assertEquals(0, MessageUtil.getContent(stripped).readableBytes());
+      assertEquals(0, stripped.getByte(5));
+      assertEquals(1, message.refCnt());
+    } finally {
+      stripped.release();
+      message.release();
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.dcp;
+
+import com.couchbase.client.dcp.state.FailoverLogEntry;
+import com.couchbase.client.dcp.state.PartitionState;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SessionStateCheckpointTest {
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static PartitionState partitionState(long seqno, long snapshotStart, long snapshotEnd, FailoverLogEntry... failoverLog) {
+    PartitionState ps = new PartitionState();
+    ps.setStartSeqno(seqno);
+    ps.setSnapshotStartSeqno(snapshotStart);
+    ps.setSnapshotEndSeqno(snapshotEnd);
+    ps.setFailoverLog(Arrays.asList(failoverLog));
+    return ps;
+  }
+
+  @Test
+  public void roundTrip() throws Exception {
+    SessionStateCheckpoint checkpoint = new SessionStateCheckpoint(tempFolder.newFile());
+
+    Map<Short, PartitionState> state = new HashMap<>();
+    state.put((short) 0, partitionState(10, 5, 15, new FailoverLogEntry(0, 123)));
+    state.put((short) 1023, partitionState(0, 0, 0));
+    state.put((short) 7, partitionState(99, 99, 200, new FailoverLogEntry(0, 1), new FailoverLogEntry(50, 2)));
+    checkpoint.write(state);
+
+    Map<Short, PartitionState> restored = checkpoint.read();
+    assertEquals(state.keySet(), restored.keySet());
+    for (Map.Entry<Short, PartitionState> entry : state.entrySet()) {
+      PartitionState expected = entry.getValue();
+      PartitionState actual = restored.get(entry.getKey());
+      assertEquals(expected.getStartSeqno(), actual.getStartSeqno());
+      assertEquals(expected.getSnapshotStartSeqno(), actual.getSnapshotStartSeqno());
+      assertEquals(expected.getSnapshotEndSeqno(), actual.getSnapshotEndSeqno());
+      assertEquals(expected.getFailoverLog(), actual.getFailoverLog());
+    }
+  }
+
+  @Test
+  public void missingFileIsEmpty() throws Exception {
+    SessionStateCheckpoint checkpoint = new SessionStateCheckpoint(new File(tempFolder.getRoot(), "missing"));
+    assertTrue(checkpoint.read().isEmpty());
+  }
+
+  @Test(expected = IOException.class)
+  public void detectsDamage() throws Exception {
+    File file = tempFolder.newFile();
+    SessionStateCheckpoint checkpoint = new SessionStateCheckpoint(file);
+    checkpoint.write(Collections.singletonMap((short) 3, partitionState(10, 10, 10, new FailoverLogEntry(0, 42))));
+
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.seek(12);
+      raf.write(0xff);
+    }
+    checkpoint.read();
+  }
+
+  @Test
+  public void resumeKeepsSnapshotContainingSavedSeqno() throws Exception {
+    PartitionState checkpointed = partitionState(120, 100, 150, new FailoverLogEntry(0, 42));
+
+    PartitionState resumed = SessionStateCheckpoint.resumeFrom(checkpointed, 110);
+    assertEquals(110, resumed.getStartSeqno());
+    assertEquals(100, resumed.getSnapshotStartSeqno());
+    assertEquals(150, resumed.getSnapshotEndSeqno());
+    assertEquals(42, resumed.getLastUuid());
+
+    resumed = SessionStateCheckpoint.resumeFrom(checkpointed, 90);
+    assertEquals(90, resumed.getStartSeqno());
+    assertEquals(90, resumed.getSnapshotStartSeqno());
+    assertEquals(90, resumed.getSnapshotEndSeqno());
+  }
+
+  @Test
+  public void resumeRejectsStaleCheckpoint() throws Exception {
+    assertNull(SessionStateCheckpoint.resumeFrom(partitionState(100, 100, 100, new FailoverLogEntry(0, 42)), 101));
+    assertNull(SessionStateCheckpoint.resumeFrom(partitionState(100, 100, 100), 50));
+    assertNull(SessionStateCheckpoint.resumeFrom(null, 50));
+  }
+
+  @Test
+  public void resumeRejectsSeqnoOutsideCheckpointedSnapshot() throws Exception {
+    assertNull(SessionStateCheckpoint.resumeFrom(partitionState(120, 130, 150, new FailoverLogEntry(0, 42)), 110));
+    assertNull(SessionStateCheckpoint.resumeFrom(partitionState(160, 130, 150, new FailoverLogEntry(0, 42)), 110));
+  }
+
+  @Test
+  public void consistentCopyIsDetached() throws Exception {
+    PartitionState live = partitionState(120, 100, 150, new FailoverLogEntry(0, 42));
+
+    PartitionState copy = SessionStateCheckpoint.consistentCopy(live);
+    live.setStartSeqno(151);
+    live.setSnapshotStartSeqno(151);
+    live.setSnapshotEndSeqno(200);
+    live.setFailoverLog(Arrays.asList(new FailoverLogEntry(0, 42), new FailoverLogEntry(140, 43)));
+
+    assertEquals(120, copy.getStartSeqno());
+    assertEquals(100, copy.getSnapshotStartSeqno());
+    assertEquals(150, copy.getSnapshotEndSeqno());
+    assertEquals(Collections.singletonList(new FailoverLogEntry(0, 42)), copy.getFailoverLog());
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.dcp;
+
+import com.couchbase.client.dcp.message.DcpMutationMessage;
+import com.couchbase.client.dcp.message.MessageUtil;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.Unpooled;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotTest {
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static ByteBuf message(long seqno) {
+    return message(seqno, 0);
+  }
+
+  private static ByteBuf message(long seqno, int padding) {
+    ByteBuf buffer = Unpooled.buffer(MessageUtil.HEADER_SIZE + Long.BYTES + padding);
+    buffer.writeZero(MessageUtil.HEADER_SIZE);
+    buffer.writeLong(seqno);
+    buffer.writeZero(padding);
+    return buffer;
+  }
+
+  private static List<Long> seqnos(Snapshot snapshot) {
+    List<Long> result = new ArrayList<>();
+    for (ByteBuf message : snapshot) {
+      result.add(DcpMutationMessage.bySeqno(message));
+    }
+    return result;
+  }
+
+  @Test
+  public void spillsOnceBudgetIsExhausted() throws Exception {
+    final int messageSize = MessageUtil.HEADER_SIZE + Long.BYTES;
+    SnapshotBufferBudget budget = new SnapshotBufferBudget(2 * messageSize, tempFolder.getRoot());
+    Snapshot snapshot = new Snapshot((short) 0, 1, 5, budget);
+
+    for (long seqno = 1; seqno < 5; seqno++) {
+      assertFalse(snapshot.add(message(seqno)));
+    }
+    assertTrue(snapshot.add(message(5)));
+
+    assertEquals(2 * messageSize, budget.heapBytes());
+    assertEquals(1, tempFolder.getRoot().list().length);
+    assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), seqnos(snapshot));
+
+    snapshot.release();
+    assertEquals(0, budget.heapBytes());
+    assertEquals(0, tempFolder.getRoot().list().length);
+  }
+
+  @Test
+  public void spillsMessagesOfAnySize() throws Exception {
+    SnapshotBufferBudget budget = new SnapshotBufferBudget(1, tempFolder.getRoot());
+    Snapshot snapshot = new Snapshot((short) 0, 1, 300, budget);
+
+    List<Long> expected = new ArrayList<>();
+    for (long seqno = 1; seqno <= 300; seqno++) {
+      // Mostly small messages, with some larger than the spill file's buffers.
+      snapshot.add(message(seqno, seqno % 100 == 0 ? 200 * 1024 : (int) seqno * 7));
+      expected.add(seqno);
+    }
+    assertTrue(snapshot.completed());
+    assertEquals(expected, seqnos(snapshot));
+    assertEquals(expected, seqnos(snapshot));
+
+    snapshot.release();
+    assertEquals(0, tempFolder.getRoot().list().length);
+  }
+
+  @Test
+  public void unlimitedBudgetNeverSpills() throws Exception {
+    SnapshotBufferBudget budget = new SnapshotBufferBudget(0, tempFolder.getRoot());
+    Snapshot snapshot = new Snapshot((short) 0, 1, 3, budget);
+    for (long seqno = 1; seqno <= 3; seqno++) {
+      snapshot.add(message(seqno));
+    }
+    assertTrue(snapshot.completed());
+    assertEquals(0, tempFolder.getRoot().list().length);
+    snapshot.release();
+    assertEquals(0, budget.heapBytes());
+  }
+
+  @Test
+  public void poolRecyclesReleasedSnapshots() throws Exception {
+    SnapshotBufferBudget budget = new SnapshotBufferBudget(0, tempFolder.getRoot());
+    SnapshotPool pool = new SnapshotPool(budget);
+
+    Snapshot first = pool.acquire((short) 3, 1, 2);
+    first.add(message(1));
+    assertTrue(first.add(message(2)));
+    assertNotSame(first, pool.acquire((short) 3, 3, 3)); // still in use
+
+    ByteBuf buffer = first.iterator().next();
+    first.release();
+    assertEquals(0, buffer.refCnt());
+    assertEquals(0, budget.heapBytes());
+
+    Snapshot second = pool.acquire((short) 3, 10, 11);
+    assertSame(first, second);
+    assertEquals(10, second.startSeqno());
+    assertEquals(11, second.endSeqno());
+    assertFalse(second.completed());
+    assertEquals(Collections.emptyList(), seqnos(second));
+    assertTrue(second.add(message(11)));
+    assertEquals(Collections.singletonList(11L), seqnos(second));
+
+    assertNotSame(first, pool.acquire((short) 4, 1, 1)); // spares are per vBucket
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.filter;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JsonPredicateTest {
+
+  private static boolean test(String expression, String json) throws IOException {
+    return JsonPredicate.compile(expression).test(new ByteArrayInputStream(json.getBytes(UTF_8)));
+  }
+
+  @Test
+  public void equality() throws Exception {
+    String expr = "/type == \"order\" && /status != \"draft\"";
+    assertTrue(test(expr, "{\"type\":\"order\",\"status\":\"paid\"}"));
+    assertTrue(test(expr, "{\"type\":\"order\"}"));
+    assertFalse(test(expr, "{\"status\":\"paid\",\"type\":\"user\"}"));
+    assertFalse(test(expr, "{\"type\":\"order\",\"status\":\"draft\"}"));
+  }
+
+  @Test
+  public void nestedFieldsAndSkippedSubtrees() throws Exception {
+    String expr = "/address/country == \"NO\"";
+    assertTrue(test(expr, "{\"a\":{\"country\":\"SE\"},\"list\":[{\"address\":1}],\"address\":{\"zip\":[1,2],\"country\":\"NO\"}}"));
+    assertFalse(test(expr, "{\"address\":\"NO\"}"));
+    assertFalse(test(expr, "{\"address\":{\"country\":{\"code\":\"NO\"}}}"));
+  }
+
+  @Test
+  public void literals() throws Exception {
+    assertTrue(test("/n == 1", "{\"n\":1.0}"));
+    assertTrue(test("/n >= 1.5 && /n < 2e0", "{\"n\":1.5}"));
+    assertFalse(test("/n > 1", "{\"n\":\"2\"}"));
+    assertTrue(test("/s < \"b\"", "{\"s\":\"a\\\"\"}"));
+    assertTrue(test("/b == true", "{\"b\":true}"));
+    assertTrue(test("/x == null", "{\"x\":null}"));
+    assertFalse(test("/x == null", "{}"));
+    assertTrue(test("/x != null", "{}"));
+    assertTrue(test("/a~1b == 1", "{\"a/b\":1}"));
+  }
+
+  @Test
+  public void logic() throws Exception {
+    String expr = "!(/a == 1 || /b == 2) && (/c == 3)";
+    assertTrue(test(expr, "{\"a\":0,\"b\":0,\"c\":3}"));
+    assertFalse(test(expr, "{\"b\":2,\"c\":3}"));
+    assertFalse(test(expr, "{\"a\":0,\"b\":0}"));
+  }
+
+  @Test
+  public void nonObjectIsAnObjectWithNoFields() throws Exception {
+    assertTrue(test("/a != 1", "[1,2,3]"));
+    assertTrue(test("/a != 1", "\"a\""));
+  }
+
+  @Test
+  public void malformedContentNeverMatches() throws Exception {
+    assertFalse(test("/a == 1", "not json"));
+    assertFalse(test("!(/a == 1)", "not json"));
+
+    // Truncated before the field the outcome depends on.
+    final String truncated = "{\"type\":\"order\",\"status\":";
+    assertFalse(test("/status != \"draft\"", truncated));
+    assertFalse(test("/type == \"order\" && /status != \"draft\"", truncated));
+  }
+
+  @Test
+  public void stopsReadingOnceDecided() throws Exception {
+    StringBuilder json = new StringBuilder("{\"type\":\"user\",\"padding\":\"");
+    for (int i = 0; i < 100_000; i++) {
+      json.append('x');
+    }
+    json.append("\",\"status\":\"draft\"}");
+
+    CountingInputStream in = new CountingInputStream(json.toString().getBytes(UTF_8));
+    assertFalse(JsonPredicate.compile("/type == \"order\" && /status != \"draft\"").test(in));
+    assertTrue("read " + in.count + " bytes", in.count < 20_000);
+  }
+
+  @Test
+  public void rejectsMalformedExpressions() throws Exception {
+    for (String bad : new String[]{"", "type == 1", "/a = 1", "/a == ", "/a == 1 &&", "(/a == 1", "/a == \"x", "/a == foo"}) {
+      try {
+        JsonPredicate.compile(bad);
+        throw new AssertionError("expected failure for: " + bad);
+      } catch (IllegalArgumentException expected) {
+        assertTrue(expected.getMessage().startsWith("Invalid predicate expression"));
+      }
+    }
+    assertEquals("/a == 1", JsonPredicate.compile("/a == 1").toString());
+  }
+
+  private static class CountingInputStream extends InputStream {
+    private final ByteArrayInputStream delegate;
+    private long count;
+
+    CountingInputStream(byte[] bytes) {
+      this.delegate = new ByteArrayInputStream(bytes);
+    }
+
+    @Override
+    public int read() {
+      int b = delegate.read();
+      if (b != -1) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      int n = delegate.read(b, off, len);
+      if (n > 0) {
+        count += n;
+      }
+      return n;
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.filter;
+
+import com.couchbase.client.dcp.message.MessageUtil;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.Unpooled;
+import org.apache.kafka.common.config.ConfigException;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KeyFilterTest {
+
+  private static ByteBuf event(byte opcode, String key) {
+    final byte[] keyBytes = key.getBytes(UTF_8);
+    final int extrasLength = opcode == MessageUtil.DCP_MUTATION_OPCODE ? 31 : 18;
+    final byte[] value = "{}".getBytes(UTF_8);
+
+    ByteBuf message = Unpooled.buffer();
+    message.writeByte(MessageUtil.MAGIC_REQ);
+    message.writeByte(opcode);
+    message.writeShort(keyBytes.length);
+    message.writeByte(extrasLength);
+    message.writeByte(0);
+    message.writeShort(0);
+    message.writeInt(extrasLength + keyBytes.length + value.length);
+    message.writeInt(0);
+    message.writeLong(0);
+    message.writeZero(extrasLength);
+    message.writeBytes(keyBytes);
+    message.writeBytes(value);
+    return message;
+  }
+
+  private static ByteBuf mutation(String key) {
+    return event(MessageUtil.DCP_MUTATION_OPCODE, key);
+  }
+
+  private static KeyFilter filter(String... keysAndValues) {
+    Map<String, String> config = new HashMap<>();
+    for (int i = 0; i < keysAndValues.length; i += 2) {
+      config.put(keysAndValues[i], keysAndValues[i + 1]);
+    }
+    KeyFilter filter = new KeyFilter();
+    filter.configure(config);
+    return filter;
+  }
+
+  @Test
+  public void passesEverythingByDefault() throws Exception {
+    KeyFilter filter = filter();
+    assertTrue(filter.pass(mutation("foo")));
+    assertTrue(filter.pass(event(MessageUtil.DCP_DELETION_OPCODE, "foo")));
+    assertTrue(filter.pass(event(MessageUtil.DCP_EXPIRATION_OPCODE, "foo")));
+  }
+
+  @Test
+  public void selectsTypes() throws Exception {
+    KeyFilter filter = filter(KeyFilter.TYPES_CONFIG, "deletion, expiration");
+    assertFalse(filter.pass(mutation("foo")));
+    assertTrue(filter.pass(event(MessageUtil.DCP_DELETION_OPCODE, "foo")));
+  }
+
+  @Test(expected = ConfigException.class)
+  public void rejectsUnknownType() throws Exception {
+    filter(KeyFilter.TYPES_CONFIG, "mutation,bogus");
+  }
+
+  @Test
+  public void prefixes() throws Exception {
+    KeyFilter filter = filter(KeyFilter.KEY_PREFIXES_CONFIG, "user::,order::,o");
+    assertTrue(filter.pass(mutation("user::123")));
+    assertTrue(filter.pass(mutation("user::")));
+    assertTrue(filter.pass(mutation("o")));
+    assertTrue(filter.pass(mutation("oxygen")));
+    assertFalse(filter.pass(mutation("user:")));
+    assertFalse(filter.pass(mutation("")));
+    assertFalse(filter.pass(mutation("product::1")));
+  }
+
+  @Test
+  public void suffixes() throws Exception {
+    KeyFilter filter = filter(KeyFilter.KEY_SUFFIXES_CONFIG, "::meta,_tmp");
+    assertTrue(filter.pass(mutation("doc::meta")));
+    assertTrue(filter.pass(mutation("_tmp")));
+    assertFalse(filter.pass(mutation("doc::meta2")));
+    assertFalse(filter.pass(mutation("tmp")));
+  }
+
+  @Test
+  public void contains() throws Exception {
+    KeyFilter filter = filter(KeyFilter.KEY_CONTAINS_CONFIG, "needle,été");
+    assertTrue(filter.pass(mutation("needle")));
+    assertTrue(filter.pass(mutation("haystack-needle-haystack")));
+    assertTrue(filter.pass(mutation("summer-été")));
+    assertFalse(filter.pass(mutation("needl")));
+    assertFalse(filter.pass(mutation("haystack")));
+  }
+
+  @Test
+  public void regexMustMatchEntireKey() throws Exception {
+    KeyFilter filter = filter(KeyFilter.KEY_REGEX_CONFIG, "[a-z]+::\\d+");
+    assertTrue(filter.pass(mutation("user::123")));
+    assertFalse(filter.pass(mutation("user::123x")));
+  }
+
+  @Test
+  public void keyCriteriaAreAlternatives() throws Exception {
+    KeyFilter filter = filter(
+        KeyFilter.TYPES_CONFIG, "mutation",
+        KeyFilter.KEY_PREFIXES_CONFIG, "a",
+        KeyFilter.KEY_SUFFIXES_CONFIG, "z");
+    assertTrue(filter.pass(mutation("abc")));
+    assertTrue(filter.pass(mutation("xyz")));
+    assertFalse(filter.pass(mutation("xyx")));
+    assertFalse(filter.pass(event(MessageUtil.DCP_DELETION_OPCODE, "abc")));
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.handler.source;
+
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.connect.kafka.dcp.DcpEventGenerator;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class DeltaJsonSourceHandlerTest {
+  private static final String ORDER = "{\"id\":1,\"customer\":\"Alice\",\"items\":[\"a\",\"b\",\"c\"],\"status\":\"new\"}";
+
+  private final DeltaJsonSourceHandler handler = new DeltaJsonSourceHandler();
+  private long seqno;
+
+  private CouchbaseSourceRecord handle(ByteBuf event, String topic) {
+    return handler.handle(new SourceHandlerParams(DocumentEvent.create(event, "bucket", 0), topic));
+  }
+
+  private String mutation(String key, String json, String topic) {
+    seqno++;
+    final CouchbaseSourceRecord record = handle(
+        DcpEventGenerator.mutation((short) 0, seqno, key, json.getBytes(UTF_8), seqno), topic);
+    return new String((byte[]) record.value(), UTF_8);
+  }
+
+  private String mutation(String key, String json) {
+    return mutation(key, json, "orders");
+  }
+
+  @Test
+  public void publishesWholeDocumentOnCacheMiss() throws Exception {
+    assertEquals("{\"content\":" + ORDER + "}", mutation("order1", ORDER));
+  }
+
+  @Test
+  public void publishesPatchAgainstPreviousVersion() throws Exception {
+    mutation("order1", ORDER);
+    assertEquals("{\"patch\":{\"status\":\"shipped\"}}",
+        mutation("order1", ORDER.replace("\"new\"", "\"shipped\"")));
+    assertEquals("{\"patch\":{\"status\":null}}",
+        mutation("order1", ORDER.replace(",\"status\":\"new\"", "")));
+  }
+
+  @Test
+  public void publishesWholeDocumentWhenPatchCantExpressChange() throws Exception {
+    // A merge patch can't set a field to null, since null means "remove the field".
+    mutation("order1", ORDER);
+    final String withNull = ORDER.replace("\"new\"", "null");
+    assertEquals("{\"content\":" + withNull + "}", mutation("order1", withNull));
+  }
+
+  @Test
+  public void deletionEvictsDocument() throws Exception {
+    mutation("order1", ORDER);
+    seqno++;
+    final CouchbaseSourceRecord deletion = handle(DcpEventGenerator.deletion((short) 0, seqno, "order1", seqno), "orders");
+    assertNull(deletion.value());
+
+    final String recreated = ORDER.replace("\"new\"", "\"shipped\"");
+    assertEquals("{\"content\":" + recreated + "}", mutation("order1", recreated));
+  }
+
+  @Test
+  public void publishesWholeDocumentWhenRoutedToAnotherTopic() throws Exception {
+    mutation("order1", ORDER, "orders");
+    final String shipped = ORDER.replace("\"new\"", "\"shipped\"");
+    assertEquals("{\"content\":" + shipped + "}", mutation("order1", shipped, "shipped-orders"));
+    assertEquals("{\"patch\":{\"customer\":\"Bob\"}}",
+        mutation("order1", shipped.replace("Alice", "Bob"), "shipped-orders"));
+  }
+
+  @Test
+  public void honorsCacheSize() throws Exception {
+    handler.configure(Collections.singletonMap(DeltaJsonSourceHandler.CACHE_SIZE_CONFIG, "10b"));
+    mutation("order1", ORDER);
+    final String shipped = ORDER.replace("\"new\"", "\"shipped\"");
+    assertEquals("{\"content\":" + shipped + "}", mutation("order1", shipped));
+  }
+}
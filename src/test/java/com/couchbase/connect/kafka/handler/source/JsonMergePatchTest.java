@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.handler.source;
+
+import com.couchbase.client.deps.com.fasterxml.jackson.databind.JsonNode;
+import com.couchbase.client.deps.com.fasterxml.jackson.databind.ObjectMapper;
+import com.couchbase.client.deps.com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class JsonMergePatchTest {
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  private static JsonNode json(String json) throws Exception {
+    return objectMapper.readTree(json.replace('\'', '"'));
+  }
+
+  /**
+   * Applies a merge patch as specified by RFC 7396.
+   */
+  private static JsonNode apply(JsonNode target, JsonNode patch) {
+    if (!patch.isObject()) {
+      return patch;
+    }
+    final ObjectNode result = target.isObject() ? ((ObjectNode) target).deepCopy() : objectMapper.createObjectNode();
+    for (Iterator<Map.Entry<String, JsonNode>> i = patch.fields(); i.hasNext(); ) {
+      final Map.Entry<String, JsonNode> field = i.next();
+      if (field.getValue().isNull()) {
+        result.remove(field.getKey());
+      } else {
+        final JsonNode existing = result.get(field.getKey());
+        result.set(field.getKey(), apply(existing == null ? objectMapper.createObjectNode() : existing, field.getValue()));
+      }
+    }
+    return result;
+  }
+
+  private static void check(String source, String target, String expectedPatch) throws Exception {
+    final JsonNode patch = JsonMergePatch.diff(json(source), json(target));
+    assertEquals(json(expectedPatch), patch);
+    assertEquals(json(target), apply(json(source), patch));
+  }
+
+  @Test
+  public void changedFieldsOnly() throws Exception {
+    check("{'a':1,'b':'x','c':[1,2]}", "{'a':1,'b':'y','c':[1,2]}", "{'b':'y'}");
+    check("{'a':1}", "{'a':1}", "{}");
+  }
+
+  @Test
+  public void addedAndRemovedFields() throws Exception {
+    check("{'a':1,'b':2}", "{'a':1,'c':3}", "{'b':null,'c':3}");
+  }
+
+  @Test
+  public void nestedObjectsAreDiffed() throws Exception {
+    check("{'p':{'name':'x','age':1,'tags':['a']}}", "{'p':{'name':'x','age':2,'tags':['a','b']}}",
+        "{'p':{'age':2,'tags':['a','b']}}");
+    check("{'p':1}", "{'p':{'q':2}}", "{'p':{'q':2}}");
+    check("{'p':{'q':2}}", "{'p':[1]}", "{'p':[1]}");
+  }
+
+  @Test
+  public void nullValuesCannotBePatched() throws Exception {
+    assertNull(JsonMergePatch.diff(json("{'a':1}"), json("{'a':null}")));
+    assertNull(JsonMergePatch.diff(json("{}"), json("{'a':null}")));
+    assertNull(JsonMergePatch.diff(json("{'a':1}"), json("{'a':{'b':null}}")));
+    assertNull(JsonMergePatch.diff(json("{'a':{'b':1}}"), json("{'a':{'b':null}}")));
+
+    // Unchanged nulls, and nulls inside arrays, are fine
+    check("{'a':null,'b':1}", "{'a':null,'b':2}", "{'b':2}");
+    check("{'a':[1]}", "{'a':[null]}", "{'a':[null]}");
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.handler.source;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class JsonProjectionTest {
+  private static final String DOC = "{\"id\": 1, \"name\" : \"x\\\"y\", \"tags\":[1, {\"a\":2}],"
+      + " \"customer\":{\"name\":{\"first\":\"Ada\",\"middle\":\"M\"},\"age\":36.5e0}, \"empty\":{}, \"n\":null}";
+
+  private static String project(List<String> include, List<String> exclude, String json) {
+    byte[] result = new JsonProjection(include, exclude).project(json.getBytes(UTF_8));
+    return result == null ? null : new String(result, UTF_8);
+  }
+
+  private static List<String> list(String... items) {
+    return Arrays.asList(items);
+  }
+
+  @Test
+  public void include() throws Exception {
+    assertEquals("{\"id\":1,\"tags\":[1, {\"a\":2}],\"n\":null}",
+        project(list("/id", "/tags", "/n", "/missing"), list(), DOC));
+  }
+
+  @Test
+  public void includeNested() throws Exception {
+    assertEquals("{\"name\":\"x\\\"y\",\"customer\":{\"name\":{\"first\":\"Ada\"}}}",
+        project(list("/name", "/customer/name/first", "/empty/x", "/tags/a"), list(), DOC));
+  }
+
+  @Test
+  public void exclude() throws Exception {
+    assertEquals("{\"id\":1,\"name\":\"x\\\"y\",\"tags\":[1, {\"a\":2}],\"customer\":{\"name\":{\"first\":\"Ada\"}},\"empty\":{},\"n\":null}",
+        project(list(), list("/customer/name/middle", "/customer/age"), DOC));
+  }
+
+  @Test
+  public void includeThenExclude() throws Exception {
+    assertEquals("{\"customer\":{\"name\":{\"first\":\"Ada\"},\"age\":36.5e0}}",
+        project(list("/customer"), list("/customer/name/middle"), DOC));
+  }
+
+  @Test
+  public void escapedFieldNames() throws Exception {
+    assertEquals("{\"a/b\":1,\"q\\\"\":2}",
+        project(list("/a~1b", "/q\""), list(), "{\"a/b\":1,\"q\\\"\":2,\"c\":3}"));
+
+    // Field names are copied as written, escapes and all.
+    assertEquals("{\"\\u0061\":1,\"\u00e9\\\\\":2}",
+        project(list("/a", "/\u00e9\\"), list(), "{\"\\u0061\":1,\"b\":0,\"\u00e9\\\\\" : 2}"));
+  }
+
+  @Test
+  public void nonObjectsUnchanged() throws Exception {
+    assertEquals("[1,2]", project(list("/a"), list(), "[1,2]"));
+    assertEquals("\"s\"", project(list("/a"), list(), "\"s\""));
+  }
+
+  @Test
+  public void malformed() throws Exception {
+    List<String> include = Collections.singletonList("/a");
+    assertNull(project(include, list(), ""));
+    assertNull(project(include, list(), "{\"a\":1"));
+    assertNull(project(include, list(), "{\"a\":1}{}"));
+    assertNull(project(include, list(), "{\"b\":[1,}"));
+    assertNull(project(include, list(), "not json"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsWholeDocumentPointer() throws Exception {
+    new JsonProjection(list(""), list());
+  }
+}
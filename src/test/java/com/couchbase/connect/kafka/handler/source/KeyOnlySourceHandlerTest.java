@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.handler.source;
+
+import com.couchbase.client.deps.com.fasterxml.jackson.databind.ObjectMapper;
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.connect.kafka.dcp.DcpEventGenerator;
+import com.couchbase.connect.kafka.dcp.Messages;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class KeyOnlySourceHandlerTest {
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+  private static final long CAS = 0x15e0_1234_5678_9abcL;
+
+  private final KeyOnlySourceHandler handler = new KeyOnlySourceHandler();
+
+  private static DocumentEvent event(ByteBuf message) {
+    return DocumentEvent.create(message, "travel", 0xfeedL);
+  }
+
+  private static String metadataJson(String event, String extra) {
+    return "{\"bucket\":\"travel\",\"partition\":5,\"vBucketUuid\":65261,\"key\":\"airline_10\",\"cas\":" + CAS
+        + ",\"bySeqno\":42,\"revSeqno\":1,\"event\":\"" + event + "\"" + extra + "}";
+  }
+
+  private void assertRecord(String expectedValue, ByteBuf message) throws Exception {
+    final CouchbaseSourceRecord record = handler.handle(new SourceHandlerParams(event(message), "airlines"));
+    assertEquals("airline_10", record.key());
+    assertEquals(objectMapper.readTree(expectedValue), objectMapper.readTree((byte[]) record.value()));
+  }
+
+  @Test
+  public void mutationWithoutValue() throws Exception {
+    final ByteBuf mutation = DcpEventGenerator.mutation((short) 5, 42, "airline_10", "{\"name\":\"40-Mile Air\"}".getBytes(UTF_8), CAS);
+    final ByteBuf stripped = Messages.withoutValue(mutation);
+
+    final Map<String, Object> metadata = RawJsonWithMetadataSourceHandler.metadata(event(stripped));
+    assertEquals("mutation", metadata.get("event"));
+    assertEquals("airline_10", metadata.get("key"));
+    assertEquals(CAS, metadata.get("cas"));
+    assertEquals(42L, metadata.get("bySeqno"));
+    assertEquals(1L, metadata.get("revSeqno"));
+    assertFalse(metadata.containsKey("content"));
+
+    // Same metadata as the original, whose value the handler never looks at.
+    assertEquals(RawJsonWithMetadataSourceHandler.metadata(event(mutation)), metadata);
+    assertRecord(metadataJson("mutation", ",\"expiration\":0,\"flags\":0,\"lockTime\":0"), stripped);
+  }
+
+  @Test
+  public void nonJsonMutation() throws Exception {
+    assertRecord(metadataJson("mutation", ",\"expiration\":0,\"flags\":0,\"lockTime\":0"),
+        DcpEventGenerator.mutation((short) 5, 42, "airline_10", new byte[]{0, 1, 2}, CAS));
+  }
+
+  @Test
+  public void removals() throws Exception {
+    assertRecord(metadataJson("deletion", ""), DcpEventGenerator.deletion((short) 5, 42, "airline_10", CAS));
+    assertRecord(metadataJson("expiration", ""), DcpEventGenerator.expiration((short) 5, 42, "airline_10", CAS));
+  }
+
+  @Test
+  public void ignoresOtherEvents() throws Exception {
+    final ByteBuf marker = DcpEventGenerator.snapshotMarker((short) 5, 0, 42);
+    assertNull(RawJsonWithMetadataSourceHandler.metadata(event(marker)));
+    assertNull(handler.handle(new SourceHandlerParams(event(marker), "airlines")));
+  }
+}
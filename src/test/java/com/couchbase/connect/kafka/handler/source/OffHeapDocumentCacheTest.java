@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.handler.source;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapDocumentCacheTest {
+
+  private static String string(ByteBuffer buffer) {
+    final byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  @Test
+  public void storesOffHeap() throws Exception {
+    OffHeapDocumentCache cache = new OffHeapDocumentCache(100);
+    cache.put("a", "t", "hello".getBytes(UTF_8));
+    ByteBuffer value = cache.get("a", "t");
+    assertTrue(value.isDirect());
+    assertEquals("hello", string(value));
+    assertEquals("hello", string(cache.get("a", "t"))); // reading doesn't consume the cached copy
+
+    cache.put("a", "t", "hi".getBytes(UTF_8));
+    assertEquals("hi", string(cache.get("a", "t")));
+    assertEquals(5, cache.sizeBytes()); // reuses the buffer, since the new version fits
+
+    cache.put("a", "t", "longer".getBytes(UTF_8));
+    assertEquals("longer", string(cache.get("a", "t")));
+    assertEquals(6, cache.sizeBytes());
+
+    cache.remove("a");
+    assertNull(cache.get("a", "t"));
+    assertEquals(0, cache.sizeBytes());
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsed() throws Exception {
+    OffHeapDocumentCache cache = new OffHeapDocumentCache(10);
+    cache.put("a", "t", new byte[4]);
+    cache.put("b", "t", new byte[4]);
+    cache.get("a", "t");
+    cache.put("c", "t", new byte[4]);
+
+    assertNull(cache.get("b", "t"));
+    assertEquals(4, cache.get("a", "t").remaining());
+    assertEquals(4, cache.get("c", "t").remaining());
+    assertEquals(8, cache.sizeBytes());
+
+    cache.put("huge", "t", new byte[11]);
+    assertNull(cache.get("huge", "t"));
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void remembersTopic() throws Exception {
+    OffHeapDocumentCache cache = new OffHeapDocumentCache(100);
+    cache.put("a", "orders", "hello".getBytes(UTF_8));
+    assertNull(cache.get("a", "archive"));
+    assertEquals("hello", string(cache.get("a", "orders")));
+
+    cache.put("a", "archive", "hi".getBytes(UTF_8));
+    assertNull(cache.get("a", "orders"));
+    assertEquals("hi", string(cache.get("a", "archive")));
+  }
+}
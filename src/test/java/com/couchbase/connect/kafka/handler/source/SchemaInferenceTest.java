@@ -0,0 +1,96 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.handler.source;
+
+import com.couchbase.client.deps.com.fasterxml.jackson.databind.JsonNode;
+import com.couchbase.client.deps.com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.Struct;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class SchemaInferenceTest {
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  private static JsonNode json(String json) throws Exception {
+    return objectMapper.readTree(json);
+  }
+
+  @Test
+  public void sameShapeSameSchema() throws Exception {
+    SchemaInference inference = new SchemaInference(10);
+    Schema a = inference.schemaFor(json("{\"name\":\"a\",\"age\":1}"));
+    Schema b = inference.schemaFor(json("{\"name\":\"b\",\"age\":2}"));
+    Schema c = inference.schemaFor(json("{\"name\":\"c\",\"age\":2.5}"));
+    Schema d = inference.schemaFor(json("{\"age\":2,\"name\":\"d\"}"));
+    assertSame(a, b);
+    assertNotSame(a, c);
+    assertNotSame(a, d);
+    assertEquals(3, inference.cachedShapes());
+  }
+
+  @Test
+  public void fieldNamesCannotForgeShapes() throws Exception {
+    SchemaInference inference = new SchemaInference(10);
+    Schema a = inference.schemaFor(json("{\"as\":true}"));
+    Schema b = inference.schemaFor(json("{\"a\":\"x\"}"));
+    assertNotSame(a, b);
+  }
+
+  @Test
+  public void typesAndValues() throws Exception {
+    SchemaInference inference = new SchemaInference(10);
+    JsonNode doc = json("{\"s\":\"x\",\"b\":true,\"i\":12345678901,\"f\":1.5,\"big\":123456789012345678901234567890,"
+        + "\"n\":null,\"o\":{\"x\":[1,null,3]},\"mixed\":[1,\"a\",{\"b\":2}],\"empty\":[]}");
+    Schema schema = inference.schemaFor(doc);
+    Struct struct = inference.toStruct(doc, schema);
+    struct.validate();
+
+    assertEquals(Schema.Type.STRING, schema.field("s").schema().type());
+    assertEquals(Schema.Type.BOOLEAN, schema.field("b").schema().type());
+    assertEquals(Schema.Type.INT64, schema.field("i").schema().type());
+    assertEquals(Schema.Type.FLOAT64, schema.field("f").schema().type());
+    assertEquals(Schema.Type.FLOAT64, schema.field("big").schema().type());
+    assertEquals(Schema.Type.STRING, schema.field("n").schema().type());
+
+    assertEquals("x", struct.get("s"));
+    assertEquals(true, struct.get("b"));
+    assertEquals(12345678901L, struct.get("i"));
+    assertEquals(1.5, struct.get("f"));
+    assertNull(struct.get("n"));
+    assertEquals(Arrays.asList(1L, null, 3L), struct.getStruct("o").getArray("x"));
+    assertEquals(Arrays.asList("1", "\"a\"", "{\"b\":2}"), struct.getArray("mixed"));
+    assertEquals(Arrays.asList(), struct.getArray("empty"));
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsedShape() throws Exception {
+    SchemaInference inference = new SchemaInference(2);
+    Schema a = inference.schemaFor(json("{\"a\":1}"));
+    inference.schemaFor(json("{\"b\":1}"));
+    assertSame(a, inference.schemaFor(json("{\"a\":2}")));
+    inference.schemaFor(json("{\"c\":1}"));
+    assertEquals(2, inference.cachedShapes());
+    assertSame(a, inference.schemaFor(json("{\"a\":3}")));
+  }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.sink;
+
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.java.PersistTo;
+import com.couchbase.client.java.ReplicateTo;
+import com.couchbase.client.java.document.json.JsonArray;
+import com.couchbase.client.java.document.json.JsonObject;
+import com.couchbase.client.java.error.DocumentDoesNotExistException;
+import com.couchbase.client.java.error.TemporaryFailureException;
+import com.couchbase.client.java.error.subdoc.PathMismatchException;
+import com.couchbase.client.java.error.subdoc.PathNotFoundException;
+import com.couchbase.connect.kafka.util.JsonBinaryDocument;
+import rx.Completable;
+import rx.functions.Action0;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * An in-memory stand-in for a Couchbase bucket, for sink tests and benchmarks.
+ * <p>
+ * Operations can be slowed down and made to fail the way a busy cluster would:
+ * <pre>
+ * LocalKvStore store = new LocalKvStore()
+ *     .latency(200, 800, TimeUnit.MICROSECONDS)
+ *     .tmpfailRate(0.01)
+ *     .timeoutRate(0.001)
+ *     .timeout(2500, TimeUnit.MILLISECONDS);
+ * </pre>
+ * A temporary failure is reported with {@link TemporaryFailureException} after the usual latency.
+ * A timeout is reported with {@link TimeoutException} once the timeout elapses, like the
+ * client's own timeouts; the operation is not applied. Failed operations count towards
+ * {@link #operations()}, so comparing it with the number of records written shows how
+ * much work retries add.
+ * <p>
+ * Sub-document paths are dot-separated field names. Only the {@code UPSERT}, {@code ARRAY_APPEND},
+ * {@code ARRAY_PREPEND} and {@code ARRAY_ADD_UNIQUE} modes are supported.
+ * Thread-safe.
+ */
+public class LocalKvStore implements SinkStorage {
+  private final ConcurrentMap<String, String> documents = new ConcurrentHashMap<>();
+  private final Random random;
+
+  private volatile long latencyNanos;
+  private volatile long jitterNanos;
+  private volatile double tmpfailRate;
+  private volatile double timeoutRate;
+  private volatile long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(2500);
+
+  private final AtomicLong operations = new AtomicLong();
+  private final AtomicLong tmpfails = new AtomicLong();
+  private final AtomicLong timeouts = new AtomicLong();
+
+  public LocalKvStore() {
+    this(42);
+  }
+
+  /**
+   * @param seed for choosing latencies and which operations fail
+   */
+  public LocalKvStore(long seed) {
+    this.random = new Random(seed);
+  }
+
+  /**
+   * Delays every operation by the given latency plus a random amount up to the given jitter.
+   */
+  public LocalKvStore latency(long latency, long jitter, TimeUnit unit) {
+    this.latencyNanos = unit.toNanos(latency);
+    this.jitterNanos = unit.toNanos(jitter);
+    return this;
+  }
+
+  /**
+   * @param rate fraction of operations that fail with {@link TemporaryFailureException}
+   */
+  public LocalKvStore tmpfailRate(double rate) {
+    this.tmpfailRate = rate;
+    return this;
+  }
+
+  /**
+   * @param rate fraction of operations that time out
+   */
+  public LocalKvStore timeoutRate(double rate) {
+    this.timeoutRate = rate;
+    return this;
+  }
+
+  /**
+   * How long an operation that times out takes to fail.
+   */
+  public LocalKvStore timeout(long timeout, TimeUnit unit) {
+    this.timeoutNanos = unit.toNanos(timeout);
+    return this;
+  }
+
+  /**
+   * Returns the document's content, or null if there is no such document.
+   */
+  public JsonObject get(String documentId) {
+    final String json = documents.get(documentId);
+    return json == null ? null : JsonObject.fromJson(json);
+  }
+
+  public int size() {
+    return documents.size();
+  }
+
+  /**
+   * Number of operations attempted, including ones that failed.
+   */
+  public long operations() {
+    return operations.get();
+  }
+
+  public long tmpfails() {
+    return tmpfails.get();
+  }
+
+  public long timeouts() {
+    return timeouts.get();
+  }
+
+  @Override
+  public Completable upsert(final JsonBinaryDocument document, PersistTo persistTo, ReplicateTo replicateTo) {
+    return execute(() -> documents.put(document.id(), toString(document.content())));
+  }
+
+  @Override
+  public Completable remove(final String documentId, PersistTo persistTo, ReplicateTo replicateTo) {
+    return execute(() -> {
+      if (documents.remove(documentId) == null) {
+        throw new DocumentDoesNotExistException();
+      }
+    });
+  }
+
+  @Override
+  public Completable mutateIn(final String documentId, final SubDocumentMode mode, final String path, final JsonObject data,
+                              final boolean createPaths, final boolean createDocument,
+                              PersistTo persistTo, ReplicateTo replicateTo) {
+    return execute(() -> documents.compute(documentId, (id, json) -> {
+      if (json == null && !createDocument) {
+        throw new DocumentDoesNotExistException();
+      }
+      final JsonObject root = json == null ? JsonObject.create() : JsonObject.fromJson(json);
+      mutate(root, id, mode, path, data, createPaths);
+      return root.toString();
+    }));
+  }
+
+  private static void mutate(JsonObject root, String id, SubDocumentMode mode, String path, JsonObject data, boolean createPaths) {
+    final String[] names = path.split("\\.");
+    JsonObject parent = root;
+    for (int i = 0; i < names.length - 1; i++) {
+      Object child = parent.get(names[i]);
+      if (child == null && createPaths) {
+        child = JsonObject.create();
+        parent.put(names[i], child);
+      }
+      if (child == null) {
+        throw new PathNotFoundException(id, path);
+      }
+      if (!(child instanceof JsonObject)) {
+        throw new PathMismatchException(id, path);
+      }
+      parent = (JsonObject) child;
+    }
+
+    final String name = names[names.length - 1];
+    if (data == null) {
+      if (parent.removeKey(name) == null) {
+        throw new PathNotFoundException(id, path);
+      }
+      return;
+    }
+    if (mode == SubDocumentMode.UPSERT) {
+      parent.put(name, data);
+      return;
+    }
+
+    Object target = parent.get(name);
+    if (target == null && createPaths) {
+      target = JsonArray.create();
+      parent.put(name, target);
+    }
+    if (target == null) {
+      throw new PathNotFoundException(id, path);
+    }
+    if (!(target instanceof JsonArray)) {
+      throw new PathMismatchException(id, path);
+    }
+    final JsonArray array = (JsonArray) target;
+
+    switch (mode) {
+      case ARRAY_APPEND:
+        array.add(data);
+        break;
+      case ARRAY_PREPEND:
+        final JsonArray prepended = JsonArray.create().add(data);
+        for (Object element : array) {
+          prepended.add(element);
+        }
+        parent.put(name, prepended);
+        break;
+      case ARRAY_ADD_UNIQUE:
+        if (array.toList().contains(data.toMap())) {
+          throw new PathMismatchException(id, path);
+        }
+        array.add(data);
+        break;
+      default:
+        throw new UnsupportedOperationException("Unsupported sub-document mode: " + mode);
+    }
+  }
+
+  private Completable execute(final Action0 operation) {
+    return Completable.defer(() -> {
+      operations.incrementAndGet();
+      final double r = random.nextDouble();
+      if (r < timeoutRate) {
+        timeouts.incrementAndGet();
+        return Completable.timer(timeoutNanos, NANOSECONDS)
+            .andThen(Completable.error(new TimeoutException()));
+      }
+
+      final Completable result;
+      if (r < timeoutRate + tmpfailRate) {
+        tmpfails.incrementAndGet();
+        result = Completable.error(new TemporaryFailureException());
+      } else {
+        result = Completable.fromAction(operation);
+      }
+
+      final long delay = latencyNanos + (jitterNanos == 0 ? 0 : (long) (random.nextDouble() * jitterNanos));
+      return delay == 0 ? result : Completable.timer(delay, NANOSECONDS).andThen(result);
+    });
+  }
+
+  private static String toString(ByteBuf content) {
+    // Don't move the reader index; the task sends the same document again if it retries.
+    return content.toString(content.readerIndex(), content.readableBytes(), UTF_8);
+  }
+}
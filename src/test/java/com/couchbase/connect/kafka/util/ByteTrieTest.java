@@ -0,0 +1,63 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.util;
+
+import com.couchbase.client.deps.io.netty.buffer.ByteBuf;
+import com.couchbase.client.deps.io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ByteTrieTest {
+  private static final ByteBuf buf = Unpooled.copiedBuffer("xxfoo:barxx", UTF_8);
+
+  @Test
+  public void longestPrefixWins() throws Exception {
+    final ByteTrie<String> trie = ByteTrie.prefixes();
+    assertNull(trie.put("f", "short"));
+    assertNull(trie.put("foo:", "long"));
+    assertNull(trie.put("foo:bar:baz", "too long"));
+    assertEquals("short", trie.put("f", "short"));
+
+    assertEquals("long", trie.longestMatch(buf, 2, 7));
+    assertEquals("short", trie.longestMatch(buf, 2, 3));
+    assertNull(trie.longestMatch(buf, 0, 11));
+
+    trie.put("", "default");
+    assertEquals("default", trie.longestMatch(buf, 0, 11));
+  }
+
+  @Test
+  public void matchesPrefixesAndSuffixes() throws Exception {
+    final ByteTrie<Boolean> prefixes = ByteTrie.ofPrefixes(Arrays.asList("foo", "bar"));
+    assertTrue(prefixes.matches(buf, 2, 7));
+    assertTrue(prefixes.matches(buf, 6, 3));
+    assertFalse(prefixes.matches(buf, 0, 11));
+    assertFalse(prefixes.matches(buf, 2, 2));
+
+    final ByteTrie<Boolean> suffixes = ByteTrie.ofSuffixes(Arrays.asList(":bar", "fo"));
+    assertTrue(suffixes.matches(buf, 2, 7));
+    assertTrue(suffixes.matches(buf, 0, 4));
+    assertFalse(suffixes.matches(buf, 0, 11));
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.util;
+
+import com.couchbase.connect.kafka.CouchbaseSourceConnectorConfig;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs seed nodes on loopback addresses sharing one port: a live node on 127.0.0.1 serving a bucket config,
+ * a hung node on 127.0.0.2 that accepts connections but never answers, and nothing at all on 127.0.0.3.
+ */
+public class ClusterTest {
+  private static final String LIVE = "127.0.0.1";
+  private static final String HUNG = "127.0.0.2";
+  private static final String DEAD = "127.0.0.3";
+
+  private final AtomicInteger requests = new AtomicInteger();
+  private volatile int status = 200;
+  private HttpServer live;
+  private ServerSocket hung;
+  private int port;
+
+  @Before
+  public void startNodes() throws Exception {
+    final byte[] body = Resources.read("config_4_nodes.json", getClass()).getBytes(UTF_8);
+    live = HttpServer.create(new InetSocketAddress(InetAddress.getByName(LIVE), 0), 0);
+    live.createContext("/pools/default/b/", exchange -> {
+      requests.incrementAndGet();
+      exchange.sendResponseHeaders(status, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    live.start();
+    port = live.getAddress().getPort();
+    hung = new ServerSocket(port, 50, InetAddress.getByName(HUNG));
+  }
+
+  @After
+  public void stopNodes() throws Exception {
+    live.stop(0);
+    hung.close();
+  }
+
+  private static CouchbaseSourceConnectorConfig config(String nodes, String bucket, long timeoutMillis) {
+    final Map<String, String> props = new HashMap<>();
+    props.put(CouchbaseSourceConnectorConfig.CONNECTION_CLUSTER_ADDRESS_CONFIG, nodes);
+    props.put(CouchbaseSourceConnectorConfig.CONNECTION_BUCKET_CONFIG, bucket);
+    props.put(CouchbaseSourceConnectorConfig.CONNECTION_TIMEOUT_MS_CONFIG, Long.toString(timeoutMillis));
+    props.put(CouchbaseSourceConnectorConfig.TOPIC_NAME_CONFIG, "test");
+    return new CouchbaseSourceConnectorConfig(props);
+  }
+
+  private static long millisSince(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+
+  @Test
+  public void asksSeedNodesInParallel() throws Exception {
+    final long start = System.nanoTime();
+    final Config result = Cluster.refreshBucketConfig(config(HUNG + "," + DEAD + "," + LIVE, "default", 10_000), port);
+    assertNotNull(result);
+    assertEquals(4, result.numberOfNodes());
+    assertEquals(1, requests.get());
+    // Asking the hung node first and waiting for it would take the whole timeout.
+    assertTrue(millisSince(start) < 5_000);
+  }
+
+  @Test
+  public void givesUpAfterTimeout() throws Exception {
+    final long start = System.nanoTime();
+    assertNull(Cluster.refreshBucketConfig(config(HUNG, "default", 500), port));
+    final long elapsed = millisSince(start);
+    assertTrue(elapsed >= 500);
+    assertTrue(elapsed < 5_000);
+  }
+
+  @Test
+  public void givesUpWhenEveryNodeFails() throws Exception {
+    status = 500;
+    final long start = System.nanoTime();
+    assertNull(Cluster.refreshBucketConfig(config(DEAD + "," + LIVE, "default", 10_000), port));
+    assertEquals(1, requests.get());
+    // No need to wait for the timeout once every node has answered.
+    assertTrue(millisSince(start) < 5_000);
+  }
+
+  @Test
+  public void reusesRecentConfig() throws Exception {
+    final CouchbaseSourceConnectorConfig config = config(LIVE, "cached", 10_000);
+    final Config first = Cluster.fetchBucketConfig(config, port);
+    assertNotNull(first);
+    assertSame(first, Cluster.fetchBucketConfig(config, port));
+    assertEquals(1, requests.get());
+
+    // Another bucket has its own entry.
+    assertNotSame(first, Cluster.fetchBucketConfig(config(LIVE, "other", 10_000), port));
+    assertEquals(2, requests.get());
+
+    // Refreshing skips the cache, and updates it.
+    final Config refreshed = Cluster.refreshBucketConfig(config, port);
+    assertNotSame(first, refreshed);
+    assertEquals(3, requests.get());
+    live.stop(0);
+    assertSame(refreshed, Cluster.fetchBucketConfig(config, port));
+  }
+}
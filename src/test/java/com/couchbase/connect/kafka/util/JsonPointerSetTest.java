@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class JsonPointerSetTest {
+  private static final JsonFactory jsonFactory = new JsonFactory();
+
+  private static List<String> scan(JsonPointerSet pointers, String json, String stopAt) throws Exception {
+    final List<String> found = new ArrayList<>();
+    try (JsonParser parser = jsonFactory.createParser(json)) {
+      final String result = pointers.scan(parser, found, (state, index, p, token) -> {
+        final String text = token.isScalarValue() ? p.getText() : token.name();
+        state.add(index + "=" + text);
+        return text.equals(stopAt) ? text : null;
+      });
+      if (result != null) {
+        found.add("stopped");
+      }
+    }
+    return found;
+  }
+
+  @Test
+  public void indexesDistinctPointers() throws Exception {
+    final JsonPointerSet pointers = new JsonPointerSet();
+    assertEquals(0, pointers.add("/a/b"));
+    assertEquals(1, pointers.add("/a"));
+    assertEquals(0, pointers.add(Arrays.asList("a", "b")));
+    assertEquals(2, pointers.add("/x~1y"));
+    assertEquals(3, pointers.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsWholeDocument() throws Exception {
+    new JsonPointerSet().add("");
+  }
+
+  @Test
+  public void findsValuesAndSkipsTheRest() throws Exception {
+    final JsonPointerSet pointers = new JsonPointerSet();
+    pointers.add("/a/b");
+    pointers.add("/a");
+    pointers.add("/x~1y");
+
+    assertEquals(Arrays.asList("1=START_OBJECT", "0=2", "2=3"),
+        scan(pointers, "{\"c\":{\"b\":1},\"a\":{\"c\":[{\"b\":0}],\"b\":2},\"x/y\":3}", null));
+    assertEquals(Arrays.asList("1=START_OBJECT", "0=2", "stopped"),
+        scan(pointers, "{\"a\":{\"b\":2},\"x/y\":3}", "2"));
+    assertEquals(Arrays.asList(), scan(pointers, "[{\"a\":1}]", null));
+  }
+
+  @Test
+  public void emptyDocumentHasNoValues() throws Exception {
+    assertNull(new JsonPointerSet().scan(jsonFactory.createParser(""), null, (state, index, p, token) -> "x"));
+  }
+}
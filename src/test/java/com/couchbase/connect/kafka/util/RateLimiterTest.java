@@ -0,0 +1,57 @@
+/*
+ * Copyright 2019 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.connect.kafka.util;
+
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RateLimiterTest {
+  private long now;
+
+  @Test
+  public void allowsBurstThenPacesToLimit() throws Exception {
+    final RateLimiter limiter = new RateLimiter(100, 0, () -> now);
+    assertEquals(0, limiter.reserve(100, 1_000_000));
+    assertEquals(MILLISECONDS.toNanos(10), limiter.reserve(1, 0));
+    assertEquals(MILLISECONDS.toNanos(20), limiter.reserve(1, 0));
+
+    now += MILLISECONDS.toNanos(20);
+    assertEquals(0, limiter.delayNanos());
+
+    // Idle time refills at most one second's worth.
+    now += MILLISECONDS.toNanos(5000);
+    assertEquals(0, limiter.reserve(100, 0));
+    assertEquals(MILLISECONDS.toNanos(10), limiter.reserve(1, 0));
+  }
+
+  @Test
+  public void waitsForSlowestLimit() throws Exception {
+    final RateLimiter limiter = new RateLimiter(1000, 1000, () -> now);
+    assertEquals(MILLISECONDS.toNanos(500), limiter.reserve(1, 1500));
+    assertEquals(MILLISECONDS.toNanos(1000), limiter.reserve(1999, 0));
+  }
+
+  @Test
+  public void sharesLimitAmongTasks() throws Exception {
+    assertNull(RateLimiter.forTask(0, 0, 0.5));
+    final RateLimiter limiter = RateLimiter.forTask(0, 1000, 0.25);
+    assertEquals(MILLISECONDS.toNanos(1000), limiter.reserve(1_000_000, 500));
+  }
+}